@@ -7,13 +7,16 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.plugin.PluginCallback;
 import org.briarproject.bramble.api.properties.TransportProperties;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
 
 import javax.annotation.concurrent.Immutable;
 
 import static org.briarproject.bramble.api.plugin.file.RemovableDriveConstants.PROP_URI;
+import static org.briarproject.bramble.plugin.file.BlockOutputStream.BLOCK_SIZE;
 import static org.briarproject.bramble.util.StringUtils.isNullOrEmpty;
 
 @Immutable
@@ -32,13 +35,20 @@ class AndroidRemovableDrivePlugin extends RemovableDrivePlugin {
 	InputStream openInputStream(TransportProperties p) throws IOException {
 		String uri = p.get(PROP_URI);
 		if (isNullOrEmpty(uri)) throw new IllegalArgumentException();
-		return app.getContentResolver().openInputStream(Uri.parse(uri));
+		InputStream in = app.getContentResolver().openInputStream(
+				Uri.parse(uri));
+		if (in == null) throw new IOException();
+		// Content URIs can't be mapped into memory, so read large blocks
+		return new BufferedInputStream(in, BLOCK_SIZE);
 	}
 
 	@Override
 	OutputStream openOutputStream(TransportProperties p) throws IOException {
 		String uri = p.get(PROP_URI);
 		if (isNullOrEmpty(uri)) throw new IllegalArgumentException();
-		return app.getContentResolver().openOutputStream(Uri.parse(uri));
+		OutputStream out = app.getContentResolver().openOutputStream(
+				Uri.parse(uri));
+		if (out == null) throw new IOException();
+		return new BlockOutputStream(Channels.newChannel(out));
 	}
 }
@@ -10,4 +10,6 @@ public interface FeatureFlags {
 	boolean shouldEnableProfilePictures();
 
 	boolean shouldEnableDisappearingMessages();
+
+	boolean shouldStoreMessageBodiesInFiles();
 }
@@ -0,0 +1,37 @@
+package org.briarproject.bramble.api.cleanup.event;
+
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event that is broadcast when a batch of messages has been deleted by
+ * the {@link org.briarproject.bramble.api.cleanup.CleanupManager}.
+ */
+@Immutable
+@NotNullByDefault
+public class CleanupProgressEvent extends Event {
+
+	private final int messagesDeleted, backlog;
+
+	public CleanupProgressEvent(int messagesDeleted, int backlog) {
+		this.messagesDeleted = messagesDeleted;
+		this.backlog = backlog;
+	}
+
+	/**
+	 * Returns the number of messages deleted in the batch.
+	 */
+	public int getMessagesDeleted() {
+		return messagesDeleted;
+	}
+
+	/**
+	 * Returns the number of messages that were still due for deletion when
+	 * the batch finished.
+	 */
+	public int getBacklog() {
+		return backlog;
+	}
+}
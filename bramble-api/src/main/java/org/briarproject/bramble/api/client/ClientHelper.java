@@ -46,12 +46,25 @@ public interface ClientHelper {
 	BdfList getMessageAsList(Transaction txn, MessageId m) throws DbException,
 			FormatException;
 
+	/**
+	 * Returns the bodies of the messages with the given IDs, parsed as BDF
+	 * lists. Only the first {@code maxElements} elements of each list are
+	 * decoded, which is useful for reading a field near the start of many
+	 * messages.
+	 */
+	Map<MessageId, BdfList> getMessagesAsLists(Transaction txn,
+			Collection<MessageId> m, int maxElements)
+			throws DbException, FormatException;
+
 	BdfDictionary getGroupMetadataAsDictionary(GroupId g) throws DbException,
 			FormatException;
 
 	BdfDictionary getGroupMetadataAsDictionary(Transaction txn, GroupId g)
 			throws DbException, FormatException;
 
+	Map<GroupId, BdfDictionary> getGroupMetadataAsDictionary(Transaction txn,
+			Collection<GroupId> g) throws DbException, FormatException;
+
 	Collection<MessageId> getMessageIds(Transaction txn, GroupId g,
 			BdfDictionary query) throws DbException, FormatException;
 
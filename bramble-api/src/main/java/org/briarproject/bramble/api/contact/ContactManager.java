@@ -16,6 +16,7 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
 import java.security.GeneralSecurityException;
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.Nullable;
 
@@ -127,6 +128,28 @@ public interface ContactManager {
 			throws DbException, FormatException, GeneralSecurityException,
 			ContactExistsException, PendingContactExistsException;
 
+	/**
+	 * Creates a {@link PendingContact} from each of the given pairs of
+	 * handshake links and aliases, adds them to the database in a single
+	 * transaction and returns them in the same order. If any of the pending
+	 * contacts can't be added then none of them are added.
+	 *
+	 * @throws UnsupportedVersionException If any link uses a format version
+	 * that is not supported
+	 * @throws FormatException If any link is invalid
+	 * @throws GeneralSecurityException If any pending contact's handshake
+	 * public key is invalid
+	 * @throws ContactExistsException If a contact with the same handshake
+	 * public key as any of the pending contacts already exists
+	 * @throws PendingContactExistsException If a pending contact with the same
+	 * handshake public key as any of the pending contacts already exists, or
+	 * if two of the links have the same handshake public key
+	 */
+	List<PendingContact> addPendingContacts(
+			Collection<Pair<String, String>> linksAndAliases)
+			throws DbException, FormatException, GeneralSecurityException,
+			ContactExistsException, PendingContactExistsException;
+
 	/**
 	 * Returns the pending contact with the given ID.
 	 */
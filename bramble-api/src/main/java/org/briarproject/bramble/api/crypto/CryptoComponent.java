@@ -154,6 +154,22 @@ public interface CryptoComponent {
 			@Nullable KeyStrengthener keyStrengthener)
 			throws DecryptionException;
 
+	/**
+	 * Encrypts and authenticates the given plaintext with the given key so it
+	 * can be written to storage.
+	 */
+	byte[] encryptWithKey(byte[] plaintext, SecretKey key);
+
+	/**
+	 * Decrypts and authenticates the given ciphertext that has been read from
+	 * storage, using the key that was used to encrypt it.
+	 *
+	 * @throws DecryptionException If the ciphertext cannot be decrypted and
+	 * authenticated.
+	 */
+	byte[] decryptWithKey(byte[] ciphertext, SecretKey key)
+			throws DecryptionException;
+
 	/**
 	 * Returns true if the given ciphertext was encrypted using a strengthened
 	 * key. The validity of the ciphertext is not checked.
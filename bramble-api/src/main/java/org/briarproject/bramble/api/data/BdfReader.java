@@ -54,6 +54,13 @@ public interface BdfReader {
 
 	BdfList readList() throws IOException;
 
+	/**
+	 * Reads a list, returning at most the given number of elements from the
+	 * start of the list. Any further elements are skipped without being
+	 * decoded.
+	 */
+	BdfList readListPrefix(int maxElements) throws IOException;
+
 	void readListStart() throws IOException;
 
 	boolean hasListEnd() throws IOException;
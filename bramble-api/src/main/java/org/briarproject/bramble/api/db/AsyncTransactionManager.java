@@ -0,0 +1,45 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.bramble.api.Consumer;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Runs transactions on the {@link DatabaseExecutor}, so that callers on
+ * other threads don't have to wait for the database lock.
+ * <p/>
+ * This is meant for callers that run on other threads and need the result
+ * of a transaction, such as the headless controllers. Code that already
+ * runs on the {@link DatabaseExecutor}, such as the outgoing sync sessions
+ * and the validation manager, doesn't need it. Short writes that don't
+ * return a result, such as the records received by incoming sync sessions,
+ * should use {@link TransactionManager#queueGroupTransaction} instead.
+ * <p/>
+ * Transactions that haven't started when the {@link LifecycleManager} stops
+ * are cancelled.
+ */
+@NotNullByDefault
+public interface AsyncTransactionManager {
+
+	/**
+	 * Runs the given task within a transaction on the
+	 * {@link DatabaseExecutor} and returns a {@link Future} for the result
+	 * of the task.
+	 */
+	<R, E extends Exception> Future<R> transactionAsync(boolean readOnly,
+			DbCallable<R, E> task);
+
+	/**
+	 * Runs the given task within a transaction on the
+	 * {@link DatabaseExecutor}, then passes the result of the task to the
+	 * given result handler, or any exception thrown by the task to the given
+	 * exception handler. The handler is called on the given executor, and
+	 * isn't called if the transaction is cancelled.
+	 */
+	<R, E extends Exception> Future<R> transactionAsync(boolean readOnly,
+			DbCallable<R, E> task, Executor executor,
+			Consumer<R> resultHandler, Consumer<Exception> exceptionHandler);
+}
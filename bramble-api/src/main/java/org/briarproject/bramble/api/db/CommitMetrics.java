@@ -0,0 +1,16 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+/**
+ * Keeps track of the write transactions committed since startup.
+ */
+@NotNullByDefault
+public interface CommitMetrics {
+
+	/**
+	 * Returns statistics about the write transactions committed since
+	 * startup.
+	 */
+	CommitStats getCommitStats();
+}
@@ -0,0 +1,62 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Statistics about the write transactions committed to the database.
+ */
+@Immutable
+@NotNullByDefault
+public class CommitStats {
+
+	private final long commits, transactions, durationMs;
+
+	public CommitStats(long commits, long transactions, long durationMs) {
+		this.commits = commits;
+		this.transactions = transactions;
+		this.durationMs = durationMs;
+	}
+
+	/**
+	 * Returns the number of times the database has been committed. A group
+	 * of transactions committed together counts as a single commit.
+	 */
+	public long getCommits() {
+		return commits;
+	}
+
+	/**
+	 * Returns the total number of write transactions committed.
+	 */
+	public long getTransactions() {
+		return transactions;
+	}
+
+	/**
+	 * Returns the time in milliseconds over which the statistics were
+	 * collected.
+	 */
+	public long getDurationMs() {
+		return durationMs;
+	}
+
+	/**
+	 * Returns the average number of commits per second, or 0 if no time
+	 * has elapsed.
+	 */
+	public double getCommitsPerSecond() {
+		if (durationMs == 0) return 0;
+		return commits * 1000.0 / durationMs;
+	}
+
+	/**
+	 * Returns the average number of transactions per commit, or 0 if there
+	 * have been no commits.
+	 */
+	public double getTransactionsPerCommit() {
+		if (commits == 0) return 0;
+		return (double) transactions / commits;
+	}
+}
@@ -15,6 +15,7 @@ import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.settings.Settings;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.ClientPriority;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.Group.Visibility;
 import org.briarproject.bramble.api.sync.GroupId;
@@ -23,6 +24,7 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Sketch;
 import org.briarproject.bramble.api.sync.validation.MessageState;
 import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.TransportKeySet;
@@ -118,6 +120,17 @@ public interface DatabaseComponent extends TransactionManager {
 	KeySetId addTransportKeys(Transaction txn, PendingContactId p,
 			TransportKeys k) throws DbException;
 
+	/**
+	 * Performs a slice of online compaction, either rewriting roughly the
+	 * given number of bytes of sparsely used storage or moving storage so
+	 * that free space can be released from the database files, and returns
+	 * true if there may be more storage to compact.
+	 * <p/>
+	 * This must be called within a write transaction, so that no other
+	 * transactions are open while storage is moved.
+	 */
+	boolean compactDatabase(Transaction txn, int maxBytes) throws DbException;
+
 	/**
 	 * Returns true if there are any acks or messages to send to the given
 	 * contact over a transport with the given maximum latency.
@@ -172,6 +185,13 @@ public interface DatabaseComponent extends TransactionManager {
 	boolean containsTransportKeys(Transaction txn, ContactId c, TransportId t)
 			throws DbException;
 
+	/**
+	 * Returns the number of messages that are due for deletion.
+	 * <p/>
+	 * Read-only.
+	 */
+	int countMessagesToDelete(Transaction txn) throws DbException;
+
 	/**
 	 * Deletes the message with the given ID. Unlike
 	 * {@link #removeMessage(Transaction, MessageId)}, the message ID,
@@ -202,6 +222,18 @@ public interface DatabaseComponent extends TransactionManager {
 	Collection<Message> generateBatch(Transaction txn, ContactId c,
 			int maxLength, long maxLatency) throws DbException;
 
+	/**
+	 * Returns a batch of messages belonging to clients with the given
+	 * priority for the given contact, with a total length less than or equal
+	 * to the given length, for transmission over a transport with the given
+	 * maximum latency. Returns null if there are no sendable messages with
+	 * the given priority that fit in the given length.
+	 */
+	@Nullable
+	Collection<Message> generateBatch(Transaction txn, ContactId c,
+			int maxLength, long maxLatency, ClientPriority p)
+			throws DbException;
+
 	/**
 	 * Returns a batch of messages for the given contact containing the
 	 * messages with the given IDs, for transmission over a transport with
@@ -223,6 +255,16 @@ public interface DatabaseComponent extends TransactionManager {
 	Offer generateOffer(Transaction txn, ContactId c, int maxMessages,
 			long maxLatency) throws DbException;
 
+	/**
+	 * Returns an offer of messages belonging to clients with the given
+	 * priority for the given contact, for transmission over a transport with
+	 * the given maximum latency, or null if there are no messages with the
+	 * given priority to offer.
+	 */
+	@Nullable
+	Offer generateOffer(Transaction txn, ContactId c, int maxMessages,
+			long maxLatency, ClientPriority p) throws DbException;
+
 	/**
 	 * Returns a request for the given contact, or null if there are no
 	 * messages to request.
@@ -242,6 +284,39 @@ public interface DatabaseComponent extends TransactionManager {
 	Collection<Message> generateRequestedBatch(Transaction txn, ContactId c,
 			int maxLength, long maxLatency) throws DbException;
 
+	/**
+	 * Returns a batch of requested messages belonging to clients with the
+	 * given priority for the given contact, with a total length less than or
+	 * equal to the given length, for transmission over a transport with the
+	 * given maximum latency. Returns null if there are no sendable requested
+	 * messages with the given priority that fit in the given length.
+	 */
+	@Nullable
+	Collection<Message> generateRequestedBatch(Transaction txn, ContactId c,
+			int maxLength, long maxLatency, ClientPriority p)
+			throws DbException;
+
+	/**
+	 * Returns a sketch of the shared messages in the given group that are
+	 * visible to the given contact, or null if the group is not shared with
+	 * the contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	@Nullable
+	Sketch generateSketch(Transaction txn, ContactId c, GroupId g)
+			throws DbException;
+
+	/**
+	 * Returns a sketch for each group shared with the given contact that has
+	 * at least the given number of messages waiting to be offered to the
+	 * contact.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<Sketch> generateSketches(Transaction txn, ContactId c,
+			int minMessages) throws DbException;
+
 	/**
 	 * Returns the contact with the given ID.
 	 * <p/>
@@ -286,6 +361,15 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	Metadata getGroupMetadata(Transaction txn, GroupId g) throws DbException;
 
+	/**
+	 * Returns the metadata for the given groups. This is more efficient than
+	 * calling {@link #getGroupMetadata(Transaction, GroupId)} for each group.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<GroupId, Metadata> getGroupMetadata(Transaction txn,
+			Collection<GroupId> g) throws DbException;
+
 	/**
 	 * Returns all groups belonging to the given client.
 	 * <p/>
@@ -326,6 +410,18 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	Message getMessage(Transaction txn, MessageId m) throws DbException;
 
+	/**
+	 * Returns the messages with the given IDs. This is more efficient than
+	 * calling {@link #getMessage(Transaction, MessageId)} for each message.
+	 * <p/>
+	 * Read-only.
+	 *
+	 * @throws MessageDeletedException if any of the messages has been
+	 * deleted
+	 */
+	Map<MessageId, Message> getMessages(Transaction txn,
+			Collection<MessageId> m) throws DbException;
+
 	/**
 	 * Returns the IDs of all delivered messages in the given group.
 	 * <p/>
@@ -379,6 +475,16 @@ public interface DatabaseComponent extends TransactionManager {
 	Map<GroupId, Collection<MessageId>> getMessagesToDelete(Transaction txn)
 			throws DbException;
 
+	/**
+	 * Returns the IDs of up to the given number of messages that are due
+	 * for deletion, along with their group IDs. Messages with the earliest
+	 * cleanup deadlines are returned first.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<GroupId, Collection<MessageId>> getMessagesToDelete(Transaction txn,
+			int maxMessages) throws DbException;
+
 	/**
 	 * Returns the metadata for all delivered messages in the given group.
 	 * <p/>
@@ -523,6 +629,13 @@ public interface DatabaseComponent extends TransactionManager {
 	 */
 	Settings getSettings(Transaction txn, String namespace) throws DbException;
 
+	/**
+	 * Returns statistics about the space used by the database on disk.
+	 * <p/>
+	 * Read-only.
+	 */
+	StorageStats getStorageStats(Transaction txn) throws DbException;
+
 	/**
 	 * Returns the versions of the sync protocol supported by the given contact.
 	 * <p/>
@@ -597,6 +710,14 @@ public interface DatabaseComponent extends TransactionManager {
 	void receiveRequest(Transaction txn, ContactId c, Request r)
 			throws DbException;
 
+	/**
+	 * Processes a sketch from the given contact. Messages held by both the
+	 * contact and the local peer are marked as seen by the contact, and
+	 * messages held only by the contact are marked to be requested.
+	 */
+	void receiveSketch(Transaction txn, ContactId c, Sketch s)
+			throws DbException;
+
 	/**
 	 * Removes a contact (and all associated state) from the database.
 	 */
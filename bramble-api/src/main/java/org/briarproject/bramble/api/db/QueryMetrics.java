@@ -0,0 +1,48 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the latency of each low-level database method, and logs calls
+ * that take longer than a configurable threshold. Recording is disabled by
+ * default, in which case it has almost no overhead.
+ */
+@NotNullByDefault
+public interface QueryMetrics {
+
+	boolean isEnabled();
+
+	/**
+	 * Enables or disables recording. Statistics that have already been
+	 * recorded are kept until {@link #reset()} is called.
+	 */
+	void setEnabled(boolean enabled);
+
+	/**
+	 * Returns the threshold in milliseconds above which calls are added to
+	 * the slow query log.
+	 */
+	long getSlowQueryThresholdMs();
+
+	void setSlowQueryThresholdMs(long thresholdMs);
+
+	/**
+	 * Returns statistics for each method that has been called while
+	 * recording was enabled, keyed by the method's signature.
+	 */
+	Map<String, QueryStats> getQueryStats();
+
+	/**
+	 * Returns the most recent calls that took longer than the slow query
+	 * threshold, oldest first.
+	 */
+	List<SlowQuery> getSlowQueries();
+
+	/**
+	 * Discards all recorded statistics and slow queries.
+	 */
+	void reset();
+}
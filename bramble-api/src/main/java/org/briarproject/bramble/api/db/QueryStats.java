@@ -0,0 +1,103 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Statistics about the calls to a low-level database method.
+ * <p/>
+ * Latencies are recorded in a histogram with exponentially sized buckets.
+ * Bucket 0 counts calls that took less than one microsecond, bucket i
+ * counts calls that took at least 2^(i-1) and less than 2^i microseconds,
+ * and the last bucket counts all longer calls.
+ */
+@Immutable
+@NotNullByDefault
+public class QueryStats {
+
+	/**
+	 * The number of buckets in the latency histogram. The last bucket
+	 * counts calls that took more than about four seconds.
+	 */
+	public static final int HISTOGRAM_BUCKETS = 24;
+
+	private final long calls, rows, totalMicros, maxMicros;
+	private final long[] histogram;
+
+	public QueryStats(long calls, long rows, long totalMicros,
+			long maxMicros, long[] histogram) {
+		if (histogram.length != HISTOGRAM_BUCKETS)
+			throw new IllegalArgumentException();
+		this.calls = calls;
+		this.rows = rows;
+		this.totalMicros = totalMicros;
+		this.maxMicros = maxMicros;
+		this.histogram = histogram.clone();
+	}
+
+	public long getCalls() {
+		return calls;
+	}
+
+	/**
+	 * Returns the total number of rows returned by the calls.
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	public long getTotalMicros() {
+		return totalMicros;
+	}
+
+	public long getMaxMicros() {
+		return maxMicros;
+	}
+
+	/**
+	 * Returns the mean latency in microseconds, or 0 if there have been no
+	 * calls.
+	 */
+	public double getMeanMicros() {
+		if (calls == 0) return 0;
+		return (double) totalMicros / calls;
+	}
+
+	/**
+	 * Returns the number of calls counted by each bucket of the latency
+	 * histogram.
+	 */
+	public long[] getHistogram() {
+		return histogram.clone();
+	}
+
+	/**
+	 * Returns an upper bound on the given percentile of the latency in
+	 * microseconds, or 0 if there have been no calls.
+	 *
+	 * @param percentile A number between 0 and 100.
+	 */
+	public long getPercentileMicros(double percentile) {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException();
+		if (calls == 0) return 0;
+		double target = calls * percentile / 100;
+		long counted = 0;
+		for (int i = 0; i < HISTOGRAM_BUCKETS - 1; i++) {
+			counted += histogram[i];
+			if (counted >= target) return Math.min(1L << i, maxMicros);
+		}
+		return maxMicros;
+	}
+
+	/**
+	 * Returns the index of the histogram bucket that counts calls with the
+	 * given latency in microseconds.
+	 */
+	public static int getBucket(long micros) {
+		if (micros <= 0) return 0;
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+	}
+}
@@ -0,0 +1,51 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A call to a low-level database method that took longer than the
+ * {@link QueryMetrics#getSlowQueryThresholdMs() slow query threshold}.
+ */
+@Immutable
+@NotNullByDefault
+public class SlowQuery {
+
+	private final String method;
+	private final long timestamp, durationMs;
+	private final int rows;
+
+	public SlowQuery(String method, long timestamp, long durationMs,
+			int rows) {
+		this.method = method;
+		this.timestamp = timestamp;
+		this.durationMs = durationMs;
+		this.rows = rows;
+	}
+
+	/**
+	 * Returns the signature of the method that was called.
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * Returns the time at which the call returned.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public long getDurationMs() {
+		return durationMs;
+	}
+
+	/**
+	 * Returns the number of rows returned by the call.
+	 */
+	public int getRows() {
+		return rows;
+	}
+}
@@ -0,0 +1,44 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Statistics about the space used by the database on disk.
+ */
+@Immutable
+@NotNullByDefault
+public class StorageStats {
+
+	private final long fileBytes, freeBytes;
+
+	public StorageStats(long fileBytes, long freeBytes) {
+		this.fileBytes = fileBytes;
+		this.freeBytes = freeBytes;
+	}
+
+	/**
+	 * Returns the total size of the database files in bytes.
+	 */
+	public long getFileBytes() {
+		return fileBytes;
+	}
+
+	/**
+	 * Returns the number of bytes within the database files that don't hold
+	 * any live data and could be reclaimed by compaction.
+	 */
+	public long getFreeBytes() {
+		return freeBytes;
+	}
+
+	/**
+	 * Returns the fraction of the database files that doesn't hold any live
+	 * data, or 0 if the files are empty.
+	 */
+	public double getFreeFraction() {
+		if (fileBytes == 0) return 0;
+		return (double) freeBytes / fileBytes;
+	}
+}
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.api.db;
 
+import org.briarproject.bramble.api.Consumer;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
 import javax.annotation.Nullable;
@@ -36,6 +37,36 @@ public interface TransactionManager {
 	<E extends Exception> void transaction(boolean readOnly,
 			DbRunnable<E> task) throws DbException, E;
 
+	/**
+	 * Runs the given task within a write transaction that may be committed
+	 * together with the write transactions of other threads that are
+	 * waiting to start at the same time, saving the cost of committing each
+	 * transaction separately.
+	 * <p/>
+	 * The task may be run on another thread, so it should only make short,
+	 * self-contained changes to the database. If the task throws an
+	 * exception, its changes are undone without affecting the other
+	 * transactions in the group. Any events or tasks attached to the
+	 * transaction are released after the group has been committed.
+	 */
+	<E extends Exception> void groupTransaction(DbRunnable<E> task)
+			throws DbException, E;
+
+	/**
+	 * Queues the given task to run within a write transaction on the
+	 * {@link DatabaseExecutor} and returns immediately. Tasks that are
+	 * queued while the executor is busy are run in the order they were
+	 * queued and committed together, along with any tasks passed to
+	 * {@link #groupTransaction(DbRunnable)} at the same time.
+	 * <p/>
+	 * If the task throws an exception, its changes are undone without
+	 * affecting the other transactions in the group, and the exception is
+	 * passed to the given handler. Any events or tasks attached to the
+	 * transaction are released after the group has been committed.
+	 */
+	<E extends Exception> void queueGroupTransaction(DbRunnable<E> task,
+			Consumer<Exception> exceptionHandler);
+
 	/**
 	 * Runs the given task within a transaction and returns the result of the
 	 * task.
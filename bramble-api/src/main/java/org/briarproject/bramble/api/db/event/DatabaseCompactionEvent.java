@@ -0,0 +1,39 @@
+package org.briarproject.bramble.api.db.event;
+
+import org.briarproject.bramble.api.db.StorageStats;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event that is broadcast when a slice of online database compaction has
+ * been performed.
+ */
+@Immutable
+@NotNullByDefault
+public class DatabaseCompactionEvent extends Event {
+
+	private final StorageStats stats;
+	private final boolean finished;
+
+	public DatabaseCompactionEvent(StorageStats stats, boolean finished) {
+		this.stats = stats;
+		this.finished = finished;
+	}
+
+	/**
+	 * Returns the space used by the database after the slice.
+	 */
+	public StorageStats getStorageStats() {
+		return stats;
+	}
+
+	/**
+	 * Returns true if there's nothing left to compact, or false if more
+	 * slices will follow.
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+}
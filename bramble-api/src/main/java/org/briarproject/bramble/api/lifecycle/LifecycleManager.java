@@ -8,6 +8,8 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.system.Wakeful;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -53,11 +55,22 @@ public interface LifecycleManager {
 	void registerOpenDatabaseHook(OpenDatabaseHook hook);
 
 	/**
-	 * Registers a {@link Service} to be started and stopped. This method
+	 * Registers a {@link Service} to be started and stopped. The service
+	 * will be started after all services registered before it. This method
 	 * should be called before {@link #startServices(SecretKey)}.
 	 */
 	void registerService(Service s);
 
+	/**
+	 * Registers a {@link Service} to be started and stopped. The service
+	 * will be started after the given services, which must also be
+	 * registered, and after any services registered before it by
+	 * {@link #registerService(Service)}. It may be started concurrently with
+	 * any other services. This method should be called before
+	 * {@link #startServices(SecretKey)}.
+	 */
+	void registerService(Service s, Collection<Service> dependencies);
+
 	/**
 	 * Registers an {@link ExecutorService} to be shut down. This method
 	 * should be called before {@link #startServices(SecretKey)}.
@@ -106,10 +119,18 @@ public interface LifecycleManager {
 	 */
 	LifecycleState getLifecycleState();
 
+	/**
+	 * Returns the phases of the most recent call to
+	 * {@link #startServices(SecretKey)} that have finished, in the order
+	 * they finished.
+	 */
+	List<StartupPhase> getStartupTimeline();
+
 	interface OpenDatabaseHook {
 		/**
 		 * Called when the database is being opened, before
-		 * {@link #waitForDatabase()} returns.
+		 * {@link #waitForDatabase()} returns. The hooks share a single
+		 * transaction, so they're called one after another.
 		 *
 		 * @param txn A read-write transaction
 		 */
@@ -0,0 +1,48 @@
+package org.briarproject.bramble.api.lifecycle;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A phase of starting the app, such as opening the database or starting a
+ * {@link Service}. Returned by {@link LifecycleManager#getStartupTimeline()}.
+ */
+@Immutable
+@NotNullByDefault
+public class StartupPhase {
+
+	private final String name;
+	private final long startTime, duration;
+
+	public StartupPhase(String name, long startTime, long duration) {
+		this.name = name;
+		this.startTime = startTime;
+		this.duration = duration;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the time when the phase started, in milliseconds since
+	 * startup began.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Returns the duration of the phase in milliseconds.
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": started at " + startTime + " ms, took "
+				+ duration + " ms";
+	}
+}
@@ -0,0 +1,17 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+/**
+ * Keeps track of the acks sent to each contact since startup.
+ */
+@NotNullByDefault
+public interface AckMetrics {
+
+	/**
+	 * Returns statistics about the acks sent to the given contact since
+	 * startup.
+	 */
+	AckStats getAckStats(ContactId c);
+}
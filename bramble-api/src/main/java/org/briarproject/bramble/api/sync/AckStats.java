@@ -0,0 +1,41 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Statistics about the acks sent to a contact.
+ */
+@Immutable
+@NotNullByDefault
+public class AckStats {
+
+	private final long acksSent, messageIdsSent;
+
+	public AckStats(long acksSent, long messageIdsSent) {
+		this.acksSent = acksSent;
+		this.messageIdsSent = messageIdsSent;
+	}
+
+	public long getAcksSent() {
+		return acksSent;
+	}
+
+	/**
+	 * Returns the total number of message IDs in the acks sent to the
+	 * contact.
+	 */
+	public long getMessageIdsSent() {
+		return messageIdsSent;
+	}
+
+	/**
+	 * Returns the average number of message IDs per ack, or 0 if no acks
+	 * have been sent.
+	 */
+	public double getMessageIdsPerAck() {
+		if (acksSent == 0) return 0;
+		return (double) messageIdsSent / acksSent;
+	}
+}
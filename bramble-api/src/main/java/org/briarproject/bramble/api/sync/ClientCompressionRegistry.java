@@ -0,0 +1,27 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+@NotNullByDefault
+public interface ClientCompressionRegistry {
+
+	/**
+	 * Declares that the given client's messages may be sent to contacts in
+	 * {@link RecordTypes#COMPRESSED_BATCH compressed batches}. Messages from
+	 * different groups are never compressed together, but compressing a
+	 * group's messages together allows an observer who can add messages to
+	 * the group to learn about the contents of the group's other messages
+	 * from the lengths of the compressed records. Clients should therefore
+	 * only register if every member of a group can read all the group's
+	 * messages, such as forums and blogs.
+	 * <p/>
+	 * Clients that don't register have their messages sent uncompressed.
+	 */
+	void registerCompressibleClient(ClientId c);
+
+	/**
+	 * Returns true if the given client's messages may be sent to contacts
+	 * in compressed batches.
+	 */
+	boolean isCompressibleClient(ClientId c);
+}
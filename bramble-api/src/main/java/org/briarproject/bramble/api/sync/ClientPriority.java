@@ -0,0 +1,24 @@
+package org.briarproject.bramble.api.sync;
+
+/**
+ * The priority of a client's messages when sending them to contacts.
+ * Messages belonging to high-priority clients are sent before messages
+ * belonging to low-priority clients, but low-priority messages are still
+ * sent periodically while high-priority messages are waiting, so they can't
+ * be starved.
+ */
+public enum ClientPriority {
+
+	/**
+	 * Used for clients whose messages are sent and read interactively, such
+	 * as private messages, or that other clients depend on, such as transport
+	 * properties and client versioning. This is the default priority.
+	 */
+	HIGH,
+
+	/**
+	 * Used for clients that may accumulate large backlogs of messages, such
+	 * as forums, blogs and feeds.
+	 */
+	LOW
+}
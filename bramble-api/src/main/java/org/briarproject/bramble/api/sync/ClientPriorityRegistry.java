@@ -0,0 +1,27 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.Collection;
+
+@NotNullByDefault
+public interface ClientPriorityRegistry {
+
+	/**
+	 * Declares the priority of the given client's messages when sending them
+	 * to contacts. Clients that don't declare a priority have
+	 * {@link ClientPriority#HIGH high} priority.
+	 */
+	void setClientPriority(ClientId c, ClientPriority p);
+
+	/**
+	 * Returns the priority of the given client's messages.
+	 */
+	ClientPriority getClientPriority(ClientId c);
+
+	/**
+	 * Returns the clients that have declared
+	 * {@link ClientPriority#LOW low} priority.
+	 */
+	Collection<ClientId> getLowPriorityClients();
+}
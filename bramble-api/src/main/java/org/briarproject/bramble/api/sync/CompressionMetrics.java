@@ -0,0 +1,18 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+/**
+ * Keeps track of the compressed batches exchanged with each contact since
+ * startup.
+ */
+@NotNullByDefault
+public interface CompressionMetrics {
+
+	/**
+	 * Returns statistics about the compressed batches exchanged with the
+	 * given contact since startup.
+	 */
+	CompressionStats getCompressionStats(ContactId c);
+}
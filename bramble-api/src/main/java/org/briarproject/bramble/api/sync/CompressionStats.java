@@ -0,0 +1,69 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Statistics about the compressed batches exchanged with a contact.
+ */
+@Immutable
+@NotNullByDefault
+public class CompressionStats {
+
+	private final long uncompressedBytesSent, compressedBytesSent;
+	private final long compressionTimeNanos;
+	private final long uncompressedBytesReceived, compressedBytesReceived;
+	private final long decompressionTimeNanos;
+
+	public CompressionStats(long uncompressedBytesSent,
+			long compressedBytesSent, long compressionTimeNanos,
+			long uncompressedBytesReceived, long compressedBytesReceived,
+			long decompressionTimeNanos) {
+		this.uncompressedBytesSent = uncompressedBytesSent;
+		this.compressedBytesSent = compressedBytesSent;
+		this.compressionTimeNanos = compressionTimeNanos;
+		this.uncompressedBytesReceived = uncompressedBytesReceived;
+		this.compressedBytesReceived = compressedBytesReceived;
+		this.decompressionTimeNanos = decompressionTimeNanos;
+	}
+
+	public long getUncompressedBytesSent() {
+		return uncompressedBytesSent;
+	}
+
+	public long getCompressedBytesSent() {
+		return compressedBytesSent;
+	}
+
+	/**
+	 * Returns the time spent compressing batches sent to the contact.
+	 */
+	public long getCompressionTimeNanos() {
+		return compressionTimeNanos;
+	}
+
+	public long getUncompressedBytesReceived() {
+		return uncompressedBytesReceived;
+	}
+
+	public long getCompressedBytesReceived() {
+		return compressedBytesReceived;
+	}
+
+	/**
+	 * Returns the time spent decompressing batches received from the contact.
+	 */
+	public long getDecompressionTimeNanos() {
+		return decompressionTimeNanos;
+	}
+
+	/**
+	 * Returns the ratio of compressed to uncompressed bytes sent to the
+	 * contact, or 1 if no compressed batches have been sent.
+	 */
+	public double getCompressionRatio() {
+		if (uncompressedBytesSent == 0) return 1;
+		return (double) compressedBytesSent / uncompressedBytesSent;
+	}
+}
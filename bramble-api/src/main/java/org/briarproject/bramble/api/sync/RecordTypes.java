@@ -11,4 +11,6 @@ public interface RecordTypes {
 	byte REQUEST = 3;
 	byte VERSIONS = 4;
 	byte PRIORITY = 5;
+	byte SKETCH = 6;
+	byte COMPRESSED_BATCH = 7;
 }
@@ -0,0 +1,42 @@
+package org.briarproject.bramble.api.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+import static org.briarproject.bramble.api.sync.SyncConstants.SKETCH_TABLE_LENGTH;
+
+/**
+ * A record summarising the shared messages in a group that are visible to
+ * the recipient. The recipient subtracts its own summary of the group to
+ * find the messages held by only one of the peers, so the messages held by
+ * both peers don't need to be offered and acked individually.
+ * <p/>
+ * The summary is an invertible Bloom lookup table of
+ * {@link SyncConstants#SKETCH_CELL_LENGTH fixed-length} cells.
+ */
+@Immutable
+@NotNullByDefault
+public class Sketch {
+
+	private final GroupId groupId;
+	private final byte[] table;
+
+	public Sketch(GroupId groupId, byte[] table) {
+		if (table.length != SKETCH_TABLE_LENGTH)
+			throw new IllegalArgumentException();
+		this.groupId = groupId;
+		this.table = table;
+	}
+
+	public GroupId getGroupId() {
+		return groupId;
+	}
+
+	/**
+	 * Returns the encoded cells of the lookup table.
+	 */
+	public byte[] getTable() {
+		return table;
+	}
+}
@@ -4,7 +4,7 @@ import org.briarproject.bramble.api.UniqueId;
 
 import java.util.List;
 
-import static java.util.Collections.singletonList;
+import static java.util.Arrays.asList;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
 
@@ -15,10 +15,28 @@ public interface SyncConstants {
 	 */
 	byte PROTOCOL_VERSION = 0;
 
+	/**
+	 * The version of the sync protocol that adds {@link RecordTypes#SKETCH
+	 * sketch} records for set reconciliation. Sketch records carry
+	 * {@link #PROTOCOL_VERSION} in their headers, so older peers ignore them,
+	 * but they're only sent to contacts that have advertised support for this
+	 * version.
+	 */
+	byte SET_RECONCILIATION_VERSION = 1;
+
+	/**
+	 * The version of the sync protocol that adds
+	 * {@link RecordTypes#COMPRESSED_BATCH compressed batch} records. Like
+	 * sketches, compressed batches are only sent to contacts that have
+	 * advertised support for this version.
+	 */
+	byte COMPRESSED_BATCH_VERSION = 2;
+
 	/**
 	 * The versions of the sync protocol this peer supports.
 	 */
-	List<Byte> SUPPORTED_VERSIONS = singletonList(PROTOCOL_VERSION);
+	List<Byte> SUPPORTED_VERSIONS = asList(PROTOCOL_VERSION,
+			SET_RECONCILIATION_VERSION, COMPRESSED_BATCH_VERSION);
 
 	/**
 	 * The maximum length of a group descriptor in bytes.
@@ -57,6 +75,38 @@ public interface SyncConstants {
 	 */
 	int PRIORITY_NONCE_BYTES = 16;
 
+	/**
+	 * The number of cells in each of the three partitions of a
+	 * {@link Sketch}.
+	 */
+	int SKETCH_PARTITION_CELLS = 128;
+
+	/**
+	 * The length of a {@link Sketch} cell in bytes: a signed 32-bit count,
+	 * the XOR of the IDs mapped to the cell, and the XOR of their 64-bit
+	 * checksums.
+	 */
+	int SKETCH_CELL_LENGTH = 4 + UniqueId.LENGTH + 8;
+
+	/**
+	 * The length of the cell table of a {@link Sketch} in bytes.
+	 */
+	int SKETCH_TABLE_LENGTH = 3 * SKETCH_PARTITION_CELLS * SKETCH_CELL_LENGTH;
+
+	/**
+	 * The minimum number of messages in a group that must be waiting to be
+	 * offered to a contact before a {@link Sketch} is sent instead of
+	 * offering the messages individually.
+	 */
+	int MIN_MESSAGES_FOR_SKETCH = 512;
+
+	/**
+	 * The maximum length of the contents of a compressed batch record before
+	 * compression, in bytes. Each message in the batch is preceded by its
+	 * length as a 16-bit integer.
+	 */
+	int MAX_COMPRESSED_BATCH_LENGTH = 4 * MAX_RECORD_PAYLOAD_BYTES;
+
 	/**
 	 * The maximum allowed latency for any transport, in milliseconds.
 	 */
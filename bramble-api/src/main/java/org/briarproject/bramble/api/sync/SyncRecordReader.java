@@ -3,6 +3,7 @@ package org.briarproject.bramble.api.sync;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
 import java.io.IOException;
+import java.util.List;
 
 @NotNullByDefault
 public interface SyncRecordReader {
@@ -32,4 +33,12 @@ public interface SyncRecordReader {
 	boolean hasPriority() throws IOException;
 
 	Priority readPriority() throws IOException;
+
+	boolean hasSketch() throws IOException;
+
+	Sketch readSketch() throws IOException;
+
+	boolean hasCompressedBatch() throws IOException;
+
+	List<Message> readCompressedBatch() throws IOException;
 }
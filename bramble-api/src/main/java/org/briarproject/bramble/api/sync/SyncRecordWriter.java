@@ -3,6 +3,7 @@ package org.briarproject.bramble.api.sync;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
 import java.io.IOException;
+import java.util.Collection;
 
 @NotNullByDefault
 public interface SyncRecordWriter {
@@ -19,5 +20,19 @@ public interface SyncRecordWriter {
 
 	void writePriority(Priority p) throws IOException;
 
+	void writeSketch(Sketch s) throws IOException;
+
+	/**
+	 * Writes the given messages, compressing the messages that belong to the
+	 * given groups. Each compressed batch record only contains messages from
+	 * a single group, and messages from other groups are written as message
+	 * records. This method should only be used if the contact supports
+	 * {@link SyncConstants#COMPRESSED_BATCH_VERSION}.
+	 *
+	 * @see ClientCompressionRegistry
+	 */
+	void writeBatch(Collection<Message> batch,
+			Collection<GroupId> compressibleGroups) throws IOException;
+
 	void flush() throws IOException;
 }
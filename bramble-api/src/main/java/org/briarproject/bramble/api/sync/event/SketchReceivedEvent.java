@@ -0,0 +1,33 @@
+package org.briarproject.bramble.api.sync.event;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.GroupId;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An event that is broadcast when a sketch of a group's messages has been
+ * received from a contact and reconciled with the local set of messages.
+ */
+@Immutable
+@NotNullByDefault
+public class SketchReceivedEvent extends Event {
+
+	private final ContactId contactId;
+	private final GroupId groupId;
+
+	public SketchReceivedEvent(ContactId contactId, GroupId groupId) {
+		this.contactId = contactId;
+		this.groupId = groupId;
+	}
+
+	public ContactId getContactId() {
+		return contactId;
+	}
+
+	public GroupId getGroupId() {
+		return groupId;
+	}
+}
@@ -12,6 +12,18 @@ public interface StreamWriterFactory {
 	 */
 	StreamWriter createStreamWriter(OutputStream out, StreamContext ctx);
 
+	/**
+	 * Creates a {@link StreamWriter} for writing to a transport stream,
+	 * encrypting each frame on the crypto executor while the previous frame
+	 * is written to the stream. The output is the same as that of
+	 * {@link #createStreamWriter(OutputStream, StreamContext)}.
+	 * <p/>
+	 * This is suitable for transports where encryption rather than the
+	 * underlying stream limits throughput.
+	 */
+	StreamWriter createPipelinedStreamWriter(OutputStream out,
+			StreamContext ctx);
+
 	/**
 	 * Creates a {@link StreamWriter} for writing to a contact exchange stream.
 	 */
@@ -123,4 +123,18 @@ public class IoUtils {
 		File[] children = f.listFiles();
 		return children != null && children.length > 0;
 	}
+
+	/**
+	 * Returns the size of the given file, or the total size of the files
+	 * in the given directory and its subdirectories.
+	 */
+	public static long getFileOrDirSize(File f) {
+		if (f.isFile()) return f.length();
+		long size = 0;
+		File[] children = f.listFiles();
+		if (children != null) {
+			for (File child : children) size += getFileOrDirSize(child);
+		}
+		return size;
+	}
 }
@@ -0,0 +1,86 @@
+package org.briarproject.bramble;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.lang.Math.min;
+
+/**
+ * Runs a fixed number of numbered tasks on the calling thread and an
+ * {@link Executor}, and waits for them to finish.
+ */
+@NotNullByDefault
+public class ParallelTasks {
+
+	public interface IndexedTask {
+
+		void run(int index);
+	}
+
+	/**
+	 * Runs the given task once for each index from zero to
+	 * {@code count - 1}, using the calling thread and up to
+	 * {@code maxThreads - 1} threads of the given executor, and returns when
+	 * all the indices have been handled.
+	 * <p/>
+	 * The calling thread handles any indices that the executor hasn't
+	 * started, so the indices are handled even if the executor is busy,
+	 * shutting down or rejects the work.
+	 * <p/>
+	 * If the task throws an exception or error for any index, the task isn't
+	 * run for any more indices, and the first exception or error is thrown
+	 * on the calling thread once the running tasks have finished.
+	 */
+	public static void runAll(Executor executor, int count, int maxThreads,
+			IndexedTask task) {
+		if (count == 0) return;
+		AtomicInteger nextIndex = new AtomicInteger(0);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		CountDownLatch finished = new CountDownLatch(count);
+		Runnable worker = () -> {
+			int i;
+			while ((i = nextIndex.getAndIncrement()) < count) {
+				try {
+					// Skip the remaining indices if a task has failed
+					if (failure.get() == null) task.run(i);
+				} catch (Throwable t) {
+					failure.compareAndSet(null, t);
+				} finally {
+					finished.countDown();
+				}
+			}
+		};
+		int threads = min(count, maxThreads);
+		for (int i = 1; i < threads; i++) {
+			try {
+				executor.execute(worker);
+			} catch (RejectedExecutionException e) {
+				// The calling thread will handle the remaining indices
+				break;
+			}
+		}
+		worker.run();
+		awaitUninterruptibly(finished);
+		Throwable t = failure.get();
+		if (t instanceof RuntimeException) throw (RuntimeException) t;
+		if (t instanceof Error) throw (Error) t;
+		if (t != null) throw new RuntimeException(t);
+	}
+
+	private static void awaitUninterruptibly(CountDownLatch latch) {
+		boolean interrupted = false;
+		while (latch.getCount() > 0) {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+}
@@ -2,6 +2,7 @@ package org.briarproject.bramble.cleanup;
 
 import org.briarproject.bramble.api.cleanup.CleanupHook;
 import org.briarproject.bramble.api.cleanup.CleanupManager;
+import org.briarproject.bramble.api.cleanup.event.CleanupProgressEvent;
 import org.briarproject.bramble.api.cleanup.event.CleanupTimerStartedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
@@ -47,6 +48,18 @@ class CleanupManagerImpl implements CleanupManager, Service, EventListener {
 	private static final Logger LOG =
 			getLogger(CleanupManagerImpl.class.getName());
 
+	/**
+	 * The maximum number of messages to delete in a single transaction.
+	 */
+	static final int MAX_MESSAGES_PER_BATCH = 100;
+
+	/**
+	 * If a batch has taken longer than this many milliseconds, any
+	 * remaining groups are left for the next batch so the transaction
+	 * doesn't hold the write lock for too long.
+	 */
+	static final long MAX_BATCH_DURATION_MS = 500;
+
 	private final Executor dbExecutor;
 	private final DatabaseComponent db;
 	private final TaskScheduler taskScheduler;
@@ -111,41 +124,82 @@ class CleanupManagerImpl implements CleanupManager, Service, EventListener {
 				dbExecutor, delay, MILLISECONDS);
 	}
 
+	/**
+	 * Schedules the next batch to run as soon as possible. The batch is
+	 * submitted to the back of the database executor's queue, so any other
+	 * tasks that are waiting for the database can run between batches.
+	 */
+	private void scheduleNextBatch() {
+		synchronized (lock) {
+			CleanupTask task = new CleanupTask(clock.currentTimeMillis());
+			pending.add(task);
+			dbExecutor.execute(() -> deleteMessagesAndScheduleNextTask(task));
+		}
+	}
+
 	private void deleteMessagesAndScheduleNextTask(CleanupTask task) {
 		try {
 			synchronized (lock) {
 				pending.remove(task);
 			}
-			long deadline = db.transactionWithResult(false, txn -> {
-				deleteMessages(txn);
-				return db.getNextCleanupDeadline(txn);
-			});
-			if (deadline != NO_CLEANUP_DEADLINE) {
-				maybeScheduleTask(deadline);
+			BatchResult result =
+					db.transactionWithResult(false, this::deleteBatch);
+			if (result.backlog > 0) {
+				scheduleNextBatch();
+			} else if (result.nextDeadline != NO_CLEANUP_DEADLINE) {
+				maybeScheduleTask(result.nextDeadline);
 			}
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 		}
 	}
 
-	private void deleteMessages(Transaction txn) throws DbException {
-		Map<GroupId, Collection<MessageId>> ids = db.getMessagesToDelete(txn);
+	private BatchResult deleteBatch(Transaction txn) throws DbException {
+		long start = clock.currentTimeMillis();
+		Map<GroupId, Collection<MessageId>> ids =
+				db.getMessagesToDelete(txn, MAX_MESSAGES_PER_BATCH);
+		int found = 0, deleted = 0;
+		for (Collection<MessageId> messageIds : ids.values()) {
+			found += messageIds.size();
+		}
 		for (Entry<GroupId, Collection<MessageId>> e : ids.entrySet()) {
-			GroupId groupId = e.getKey();
-			Collection<MessageId> messageIds = e.getValue();
-			if (LOG.isLoggable(INFO)) {
-				LOG.info(messageIds.size() + " messages to delete");
+			// Delete at least one group per batch to ensure progress
+			if (deleted > 0 &&
+					clock.currentTimeMillis() - start >= MAX_BATCH_DURATION_MS) {
+				break;
 			}
-			for (MessageId m : messageIds) db.stopCleanupTimer(txn, m);
-			Group group = db.getGroup(txn, groupId);
-			ClientMajorVersion cv = new ClientMajorVersion(group.getClientId(),
-					group.getMajorVersion());
-			CleanupHook hook = hooks.get(cv);
-			if (hook == null) {
-				throw new IllegalStateException("No cleanup hook for " + cv);
+			deleteMessages(txn, e.getKey(), e.getValue());
+			deleted += e.getValue().size();
+		}
+		// If the batch was full or ran out of time there may be more
+		// messages to delete
+		int backlog = 0;
+		if (deleted < found || found == MAX_MESSAGES_PER_BATCH) {
+			backlog = db.countMessagesToDelete(txn);
+		}
+		if (deleted > 0) {
+			if (LOG.isLoggable(INFO)) {
+				long duration = clock.currentTimeMillis() - start;
+				LOG.info("Deleted " + deleted + " messages in " + duration
+						+ " ms, " + backlog + " remaining");
 			}
-			hook.deleteMessages(txn, groupId, messageIds);
+			txn.attach(new CleanupProgressEvent(deleted, backlog));
+		}
+		if (backlog > 0) return new BatchResult(backlog, NO_CLEANUP_DEADLINE);
+		return new BatchResult(0, db.getNextCleanupDeadline(txn));
+	}
+
+	private void deleteMessages(Transaction txn, GroupId groupId,
+			Collection<MessageId> messageIds) throws DbException {
+		for (MessageId m : messageIds) db.stopCleanupTimer(txn, m);
+		Group group = db.getGroup(txn, groupId);
+		ClientMajorVersion cv = new ClientMajorVersion(group.getClientId(),
+				group.getMajorVersion());
+		CleanupHook hook = hooks.get(cv);
+		if (hook == null) {
+			throw new IllegalStateException("No cleanup hook for " + cv);
 		}
+		hook.deleteMessages(txn, groupId, messageIds);
 	}
 
 	private static class CleanupTask {
@@ -156,4 +210,15 @@ class CleanupManagerImpl implements CleanupManager, Service, EventListener {
 			this.deadline = deadline;
 		}
 	}
+
+	private static class BatchResult {
+
+		private final int backlog;
+		private final long nextDeadline;
+
+		private BatchResult(int backlog, long nextDeadline) {
+			this.backlog = backlog;
+			this.nextDeadline = nextDeadline;
+		}
+	}
 }
@@ -141,6 +141,18 @@ class ClientHelperImpl implements ClientHelper {
 		return toList(db.getMessage(txn, m).getBody());
 	}
 
+	@Override
+	public Map<MessageId, BdfList> getMessagesAsLists(Transaction txn,
+			Collection<MessageId> m, int maxElements)
+			throws DbException, FormatException {
+		Map<MessageId, BdfList> lists = new HashMap<>();
+		for (Message message : db.getMessages(txn, m).values()) {
+			lists.put(message.getId(),
+					toListPrefix(message.getBody(), maxElements));
+		}
+		return lists;
+	}
+
 	@Override
 	public BdfDictionary getGroupMetadataAsDictionary(GroupId g)
 			throws DbException, FormatException {
@@ -155,6 +167,17 @@ class ClientHelperImpl implements ClientHelper {
 		return metadataParser.parse(metadata);
 	}
 
+	@Override
+	public Map<GroupId, BdfDictionary> getGroupMetadataAsDictionary(
+			Transaction txn, Collection<GroupId> g)
+			throws DbException, FormatException {
+		Map<GroupId, Metadata> raw = db.getGroupMetadata(txn, g);
+		Map<GroupId, BdfDictionary> parsed = new HashMap<>(raw.size());
+		for (Entry<GroupId, Metadata> e : raw.entrySet())
+			parsed.put(e.getKey(), metadataParser.parse(e.getValue()));
+		return parsed;
+	}
+
 	@Override
 	public Collection<MessageId> getMessageIds(Transaction txn, GroupId g,
 			BdfDictionary query) throws DbException, FormatException {
@@ -309,6 +332,21 @@ class ClientHelperImpl implements ClientHelper {
 		}
 	}
 
+	private BdfList toListPrefix(byte[] b, int maxElements)
+			throws FormatException {
+		ByteArrayInputStream in = new ByteArrayInputStream(b);
+		BdfReader reader = bdfReaderFactory.createReader(in);
+		try {
+			BdfList list = reader.readListPrefix(maxElements);
+			if (!reader.eof()) throw new FormatException();
+			return list;
+		} catch (FormatException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	@Override
 	public BdfList toList(byte[] b) throws FormatException {
 		return toList(b, 0, b.length);
@@ -68,8 +68,12 @@ class OutgoingSimplexSyncConnection extends SyncConnection implements Runnable {
 
 	private SyncSession createSimplexOutgoingSession(StreamContext ctx,
 			TransportConnectionWriter w) throws IOException {
-		StreamWriter streamWriter = streamWriterFactory.createStreamWriter(
-				w.getOutputStream(), ctx);
+		// Simplex sessions write as much as possible without waiting for
+		// the recipient, so encrypt frames while the previous frame is
+		// being written
+		StreamWriter streamWriter =
+				streamWriterFactory.createPipelinedStreamWriter(
+						w.getOutputStream(), ctx);
 		ContactId c = requireNonNull(ctx.getContactId());
 		// Use eager retransmission if the transport is lossy and cheap
 		return syncSessionFactory.createSimplexOutgoingSession(c,
@@ -145,6 +145,31 @@ class ContactManagerImpl implements ContactManager, EventListener {
 		return p;
 	}
 
+	@Override
+	public List<PendingContact> addPendingContacts(
+			Collection<Pair<String, String>> linksAndAliases)
+			throws DbException, FormatException, GeneralSecurityException {
+		List<PendingContact> pending = new ArrayList<>(linksAndAliases.size());
+		for (Pair<String, String> linkAndAlias : linksAndAliases) {
+			pending.add(pendingContactFactory.createPendingContact(
+					linkAndAlias.getFirst(), linkAndAlias.getSecond()));
+		}
+		Transaction txn = db.startTransaction(false);
+		try {
+			AuthorId local = identityManager.getLocalAuthor(txn).getId();
+			KeyPair ourKeyPair = identityManager.getHandshakeKeys(txn);
+			for (PendingContact p : pending) {
+				db.addPendingContact(txn, p, local);
+				keyManager.addPendingContact(txn, p.getId(), p.getPublicKey(),
+						ourKeyPair);
+			}
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+		return pending;
+	}
+
 	@Override
 	public PendingContact getPendingContact(Transaction txn, PendingContactId p)
 			throws DbException {
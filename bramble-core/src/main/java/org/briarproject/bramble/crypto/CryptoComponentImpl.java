@@ -61,6 +61,8 @@ class CryptoComponentImpl implements CryptoComponent {
 	private static final int PBKDF_SALT_BYTES = 32; // 256 bits
 	private static final byte PBKDF_FORMAT_SCRYPT = 0;
 	private static final byte PBKDF_FORMAT_SCRYPT_STRENGTHENED = 1;
+	private static final byte PBKDF_FORMAT_SCRYPT_PARALLEL = 2;
+	private static final byte PBKDF_FORMAT_SCRYPT_PARALLEL_STRENGTHENED = 3;
 	private static final byte ONION_HS_PROTOCOL_VERSION = 3;
 	private static final int ONION_CHECKSUM_BYTES = 2;
 
@@ -330,22 +332,34 @@ class CryptoComponentImpl implements CryptoComponent {
 		byte[] salt = new byte[PBKDF_SALT_BYTES];
 		secureRandom.nextBytes(salt);
 		// Calibrate the KDF
-		int cost = passwordBasedKdf.chooseCostParameter();
+		int parallelization = passwordBasedKdf.chooseParallelizationParameter();
+		int cost = passwordBasedKdf.chooseCostParameter(parallelization);
 		// Derive the encryption key from the password
-		SecretKey key = passwordBasedKdf.deriveKey(password, salt, cost);
+		SecretKey key = passwordBasedKdf.deriveKey(password, salt, cost,
+				parallelization);
 		if (keyStrengthener != null) key = keyStrengthener.strengthenKey(key);
 		// Generate a random IV
 		byte[] iv = new byte[STORAGE_IV_BYTES];
 		secureRandom.nextBytes(iv);
-		// The output contains the format version, salt, cost parameter, IV,
-		// ciphertext and MAC
-		int outputLen = 1 + salt.length + INT_32_BYTES + iv.length
-				+ input.length + macBytes;
+		// The output contains the format version, salt, cost parameter,
+		// parallelization parameter (if not 1), IV, ciphertext and MAC.
+		// If the parallelization parameter is 1 we use the original format,
+		// which can be read by older versions
+		boolean parallel = parallelization > 1;
+		int outputLen = 1 + salt.length + INT_32_BYTES + (parallel ? 1 : 0)
+				+ iv.length + input.length + macBytes;
 		byte[] output = new byte[outputLen];
 		int outputOff = 0;
 		// Format version
-		byte formatVersion = keyStrengthener == null
-				? PBKDF_FORMAT_SCRYPT : PBKDF_FORMAT_SCRYPT_STRENGTHENED;
+		byte formatVersion;
+		if (parallel) {
+			formatVersion = keyStrengthener == null
+					? PBKDF_FORMAT_SCRYPT_PARALLEL
+					: PBKDF_FORMAT_SCRYPT_PARALLEL_STRENGTHENED;
+		} else {
+			formatVersion = keyStrengthener == null
+					? PBKDF_FORMAT_SCRYPT : PBKDF_FORMAT_SCRYPT_STRENGTHENED;
+		}
 		output[outputOff] = formatVersion;
 		outputOff++;
 		// Salt
@@ -354,6 +368,12 @@ class CryptoComponentImpl implements CryptoComponent {
 		// Cost parameter
 		ByteUtils.writeUint32(cost, output, outputOff);
 		outputOff += INT_32_BYTES;
+		// Parallelization parameter
+		if (parallel) {
+			if (parallelization > 255) throw new IllegalStateException();
+			output[outputOff] = (byte) parallelization;
+			outputOff++;
+		}
 		// IV
 		arraycopy(iv, 0, output, outputOff, iv.length);
 		outputOff += iv.length;
@@ -373,8 +393,8 @@ class CryptoComponentImpl implements CryptoComponent {
 			throws DecryptionException {
 		AuthenticatedCipher cipher = new XSalsa20Poly1305AuthenticatedCipher();
 		int macBytes = cipher.getMacBytes();
-		// The input contains the format version, salt, cost parameter, IV,
-		// ciphertext and MAC
+		// The input contains the format version, salt, cost parameter,
+		// parallelization parameter (if not 1), IV, ciphertext and MAC
 		if (input.length < 1 + PBKDF_SALT_BYTES + INT_32_BYTES
 				+ STORAGE_IV_BYTES + macBytes) {
 			throw new DecryptionException(INVALID_CIPHERTEXT);
@@ -384,8 +404,18 @@ class CryptoComponentImpl implements CryptoComponent {
 		byte formatVersion = input[inputOff];
 		inputOff++;
 		// Check whether we support this format version
-		if (formatVersion != PBKDF_FORMAT_SCRYPT &&
-				formatVersion != PBKDF_FORMAT_SCRYPT_STRENGTHENED) {
+		boolean parallel;
+		if (formatVersion == PBKDF_FORMAT_SCRYPT ||
+				formatVersion == PBKDF_FORMAT_SCRYPT_STRENGTHENED) {
+			parallel = false;
+		} else if (formatVersion == PBKDF_FORMAT_SCRYPT_PARALLEL ||
+				formatVersion == PBKDF_FORMAT_SCRYPT_PARALLEL_STRENGTHENED) {
+			parallel = true;
+			if (input.length < 1 + PBKDF_SALT_BYTES + INT_32_BYTES + 1
+					+ STORAGE_IV_BYTES + macBytes) {
+				throw new DecryptionException(INVALID_CIPHERTEXT);
+			}
+		} else {
 			throw new DecryptionException(INVALID_CIPHERTEXT);
 		}
 		// Salt
@@ -398,13 +428,23 @@ class CryptoComponentImpl implements CryptoComponent {
 		if (cost < 2 || cost > Integer.MAX_VALUE) {
 			throw new DecryptionException(INVALID_CIPHERTEXT);
 		}
+		// Parallelization parameter
+		int parallelization = 1;
+		if (parallel) {
+			parallelization = input[inputOff] & 0xFF;
+			inputOff++;
+			if (parallelization < 2) {
+				throw new DecryptionException(INVALID_CIPHERTEXT);
+			}
+		}
 		// IV
 		byte[] iv = new byte[STORAGE_IV_BYTES];
 		arraycopy(input, inputOff, iv, 0, iv.length);
 		inputOff += iv.length;
 		// Derive the decryption key from the password
-		SecretKey key = passwordBasedKdf.deriveKey(password, salt, (int) cost);
-		if (formatVersion == PBKDF_FORMAT_SCRYPT_STRENGTHENED) {
+		SecretKey key = passwordBasedKdf.deriveKey(password, salt, (int) cost,
+				parallelization);
+		if (isStrengthened(formatVersion)) {
 			if (keyStrengthener == null || !keyStrengthener.isInitialised()) {
 				// Can't derive the same strengthened key
 				throw new DecryptionException(KEY_STRENGTHENER_ERROR);
@@ -428,10 +468,59 @@ class CryptoComponentImpl implements CryptoComponent {
 		}
 	}
 
+	@Override
+	public byte[] encryptWithKey(byte[] input, SecretKey key) {
+		AuthenticatedCipher cipher = new XSalsa20Poly1305AuthenticatedCipher();
+		// Generate a random IV
+		byte[] iv = new byte[STORAGE_IV_BYTES];
+		secureRandom.nextBytes(iv);
+		// The output contains the IV, ciphertext and MAC
+		byte[] output =
+				new byte[iv.length + input.length + cipher.getMacBytes()];
+		arraycopy(iv, 0, output, 0, iv.length);
+		try {
+			cipher.init(true, key, iv);
+			cipher.process(input, 0, input.length, output, iv.length);
+			return output;
+		} catch (GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public byte[] decryptWithKey(byte[] input, SecretKey key)
+			throws DecryptionException {
+		AuthenticatedCipher cipher = new XSalsa20Poly1305AuthenticatedCipher();
+		int macBytes = cipher.getMacBytes();
+		// The input contains the IV, ciphertext and MAC
+		if (input.length < STORAGE_IV_BYTES + macBytes)
+			throw new DecryptionException(INVALID_CIPHERTEXT);
+		byte[] iv = new byte[STORAGE_IV_BYTES];
+		arraycopy(input, 0, iv, 0, iv.length);
+		try {
+			cipher.init(false, key, iv);
+		} catch (GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		}
+		// Try to decrypt the ciphertext (may be invalid)
+		try {
+			int inputLen = input.length - iv.length;
+			byte[] output = new byte[inputLen - macBytes];
+			cipher.process(input, iv.length, inputLen, output, 0);
+			return output;
+		} catch (GeneralSecurityException e) {
+			throw new DecryptionException(INVALID_CIPHERTEXT);
+		}
+	}
+
 	@Override
 	public boolean isEncryptedWithStrengthenedKey(byte[] ciphertext) {
-		return ciphertext.length > 0 &&
-				ciphertext[0] == PBKDF_FORMAT_SCRYPT_STRENGTHENED;
+		return ciphertext.length > 0 && isStrengthened(ciphertext[0]);
+	}
+
+	private boolean isStrengthened(byte formatVersion) {
+		return formatVersion == PBKDF_FORMAT_SCRYPT_STRENGTHENED ||
+				formatVersion == PBKDF_FORMAT_SCRYPT_PARALLEL_STRENGTHENED;
 	}
 
 	@Override
@@ -4,7 +4,18 @@ import org.briarproject.bramble.api.crypto.SecretKey;
 
 interface PasswordBasedKdf {
 
-	int chooseCostParameter();
+	/**
+	 * Returns the number of lanes that should be computed in parallel,
+	 * based on the number of available processors.
+	 */
+	int chooseParallelizationParameter();
 
-	SecretKey deriveKey(String password, byte[] salt, int cost);
+	/**
+	 * Returns the cost parameter that should be used with the given number
+	 * of lanes, based on the performance of the device.
+	 */
+	int chooseCostParameter(int parallelization);
+
+	SecretKey deriveKey(String password, byte[] salt, int cost,
+			int parallelization);
 }
@@ -1,17 +1,29 @@
 package org.briarproject.bramble.crypto;
 
+import org.bouncycastle.crypto.PBEParametersGenerator;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.engines.Salsa20Engine;
+import org.bouncycastle.crypto.generators.PKCS5S2ParametersGenerator;
 import org.bouncycastle.crypto.generators.SCrypt;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Pack;
+import org.briarproject.bramble.api.crypto.CryptoExecutor;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.util.StringUtils;
 
+import java.util.Arrays;
+import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
+import static java.lang.Math.max;
 import static java.lang.Math.min;
+import static java.lang.System.arraycopy;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.ParallelTasks.runAll;
 import static org.briarproject.bramble.util.LogUtils.logDuration;
 import static org.briarproject.bramble.util.LogUtils.now;
 
@@ -23,30 +35,44 @@ class ScryptKdf implements PasswordBasedKdf {
 	private static final int MIN_COST = 256; // Min parameter N
 	private static final int MAX_COST = 1024 * 1024; // Max parameter N
 	private static final int BLOCK_SIZE = 8; // Parameter r
-	private static final int PARALLELIZATION = 1; // Parameter p
+	private static final int MAX_PARALLELIZATION = 8; // Max parameter p
 	private static final int TARGET_MS = 1000;
 
+	private final Executor cryptoExecutor;
 	private final Clock clock;
 
 	@Inject
-	ScryptKdf(Clock clock) {
+	ScryptKdf(@CryptoExecutor Executor cryptoExecutor, Clock clock) {
+		this.cryptoExecutor = cryptoExecutor;
 		this.clock = clock;
 	}
 
 	@Override
-	public int chooseCostParameter() {
-		// Scrypt uses at least 128 * N * r bytes of memory. Don't use more
-		// than half of the JVM's max heap size or we may run out of memory.
+	public int chooseParallelizationParameter() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		int parallelization = max(1, min(MAX_PARALLELIZATION, processors));
+		if (LOG.isLoggable(INFO))
+			LOG.info("KDF parallelization parameter " + parallelization);
+		return parallelization;
+	}
+
+	@Override
+	public int chooseCostParameter(int parallelization) {
+		// Scrypt uses at least 128 * N * r bytes of memory per lane, and
+		// the lanes are computed in parallel. Don't use more than half of
+		// the JVM's max heap size or we may run out of memory.
 		// https://blog.filippo.io/the-scrypt-parameters/
 		long maxMemory = Runtime.getRuntime().maxMemory();
-		long maxCost = min(MAX_COST, maxMemory / BLOCK_SIZE / 256);
+		long maxCost = min(MAX_COST,
+				maxMemory / BLOCK_SIZE / 256 / parallelization);
 		if (LOG.isLoggable(INFO) && maxCost < MAX_COST) {
 			LOG.info("Max cost capped at " + maxCost
 					+ " due to max heap size " + maxMemory);
 		}
 		// Increase the cost from min to max while measuring performance
 		int cost = MIN_COST;
-		while (cost * 2 <= maxCost && measureDuration(cost) * 2 <= TARGET_MS) {
+		while (cost * 2 <= maxCost &&
+				measureDuration(cost, parallelization) * 2 <= TARGET_MS) {
 			cost *= 2;
 		}
 		if (LOG.isLoggable(INFO))
@@ -54,21 +80,134 @@ class ScryptKdf implements PasswordBasedKdf {
 		return cost;
 	}
 
-	private long measureDuration(int cost) {
+	private long measureDuration(int cost, int parallelization) {
 		byte[] password = new byte[16], salt = new byte[32];
 		long start = clock.currentTimeMillis();
-		SCrypt.generate(password, salt, cost, BLOCK_SIZE, PARALLELIZATION,
-				SecretKey.LENGTH);
+		generate(password, salt, cost, parallelization);
 		return clock.currentTimeMillis() - start;
 	}
 
 	@Override
-	public SecretKey deriveKey(String password, byte[] salt, int cost) {
+	public SecretKey deriveKey(String password, byte[] salt, int cost,
+			int parallelization) {
 		long start = now();
 		byte[] passwordBytes = StringUtils.toUtf8(password);
-		SecretKey k = new SecretKey(SCrypt.generate(passwordBytes, salt, cost,
-				BLOCK_SIZE, PARALLELIZATION, SecretKey.LENGTH));
+		SecretKey k = new SecretKey(generate(passwordBytes, salt, cost,
+				parallelization));
 		logDuration(LOG, "Deriving key from password", start);
 		return k;
 	}
+
+	private byte[] generate(byte[] password, byte[] salt, int cost,
+			int parallelization) {
+		if (parallelization == 1) {
+			return SCrypt.generate(password, salt, cost, BLOCK_SIZE, 1,
+					SecretKey.LENGTH);
+		}
+		return generateParallel(password, salt, cost, parallelization);
+	}
+
+	/**
+	 * Computes scrypt as described in RFC 7914, with the lanes computed in
+	 * parallel. The result is the same as that of
+	 * {@link SCrypt#generate(byte[], byte[], int, int, int, int)}, which
+	 * computes the lanes one after another.
+	 * <p/>
+	 * The calling thread computes lanes alongside the crypto executor, so
+	 * the result doesn't depend on the executor having free threads. Fewer
+	 * lanes are computed at a time if there isn't enough free memory to
+	 * compute them all at once.
+	 */
+	private byte[] generateParallel(byte[] password, byte[] salt, int cost,
+			int parallelization) {
+		if (cost < 2 || (cost & (cost - 1)) != 0)
+			throw new IllegalArgumentException();
+		int laneBytes = 128 * BLOCK_SIZE, laneWords = laneBytes / 4;
+		byte[] bytes = pbkdf2(password, salt, parallelization * laneBytes);
+		int[] b = new int[bytes.length / 4];
+		Pack.littleEndianToInt(bytes, 0, b);
+		int threads = getMaxConcurrentLanes(cost, parallelization);
+		try {
+			runAll(cryptoExecutor, parallelization, threads,
+					lane -> smix(b, lane * laneWords, cost));
+			Pack.intToLittleEndian(b, bytes, 0);
+			return pbkdf2(password, bytes, SecretKey.LENGTH);
+		} finally {
+			Arrays.fill(bytes, (byte) 0);
+			Arrays.fill(b, 0);
+		}
+	}
+
+	/**
+	 * Returns the number of lanes that can be computed at the same time
+	 * without using more than the heap's free memory.
+	 */
+	private static int getMaxConcurrentLanes(int cost, int parallelization) {
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		long free = runtime.maxMemory() - used;
+		// Each lane uses 128 * N * r bytes of memory
+		long laneMemory = 128L * cost * BLOCK_SIZE;
+		int lanes = (int) max(1, min(parallelization, free / laneMemory));
+		if (LOG.isLoggable(INFO) && lanes < parallelization) {
+			LOG.info("Computing " + lanes + " KDF lanes at a time due to "
+					+ free + " bytes of free memory");
+		}
+		return lanes;
+	}
+
+	private static byte[] pbkdf2(byte[] password, byte[] salt, int length) {
+		PBEParametersGenerator generator =
+				new PKCS5S2ParametersGenerator(new SHA256Digest());
+		generator.init(password, salt, 1);
+		KeyParameter key = (KeyParameter)
+				generator.generateDerivedMacParameters(length * 8);
+		return key.getKey();
+	}
+
+	/**
+	 * Applies scrypt's ROMix function to the lane starting at the given
+	 * offset.
+	 */
+	private static void smix(int[] b, int off, int cost) {
+		int laneWords = 32 * BLOCK_SIZE;
+		int[] x = new int[laneWords], y = new int[laneWords];
+		int[] v = new int[cost * laneWords];
+		int[] block = new int[16];
+		arraycopy(b, off, x, 0, laneWords);
+		for (int i = 0; i < cost; i++) {
+			arraycopy(x, 0, v, i * laneWords, laneWords);
+			blockMix(x, y, block);
+		}
+		int mask = cost - 1;
+		for (int i = 0; i < cost; i++) {
+			// Integerify: the first word of the last 64-byte block
+			int j = x[laneWords - 16] & mask;
+			int vOff = j * laneWords;
+			for (int k = 0; k < laneWords; k++) x[k] ^= v[vOff + k];
+			blockMix(x, y, block);
+		}
+		arraycopy(x, 0, b, off, laneWords);
+		Arrays.fill(v, 0);
+		Arrays.fill(x, 0);
+		Arrays.fill(y, 0);
+		Arrays.fill(block, 0);
+	}
+
+	/**
+	 * Applies scrypt's BlockMix function to the given lane, using the
+	 * given buffers as scratch space.
+	 */
+	private static void blockMix(int[] x, int[] y, int[] block) {
+		int blocks = 2 * BLOCK_SIZE;
+		arraycopy(x, (blocks - 1) * 16, block, 0, 16);
+		for (int i = 0; i < blocks; i++) {
+			for (int k = 0; k < 16; k++) block[k] ^= x[i * 16 + k];
+			Salsa20Engine.salsaCore(8, block, block);
+			// Even blocks go in the first half, odd blocks in the second
+			int yOff = (i / 2 + (i % 2) * BLOCK_SIZE) * 16;
+			arraycopy(block, 0, y, yOff, 16);
+		}
+		arraycopy(y, 0, x, 0, blocks * 16);
+	}
 }
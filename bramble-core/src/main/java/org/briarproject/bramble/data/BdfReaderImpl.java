@@ -320,6 +320,20 @@ class BdfReaderImpl implements BdfReader {
 		return readList(1);
 	}
 
+	@Override
+	public BdfList readListPrefix(int maxElements) throws IOException {
+		if (maxElements < 0) throw new IllegalArgumentException();
+		if (!hasList()) throw new FormatException();
+		BdfList list = new BdfList();
+		readListStart();
+		while (!hasListEnd()) {
+			if (list.size() < maxElements) list.add(readObject(2));
+			else skipObject();
+		}
+		readListEnd();
+		return list;
+	}
+
 	private BdfList readList(int level) throws IOException {
 		if (!hasList()) throw new FormatException();
 		if (level > nestedLimit) throw new FormatException();
@@ -0,0 +1,143 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.Consumer;
+import org.briarproject.bramble.api.db.AsyncTransactionManager;
+import org.briarproject.bramble.api.db.DatabaseExecutor;
+import org.briarproject.bramble.api.db.DbCallable;
+import org.briarproject.bramble.api.db.TransactionManager;
+import org.briarproject.bramble.api.lifecycle.Service;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+import static java.util.Collections.newSetFromMap;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.util.LogUtils.logDuration;
+import static org.briarproject.bramble.util.LogUtils.logException;
+import static org.briarproject.bramble.util.LogUtils.now;
+
+@ThreadSafe
+@NotNullByDefault
+class AsyncTransactionManagerImpl implements AsyncTransactionManager,
+		Service {
+
+	private static final Logger LOG =
+			getLogger(AsyncTransactionManagerImpl.class.getName());
+
+	private final TransactionManager db;
+	private final Executor dbExecutor;
+	// Transactions that have been submitted but haven't finished
+	private final Set<Future<?>> pending =
+			newSetFromMap(new ConcurrentHashMap<>());
+
+	private volatile boolean stopped = false;
+
+	@Inject
+	AsyncTransactionManagerImpl(TransactionManager db,
+			@DatabaseExecutor Executor dbExecutor) {
+		this.db = db;
+		this.dbExecutor = dbExecutor;
+	}
+
+	@Override
+	public void startService() {
+	}
+
+	@Override
+	public void stopService() {
+		stopped = true;
+		for (Future<?> f : pending) f.cancel(false);
+	}
+
+	@Override
+	public <R, E extends Exception> Future<R> transactionAsync(
+			boolean readOnly, DbCallable<R, E> task) {
+		return submit(readOnly, task, null);
+	}
+
+	@Override
+	public <R, E extends Exception> Future<R> transactionAsync(
+			boolean readOnly, DbCallable<R, E> task, Executor executor,
+			Consumer<R> resultHandler, Consumer<Exception> exceptionHandler) {
+		return submit(readOnly, task,
+				new Handler<>(executor, resultHandler, exceptionHandler));
+	}
+
+	private <R, E extends Exception> Future<R> submit(boolean readOnly,
+			DbCallable<R, E> task, @Nullable Handler<R> handler) {
+		long submitted = now();
+		AsyncTransaction<R> future = new AsyncTransaction<>(() -> {
+			logDuration(LOG, "Waiting for database executor", submitted);
+			long start = now();
+			R result = db.transactionWithResult(readOnly, task);
+			logDuration(LOG, "Async transaction", start);
+			return result;
+		}, handler);
+		pending.add(future);
+		// Check the flag after adding the future, so the future is either
+		// cancelled here or by stopService()
+		if (stopped) future.cancel(false);
+		else dbExecutor.execute(future);
+		return future;
+	}
+
+	private class AsyncTransaction<R> extends FutureTask<R> {
+
+		@Nullable
+		private final Handler<R> handler;
+
+		private AsyncTransaction(Callable<R> callable,
+				@Nullable Handler<R> handler) {
+			super(callable);
+			this.handler = handler;
+		}
+
+		@Override
+		protected void done() {
+			pending.remove(this);
+			if (handler == null || isCancelled()) return;
+			try {
+				R result = get();
+				handler.executor.execute(
+						() -> handler.resultHandler.accept(result));
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Exception) {
+					handler.executor.execute(() ->
+							handler.exceptionHandler.accept((Exception) cause));
+				} else {
+					logException(LOG, WARNING, e);
+				}
+			} catch (InterruptedException e) {
+				// The task has finished, so get() doesn't wait
+				throw new AssertionError(e);
+			}
+		}
+	}
+
+	private static class Handler<R> {
+
+		private final Executor executor;
+		private final Consumer<R> resultHandler;
+		private final Consumer<Exception> exceptionHandler;
+
+		private Handler(Executor executor, Consumer<R> resultHandler,
+				Consumer<Exception> exceptionHandler) {
+			this.executor = executor;
+			this.resultHandler = resultHandler;
+			this.exceptionHandler = exceptionHandler;
+		}
+	}
+}
@@ -14,6 +14,7 @@ import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.MigrationListener;
+import org.briarproject.bramble.api.db.StorageStats;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.identity.Identity;
@@ -92,6 +93,20 @@ interface Database<T> {
 	 */
 	void commitTransaction(T txn) throws DbException;
 
+	/**
+	 * Marks the current state of the given transaction, so that any changes
+	 * made after this point can be undone by
+	 * {@link #rollbackToSavepoint(Object) rollbackToSavepoint(T)} without
+	 * aborting the transaction. Any previous savepoint is replaced.
+	 */
+	void setSavepoint(T txn) throws DbException;
+
+	/**
+	 * Undoes any changes made to the given transaction since the last call
+	 * to {@link #setSavepoint(Object) setSavepoint(T)}.
+	 */
+	void rollbackToSavepoint(T txn) throws DbException;
+
 	/**
 	 * Stores a contact associated with the given local and remote pseudonyms,
 	 * and returns an ID for the contact.
@@ -162,6 +177,16 @@ interface Database<T> {
 	KeySetId addTransportKeys(T txn, PendingContactId p, TransportKeys k)
 			throws DbException;
 
+	/**
+	 * Performs a slice of online compaction, either rewriting roughly the
+	 * given number of bytes of sparsely used storage or moving storage so
+	 * that free space can be released from the database files, and returns
+	 * true if there may be more storage to compact.
+	 * <p/>
+	 * This must be called while no other transactions are open.
+	 */
+	boolean compactDatabase(T txn, int maxBytes) throws DbException;
+
 	/**
 	 * Returns true if there are any acks or messages to send to the given
 	 * contact over a transport with the given maximum latency.
@@ -247,6 +272,13 @@ interface Database<T> {
 	boolean containsVisibleMessage(T txn, ContactId c, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the number of messages that are due for deletion.
+	 * <p/>
+	 * Read-only.
+	 */
+	int countMessagesToDelete(T txn) throws DbException;
+
 	/**
 	 * Returns the number of messages offered by the given contact.
 	 * <p/>
@@ -254,6 +286,16 @@ interface Database<T> {
 	 */
 	int countOfferedMessages(T txn, ContactId c) throws DbException;
 
+	/**
+	 * Returns the number of delivered, shared, undeleted messages in each
+	 * group shared with the given contact that have not been seen by the
+	 * contact. Groups without any such messages are omitted.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<GroupId, Integer> countUnseenMessages(T txn, ContactId c)
+			throws DbException;
+
 	/**
 	 * Deletes the message with the given ID. Unlike
 	 * {@link #removeMessage(Object, MessageId)}, the message ID and any other
@@ -320,6 +362,15 @@ interface Database<T> {
 	 */
 	Metadata getGroupMetadata(T txn, GroupId g) throws DbException;
 
+	/**
+	 * Returns the metadata for the given groups. Groups that don't exist are
+	 * not included in the returned map.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<GroupId, Metadata> getGroupMetadata(T txn, Collection<GroupId> g)
+			throws DbException;
+
 	/**
 	 * Returns all groups belonging to the given client.
 	 * <p/>
@@ -369,6 +420,18 @@ interface Database<T> {
 	 */
 	Message getMessage(T txn, MessageId m) throws DbException;
 
+	/**
+	 * Returns the messages with the given IDs. Messages that don't exist
+	 * are not included in the returned map.
+	 * <p/>
+	 * Read-only.
+	 *
+	 * @throws MessageDeletedException if any of the messages has been
+	 * deleted
+	 */
+	Map<MessageId, Message> getMessages(T txn, Collection<MessageId> m)
+			throws DbException;
+
 	/**
 	 * Returns the IDs and states of all dependencies of the given message.
 	 * For missing dependencies and dependencies in other groups, the state
@@ -485,6 +548,29 @@ interface Database<T> {
 	Collection<MessageId> getMessagesToOffer(T txn, ContactId c,
 			int maxMessages, long maxLatency) throws DbException;
 
+	/**
+	 * Returns the IDs of some messages that are eligible to be offered to the
+	 * given contact, up to the given number of messages. If include is true,
+	 * only messages belonging to the given clients are returned, otherwise
+	 * only messages belonging to other clients are returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<MessageId> getMessagesToOffer(T txn, ContactId c,
+			int maxMessages, long maxLatency, Collection<ClientId> clients,
+			boolean include) throws DbException;
+
+	/**
+	 * Returns the IDs of the delivered, shared, undeleted messages in the
+	 * given group, if the group is shared with the given contact, mapped to
+	 * true if the contact has seen each message. These are the messages that
+	 * are included in sketches of the group.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Boolean> getMessagesToReconcile(T txn, ContactId c,
+			GroupId g) throws DbException;
+
 	/**
 	 * Returns the IDs of some messages that are eligible to be requested from
 	 * the given contact, up to the given number of messages.
@@ -507,6 +593,18 @@ interface Database<T> {
 	Collection<MessageId> getMessagesToSend(T txn, ContactId c, int maxLength,
 			long maxLatency) throws DbException;
 
+	/**
+	 * Returns the IDs of some messages that are eligible to be sent to the
+	 * given contact, up to the given total length. If include is true, only
+	 * messages belonging to the given clients are returned, otherwise only
+	 * messages belonging to other clients are returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<MessageId> getMessagesToSend(T txn, ContactId c, int maxLength,
+			long maxLatency, Collection<ClientId> clients, boolean include)
+			throws DbException;
+
 	/**
 	 * Returns the IDs of all messages that are eligible to be sent to the
 	 * given contact, together with their raw lengths.
@@ -561,6 +659,16 @@ interface Database<T> {
 	Map<GroupId, Collection<MessageId>> getMessagesToDelete(T txn)
 			throws DbException;
 
+	/**
+	 * Returns the IDs of up to the given number of messages that are due
+	 * for deletion, along with their group IDs. Messages with the earliest
+	 * cleanup deadlines are returned first.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<GroupId, Collection<MessageId>> getMessagesToDelete(T txn,
+			int maxMessages) throws DbException;
+
 	/**
 	 * Returns the next time (in milliseconds since the Unix epoch) when a
 	 * message is due to be deleted, or
@@ -606,6 +714,19 @@ interface Database<T> {
 	Collection<MessageId> getRequestedMessagesToSend(T txn, ContactId c,
 			int maxLength, long maxLatency) throws DbException;
 
+	/**
+	 * Returns the IDs of some messages that are eligible to be sent to the
+	 * given contact and have been requested by the contact, up to the given
+	 * total length. If include is true, only messages belonging to the given
+	 * clients are returned, otherwise only messages belonging to other
+	 * clients are returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<MessageId> getRequestedMessagesToSend(T txn, ContactId c,
+			int maxLength, long maxLatency, Collection<ClientId> clients,
+			boolean include) throws DbException;
+
 	/**
 	 * Returns all settings in the given namespace.
 	 * <p/>
@@ -613,6 +734,13 @@ interface Database<T> {
 	 */
 	Settings getSettings(T txn, String namespace) throws DbException;
 
+	/**
+	 * Returns statistics about the space used by the database on disk.
+	 * <p/>
+	 * Read-only.
+	 */
+	StorageStats getStorageStats(T txn) throws DbException;
+
 	/**
 	 * Returns the versions of the sync protocol supported by the given contact.
 	 * <p/>
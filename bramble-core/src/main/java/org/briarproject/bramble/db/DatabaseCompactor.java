@@ -0,0 +1,235 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.CommitMetrics;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DatabaseExecutor;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.StorageStats;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.db.event.DatabaseCompactionEvent;
+import org.briarproject.bramble.api.lifecycle.Service;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.settings.Settings;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.bramble.api.system.TaskScheduler.Cancellable;
+
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.db.DatabaseConstants.DB_SETTINGS_NAMESPACE;
+import static org.briarproject.bramble.db.DatabaseConstants.LAST_COMPACTED_KEY;
+import static org.briarproject.bramble.db.DatabaseConstants.MAX_COMPACTION_INTERVAL_MS;
+import static org.briarproject.bramble.util.LogUtils.logDuration;
+import static org.briarproject.bramble.util.LogUtils.logException;
+import static org.briarproject.bramble.util.LogUtils.now;
+
+/**
+ * Compacts the database in the background while the app is running, in
+ * slices that each rewrite or move a bounded amount of storage, so that free
+ * space is released from the database files. Compaction starts when
+ * {@link DatabaseConstants#MAX_COMPACTION_INTERVAL_MS} has passed since the
+ * last compaction, or when a large fraction of the database files is free.
+ * Slices are postponed while many write transactions are being committed,
+ * such as during a large sync session.
+ */
+@ThreadSafe
+@NotNullByDefault
+class DatabaseCompactor implements Service {
+
+	private static final Logger LOG =
+			getLogger(DatabaseCompactor.class.getName());
+
+	/**
+	 * The delay before checking whether compaction is due after startup.
+	 */
+	static final long STARTUP_DELAY_MS = MINUTES.toMillis(1);
+
+	/**
+	 * The interval between checks for whether compaction is due.
+	 */
+	static final long CHECK_INTERVAL_MS = HOURS.toMillis(1);
+
+	/**
+	 * The interval between slices of compaction.
+	 */
+	static final long SLICE_INTERVAL_MS = SECONDS.toMillis(1);
+
+	/**
+	 * The maximum number of bytes to rewrite in a single slice.
+	 */
+	static final int MAX_BYTES_PER_SLICE = 1024 * 1024;
+
+	/**
+	 * If more than this many write transactions have been committed since
+	 * the last slice, the next slice is postponed.
+	 */
+	static final long MAX_TRANSACTIONS_PER_SLICE = 10;
+
+	/**
+	 * Compaction starts if at least this fraction of the database files is
+	 * free, even if the maximum interval hasn't passed.
+	 */
+	static final double MIN_FREE_FRACTION = 0.25;
+
+	/**
+	 * The maximum number of slices in a run of compaction, as a multiple of
+	 * the number of slices needed to rewrite the whole database once. This
+	 * stops a run from going on forever if the free space can't be
+	 * released.
+	 */
+	static final int MAX_PASSES_PER_RUN = 2;
+
+	private final DatabaseComponent db;
+	private final CommitMetrics commitMetrics;
+	private final Executor dbExecutor;
+	private final TaskScheduler taskScheduler;
+	private final Clock clock;
+	private final Object lock = new Object();
+
+	@GuardedBy("lock")
+	@Nullable
+	private Cancellable scheduled = null;
+	@GuardedBy("lock")
+	private boolean stopped = false;
+
+	// Only accessed by the task that's currently running
+	private long lastTransactions = 0, slicesLeft = 0;
+
+	DatabaseCompactor(DatabaseComponent db, CommitMetrics commitMetrics,
+			@DatabaseExecutor Executor dbExecutor, TaskScheduler taskScheduler,
+			Clock clock) {
+		this.db = db;
+		this.commitMetrics = commitMetrics;
+		this.dbExecutor = dbExecutor;
+		this.taskScheduler = taskScheduler;
+		this.clock = clock;
+	}
+
+	@Override
+	public void startService() {
+		schedule(this::checkWhetherCompactionIsDue, STARTUP_DELAY_MS);
+	}
+
+	@Override
+	public void stopService() {
+		synchronized (lock) {
+			stopped = true;
+			if (scheduled != null) scheduled.cancel();
+			scheduled = null;
+		}
+	}
+
+	private void schedule(Runnable task, long delay) {
+		synchronized (lock) {
+			if (stopped) return;
+			scheduled = taskScheduler.schedule(task, dbExecutor, delay,
+					MILLISECONDS);
+		}
+	}
+
+	private void checkWhetherCompactionIsDue() {
+		try {
+			StorageStats stats = db.transactionWithNullableResult(true,
+					this::getStatsIfCompactionIsDue);
+			if (stats == null) {
+				schedule(this::checkWhetherCompactionIsDue, CHECK_INTERVAL_MS);
+			} else {
+				LOG.info("Starting online compaction");
+				lastTransactions = getTransactions();
+				long slicesPerPass =
+						stats.getFileBytes() / MAX_BYTES_PER_SLICE + 1;
+				slicesLeft = MAX_PASSES_PER_RUN * slicesPerPass;
+				schedule(this::compactSlice, 0);
+			}
+		} catch (DbException e) {
+			logException(LOG, WARNING, e);
+			schedule(this::checkWhetherCompactionIsDue, CHECK_INTERVAL_MS);
+		}
+	}
+
+	/**
+	 * Returns the storage stats if compaction is due, or null if it isn't.
+	 */
+	@Nullable
+	private StorageStats getStatsIfCompactionIsDue(Transaction txn)
+			throws DbException {
+		Settings s = db.getSettings(txn, DB_SETTINGS_NAMESPACE);
+		long lastCompacted = s.getLong(LAST_COMPACTED_KEY, 0);
+		long elapsed = clock.currentTimeMillis() - lastCompacted;
+		StorageStats stats = db.getStorageStats(txn);
+		if (LOG.isLoggable(INFO)) {
+			LOG.info(elapsed + " ms since last compaction, "
+					+ stats.getFreeBytes() + " of " + stats.getFileBytes()
+					+ " bytes free");
+		}
+		if (elapsed > MAX_COMPACTION_INTERVAL_MS ||
+				stats.getFreeFraction() >= MIN_FREE_FRACTION) {
+			return stats;
+		}
+		return null;
+	}
+
+	private void compactSlice() {
+		// Don't compete with sync sessions or other heavy write activity
+		long transactions = getTransactions();
+		long recent = transactions - lastTransactions;
+		lastTransactions = transactions;
+		if (recent > MAX_TRANSACTIONS_PER_SLICE) {
+			if (LOG.isLoggable(INFO)) {
+				LOG.info(recent + " transactions since last slice,"
+						+ " postponing compaction");
+			}
+			schedule(this::compactSlice, SLICE_INTERVAL_MS);
+			return;
+		}
+		slicesLeft--;
+		boolean lastSlice = slicesLeft == 0;
+		try {
+			long start = now();
+			// Moving storage overwrites old versions of the data, so use a
+			// write transaction to keep other transactions out
+			boolean more = db.transactionWithResult(false, txn -> {
+				boolean compacted =
+						db.compactDatabase(txn, MAX_BYTES_PER_SLICE);
+				StorageStats stats = db.getStorageStats(txn);
+				txn.attach(new DatabaseCompactionEvent(stats,
+						!compacted || lastSlice));
+				return compacted;
+			});
+			logDuration(LOG, "Compacting slice", start);
+			if (more && !lastSlice) {
+				schedule(this::compactSlice, SLICE_INTERVAL_MS);
+			} else {
+				if (more) LOG.info("Stopping online compaction");
+				else LOG.info("Finished online compaction");
+				db.transaction(false, this::storeLastCompacted);
+				schedule(this::checkWhetherCompactionIsDue, CHECK_INTERVAL_MS);
+			}
+		} catch (DbException e) {
+			logException(LOG, WARNING, e);
+			schedule(this::checkWhetherCompactionIsDue, CHECK_INTERVAL_MS);
+		}
+	}
+
+	private void storeLastCompacted(Transaction txn) throws DbException {
+		Settings s = new Settings();
+		s.putLong(LAST_COMPACTED_KEY, clock.currentTimeMillis());
+		db.mergeSettings(txn, s, DB_SETTINGS_NAMESPACE);
+	}
+
+	private long getTransactions() {
+		return commitMetrics.getCommitStats().getTransactions();
+	}
+}
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.Consumer;
 import org.briarproject.bramble.api.cleanup.event.CleanupTimerStartedEvent;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
@@ -16,8 +17,11 @@ import org.briarproject.bramble.api.crypto.PublicKey;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.db.CommitAction;
 import org.briarproject.bramble.api.db.CommitAction.Visitor;
+import org.briarproject.bramble.api.db.CommitMetrics;
+import org.briarproject.bramble.api.db.CommitStats;
 import org.briarproject.bramble.api.db.ContactExistsException;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbCallable;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.DbRunnable;
@@ -32,6 +36,7 @@ import org.briarproject.bramble.api.db.NoSuchPendingContactException;
 import org.briarproject.bramble.api.db.NoSuchTransportException;
 import org.briarproject.bramble.api.db.NullableDbCallable;
 import org.briarproject.bramble.api.db.PendingContactExistsException;
+import org.briarproject.bramble.api.db.StorageStats;
 import org.briarproject.bramble.api.db.TaskAction;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.EventBus;
@@ -48,6 +53,8 @@ import org.briarproject.bramble.api.settings.Settings;
 import org.briarproject.bramble.api.settings.event.SettingsUpdatedEvent;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.ClientPriority;
+import org.briarproject.bramble.api.sync.ClientPriorityRegistry;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.Group.Visibility;
 import org.briarproject.bramble.api.sync.GroupId;
@@ -56,6 +63,7 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Sketch;
 import org.briarproject.bramble.api.sync.event.GroupAddedEvent;
 import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
 import org.briarproject.bramble.api.sync.event.GroupVisibilityUpdatedEvent;
@@ -67,6 +75,7 @@ import org.briarproject.bramble.api.sync.event.MessageToAckEvent;
 import org.briarproject.bramble.api.sync.event.MessageToRequestEvent;
 import org.briarproject.bramble.api.sync.event.MessagesAckedEvent;
 import org.briarproject.bramble.api.sync.event.MessagesSentEvent;
+import org.briarproject.bramble.api.sync.event.SketchReceivedEvent;
 import org.briarproject.bramble.api.sync.event.SyncVersionsUpdatedEvent;
 import org.briarproject.bramble.api.sync.validation.MessageState;
 import org.briarproject.bramble.api.transport.KeySetId;
@@ -76,19 +85,28 @@ import org.briarproject.bramble.api.transport.TransportKeys;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
+import javax.inject.Provider;
 
+import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.api.sync.ClientPriority.LOW;
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
@@ -100,30 +118,53 @@ import static org.briarproject.bramble.util.LogUtils.now;
 
 @ThreadSafe
 @NotNullByDefault
-class DatabaseComponentImpl<T> implements DatabaseComponent {
+class DatabaseComponentImpl<T> implements DatabaseComponent, CommitMetrics {
 
 	private static final Logger LOG =
 			getLogger(DatabaseComponentImpl.class.getName());
 
+	/**
+	 * The maximum number of transactions committed together by
+	 * {@link #groupTransaction(DbRunnable)}.
+	 */
+	static final int MAX_GROUP_SIZE = 64;
+
 	private final Database<T> db;
 	private final Class<T> txnClass;
 	private final EventBus eventBus;
 	private final Executor eventExecutor;
+	// Provided lazily because the lifecycle manager, which the executor
+	// depends on, depends on the database component
+	private final Provider<Executor> dbExecutor;
 	private final ShutdownManager shutdownManager;
+	private final ClientPriorityRegistry clientPriorities;
 	private final AtomicBoolean closed = new AtomicBoolean(false);
 	private final ReentrantReadWriteLock lock =
 			new ReentrantReadWriteLock(true);
 	private final Visitor visitor = new CommitActionVisitor();
+	// Group transactions waiting to be run by the holder of the write lock
+	private final Queue<GroupMember<?>> groupMembers =
+			new ConcurrentLinkedQueue<>();
+	// True if the queued group transactions will be run by a task that's
+	// waiting to start on the database executor
+	private final AtomicBoolean groupScheduled = new AtomicBoolean(false);
+	private final AtomicLong commits = new AtomicLong(0);
+	private final AtomicLong committedTransactions = new AtomicLong(0);
+	private final long startTime = now();
 
 	@Inject
 	DatabaseComponentImpl(Database<T> db, Class<T> txnClass, EventBus eventBus,
 			@EventExecutor Executor eventExecutor,
-			ShutdownManager shutdownManager) {
+			@DatabaseExecutor Provider<Executor> dbExecutor,
+			ShutdownManager shutdownManager,
+			ClientPriorityRegistry clientPriorities) {
 		this.db = db;
 		this.txnClass = txnClass;
 		this.eventBus = eventBus;
 		this.eventExecutor = eventExecutor;
+		this.dbExecutor = dbExecutor;
 		this.shutdownManager = shutdownManager;
+		this.clientPriorities = clientPriorities;
 	}
 
 	@Override
@@ -174,6 +215,10 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		if (transaction.isCommitted()) throw new IllegalStateException();
 		transaction.setCommitted();
 		db.commitTransaction(txn);
+		if (!transaction.isReadOnly()) {
+			commits.incrementAndGet();
+			committedTransactions.incrementAndGet();
+		}
 	}
 
 	@Override
@@ -204,6 +249,117 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		}
 	}
 
+	@Override
+	public <E extends Exception> void groupTransaction(DbRunnable<E> task)
+			throws DbException, E {
+		// Don't allow reentrant locking
+		if (lock.getReadHoldCount() > 0) throw new IllegalStateException();
+		if (lock.getWriteHoldCount() > 0) throw new IllegalStateException();
+		GroupMember<E> member = new GroupMember<>(task, null);
+		groupMembers.add(member);
+		List<GroupMember<?>> finished = new ArrayList<>();
+		long start = now();
+		lock.writeLock().lock();
+		logDuration(LOG, "Waiting for write lock", start);
+		try {
+			// If the task was run by an earlier holder of the lock, the
+			// result is ready. Otherwise run groups of waiting tasks until
+			// the task has been run
+			while (!member.finished) finished.addAll(runGroup());
+		} finally {
+			lock.writeLock().unlock();
+		}
+		for (GroupMember<?> m : finished) m.handleFailure();
+		member.throwIfFailed();
+	}
+
+	@Override
+	public <E extends Exception> void queueGroupTransaction(
+			DbRunnable<E> task, Consumer<Exception> exceptionHandler) {
+		groupMembers.add(new GroupMember<>(task, exceptionHandler));
+		// Schedule a run of the queue, unless one is already waiting to
+		// start. Tasks queued until it starts will be committed together
+		if (!groupScheduled.getAndSet(true))
+			dbExecutor.get().execute(this::runQueuedGroups);
+	}
+
+	@DatabaseExecutor
+	private void runQueuedGroups() {
+		// Tasks queued from now on will schedule another run
+		groupScheduled.set(false);
+		List<GroupMember<?>> finished = new ArrayList<>();
+		long start = now();
+		lock.writeLock().lock();
+		logDuration(LOG, "Waiting for write lock", start);
+		try {
+			while (!groupMembers.isEmpty()) finished.addAll(runGroup());
+		} finally {
+			lock.writeLock().unlock();
+		}
+		for (GroupMember<?> m : finished) m.handleFailure();
+	}
+
+	/**
+	 * Runs the waiting group transactions back to back within a single
+	 * database transaction and commits them together, then returns the
+	 * tasks that were run. Each task's changes are undone if it fails,
+	 * without affecting the rest of the group.
+	 * <p/>
+	 * This method must be called while holding the write lock.
+	 */
+	private List<GroupMember<?>> runGroup() {
+		List<GroupMember<?>> group = new ArrayList<>();
+		GroupMember<?> member;
+		while (group.size() < MAX_GROUP_SIZE &&
+				(member = groupMembers.poll()) != null) {
+			group.add(member);
+		}
+		List<GroupMember<?>> succeeded = new ArrayList<>(group.size());
+		boolean committed = false;
+		try {
+			T txn = db.startTransaction();
+			try {
+				for (GroupMember<?> m : group) {
+					db.setSavepoint(txn);
+					if (m.run(new Transaction(txn, false))) succeeded.add(m);
+					else db.rollbackToSavepoint(txn);
+				}
+				db.commitTransaction(txn);
+				committed = true;
+			} finally {
+				if (!committed) db.abortTransaction(txn);
+			}
+		} catch (DbException | RuntimeException e) {
+			// The group wasn't committed, so all the tasks have failed
+			logException(LOG, WARNING, e);
+			for (GroupMember<?> m : group) m.fail(e);
+		} finally {
+			// Whatever happens, don't leave any uncommitted tasks waiting
+			if (!committed) {
+				for (GroupMember<?> m : group) m.fail(new DbException());
+			}
+		}
+		if (!committed) return group;
+		commits.incrementAndGet();
+		committedTransactions.addAndGet(succeeded.size());
+		// The group has been committed, so an exception thrown while
+		// releasing one task's actions doesn't affect the other tasks
+		for (GroupMember<?> m : succeeded) {
+			try {
+				m.succeed(visitor);
+			} catch (RuntimeException e) {
+				logException(LOG, WARNING, e);
+			}
+		}
+		return group;
+	}
+
+	@Override
+	public CommitStats getCommitStats() {
+		return new CommitStats(commits.get(), committedTransactions.get(),
+				now() - startTime);
+	}
+
 	@Override
 	public <R, E extends Exception> R transactionWithResult(boolean readOnly,
 			DbCallable<R, E> task) throws DbException, E {
@@ -341,6 +497,14 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.addTransportKeys(txn, p, k);
 	}
 
+	@Override
+	public boolean compactDatabase(Transaction transaction, int maxBytes)
+			throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		return db.compactDatabase(txn, maxBytes);
+	}
+
 	@Override
 	public boolean containsAnythingToSend(Transaction transaction, ContactId c,
 			long maxLatency, boolean eager) throws DbException {
@@ -387,6 +551,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.containsTransportKeys(txn, c, t);
 	}
 
+	@Override
+	public int countMessagesToDelete(Transaction transaction)
+			throws DbException {
+		T txn = unbox(transaction);
+		return db.countMessagesToDelete(txn);
+	}
+
 	@Override
 	public void deleteMessage(Transaction transaction, MessageId m)
 			throws DbException {
@@ -431,6 +602,30 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			throw new NoSuchContactException();
 		Collection<MessageId> ids =
 				db.getMessagesToSend(txn, c, maxLength, maxLatency);
+		return createBatch(transaction, c, ids, maxLatency);
+	}
+
+	@Nullable
+	@Override
+	public Collection<Message> generateBatch(Transaction transaction,
+			ContactId c, int maxLength, long maxLatency, ClientPriority p)
+			throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		Collection<MessageId> ids = db.getMessagesToSend(txn, c, maxLength,
+				maxLatency, clientPriorities.getLowPriorityClients(),
+				p == LOW);
+		return createBatch(transaction, c, ids, maxLatency);
+	}
+
+	@Nullable
+	private Collection<Message> createBatch(Transaction transaction,
+			ContactId c, Collection<MessageId> ids, long maxLatency)
+			throws DbException {
+		if (ids.isEmpty()) return null;
+		T txn = unbox(transaction);
 		long totalLength = 0;
 		List<Message> messages = new ArrayList<>(ids.size());
 		for (MessageId m : ids) {
@@ -439,7 +634,6 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			messages.add(message);
 			db.updateExpiryTimeAndEta(txn, c, m, maxLatency);
 		}
-		if (ids.isEmpty()) return null;
 		db.lowerRequestedFlag(txn, c, ids);
 		transaction.attach(new MessagesSentEvent(c, ids, totalLength));
 		return messages;
@@ -487,6 +681,24 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return new Offer(ids);
 	}
 
+	@Nullable
+	@Override
+	public Offer generateOffer(Transaction transaction, ContactId c,
+			int maxMessages, long maxLatency, ClientPriority p)
+			throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		Collection<MessageId> ids = db.getMessagesToOffer(txn, c, maxMessages,
+				maxLatency, clientPriorities.getLowPriorityClients(),
+				p == LOW);
+		if (ids.isEmpty()) return null;
+		for (MessageId m : ids)
+			db.updateExpiryTimeAndEta(txn, c, m, maxLatency);
+		return new Offer(ids);
+	}
+
 	@Nullable
 	@Override
 	public Request generateRequest(Transaction transaction, ContactId c,
@@ -512,18 +724,56 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			throw new NoSuchContactException();
 		Collection<MessageId> ids =
 				db.getRequestedMessagesToSend(txn, c, maxLength, maxLatency);
-		long totalLength = 0;
-		List<Message> messages = new ArrayList<>(ids.size());
-		for (MessageId m : ids) {
-			Message message = db.getMessage(txn, m);
-			totalLength += message.getRawLength();
-			messages.add(message);
-			db.updateExpiryTimeAndEta(txn, c, m, maxLatency);
+		return createBatch(transaction, c, ids, maxLatency);
+	}
+
+	@Nullable
+	@Override
+	public Collection<Message> generateRequestedBatch(Transaction transaction,
+			ContactId c, int maxLength, long maxLatency, ClientPriority p)
+			throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		Collection<MessageId> ids = db.getRequestedMessagesToSend(txn, c,
+				maxLength, maxLatency, clientPriorities.getLowPriorityClients(),
+				p == LOW);
+		return createBatch(transaction, c, ids, maxLatency);
+	}
+
+	@Nullable
+	@Override
+	public Sketch generateSketch(Transaction transaction, ContactId c,
+			GroupId g) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		if (db.getGroupVisibility(txn, c, g) == INVISIBLE) return null;
+		return createSketch(txn, c, g);
+	}
+
+	@Override
+	public Collection<Sketch> generateSketches(Transaction transaction,
+			ContactId c, int minMessages) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		List<Sketch> sketches = new ArrayList<>();
+		for (Entry<GroupId, Integer> e :
+				db.countUnseenMessages(txn, c).entrySet()) {
+			if (e.getValue() >= minMessages)
+				sketches.add(createSketch(txn, c, e.getKey()));
 		}
-		if (ids.isEmpty()) return null;
-		db.lowerRequestedFlag(txn, c, ids);
-		transaction.attach(new MessagesSentEvent(c, ids, totalLength));
-		return messages;
+		return sketches;
+	}
+
+	private Sketch createSketch(T txn, ContactId c, GroupId g)
+			throws DbException {
+		InvertibleBloomLookupTable table = new InvertibleBloomLookupTable();
+		for (MessageId m : db.getMessagesToReconcile(txn, c, g).keySet())
+			table.add(m);
+		return new Sketch(g, table.encode());
 	}
 
 	@Override
@@ -576,6 +826,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getGroupMetadata(txn, g);
 	}
 
+	@Override
+	public Map<GroupId, Metadata> getGroupMetadata(Transaction transaction,
+			Collection<GroupId> g) throws DbException {
+		T txn = unbox(transaction);
+		Map<GroupId, Metadata> metadata = db.getGroupMetadata(txn, g);
+		if (metadata.size() != new HashSet<>(g).size())
+			throw new NoSuchGroupException();
+		return metadata;
+	}
+
 	@Override
 	public Collection<Group> getGroups(Transaction transaction, ClientId c,
 			int majorVersion) throws DbException {
@@ -617,6 +877,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessage(txn, m);
 	}
 
+	@Override
+	public Map<MessageId, Message> getMessages(Transaction transaction,
+			Collection<MessageId> m) throws DbException {
+		T txn = unbox(transaction);
+		Map<MessageId, Message> messages = db.getMessages(txn, m);
+		if (messages.size() != new HashSet<>(m).size())
+			throw new NoSuchMessageException();
+		return messages;
+	}
+
 	@Override
 	public Collection<MessageId> getMessageIds(Transaction transaction,
 			GroupId g) throws DbException {
@@ -663,6 +933,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessagesToDelete(txn);
 	}
 
+	@Override
+	public Map<GroupId, Collection<MessageId>> getMessagesToDelete(
+			Transaction transaction, int maxMessages) throws DbException {
+		T txn = unbox(transaction);
+		return db.getMessagesToDelete(txn, maxMessages);
+	}
+
 	@Override
 	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
 			GroupId g) throws DbException {
@@ -814,6 +1091,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getSettings(txn, namespace);
 	}
 
+	@Override
+	public StorageStats getStorageStats(Transaction transaction)
+			throws DbException {
+		T txn = unbox(transaction);
+		return db.getStorageStats(txn);
+	}
+
 	@Override
 	public List<Byte> getSyncVersions(Transaction transaction, ContactId c)
 			throws DbException {
@@ -973,6 +1257,55 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		if (requested) transaction.attach(new MessageRequestedEvent(c));
 	}
 
+	@Override
+	public void receiveSketch(Transaction transaction, ContactId c, Sketch s)
+			throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		GroupId g = s.getGroupId();
+		if (db.getGroupVisibility(txn, c, g) == INVISIBLE) return;
+		// Subtract our sketch of the group from the contact's sketch
+		Map<MessageId, Boolean> ourIds = db.getMessagesToReconcile(txn, c, g);
+		InvertibleBloomLookupTable ours = new InvertibleBloomLookupTable();
+		for (MessageId m : ourIds.keySet()) ours.add(m);
+		InvertibleBloomLookupTable difference =
+				new InvertibleBloomLookupTable(s.getTable());
+		difference.subtract(ours);
+		List<MessageId> theirsOnly = new ArrayList<>();
+		Set<MessageId> oursOnly = new HashSet<>();
+		// Whether or not the sketch can be decoded, the contact is waiting
+		// for our sketch of the group
+		transaction.attach(new SketchReceivedEvent(c, g));
+		if (!difference.decode(theirsOnly, oursOnly)) {
+			LOG.info("Sketch could not be decoded");
+			return;
+		}
+		if (LOG.isLoggable(INFO)) {
+			LOG.info("Reconciled sketch: " + theirsOnly.size()
+					+ " to request, " + oursOnly.size() + " not held by contact");
+		}
+		// Request the messages that only the contact holds
+		boolean request = false;
+		int count = db.countOfferedMessages(txn, c);
+		for (MessageId m : theirsOnly) {
+			if (count >= MAX_OFFERED_MESSAGES) break;
+			if (!db.containsVisibleMessage(txn, c, m)) {
+				db.addOfferedMessage(txn, c, m);
+				request = true;
+				count++;
+			}
+		}
+		// The contact holds every other message in our sketch
+		for (Entry<MessageId, Boolean> e : ourIds.entrySet()) {
+			MessageId m = e.getKey();
+			if (!e.getValue() && !oursOnly.contains(m))
+				db.raiseSeenFlag(txn, c, m);
+		}
+		if (request) transaction.attach(new MessageToRequestEvent(c));
+	}
+
 	@Override
 	public void removeContact(Transaction transaction, ContactId c)
 			throws DbException {
@@ -1247,6 +1580,83 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		}
 	}
 
+	/**
+	 * A task submitted to {@link #groupTransaction(DbRunnable)} or
+	 * {@link #queueGroupTransaction(DbRunnable, Consumer)}, along with its
+	 * outcome. The outcome is written by the holder of the write lock and
+	 * read by the submitting thread after acquiring the lock, or passed to
+	 * the exception handler if the task was queued.
+	 */
+	private static class GroupMember<E extends Exception> {
+
+		private final DbRunnable<E> task;
+		@Nullable
+		private final Consumer<Exception> exceptionHandler;
+
+		@Nullable
+		private Transaction txn = null;
+		private boolean finished = false;
+		@Nullable
+		private Exception exception = null;
+
+		private GroupMember(DbRunnable<E> task,
+				@Nullable Consumer<Exception> exceptionHandler) {
+			this.task = task;
+			this.exceptionHandler = exceptionHandler;
+		}
+
+		/**
+		 * Runs the task and returns true if it succeeded.
+		 */
+		private boolean run(Transaction txn) {
+			try {
+				task.run(txn);
+				this.txn = txn;
+				return true;
+			} catch (Exception e) {
+				// The task's changes will be undone, so the task has failed
+				fail(e);
+				return false;
+			}
+		}
+
+		/**
+		 * Releases the actions attached to the task's transaction after the
+		 * group has been committed.
+		 */
+		private void succeed(Visitor visitor) {
+			if (txn == null) throw new IllegalStateException();
+			txn.setCommitted();
+			finished = true;
+			for (CommitAction a : txn.getActions()) a.accept(visitor);
+		}
+
+		private void fail(Exception e) {
+			if (finished) return;
+			exception = e;
+			finished = true;
+		}
+
+		/**
+		 * Passes the exception to the exception handler, if the task was
+		 * queued and has failed. This must be called without holding the
+		 * write lock.
+		 */
+		private void handleFailure() {
+			if (exceptionHandler != null && exception != null)
+				exceptionHandler.accept(exception);
+		}
+
+		@SuppressWarnings("unchecked")
+		private void throwIfFailed() throws DbException, E {
+			if (exception == null) return;
+			if (exception instanceof DbException) throw (DbException) exception;
+			if (exception instanceof RuntimeException)
+				throw (RuntimeException) exception;
+			throw (E) exception;
+		}
+	}
+
 	private class CommitActionVisitor implements Visitor {
 
 		@Override
@@ -32,9 +32,9 @@ interface DatabaseConstants {
 	String LAST_COMPACTED_KEY = "lastCompacted";
 
 	/**
-	 * The maximum time between database compactions in milliseconds. When the
-	 * database is opened it will be compacted if more than this amount of time
-	 * has passed since the last compaction.
+	 * The maximum time between database compactions in milliseconds. The
+	 * database will be compacted online if more than this amount of time has
+	 * passed since the last compaction.
 	 */
 	long MAX_COMPACTION_INTERVAL_MS = DAYS.toMillis(30);
 
@@ -43,4 +43,11 @@ interface DatabaseConstants {
 	 * whether the database is marked as dirty.
 	 */
 	String DIRTY_KEY = "dirty";
+
+	/**
+	 * The {@link Settings} key under which the flag is stored indicating
+	 * whether the bodies of all messages have been moved into the
+	 * {@link MessageBodyStore}.
+	 */
+	String BODIES_IN_FILES_KEY = "bodiesInFiles";
 }
@@ -1,8 +1,13 @@
 package org.briarproject.bramble.db;
 
 import org.briarproject.bramble.TimeLoggingExecutor;
+import org.briarproject.bramble.api.db.AsyncTransactionManager;
+import org.briarproject.bramble.api.db.CommitMetrics;
+import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.TaskScheduler;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
@@ -17,6 +22,7 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static java.util.Collections.emptyList;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 @Module
@@ -26,6 +32,10 @@ public class DatabaseExecutorModule {
 		@Inject
 		@DatabaseExecutor
 		ExecutorService executorService;
+		@Inject
+		AsyncTransactionManager asyncTransactionManager;
+		@Inject
+		DatabaseCompactor databaseCompactor;
 	}
 
 	private final ExecutorService databaseExecutor;
@@ -57,4 +67,27 @@ public class DatabaseExecutorModule {
 			@DatabaseExecutor ExecutorService dbExecutor) {
 		return dbExecutor;
 	}
+
+	@Provides
+	@Singleton
+	AsyncTransactionManager provideAsyncTransactionManager(
+			LifecycleManager lifecycleManager,
+			AsyncTransactionManagerImpl asyncTransactionManager) {
+		lifecycleManager.registerService(asyncTransactionManager,
+				emptyList());
+		return asyncTransactionManager;
+	}
+
+	@Provides
+	@Singleton
+	DatabaseCompactor provideDatabaseCompactor(
+			LifecycleManager lifecycleManager, DatabaseComponent db,
+			CommitMetrics commitMetrics,
+			@DatabaseExecutor Executor dbExecutor,
+			TaskScheduler taskScheduler, Clock clock) {
+		DatabaseCompactor databaseCompactor = new DatabaseCompactor(db,
+				commitMetrics, dbExecutor, taskScheduler, clock);
+		lifecycleManager.registerService(databaseCompactor, emptyList());
+		return databaseCompactor;
+	}
 }
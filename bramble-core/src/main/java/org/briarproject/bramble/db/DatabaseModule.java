@@ -1,17 +1,25 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.FeatureFlags;
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.db.CommitMetrics;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.db.DatabaseExecutor;
+import org.briarproject.bramble.api.db.QueryMetrics;
 import org.briarproject.bramble.api.db.TransactionManager;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventExecutor;
 import org.briarproject.bramble.api.lifecycle.ShutdownManager;
+import org.briarproject.bramble.api.sync.ClientPriorityRegistry;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.system.Clock;
 
+import java.io.File;
 import java.sql.Connection;
 import java.util.concurrent.Executor;
 
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import dagger.Module;
@@ -23,17 +31,50 @@ public class DatabaseModule {
 	@Provides
 	@Singleton
 	Database<Connection> provideDatabase(DatabaseConfig config,
-			MessageFactory messageFactory, Clock clock) {
-		return new H2Database(config, messageFactory, clock);
+			MessageFactory messageFactory, Clock clock, CryptoComponent crypto,
+			FeatureFlags featureFlags, QueryMetricsImpl queryMetrics) {
+		MessageBodyStore bodyStore = null;
+		if (featureFlags.shouldStoreMessageBodiesInFiles()) {
+			File dir = new File(config.getDatabaseDirectory(), "bodies");
+			bodyStore = new MessageBodyStore(dir, crypto);
+		}
+		Database<Connection> db =
+				new H2Database(config, messageFactory, clock, bodyStore);
+		return new InstrumentedDatabase<>(db, queryMetrics);
 	}
 
 	@Provides
 	@Singleton
-	DatabaseComponent provideDatabaseComponent(Database<Connection> db,
-			EventBus eventBus, @EventExecutor Executor eventExecutor,
-			ShutdownManager shutdownManager) {
+	QueryMetricsImpl provideQueryMetricsImpl(Clock clock) {
+		return new QueryMetricsImpl(clock);
+	}
+
+	@Provides
+	QueryMetrics provideQueryMetrics(QueryMetricsImpl queryMetrics) {
+		return queryMetrics;
+	}
+
+	@Provides
+	@Singleton
+	DatabaseComponentImpl<Connection> provideDatabaseComponentImpl(
+			Database<Connection> db, EventBus eventBus,
+			@EventExecutor Executor eventExecutor,
+			@DatabaseExecutor Provider<Executor> dbExecutor,
+			ShutdownManager shutdownManager,
+			ClientPriorityRegistry clientPriorities) {
 		return new DatabaseComponentImpl<>(db, Connection.class, eventBus,
-				eventExecutor, shutdownManager);
+				eventExecutor, dbExecutor, shutdownManager, clientPriorities);
+	}
+
+	@Provides
+	DatabaseComponent provideDatabaseComponent(
+			DatabaseComponentImpl<Connection> db) {
+		return db;
+	}
+
+	@Provides
+	CommitMetrics provideCommitMetrics(DatabaseComponentImpl<Connection> db) {
+		return db;
 	}
 
 	@Provides
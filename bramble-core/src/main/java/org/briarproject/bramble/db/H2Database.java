@@ -5,26 +5,37 @@ import org.briarproject.bramble.api.db.DatabaseConfig;
 import org.briarproject.bramble.api.db.DbClosedException;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.MigrationListener;
+import org.briarproject.bramble.api.db.StorageStats;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.util.StringUtils;
+import org.h2.engine.Session;
+import org.h2.engine.SessionInterface;
+import org.h2.jdbc.JdbcConnection;
+import org.h2.mvstore.Chunk;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.db.MVTableEngine.Store;
 
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Iterator;
 import java.util.Properties;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
+import static java.lang.Math.max;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+import static org.briarproject.bramble.util.IoUtils.getFileOrDirSize;
 import static org.briarproject.bramble.util.IoUtils.isNonEmptyDirectory;
 import static org.briarproject.bramble.util.LogUtils.logFileOrDir;
 
@@ -44,6 +55,30 @@ class H2Database extends JdbcDatabase {
 	private static final DatabaseTypes dbTypes = new DatabaseTypes(HASH_TYPE,
 			SECRET_TYPE, BINARY_TYPE, COUNTER_TYPE, STRING_TYPE);
 
+	/**
+	 * Online compaction rewrites storage chunks that are less than this
+	 * percentage full.
+	 */
+	private static final int TARGET_FILL_RATE = 80;
+
+	/**
+	 * The maximum number of bytes online compaction moves at once when
+	 * shrinking the file. This is the amount moved by H2's SHUTDOWN
+	 * COMPACT, and needs to be larger than the chunks written when
+	 * rewriting, as the MVStore only moves whole chunks.
+	 */
+	private static final long MAX_MOVE_BYTES = 16 * 1024 * 1024;
+
+	/**
+	 * The prefix of the MVStore metadata keys that describe storage chunks.
+	 */
+	private static final String CHUNK_PREFIX = "chunk.";
+
+	/**
+	 * The size of the blocks in which the MVStore allocates chunks.
+	 */
+	private static final int BLOCK_BYTES = 4096;
+
 	private final DatabaseConfig config;
 	private final String url;
 
@@ -53,7 +88,12 @@ class H2Database extends JdbcDatabase {
 	@Inject
 	H2Database(DatabaseConfig config, MessageFactory messageFactory,
 			Clock clock) {
-		super(dbTypes, messageFactory, clock);
+		this(config, messageFactory, clock, null);
+	}
+
+	H2Database(DatabaseConfig config, MessageFactory messageFactory,
+			Clock clock, @Nullable MessageBodyStore bodyStore) {
+		super(dbTypes, messageFactory, clock, bodyStore);
 		this.config = config;
 		File dir = config.getDatabaseDirectory();
 		String path = new File(dir, "db").getAbsolutePath();
@@ -90,6 +130,7 @@ class H2Database extends JdbcDatabase {
 			super.closeAllConnections();
 			setDirty(c, false);
 			c.close();
+			closeBodyStore();
 		} catch (SQLException e) {
 			tryToClose(c, LOG, WARNING);
 			throw new DbException(e);
@@ -112,6 +153,85 @@ class H2Database extends JdbcDatabase {
 		return url;
 	}
 
+	@Override
+	protected boolean compactTables(Connection txn, int maxBytes)
+			throws DbException {
+		MVStore store = getStore(txn);
+		// Online compaction is only supported by the MVStore
+		if (store == null) return false;
+		// This follows the steps taken by H2's SHUTDOWN COMPACT. Old chunks
+		// are normally kept for a while after they stop being used, and
+		// recently written chunks aren't rewritten. Don't keep them, as no
+		// other transactions are open
+		int retentionTime = store.getRetentionTime();
+		store.setRetentionTime(0);
+		try {
+			// Rewrite the sparsest chunks, so the chunks they occupied can
+			// be freed
+			if (store.compact(TARGET_FILL_RATE, maxBytes)) {
+				store.sync();
+				return true;
+			}
+			// When there's nothing left to rewrite, move chunks from the end
+			// of the file into the free space nearest the start, so the end
+			// of the file can be truncated. Only count this as progress if
+			// the file shrank, as the chunks may not fit the free space
+			long fileBytes = store.getFileStore().size();
+			store.compactMoveChunks(TARGET_FILL_RATE, MAX_MOVE_BYTES);
+			return store.getFileStore().size() < fileBytes;
+		} catch (IllegalStateException e) {
+			throw new DbException(e);
+		} finally {
+			store.setRetentionTime(retentionTime);
+		}
+	}
+
+	@Override
+	protected StorageStats getTableStorageStats(Connection txn)
+			throws DbException {
+		MVStore store = getStore(txn);
+		if (store == null) {
+			long size = getFileOrDirSize(config.getDatabaseDirectory());
+			return new StorageStats(size, 0);
+		}
+		long size = store.getFileStore().size();
+		// Count the free space within chunks as well as between them, as
+		// the space occupied by deleted data isn't freed until the rest of
+		// the chunk is rewritten
+		long live = 0;
+		try {
+			MVMap<String, String> meta = store.getMetaMap();
+			Iterator<String> it = meta.keyIterator(CHUNK_PREFIX);
+			while (it.hasNext()) {
+				String k = it.next();
+				if (!k.startsWith(CHUNK_PREFIX)) break;
+				String v = meta.get(k);
+				if (v == null) continue;
+				Chunk c = Chunk.fromString(v);
+				if (c.maxLen > 0) {
+					long chunkBytes = (long) c.len * BLOCK_BYTES;
+					live += chunkBytes * c.maxLenLive / c.maxLen;
+				}
+			}
+		} catch (IllegalStateException e) {
+			throw new DbException(e);
+		}
+		return new StorageStats(size, max(0, size - live));
+	}
+
+	/**
+	 * Returns the MVStore underlying the given connection, or null if the
+	 * database uses the older page store.
+	 */
+	@Nullable
+	private MVStore getStore(Connection txn) throws DbException {
+		if (!(txn instanceof JdbcConnection)) throw new DbException();
+		SessionInterface session = ((JdbcConnection) txn).getSession();
+		if (!(session instanceof Session)) throw new DbException();
+		Store store = ((Session) session).getDatabase().getMvStore();
+		return store == null ? null : store.getStore();
+	}
+
 	@Override
 	protected void compactAndClose() throws DbException {
 		Connection c = null;
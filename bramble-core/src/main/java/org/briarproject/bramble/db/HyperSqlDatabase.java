@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.db.DatabaseConfig;
 import org.briarproject.bramble.api.db.DbClosedException;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.MigrationListener;
+import org.briarproject.bramble.api.db.StorageStats;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.system.Clock;
@@ -24,6 +25,7 @@ import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
+import static org.briarproject.bramble.util.IoUtils.getFileOrDirSize;
 import static org.briarproject.bramble.util.IoUtils.isNonEmptyDirectory;
 
 /**
@@ -101,6 +103,19 @@ class HyperSqlDatabase extends JdbcDatabase {
 		return DriverManager.getConnection(url + ";crypt_key=" + hex);
 	}
 
+	@Override
+	protected boolean compactTables(Connection txn, int maxBytes) {
+		// HSQLDB keeps our tables in memory and rewrites the script file
+		// at each checkpoint, so there's nothing to compact online
+		return false;
+	}
+
+	@Override
+	protected StorageStats getTableStorageStats(Connection txn) {
+		long size = getFileOrDirSize(config.getDatabaseDirectory());
+		return new StorageStats(size, 0);
+	}
+
 	@Override
 	protected void compactAndClose() throws DbException {
 		Connection c = null;
@@ -0,0 +1,1101 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.PendingContact;
+import org.briarproject.bramble.api.contact.PendingContactId;
+import org.briarproject.bramble.api.crypto.PrivateKey;
+import org.briarproject.bramble.api.crypto.PublicKey;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MigrationListener;
+import org.briarproject.bramble.api.db.StorageStats;
+import org.briarproject.bramble.api.identity.Author;
+import org.briarproject.bramble.api.identity.AuthorId;
+import org.briarproject.bramble.api.identity.Identity;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.settings.Settings;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.Group.Visibility;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.MessageStatus;
+import org.briarproject.bramble.api.sync.validation.MessageState;
+import org.briarproject.bramble.api.transport.KeySetId;
+import org.briarproject.bramble.api.transport.TransportKeySet;
+import org.briarproject.bramble.api.transport.TransportKeys;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link Database} decorator that passes each call to
+ * {@link QueryMetricsImpl} so its latency can be recorded.
+ */
+@NotNullByDefault
+class InstrumentedDatabase<T> implements Database<T> {
+
+	private final Database<T> db;
+	private final QueryMetricsImpl metrics;
+
+	InstrumentedDatabase(Database<T> db, QueryMetricsImpl metrics) {
+		this.db = db;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean open(SecretKey key, @Nullable MigrationListener listener)
+			throws DbException {
+		return db.open(key, listener);
+	}
+
+	@Override
+	public void close() throws DbException {
+		db.close();
+	}
+
+	@Override
+	public boolean wasDirtyOnInitialisation() {
+		return db.wasDirtyOnInitialisation();
+	}
+
+	@Override
+	public T startTransaction() throws DbException {
+		long start = metrics.start();
+		T result = db.startTransaction();
+		metrics.record("startTransaction()", start, 1);
+		return result;
+	}
+
+	@Override
+	public void abortTransaction(T txn) {
+		long start = metrics.start();
+		db.abortTransaction(txn);
+		metrics.record("abortTransaction(T)", start, 0);
+	}
+
+	@Override
+	public void commitTransaction(T txn) throws DbException {
+		long start = metrics.start();
+		db.commitTransaction(txn);
+		metrics.record("commitTransaction(T)", start, 0);
+	}
+
+	@Override
+	public void setSavepoint(T txn) throws DbException {
+		long start = metrics.start();
+		db.setSavepoint(txn);
+		metrics.record("setSavepoint(T)", start, 0);
+	}
+
+	@Override
+	public void rollbackToSavepoint(T txn) throws DbException {
+		long start = metrics.start();
+		db.rollbackToSavepoint(txn);
+		metrics.record("rollbackToSavepoint(T)", start, 0);
+	}
+
+	@Override
+	public ContactId addContact(T txn, Author remote, AuthorId local,
+			@Nullable PublicKey handshake, boolean verified)
+			throws DbException {
+		long start = metrics.start();
+		ContactId result =
+				db.addContact(txn, remote, local, handshake, verified);
+		metrics.record("addContact(T, Author, AuthorId, PublicKey, boolean)",
+				start, 1);
+		return result;
+	}
+
+	@Override
+	public void addGroup(T txn, Group g) throws DbException {
+		long start = metrics.start();
+		db.addGroup(txn, g);
+		metrics.record("addGroup(T, Group)", start, 0);
+	}
+
+	@Override
+	public void addGroupVisibility(T txn, ContactId c, GroupId g,
+			boolean shared) throws DbException {
+		long start = metrics.start();
+		db.addGroupVisibility(txn, c, g, shared);
+		metrics.record("addGroupVisibility(T, ContactId, GroupId, boolean)",
+				start, 0);
+	}
+
+	@Override
+	public void addIdentity(T txn, Identity i) throws DbException {
+		long start = metrics.start();
+		db.addIdentity(txn, i);
+		metrics.record("addIdentity(T, Identity)", start, 0);
+	}
+
+	@Override
+	public void addMessage(T txn, Message m, MessageState state, boolean shared,
+			boolean temporary, @Nullable ContactId sender) throws DbException {
+		long start = metrics.start();
+		db.addMessage(txn, m, state, shared, temporary, sender);
+		metrics.record("addMessage(T, Message, MessageState, boolean, boolean,"
+				+ " ContactId)", start, 0);
+	}
+
+	@Override
+	public void addMessageDependency(T txn, Message dependent,
+			MessageId dependency, MessageState dependentState)
+			throws DbException {
+		long start = metrics.start();
+		db.addMessageDependency(txn, dependent, dependency, dependentState);
+		metrics.record("addMessageDependency(T, Message, MessageId,"
+				+ " MessageState)", start, 0);
+	}
+
+	@Override
+	public void addOfferedMessage(T txn, ContactId c, MessageId m)
+			throws DbException {
+		long start = metrics.start();
+		db.addOfferedMessage(txn, c, m);
+		metrics.record("addOfferedMessage(T, ContactId, MessageId)", start, 0);
+	}
+
+	@Override
+	public void addPendingContact(T txn, PendingContact p) throws DbException {
+		long start = metrics.start();
+		db.addPendingContact(txn, p);
+		metrics.record("addPendingContact(T, PendingContact)", start, 0);
+	}
+
+	@Override
+	public void addTransport(T txn, TransportId t, long maxLatency)
+			throws DbException {
+		long start = metrics.start();
+		db.addTransport(txn, t, maxLatency);
+		metrics.record("addTransport(T, TransportId, long)", start, 0);
+	}
+
+	@Override
+	public KeySetId addTransportKeys(T txn, ContactId c, TransportKeys k)
+			throws DbException {
+		long start = metrics.start();
+		KeySetId result = db.addTransportKeys(txn, c, k);
+		metrics.record("addTransportKeys(T, ContactId, TransportKeys)", start,
+				1);
+		return result;
+	}
+
+	@Override
+	public KeySetId addTransportKeys(T txn, PendingContactId p, TransportKeys k)
+			throws DbException {
+		long start = metrics.start();
+		KeySetId result = db.addTransportKeys(txn, p, k);
+		metrics.record("addTransportKeys(T, PendingContactId, TransportKeys)",
+				start, 1);
+		return result;
+	}
+
+	@Override
+	public boolean compactDatabase(T txn, int maxBytes) throws DbException {
+		long start = metrics.start();
+		boolean result = db.compactDatabase(txn, maxBytes);
+		metrics.record("compactDatabase(T, int)", start, 1);
+		return result;
+	}
+
+	@Override
+	public boolean containsAnythingToSend(T txn, ContactId c, long maxLatency,
+			boolean eager) throws DbException {
+		long start = metrics.start();
+		boolean result = db.containsAnythingToSend(txn, c, maxLatency, eager);
+		metrics.record("containsAnythingToSend(T, ContactId, long, boolean)",
+				start, 1);
+		return result;
+	}
+
+	@Override
+	public boolean containsContact(T txn, AuthorId remote, AuthorId local)
+			throws DbException {
+		long start = metrics.start();
+		boolean result = db.containsContact(txn, remote, local);
+		metrics.record("containsContact(T, AuthorId, AuthorId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public boolean containsContact(T txn, ContactId c) throws DbException {
+		long start = metrics.start();
+		boolean result = db.containsContact(txn, c);
+		metrics.record("containsContact(T, ContactId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public boolean containsGroup(T txn, GroupId g) throws DbException {
+		long start = metrics.start();
+		boolean result = db.containsGroup(txn, g);
+		metrics.record("containsGroup(T, GroupId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public boolean containsIdentity(T txn, AuthorId a) throws DbException {
+		long start = metrics.start();
+		boolean result = db.containsIdentity(txn, a);
+		metrics.record("containsIdentity(T, AuthorId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public boolean containsMessage(T txn, MessageId m) throws DbException {
+		long start = metrics.start();
+		boolean result = db.containsMessage(txn, m);
+		metrics.record("containsMessage(T, MessageId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public boolean containsPendingContact(T txn, PendingContactId p)
+			throws DbException {
+		long start = metrics.start();
+		boolean result = db.containsPendingContact(txn, p);
+		metrics.record("containsPendingContact(T, PendingContactId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public boolean containsTransport(T txn, TransportId t) throws DbException {
+		long start = metrics.start();
+		boolean result = db.containsTransport(txn, t);
+		metrics.record("containsTransport(T, TransportId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public boolean containsTransportKeys(T txn, ContactId c, TransportId t)
+			throws DbException {
+		long start = metrics.start();
+		boolean result = db.containsTransportKeys(txn, c, t);
+		metrics.record("containsTransportKeys(T, ContactId, TransportId)",
+				start, 1);
+		return result;
+	}
+
+	@Override
+	public boolean containsVisibleMessage(T txn, ContactId c, MessageId m)
+			throws DbException {
+		long start = metrics.start();
+		boolean result = db.containsVisibleMessage(txn, c, m);
+		metrics.record("containsVisibleMessage(T, ContactId, MessageId)", start,
+				1);
+		return result;
+	}
+
+	@Override
+	public int countMessagesToDelete(T txn) throws DbException {
+		long start = metrics.start();
+		int result = db.countMessagesToDelete(txn);
+		metrics.record("countMessagesToDelete(T)", start, 1);
+		return result;
+	}
+
+	@Override
+	public int countOfferedMessages(T txn, ContactId c) throws DbException {
+		long start = metrics.start();
+		int result = db.countOfferedMessages(txn, c);
+		metrics.record("countOfferedMessages(T, ContactId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public Map<GroupId, Integer> countUnseenMessages(T txn, ContactId c)
+			throws DbException {
+		long start = metrics.start();
+		Map<GroupId, Integer> result = db.countUnseenMessages(txn, c);
+		metrics.record("countUnseenMessages(T, ContactId)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	public void deleteMessage(T txn, MessageId m) throws DbException {
+		long start = metrics.start();
+		db.deleteMessage(txn, m);
+		metrics.record("deleteMessage(T, MessageId)", start, 0);
+	}
+
+	@Override
+	public void deleteMessageMetadata(T txn, MessageId m) throws DbException {
+		long start = metrics.start();
+		db.deleteMessageMetadata(txn, m);
+		metrics.record("deleteMessageMetadata(T, MessageId)", start, 0);
+	}
+
+	@Override
+	public Contact getContact(T txn, ContactId c) throws DbException {
+		long start = metrics.start();
+		Contact result = db.getContact(txn, c);
+		metrics.record("getContact(T, ContactId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public Collection<Contact> getContacts(T txn) throws DbException {
+		long start = metrics.start();
+		Collection<Contact> result = db.getContacts(txn);
+		metrics.record("getContacts(T)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<Contact> getContactsByAuthorId(T txn, AuthorId remote)
+			throws DbException {
+		long start = metrics.start();
+		Collection<Contact> result = db.getContactsByAuthorId(txn, remote);
+		metrics.record("getContactsByAuthorId(T, AuthorId)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<ContactId> getContacts(T txn, AuthorId local)
+			throws DbException {
+		long start = metrics.start();
+		Collection<ContactId> result = db.getContacts(txn, local);
+		metrics.record("getContacts(T, AuthorId)", start, result.size());
+		return result;
+	}
+
+	@Override
+	@Nullable
+	public Contact getContact(T txn, PublicKey handshakePublicKey,
+			AuthorId local) throws DbException {
+		long start = metrics.start();
+		Contact result = db.getContact(txn, handshakePublicKey, local);
+		metrics.record("getContact(T, PublicKey, AuthorId)", start,
+				result == null ? 0 : 1);
+		return result;
+	}
+
+	@Override
+	public Group getGroup(T txn, GroupId g) throws DbException {
+		long start = metrics.start();
+		Group result = db.getGroup(txn, g);
+		metrics.record("getGroup(T, GroupId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public Metadata getGroupMetadata(T txn, GroupId g) throws DbException {
+		long start = metrics.start();
+		Metadata result = db.getGroupMetadata(txn, g);
+		metrics.record("getGroupMetadata(T, GroupId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public Map<GroupId, Metadata> getGroupMetadata(T txn, Collection<GroupId> g)
+			throws DbException {
+		long start = metrics.start();
+		Map<GroupId, Metadata> result = db.getGroupMetadata(txn, g);
+		metrics.record("getGroupMetadata(T, Collection<GroupId>)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<Group> getGroups(T txn, ClientId c, int majorVersion)
+			throws DbException {
+		long start = metrics.start();
+		Collection<Group> result = db.getGroups(txn, c, majorVersion);
+		metrics.record("getGroups(T, ClientId, int)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Visibility getGroupVisibility(T txn, ContactId c, GroupId g)
+			throws DbException {
+		long start = metrics.start();
+		Visibility result = db.getGroupVisibility(txn, c, g);
+		metrics.record("getGroupVisibility(T, ContactId, GroupId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public Map<ContactId, Boolean> getGroupVisibility(T txn, GroupId g)
+			throws DbException {
+		long start = metrics.start();
+		Map<ContactId, Boolean> result = db.getGroupVisibility(txn, g);
+		metrics.record("getGroupVisibility(T, GroupId)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Identity getIdentity(T txn, AuthorId a) throws DbException {
+		long start = metrics.start();
+		Identity result = db.getIdentity(txn, a);
+		metrics.record("getIdentity(T, AuthorId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public Collection<Identity> getIdentities(T txn) throws DbException {
+		long start = metrics.start();
+		Collection<Identity> result = db.getIdentities(txn);
+		metrics.record("getIdentities(T)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Message getMessage(T txn, MessageId m) throws DbException {
+		long start = metrics.start();
+		Message result = db.getMessage(txn, m);
+		metrics.record("getMessage(T, MessageId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public Map<MessageId, Message> getMessages(T txn, Collection<MessageId> m)
+			throws DbException {
+		long start = metrics.start();
+		Map<MessageId, Message> result = db.getMessages(txn, m);
+		metrics.record("getMessages(T, Collection<MessageId>)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	public Map<MessageId, MessageState> getMessageDependencies(T txn,
+			MessageId m) throws DbException {
+		long start = metrics.start();
+		Map<MessageId, MessageState> result = db.getMessageDependencies(txn, m);
+		metrics.record("getMessageDependencies(T, MessageId)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	public Map<MessageId, MessageState> getMessageDependents(T txn, MessageId m)
+			throws DbException {
+		long start = metrics.start();
+		Map<MessageId, MessageState> result = db.getMessageDependents(txn, m);
+		metrics.record("getMessageDependents(T, MessageId)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<MessageId> getMessageIds(T txn, GroupId g)
+			throws DbException {
+		long start = metrics.start();
+		Collection<MessageId> result = db.getMessageIds(txn, g);
+		metrics.record("getMessageIds(T, GroupId)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<MessageId> getMessageIds(T txn, GroupId g, Metadata query)
+			throws DbException {
+		long start = metrics.start();
+		Collection<MessageId> result = db.getMessageIds(txn, g, query);
+		metrics.record("getMessageIds(T, GroupId, Metadata)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(T txn, GroupId g)
+			throws DbException {
+		long start = metrics.start();
+		Map<MessageId, Metadata> result = db.getMessageMetadata(txn, g);
+		metrics.record("getMessageMetadata(T, GroupId)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(T txn, GroupId g,
+			Metadata query) throws DbException {
+		long start = metrics.start();
+		Map<MessageId, Metadata> result = db.getMessageMetadata(txn, g, query);
+		metrics.record("getMessageMetadata(T, GroupId, Metadata)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	public Metadata getMessageMetadataForValidator(T txn, MessageId m)
+			throws DbException {
+		long start = metrics.start();
+		Metadata result = db.getMessageMetadataForValidator(txn, m);
+		metrics.record("getMessageMetadataForValidator(T, MessageId)", start,
+				1);
+		return result;
+	}
+
+	@Override
+	public Metadata getMessageMetadata(T txn, MessageId m) throws DbException {
+		long start = metrics.start();
+		Metadata result = db.getMessageMetadata(txn, m);
+		metrics.record("getMessageMetadata(T, MessageId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public MessageState getMessageState(T txn, MessageId m) throws DbException {
+		long start = metrics.start();
+		MessageState result = db.getMessageState(txn, m);
+		metrics.record("getMessageState(T, MessageId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public Collection<MessageStatus> getMessageStatus(T txn, ContactId c,
+			GroupId g) throws DbException {
+		long start = metrics.start();
+		Collection<MessageStatus> result = db.getMessageStatus(txn, c, g);
+		metrics.record("getMessageStatus(T, ContactId, GroupId)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	@Nullable
+	public MessageStatus getMessageStatus(T txn, ContactId c, MessageId m)
+			throws DbException {
+		long start = metrics.start();
+		MessageStatus result = db.getMessageStatus(txn, c, m);
+		metrics.record("getMessageStatus(T, ContactId, MessageId)", start,
+				result == null ? 0 : 1);
+		return result;
+	}
+
+	@Override
+	public Collection<MessageId> getMessagesToAck(T txn, ContactId c,
+			int maxMessages) throws DbException {
+		long start = metrics.start();
+		Collection<MessageId> result = db.getMessagesToAck(txn, c, maxMessages);
+		metrics.record("getMessagesToAck(T, ContactId, int)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<MessageId> getMessagesToOffer(T txn, ContactId c,
+			int maxMessages, long maxLatency) throws DbException {
+		long start = metrics.start();
+		Collection<MessageId> result =
+				db.getMessagesToOffer(txn, c, maxMessages, maxLatency);
+		metrics.record("getMessagesToOffer(T, ContactId, int, long)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<MessageId> getMessagesToOffer(T txn, ContactId c,
+			int maxMessages, long maxLatency, Collection<ClientId> clients,
+			boolean include) throws DbException {
+		long start = metrics.start();
+		Collection<MessageId> result = db.getMessagesToOffer(txn, c,
+				maxMessages, maxLatency, clients, include);
+		metrics.record("getMessagesToOffer(T, ContactId, int, long,"
+				+ " Collection<ClientId>, boolean)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Map<MessageId, Boolean> getMessagesToReconcile(T txn, ContactId c,
+			GroupId g) throws DbException {
+		long start = metrics.start();
+		Map<MessageId, Boolean> result = db.getMessagesToReconcile(txn, c, g);
+		metrics.record("getMessagesToReconcile(T, ContactId, GroupId)",
+				start, result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<MessageId> getMessagesToRequest(T txn, ContactId c,
+			int maxMessages) throws DbException {
+		long start = metrics.start();
+		Collection<MessageId> result =
+				db.getMessagesToRequest(txn, c, maxMessages);
+		metrics.record("getMessagesToRequest(T, ContactId, int)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<MessageId> getMessagesToSend(T txn, ContactId c,
+			int maxLength, long maxLatency) throws DbException {
+		long start = metrics.start();
+		Collection<MessageId> result =
+				db.getMessagesToSend(txn, c, maxLength, maxLatency);
+		metrics.record("getMessagesToSend(T, ContactId, int, long)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<MessageId> getMessagesToSend(T txn, ContactId c,
+			int maxLength, long maxLatency, Collection<ClientId> clients,
+			boolean include) throws DbException {
+		long start = metrics.start();
+		Collection<MessageId> result = db.getMessagesToSend(txn, c, maxLength,
+				maxLatency, clients, include);
+		metrics.record("getMessagesToSend(T, ContactId, int, long,"
+				+ " Collection<ClientId>, boolean)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Map<MessageId, Integer> getUnackedMessagesToSend(T txn, ContactId c)
+			throws DbException {
+		long start = metrics.start();
+		Map<MessageId, Integer> result = db.getUnackedMessagesToSend(txn, c);
+		metrics.record("getUnackedMessagesToSend(T, ContactId)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	public long getUnackedMessageBytesToSend(T txn, ContactId c)
+			throws DbException {
+		long start = metrics.start();
+		long result = db.getUnackedMessageBytesToSend(txn, c);
+		metrics.record("getUnackedMessageBytesToSend(T, ContactId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public Collection<MessageId> getMessagesToValidate(T txn)
+			throws DbException {
+		long start = metrics.start();
+		Collection<MessageId> result = db.getMessagesToValidate(txn);
+		metrics.record("getMessagesToValidate(T)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<MessageId> getPendingMessages(T txn) throws DbException {
+		long start = metrics.start();
+		Collection<MessageId> result = db.getPendingMessages(txn);
+		metrics.record("getPendingMessages(T)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<MessageId> getMessagesToShare(T txn) throws DbException {
+		long start = metrics.start();
+		Collection<MessageId> result = db.getMessagesToShare(txn);
+		metrics.record("getMessagesToShare(T)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Map<GroupId, Collection<MessageId>> getMessagesToDelete(T txn)
+			throws DbException {
+		long start = metrics.start();
+		Map<GroupId, Collection<MessageId>> result =
+				db.getMessagesToDelete(txn);
+		metrics.record("getMessagesToDelete(T)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Map<GroupId, Collection<MessageId>> getMessagesToDelete(T txn,
+			int maxMessages) throws DbException {
+		long start = metrics.start();
+		Map<GroupId, Collection<MessageId>> result =
+				db.getMessagesToDelete(txn, maxMessages);
+		metrics.record("getMessagesToDelete(T, int)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public long getNextCleanupDeadline(T txn) throws DbException {
+		long start = metrics.start();
+		long result = db.getNextCleanupDeadline(txn);
+		metrics.record("getNextCleanupDeadline(T)", start, 1);
+		return result;
+	}
+
+	@Override
+	public long getNextSendTime(T txn, ContactId c) throws DbException {
+		long start = metrics.start();
+		long result = db.getNextSendTime(txn, c);
+		metrics.record("getNextSendTime(T, ContactId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public PendingContact getPendingContact(T txn, PendingContactId p)
+			throws DbException {
+		long start = metrics.start();
+		PendingContact result = db.getPendingContact(txn, p);
+		metrics.record("getPendingContact(T, PendingContactId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public Collection<PendingContact> getPendingContacts(T txn)
+			throws DbException {
+		long start = metrics.start();
+		Collection<PendingContact> result = db.getPendingContacts(txn);
+		metrics.record("getPendingContacts(T)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<MessageId> getRequestedMessagesToSend(T txn, ContactId c,
+			int maxLength, long maxLatency) throws DbException {
+		long start = metrics.start();
+		Collection<MessageId> result =
+				db.getRequestedMessagesToSend(txn, c, maxLength, maxLatency);
+		metrics.record("getRequestedMessagesToSend(T, ContactId, int, long)",
+				start, result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<MessageId> getRequestedMessagesToSend(T txn, ContactId c,
+			int maxLength, long maxLatency, Collection<ClientId> clients,
+			boolean include) throws DbException {
+		long start = metrics.start();
+		Collection<MessageId> result = db.getRequestedMessagesToSend(txn, c,
+				maxLength, maxLatency, clients, include);
+		metrics.record("getRequestedMessagesToSend(T, ContactId, int, long,"
+				+ " Collection<ClientId>, boolean)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Settings getSettings(T txn, String namespace) throws DbException {
+		long start = metrics.start();
+		Settings result = db.getSettings(txn, namespace);
+		metrics.record("getSettings(T, String)", start, 1);
+		return result;
+	}
+
+	@Override
+	public StorageStats getStorageStats(T txn) throws DbException {
+		long start = metrics.start();
+		StorageStats result = db.getStorageStats(txn);
+		metrics.record("getStorageStats(T)", start, 1);
+		return result;
+	}
+
+	@Override
+	public List<Byte> getSyncVersions(T txn, ContactId c) throws DbException {
+		long start = metrics.start();
+		List<Byte> result = db.getSyncVersions(txn, c);
+		metrics.record("getSyncVersions(T, ContactId)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public Collection<TransportKeySet> getTransportKeys(T txn, TransportId t)
+			throws DbException {
+		long start = metrics.start();
+		Collection<TransportKeySet> result = db.getTransportKeys(txn, t);
+		metrics.record("getTransportKeys(T, TransportId)", start,
+				result.size());
+		return result;
+	}
+
+	@Override
+	public Map<ContactId, Collection<TransportId>> getTransportsWithKeys(T txn)
+			throws DbException {
+		long start = metrics.start();
+		Map<ContactId, Collection<TransportId>> result =
+				db.getTransportsWithKeys(txn);
+		metrics.record("getTransportsWithKeys(T)", start, result.size());
+		return result;
+	}
+
+	@Override
+	public void incrementStreamCounter(T txn, TransportId t, KeySetId k)
+			throws DbException {
+		long start = metrics.start();
+		db.incrementStreamCounter(txn, t, k);
+		metrics.record("incrementStreamCounter(T, TransportId, KeySetId)",
+				start, 0);
+	}
+
+	@Override
+	public void lowerAckFlag(T txn, ContactId c, Collection<MessageId> acked)
+			throws DbException {
+		long start = metrics.start();
+		db.lowerAckFlag(txn, c, acked);
+		metrics.record("lowerAckFlag(T, ContactId, Collection<MessageId>)",
+				start, 0);
+	}
+
+	@Override
+	public void lowerRequestedFlag(T txn, ContactId c,
+			Collection<MessageId> requested) throws DbException {
+		long start = metrics.start();
+		db.lowerRequestedFlag(txn, c, requested);
+		metrics.record("lowerRequestedFlag(T, ContactId,"
+				+ " Collection<MessageId>)", start, 0);
+	}
+
+	@Override
+	public void mergeGroupMetadata(T txn, GroupId g, Metadata meta)
+			throws DbException {
+		long start = metrics.start();
+		db.mergeGroupMetadata(txn, g, meta);
+		metrics.record("mergeGroupMetadata(T, GroupId, Metadata)", start, 0);
+	}
+
+	@Override
+	public void mergeMessageMetadata(T txn, MessageId m, Metadata meta)
+			throws DbException {
+		long start = metrics.start();
+		db.mergeMessageMetadata(txn, m, meta);
+		metrics.record("mergeMessageMetadata(T, MessageId, Metadata)", start,
+				0);
+	}
+
+	@Override
+	public void mergeSettings(T txn, Settings s, String namespace)
+			throws DbException {
+		long start = metrics.start();
+		db.mergeSettings(txn, s, namespace);
+		metrics.record("mergeSettings(T, Settings, String)", start, 0);
+	}
+
+	@Override
+	public void raiseAckFlag(T txn, ContactId c, MessageId m)
+			throws DbException {
+		long start = metrics.start();
+		db.raiseAckFlag(txn, c, m);
+		metrics.record("raiseAckFlag(T, ContactId, MessageId)", start, 0);
+	}
+
+	@Override
+	public void raiseRequestedFlag(T txn, ContactId c, MessageId m)
+			throws DbException {
+		long start = metrics.start();
+		db.raiseRequestedFlag(txn, c, m);
+		metrics.record("raiseRequestedFlag(T, ContactId, MessageId)", start, 0);
+	}
+
+	@Override
+	public boolean raiseSeenFlag(T txn, ContactId c, MessageId m)
+			throws DbException {
+		long start = metrics.start();
+		boolean result = db.raiseSeenFlag(txn, c, m);
+		metrics.record("raiseSeenFlag(T, ContactId, MessageId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public void removeContact(T txn, ContactId c) throws DbException {
+		long start = metrics.start();
+		db.removeContact(txn, c);
+		metrics.record("removeContact(T, ContactId)", start, 0);
+	}
+
+	@Override
+	public void removeGroup(T txn, GroupId g) throws DbException {
+		long start = metrics.start();
+		db.removeGroup(txn, g);
+		metrics.record("removeGroup(T, GroupId)", start, 0);
+	}
+
+	@Override
+	public void removeGroupVisibility(T txn, ContactId c, GroupId g)
+			throws DbException {
+		long start = metrics.start();
+		db.removeGroupVisibility(txn, c, g);
+		metrics.record("removeGroupVisibility(T, ContactId, GroupId)", start,
+				0);
+	}
+
+	@Override
+	public void removeIdentity(T txn, AuthorId a) throws DbException {
+		long start = metrics.start();
+		db.removeIdentity(txn, a);
+		metrics.record("removeIdentity(T, AuthorId)", start, 0);
+	}
+
+	@Override
+	public void removeMessage(T txn, MessageId m) throws DbException {
+		long start = metrics.start();
+		db.removeMessage(txn, m);
+		metrics.record("removeMessage(T, MessageId)", start, 0);
+	}
+
+	@Override
+	public void removeOfferedMessages(T txn, ContactId c,
+			Collection<MessageId> requested) throws DbException {
+		long start = metrics.start();
+		db.removeOfferedMessages(txn, c, requested);
+		metrics.record("removeOfferedMessages(T, ContactId,"
+				+ " Collection<MessageId>)", start, 0);
+	}
+
+	@Override
+	public void removePendingContact(T txn, PendingContactId p)
+			throws DbException {
+		long start = metrics.start();
+		db.removePendingContact(txn, p);
+		metrics.record("removePendingContact(T, PendingContactId)", start, 0);
+	}
+
+	@Override
+	public void removeTemporaryMessages(T txn) throws DbException {
+		long start = metrics.start();
+		db.removeTemporaryMessages(txn);
+		metrics.record("removeTemporaryMessages(T)", start, 0);
+	}
+
+	@Override
+	public void removeTransport(T txn, TransportId t) throws DbException {
+		long start = metrics.start();
+		db.removeTransport(txn, t);
+		metrics.record("removeTransport(T, TransportId)", start, 0);
+	}
+
+	@Override
+	public void removeTransportKeys(T txn, TransportId t, KeySetId k)
+			throws DbException {
+		long start = metrics.start();
+		db.removeTransportKeys(txn, t, k);
+		metrics.record("removeTransportKeys(T, TransportId, KeySetId)", start,
+				0);
+	}
+
+	@Override
+	public void resetExpiryTime(T txn, ContactId c, MessageId m)
+			throws DbException {
+		long start = metrics.start();
+		db.resetExpiryTime(txn, c, m);
+		metrics.record("resetExpiryTime(T, ContactId, MessageId)", start, 0);
+	}
+
+	@Override
+	public void setCleanupTimerDuration(T txn, MessageId m, long duration)
+			throws DbException {
+		long start = metrics.start();
+		db.setCleanupTimerDuration(txn, m, duration);
+		metrics.record("setCleanupTimerDuration(T, MessageId, long)", start, 0);
+	}
+
+	@Override
+	public void setContactVerified(T txn, ContactId c) throws DbException {
+		long start = metrics.start();
+		db.setContactVerified(txn, c);
+		metrics.record("setContactVerified(T, ContactId)", start, 0);
+	}
+
+	@Override
+	public void setContactAlias(T txn, ContactId c, @Nullable String alias)
+			throws DbException {
+		long start = metrics.start();
+		db.setContactAlias(txn, c, alias);
+		metrics.record("setContactAlias(T, ContactId, String)", start, 0);
+	}
+
+	@Override
+	public void setGroupVisibility(T txn, ContactId c, GroupId g,
+			boolean shared) throws DbException {
+		long start = metrics.start();
+		db.setGroupVisibility(txn, c, g, shared);
+		metrics.record("setGroupVisibility(T, ContactId, GroupId, boolean)",
+				start, 0);
+	}
+
+	@Override
+	public void setHandshakeKeyPair(T txn, AuthorId local, PublicKey publicKey,
+			PrivateKey privateKey) throws DbException {
+		long start = metrics.start();
+		db.setHandshakeKeyPair(txn, local, publicKey, privateKey);
+		metrics.record("setHandshakeKeyPair(T, AuthorId, PublicKey,"
+				+ " PrivateKey)", start, 0);
+	}
+
+	@Override
+	public void setMessagePermanent(T txn, MessageId m) throws DbException {
+		long start = metrics.start();
+		db.setMessagePermanent(txn, m);
+		metrics.record("setMessagePermanent(T, MessageId)", start, 0);
+	}
+
+	@Override
+	public void setMessageShared(T txn, MessageId m, boolean shared)
+			throws DbException {
+		long start = metrics.start();
+		db.setMessageShared(txn, m, shared);
+		metrics.record("setMessageShared(T, MessageId, boolean)", start, 0);
+	}
+
+	@Override
+	public void setMessageState(T txn, MessageId m, MessageState state)
+			throws DbException {
+		long start = metrics.start();
+		db.setMessageState(txn, m, state);
+		metrics.record("setMessageState(T, MessageId, MessageState)", start, 0);
+	}
+
+	@Override
+	public void setReorderingWindow(T txn, KeySetId k, TransportId t,
+			long timePeriod, long base, byte[] bitmap) throws DbException {
+		long start = metrics.start();
+		db.setReorderingWindow(txn, k, t, timePeriod, base, bitmap);
+		metrics.record("setReorderingWindow(T, KeySetId, TransportId, long,"
+				+ " long, byte[])", start, 0);
+	}
+
+	@Override
+	public void setSyncVersions(T txn, ContactId c, List<Byte> supported)
+			throws DbException {
+		long start = metrics.start();
+		db.setSyncVersions(txn, c, supported);
+		metrics.record("setSyncVersions(T, ContactId, List<Byte>)", start, 0);
+	}
+
+	@Override
+	public void setTransportKeysActive(T txn, TransportId t, KeySetId k)
+			throws DbException {
+		long start = metrics.start();
+		db.setTransportKeysActive(txn, t, k);
+		metrics.record("setTransportKeysActive(T, TransportId, KeySetId)",
+				start, 0);
+	}
+
+	@Override
+	public long startCleanupTimer(T txn, MessageId m) throws DbException {
+		long start = metrics.start();
+		long result = db.startCleanupTimer(txn, m);
+		metrics.record("startCleanupTimer(T, MessageId)", start, 1);
+		return result;
+	}
+
+	@Override
+	public void stopCleanupTimer(T txn, MessageId m) throws DbException {
+		long start = metrics.start();
+		db.stopCleanupTimer(txn, m);
+		metrics.record("stopCleanupTimer(T, MessageId)", start, 0);
+	}
+
+	@Override
+	public void updateExpiryTimeAndEta(T txn, ContactId c, MessageId m,
+			long maxLatency) throws DbException {
+		long start = metrics.start();
+		db.updateExpiryTimeAndEta(txn, c, m, maxLatency);
+		metrics.record("updateExpiryTimeAndEta(T, ContactId, MessageId, long)",
+				start, 0);
+	}
+
+	@Override
+	public void updateTransportKeys(T txn, TransportKeySet ks)
+			throws DbException {
+		long start = metrics.start();
+		db.updateTransportKeys(txn, ks);
+		metrics.record("updateTransportKeys(T, TransportKeySet)", start, 0);
+	}
+}
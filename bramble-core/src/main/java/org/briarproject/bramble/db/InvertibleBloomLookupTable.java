@@ -0,0 +1,187 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.UniqueId;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.Sketch;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static org.briarproject.bramble.api.sync.SyncConstants.SKETCH_CELL_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.SKETCH_PARTITION_CELLS;
+import static org.briarproject.bramble.api.sync.SyncConstants.SKETCH_TABLE_LENGTH;
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
+import static org.briarproject.bramble.util.ByteUtils.readUint32;
+import static org.briarproject.bramble.util.ByteUtils.readUint64;
+import static org.briarproject.bramble.util.ByteUtils.writeUint32;
+
+/**
+ * An invertible Bloom lookup table of message IDs, used for encoding and
+ * reconciling {@link Sketch sketches}.
+ * <p/>
+ * The table is divided into three partitions and each ID is mapped to one
+ * cell in each partition. Subtracting one table from another leaves a table
+ * containing the symmetric difference of the two sets of IDs, which can be
+ * decoded if the difference is small enough.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class InvertibleBloomLookupTable {
+
+	private static final int PARTITIONS = 3;
+	private static final int CELLS = PARTITIONS * SKETCH_PARTITION_CELLS;
+
+	private final int[] counts = new int[CELLS];
+	private final byte[][] idSums = new byte[CELLS][UniqueId.LENGTH];
+	private final long[] hashSums = new long[CELLS];
+
+	InvertibleBloomLookupTable() {
+	}
+
+	InvertibleBloomLookupTable(byte[] table) {
+		if (table.length != SKETCH_TABLE_LENGTH)
+			throw new IllegalArgumentException();
+		for (int i = 0; i < CELLS; i++) {
+			int off = i * SKETCH_CELL_LENGTH;
+			counts[i] = (int) readUint32(table, off);
+			off += INT_32_BYTES;
+			System.arraycopy(table, off, idSums[i], 0, UniqueId.LENGTH);
+			off += UniqueId.LENGTH;
+			hashSums[i] = readUint64(table, off);
+		}
+	}
+
+	void add(MessageId m) {
+		update(m.getBytes(), 1);
+	}
+
+	/**
+	 * Subtracts the given table from this table, leaving the symmetric
+	 * difference of the two sets of IDs in this table.
+	 */
+	void subtract(InvertibleBloomLookupTable other) {
+		for (int i = 0; i < CELLS; i++) {
+			counts[i] -= other.counts[i];
+			xor(idSums[i], other.idSums[i]);
+			hashSums[i] ^= other.hashSums[i];
+		}
+	}
+
+	byte[] encode() {
+		byte[] table = new byte[SKETCH_TABLE_LENGTH];
+		for (int i = 0; i < CELLS; i++) {
+			int off = i * SKETCH_CELL_LENGTH;
+			writeUint32(counts[i] & MAX_32_BIT_UNSIGNED, table, off);
+			off += INT_32_BYTES;
+			System.arraycopy(idSums[i], 0, table, off, UniqueId.LENGTH);
+			off += UniqueId.LENGTH;
+			writeUint32(hashSums[i] >>> 32, table, off);
+			writeUint32(hashSums[i] & MAX_32_BIT_UNSIGNED, table,
+					off + INT_32_BYTES);
+		}
+		return table;
+	}
+
+	/**
+	 * Decodes the table, which should be the result of subtracting one table
+	 * from another, by repeatedly removing IDs from cells that contain a
+	 * single ID. IDs that were added to the minuend but not the subtrahend
+	 * are added to the first collection, and IDs that were added to the
+	 * subtrahend but not the minuend are added to the second collection.
+	 * <p/>
+	 * This method modifies the table.
+	 *
+	 * @return True if the table was fully decoded, or false if the difference
+	 * was too large to decode, in which case the contents of the collections
+	 * are incomplete.
+	 */
+	boolean decode(Collection<MessageId> added,
+			Collection<MessageId> removed) {
+		Deque<Integer> pure = new ArrayDeque<>();
+		for (int i = 0; i < CELLS; i++) if (isPure(i)) pure.add(i);
+		while (!pure.isEmpty()) {
+			int i = pure.poll();
+			// The cell may have changed since it was queued
+			if (!isPure(i)) continue;
+			int count = counts[i];
+			byte[] id = idSums[i].clone();
+			if (count == 1) added.add(new MessageId(id));
+			else removed.add(new MessageId(id));
+			update(id, -count);
+			for (int p = 0; p < PARTITIONS; p++) {
+				int cell = getCell(id, p);
+				if (isPure(cell)) pure.add(cell);
+			}
+		}
+		for (int i = 0; i < CELLS; i++) if (!isEmpty(i)) return false;
+		return true;
+	}
+
+	private void update(byte[] id, int count) {
+		long hash = getChecksum(id);
+		for (int p = 0; p < PARTITIONS; p++) {
+			int cell = getCell(id, p);
+			counts[cell] += count;
+			xor(idSums[cell], id);
+			hashSums[cell] ^= hash;
+		}
+	}
+
+	private boolean isPure(int cell) {
+		int count = counts[cell];
+		if (count != 1 && count != -1) return false;
+		byte[] id = idSums[cell];
+		if (hashSums[cell] != getChecksum(id)) return false;
+		// The ID must map to this cell in the cell's partition
+		return getCell(id, cell / SKETCH_PARTITION_CELLS) == cell;
+	}
+
+	private boolean isEmpty(int cell) {
+		if (counts[cell] != 0 || hashSums[cell] != 0) return false;
+		for (byte b : idSums[cell]) if (b != 0) return false;
+		return true;
+	}
+
+	/**
+	 * Returns the cell to which the given ID is mapped in the given partition.
+	 * Message IDs are hashes, so a different four bytes of the ID can be used
+	 * as the index for each partition.
+	 */
+	private static int getCell(byte[] id, int partition) {
+		long index = readUint32(id, partition * INT_32_BYTES);
+		return partition * SKETCH_PARTITION_CELLS +
+				(int) (index % SKETCH_PARTITION_CELLS);
+	}
+
+	/**
+	 * Returns a checksum of the given ID for detecting cells that contain a
+	 * single ID. The checksum must not be linear with respect to XOR,
+	 * otherwise the XOR of several IDs would have a valid checksum.
+	 */
+	private static long getChecksum(byte[] id) {
+		long hash = 0;
+		for (int off = 0; off < id.length; off += INT_64_BYTES)
+			hash = mix(hash ^ readUint64(id, off));
+		return hash;
+	}
+
+	// The finalisation step of the 64-bit MurmurHash3 function
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static void xor(byte[] dest, byte[] src) {
+		for (int i = 0; i < dest.length; i++) dest[i] ^= src[i];
+	}
+}
@@ -17,6 +17,7 @@ import org.briarproject.bramble.api.db.DbClosedException;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.StorageStats;
 import org.briarproject.bramble.api.db.MigrationListener;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorId;
@@ -40,11 +41,13 @@ import org.briarproject.bramble.api.transport.KeySetId;
 import org.briarproject.bramble.api.transport.OutgoingKeys;
 import org.briarproject.bramble.api.transport.TransportKeySet;
 import org.briarproject.bramble.api.transport.TransportKeys;
+import org.briarproject.bramble.db.SyncStateIndex.Status;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -57,6 +60,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -70,23 +74,24 @@ import static java.sql.Types.BOOLEAN;
 import static java.sql.Types.INTEGER;
 import static java.sql.Types.VARCHAR;
 import static java.util.Arrays.asList;
+import static java.util.Collections.newSetFromMap;
+import static java.util.Collections.singletonList;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.db.DatabaseComponent.NO_CLEANUP_DEADLINE;
 import static org.briarproject.bramble.api.db.DatabaseComponent.TIMER_NOT_STARTED;
 import static org.briarproject.bramble.api.db.Metadata.REMOVE;
+import static org.briarproject.bramble.api.nullsafety.NullSafety.requireNonNull;
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
-import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
-import static org.briarproject.bramble.api.sync.Group.Visibility.VISIBLE;
 import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.PENDING;
 import static org.briarproject.bramble.api.sync.validation.MessageState.UNKNOWN;
+import static org.briarproject.bramble.db.DatabaseConstants.BODIES_IN_FILES_KEY;
 import static org.briarproject.bramble.db.DatabaseConstants.DB_SETTINGS_NAMESPACE;
 import static org.briarproject.bramble.db.DatabaseConstants.DIRTY_KEY;
 import static org.briarproject.bramble.db.DatabaseConstants.LAST_COMPACTED_KEY;
-import static org.briarproject.bramble.db.DatabaseConstants.MAX_COMPACTION_INTERVAL_MS;
 import static org.briarproject.bramble.db.DatabaseConstants.SCHEMA_VERSION_KEY;
 import static org.briarproject.bramble.db.ExponentialBackoff.calculateExpiry;
 import static org.briarproject.bramble.db.JdbcUtils.tryToClose;
@@ -102,7 +107,10 @@ import static org.briarproject.bramble.util.LogUtils.now;
 abstract class JdbcDatabase implements Database<Connection> {
 
 	// Package access for testing
-	static final int CODE_SCHEMA_VERSION = 49;
+	static final int CODE_SCHEMA_VERSION = 50;
+
+	// The maximum number of placeholders in an IN list
+	private static final int MAX_IN_LIST_LENGTH = 500;
 
 	// Time period offsets for incoming transport keys
 	private static final int OFFSET_PREV = -1;
@@ -321,6 +329,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " REFERENCES outgoingKeys (keySetId)"
 					+ " ON DELETE CASCADE)";
 
+	// The columns of the statuses table that are held in the sync state index
+	private static final String SELECT_STATUSES =
+			"SELECT messageId, groupId, state, groupShared, messageShared,"
+					+ " deleted, seen, ack, expiry, eta, contactId"
+					+ " FROM statuses";
+
 	private static final String INDEX_CONTACTS_BY_AUTHOR_ID =
 			"CREATE INDEX IF NOT EXISTS contactsByAuthorId"
 					+ " ON contacts (authorId)";
@@ -341,14 +355,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 			"CREATE INDEX IF NOT EXISTS statusesByContactIdGroupId"
 					+ " ON statuses (contactId, groupId)";
 
-	private static final String INDEX_STATUSES_BY_CONTACT_ID_TIMESTAMP =
-			"CREATE INDEX IF NOT EXISTS statusesByContactIdTimestamp"
-					+ " ON statuses (contactId, timestamp)";
-
-	private static final String
-			INDEX_STATUSES_BY_CONTACT_ID_TX_COUNT_TIMESTAMP =
-			"CREATE INDEX IF NOT EXISTS statusesByContactIdTxCountTimestamp"
-					+ " ON statuses (contactId, txCount, timestamp)";
+	// Used by the queries that select messages to offer or send. The
+	// columns that change every time a message is sent (expiry, eta and
+	// txCount) are left out to keep updates cheap
+	private static final String INDEX_STATUSES_BY_CONTACT_ID_SENDABLE =
+			"CREATE INDEX IF NOT EXISTS statusesByContactIdSendable"
+					+ " ON statuses (contactId, state, groupShared,"
+					+ " messageShared, deleted, seen, requested, timestamp)";
 
 	private static final String INDEX_MESSAGES_BY_CLEANUP_DEADLINE =
 			"CREATE INDEX IF NOT EXISTS messagesByCleanupDeadline"
@@ -357,9 +370,27 @@ abstract class JdbcDatabase implements Database<Connection> {
 	private static final Logger LOG =
 			getLogger(JdbcDatabase.class.getName());
 
+	/**
+	 * The number of message bodies moved into the body store by each
+	 * transaction when migrating an existing database.
+	 */
+	private static final int BODY_MIGRATION_BATCH_SIZE = 100;
+
 	private final MessageFactory messageFactory;
 	private final Clock clock;
 	private final DatabaseTypes dbTypes;
+	// Null if message bodies are stored in the messages table
+	@Nullable
+	private final MessageBodyStore bodyStore;
+
+	private final SyncStateIndex syncState = new SyncStateIndex();
+	private final VisibilityIndex visibility = new VisibilityIndex();
+	// Transactions that have modified the in-memory indexes
+	private final Set<Connection> indexModifiers =
+			newSetFromMap(new ConcurrentHashMap<>());
+	// The latest savepoint of each transaction that has one
+	private final Map<Connection, Savepoint> savepoints =
+			new ConcurrentHashMap<>();
 
 	private final Lock connectionsLock = new ReentrantLock();
 	private final Condition connectionsChanged = connectionsLock.newCondition();
@@ -378,19 +409,34 @@ abstract class JdbcDatabase implements Database<Connection> {
 			throws DbException, SQLException;
 
 	// Used exclusively during open to compact the database after schema
-	// migrations or after DatabaseConstants#MAX_COMPACTION_INTERVAL_MS has
-	// elapsed
+	// migrations. Otherwise the database is compacted online by the
+	// DatabaseCompactor
 	protected abstract void compactAndClose() throws DbException;
 
+	/**
+	 * Compacts the storage used by the tables, rewriting at most the given
+	 * number of bytes, and returns true if there may be more to compact.
+	 */
+	protected abstract boolean compactTables(Connection txn, int maxBytes)
+			throws DbException;
+
+	protected abstract StorageStats getTableStorageStats(Connection txn)
+			throws DbException;
+
 	JdbcDatabase(DatabaseTypes databaseTypes, MessageFactory messageFactory,
 			Clock clock) {
+		this(databaseTypes, messageFactory, clock, null);
+	}
+
+	JdbcDatabase(DatabaseTypes databaseTypes, MessageFactory messageFactory,
+			Clock clock, @Nullable MessageBodyStore bodyStore) {
 		this.dbTypes = databaseTypes;
 		this.messageFactory = messageFactory;
 		this.clock = clock;
+		this.bodyStore = bodyStore;
 	}
 
-	protected void open(String driverClass, boolean reopen,
-			@SuppressWarnings("unused") SecretKey key,
+	protected void open(String driverClass, boolean reopen, SecretKey key,
 			@Nullable MigrationListener listener) throws DbException {
 		// Load the JDBC driver
 		try {
@@ -398,20 +444,26 @@ abstract class JdbcDatabase implements Database<Connection> {
 		} catch (ClassNotFoundException e) {
 			throw new DbException(e);
 		}
+		if (bodyStore != null) bodyStore.open(key);
 		// Open the database and create the tables and indexes if necessary
-		boolean compact;
+		boolean compact, bodiesInFiles;
 		Connection txn = startTransaction();
 		try {
 			if (reopen) {
 				Settings s = getSettings(txn, DB_SETTINGS_NAMESPACE);
 				wasDirtyOnInitialisation = isDirty(s);
-				compact = migrateSchema(txn, s, listener) || isCompactionDue(s);
+				compact = migrateSchema(txn, s, listener);
+				bodiesInFiles = s.getBoolean(BODIES_IN_FILES_KEY, false);
 			} else {
 				wasDirtyOnInitialisation = false;
 				createTables(txn);
 				initialiseSettings(txn);
 				compact = false;
+				bodiesInFiles = bodyStore != null;
 			}
+			// Bodies that were moved into the body store can't be read
+			// without it
+			if (bodiesInFiles && bodyStore == null) throw new DbException();
 			if (LOG.isLoggable(INFO)) {
 				LOG.info("db dirty? " + wasDirtyOnInitialisation);
 			}
@@ -422,6 +474,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			abortTransaction(txn);
 			throw e;
 		}
+		// Move any bodies stored in the messages table into the body store
+		if (bodyStore != null && !bodiesInFiles) {
+			if (listener != null) listener.onDatabaseMigration();
+			long start = now();
+			moveBodiesToStore();
+			logDuration(LOG, "Moving message bodies", start);
+			compact = true;
+		}
 		// Compact the database if necessary
 		if (compact) {
 			if (listener != null) listener.onDatabaseCompaction();
@@ -499,18 +559,11 @@ abstract class JdbcDatabase implements Database<Connection> {
 				new Migration45_46(),
 				new Migration46_47(dbTypes),
 				new Migration47_48(),
-				new Migration48_49()
+				new Migration48_49(),
+				new Migration49_50()
 		);
 	}
 
-	private boolean isCompactionDue(Settings s) {
-		long lastCompacted = s.getLong(LAST_COMPACTED_KEY, 0);
-		long elapsed = clock.currentTimeMillis() - lastCompacted;
-		if (LOG.isLoggable(INFO))
-			LOG.info(elapsed + " ms since last compaction");
-		return elapsed > MAX_COMPACTION_INTERVAL_MS;
-	}
-
 	private void storeSchemaVersion(Connection txn, int version)
 			throws DbException {
 		Settings s = new Settings();
@@ -538,9 +591,80 @@ abstract class JdbcDatabase implements Database<Connection> {
 		Settings s = new Settings();
 		s.putInt(SCHEMA_VERSION_KEY, CODE_SCHEMA_VERSION);
 		s.putLong(LAST_COMPACTED_KEY, clock.currentTimeMillis());
+		if (bodyStore != null) s.putBoolean(BODIES_IN_FILES_KEY, true);
 		mergeSettings(txn, s, DB_SETTINGS_NAMESPACE);
 	}
 
+	/**
+	 * Moves the bodies of any messages stored in the messages table into the
+	 * body store, using a separate transaction for each batch of messages so
+	 * the migration can resume if it's interrupted.
+	 */
+	private void moveBodiesToStore() throws DbException {
+		MessageBodyStore bodyStore = requireNonNull(this.bodyStore);
+		byte[] after = new byte[0];
+		int moved = 0;
+		while (true) {
+			Connection txn = startTransaction();
+			PreparedStatement ps = null;
+			ResultSet rs = null;
+			try {
+				// Empty raw messages have already been moved
+				String sql = "SELECT messageId, raw FROM messages"
+						+ " WHERE raw IS NOT NULL AND OCTET_LENGTH(raw) > 0"
+						+ " AND messageId > ?"
+						+ " ORDER BY messageId"
+						+ " LIMIT ?";
+				ps = txn.prepareStatement(sql);
+				ps.setBytes(1, after);
+				ps.setInt(2, BODY_MIGRATION_BATCH_SIZE);
+				rs = ps.executeQuery();
+				Map<MessageId, byte[]> bodies = new LinkedHashMap<>();
+				while (rs.next()) {
+					MessageId m = new MessageId(rs.getBytes(1));
+					bodies.put(m, getBody(m, rs.getBytes(2)));
+				}
+				rs.close();
+				ps.close();
+				if (bodies.isEmpty()) {
+					Settings s = new Settings();
+					s.putBoolean(BODIES_IN_FILES_KEY, true);
+					mergeSettings(txn, s, DB_SETTINGS_NAMESPACE);
+					commitTransaction(txn);
+					break;
+				}
+				sql = "UPDATE messages SET raw = ? WHERE messageId = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setBytes(1, new byte[0]);
+				for (Entry<MessageId, byte[]> e : bodies.entrySet()) {
+					MessageId m = e.getKey();
+					bodyStore.put(txn, m, e.getValue());
+					ps.setBytes(2, m.getBytes());
+					ps.addBatch();
+					after = m.getBytes();
+				}
+				int[] batchAffected = ps.executeBatch();
+				if (batchAffected.length != bodies.size())
+					throw new DbStateException();
+				for (int rows : batchAffected)
+					if (rows != 1) throw new DbStateException();
+				ps.close();
+				commitTransaction(txn);
+				moved += bodies.size();
+			} catch (SQLException e) {
+				tryToClose(rs, LOG, WARNING);
+				tryToClose(ps, LOG, WARNING);
+				abortTransaction(txn);
+				throw new DbException(e);
+			} catch (DbException e) {
+				abortTransaction(txn);
+				throw e;
+			}
+		}
+		if (LOG.isLoggable(INFO))
+			LOG.info("Moved " + moved + " message bodies to files");
+	}
+
 	private void createTables(Connection txn) throws DbException {
 		Statement s = null;
 		try {
@@ -576,8 +700,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			s.executeUpdate(INDEX_MESSAGE_METADATA_BY_GROUP_ID_STATE);
 			s.executeUpdate(INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID);
 			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_GROUP_ID);
-			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_TIMESTAMP);
-			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_TX_COUNT_TIMESTAMP);
+			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_SENDABLE);
 			s.executeUpdate(INDEX_MESSAGES_BY_CLEANUP_DEADLINE);
 			s.close();
 		} catch (SQLException e) {
@@ -616,6 +739,10 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	@Override
 	public void abortTransaction(Connection txn) {
+		// The indexes can't be rolled back, so discard them
+		if (indexModifiers.remove(txn)) clearIndexes();
+		savepoints.remove(txn);
+		if (bodyStore != null) bodyStore.abort(txn);
 		try {
 			txn.rollback();
 			connectionsLock.lock();
@@ -642,11 +769,16 @@ abstract class JdbcDatabase implements Database<Connection> {
 
 	@Override
 	public void commitTransaction(Connection txn) throws DbException {
+		// Make sure any bodies referenced by the transaction are on disk
+		if (bodyStore != null) bodyStore.prepareCommit(txn);
 		try {
 			txn.commit();
 		} catch (SQLException e) {
 			throw new DbException(e);
 		}
+		if (bodyStore != null) bodyStore.commit(txn);
+		indexModifiers.remove(txn);
+		savepoints.remove(txn);
 		connectionsLock.lock();
 		try {
 			connections.add(txn);
@@ -656,6 +788,199 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public void setSavepoint(Connection txn) throws DbException {
+		try {
+			// Releasing a savepoint may also release any later savepoints,
+			// so release the previous savepoint before setting a new one
+			Savepoint previous = savepoints.remove(txn);
+			if (previous != null) txn.releaseSavepoint(previous);
+			savepoints.put(txn, txn.setSavepoint());
+		} catch (SQLException e) {
+			throw new DbException(e);
+		}
+		if (bodyStore != null) bodyStore.setSavepoint(txn);
+	}
+
+	@Override
+	public void rollbackToSavepoint(Connection txn) throws DbException {
+		Savepoint savepoint = savepoints.remove(txn);
+		if (savepoint == null) throw new IllegalStateException();
+		// The indexes can't be rolled back, so discard them
+		if (indexModifiers.contains(txn)) clearIndexes();
+		try {
+			txn.rollback(savepoint);
+		} catch (SQLException e) {
+			throw new DbException(e);
+		}
+		if (bodyStore != null) bodyStore.rollbackToSavepoint(txn);
+	}
+
+	/**
+	 * Returns the sync state index after loading the given contact's rows,
+	 * if they haven't already been loaded.
+	 */
+	private SyncStateIndex getSyncState(Connection txn, ContactId c)
+			throws DbException {
+		if (!syncState.isLoaded(c)) syncState.load(c, getStatuses(txn, c));
+		return syncState;
+	}
+
+	/**
+	 * Returns the sync state index so the given transaction can update it.
+	 */
+	private SyncStateIndex updateSyncState(Connection txn) {
+		indexModifiers.add(txn);
+		return syncState;
+	}
+
+	/**
+	 * Returns the visibility index after loading it, if it hasn't already
+	 * been loaded.
+	 */
+	private VisibilityIndex getVisibility(Connection txn) throws DbException {
+		if (!visibility.isLoaded()) {
+			visibility.load(getContactIds(txn), getGroupVisibilities(txn));
+		}
+		return visibility;
+	}
+
+	/**
+	 * Returns the visibility index so the given transaction can update it.
+	 */
+	private VisibilityIndex updateVisibility(Connection txn) {
+		indexModifiers.add(txn);
+		return visibility;
+	}
+
+	private void clearIndexes() {
+		syncState.clear();
+		visibility.clear();
+	}
+
+	private Collection<ContactId> getContactIds(Connection txn)
+			throws DbException {
+		Statement s = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT contactId FROM contacts";
+			s = txn.createStatement();
+			rs = s.executeQuery(sql);
+			List<ContactId> ids = new ArrayList<>();
+			while (rs.next()) ids.add(new ContactId(rs.getInt(1)));
+			rs.close();
+			s.close();
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(s, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	private Map<ContactId, Map<GroupId, Boolean>> getGroupVisibilities(
+			Connection txn) throws DbException {
+		Statement s = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT contactId, groupId, shared"
+					+ " FROM groupVisibilities";
+			s = txn.createStatement();
+			rs = s.executeQuery(sql);
+			Map<ContactId, Map<GroupId, Boolean>> visibilities =
+					new HashMap<>();
+			while (rs.next()) {
+				ContactId c = new ContactId(rs.getInt(1));
+				Map<GroupId, Boolean> groups = visibilities.get(c);
+				if (groups == null) {
+					groups = new HashMap<>();
+					visibilities.put(c, groups);
+				}
+				groups.put(new GroupId(rs.getBytes(2)), rs.getBoolean(3));
+			}
+			rs.close();
+			s.close();
+			return visibilities;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(s, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Returns the given contact's rows in the statuses table for messages
+	 * that are waiting to be acked or could be sent.
+	 */
+	private Collection<Status> getStatuses(Connection txn, ContactId c)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = SELECT_STATUSES
+					+ " WHERE contactId = ?"
+					+ " AND (ack = TRUE OR (state = ?"
+					+ " AND groupShared = TRUE AND messageShared = TRUE"
+					+ " AND deleted = FALSE AND seen = FALSE))";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, c.getInt());
+			ps.setInt(2, DELIVERED.getValue());
+			rs = ps.executeQuery();
+			List<Status> statuses = new ArrayList<>();
+			while (rs.next()) statuses.add(getStatus(rs));
+			rs.close();
+			ps.close();
+			return statuses;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Passes the rows of the statuses table selected by the given statement
+	 * to the sync state index. This must be called after raising a flag that
+	 * may cause the messages to be acked or sent.
+	 */
+	private void updateStatuses(Connection txn, PreparedStatement ps)
+			throws SQLException {
+		ResultSet rs = null;
+		try {
+			rs = ps.executeQuery();
+			SyncStateIndex index = updateSyncState(txn);
+			while (rs.next())
+				index.updateStatus(new ContactId(rs.getInt(11)), getStatus(rs));
+			rs.close();
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the row of the statuses table at the current position of a
+	 * result set returned by a query starting with {@link #SELECT_STATUSES}.
+	 */
+	private Status getStatus(ResultSet rs) throws SQLException {
+		MessageId m = new MessageId(rs.getBytes(1));
+		GroupId g = new GroupId(rs.getBytes(2));
+		boolean delivered = rs.getInt(3) == DELIVERED.getValue();
+		boolean groupShared = rs.getBoolean(4);
+		boolean messageShared = rs.getBoolean(5);
+		boolean deleted = rs.getBoolean(6);
+		boolean seen = rs.getBoolean(7);
+		boolean ack = rs.getBoolean(8);
+		long expiry = rs.getLong(9);
+		long eta = rs.getLong(10);
+		return new Status(m, g, delivered, groupShared, messageShared,
+				deleted, seen, ack, expiry, eta);
+	}
+
+	void closeBodyStore() {
+		if (bodyStore != null) bodyStore.close();
+	}
+
 	void closeAllConnections() throws SQLException {
 		boolean interrupted = false;
 		connectionsLock.lock();
@@ -716,6 +1041,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (rs.next()) throw new DbStateException();
 			rs.close();
 			ps.close();
+			updateVisibility(txn).addContact(c);
 			return c;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
@@ -760,6 +1086,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
+			updateVisibility(txn).setGroupVisibility(c, g, groupShared);
 			// Create a status row for each message in the group
 			addStatus(txn, c, g, groupShared);
 		} catch (SQLException e) {
@@ -847,10 +1174,12 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps.setBoolean(6, temporary);
 			byte[] raw = messageFactory.getRawMessage(m);
 			ps.setInt(7, raw.length);
-			ps.setBytes(8, raw);
+			// An empty raw message means the body is in the body store
+			ps.setBytes(8, bodyStore == null ? raw : new byte[0]);
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
+			if (bodyStore != null) bodyStore.put(txn, m.getId(), m.getBody());
 			// Create a status row for each contact that can see the group
 			Map<ContactId, Boolean> visibility =
 					getGroupVisibility(txn, m.getGroupId());
@@ -935,6 +1264,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
+			updateSyncState(txn).addStatus(m, c, g, state == DELIVERED,
+					groupShared, messageShared, deleted, seen);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -1128,53 +1459,21 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public boolean compactDatabase(Connection txn, int maxBytes)
+			throws DbException {
+		boolean more = compactTables(txn, maxBytes);
+		if (bodyStore != null && bodyStore.compact()) more = true;
+		return more;
+	}
+
 	@Override
 	public boolean containsAnythingToSend(Connection txn, ContactId c,
 			long maxLatency, boolean eager) throws DbException {
-		PreparedStatement ps = null;
-		ResultSet rs = null;
-		try {
-			String sql = "SELECT NULL FROM statuses"
-					+ " WHERE contactId = ? AND ack = TRUE";
-			ps = txn.prepareStatement(sql);
-			ps.setInt(1, c.getInt());
-			rs = ps.executeQuery();
-			boolean acksToSend = rs.next();
-			rs.close();
-			ps.close();
-			if (acksToSend) return true;
-			if (eager) {
-				sql = "SELECT NULL from statuses"
-						+ " WHERE contactId = ? AND state = ?"
-						+ " AND groupShared = TRUE AND messageShared = TRUE"
-						+ " AND deleted = FALSE AND seen = FALSE";
-				ps = txn.prepareStatement(sql);
-				ps.setInt(1, c.getInt());
-				ps.setInt(2, DELIVERED.getValue());
-			} else {
-				long now = clock.currentTimeMillis();
-				long eta = now + maxLatency;
-				sql = "SELECT NULL FROM statuses"
-						+ " WHERE contactId = ? AND state = ?"
-						+ " AND groupShared = TRUE AND messageShared = TRUE"
-						+ " AND deleted = FALSE AND seen = FALSE"
-						+ " AND (expiry <= ? OR eta > ?)";
-				ps = txn.prepareStatement(sql);
-				ps.setInt(1, c.getInt());
-				ps.setInt(2, DELIVERED.getValue());
-				ps.setLong(3, now);
-				ps.setLong(4, eta);
-			}
-			rs = ps.executeQuery();
-			boolean messagesToSend = rs.next();
-			rs.close();
-			ps.close();
-			return messagesToSend;
-		} catch (SQLException e) {
-			tryToClose(rs, LOG, WARNING);
-			tryToClose(ps, LOG, WARNING);
-			throw new DbException(e);
-		}
+		SyncStateIndex index = getSyncState(txn, c);
+		if (index.containsAcksToSend(c)) return true;
+		long now = clock.currentTimeMillis();
+		return index.containsMessagesToSend(c, now, now + maxLatency, eager);
 	}
 
 	@Override
@@ -1204,23 +1503,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public boolean containsContact(Connection txn, ContactId c)
 			throws DbException {
-		PreparedStatement ps = null;
-		ResultSet rs = null;
-		try {
-			String sql = "SELECT NULL FROM contacts WHERE contactId = ?";
-			ps = txn.prepareStatement(sql);
-			ps.setInt(1, c.getInt());
-			rs = ps.executeQuery();
-			boolean found = rs.next();
-			if (rs.next()) throw new DbStateException();
-			rs.close();
-			ps.close();
-			return found;
-		} catch (SQLException e) {
-			tryToClose(rs, LOG, WARNING);
-			tryToClose(ps, LOG, WARNING);
-			throw new DbException(e);
-		}
+		return getVisibility(txn).containsContact(c);
 	}
 
 	@Override
@@ -1360,21 +1643,46 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public boolean containsVisibleMessage(Connection txn, ContactId c,
 			MessageId m) throws DbException {
+		// The message is visible if it's shared and there's a row in the
+		// statuses table, which there is if the group is visible
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT NULL FROM statuses"
-					+ " WHERE messageId = ? AND contactId = ?"
-					+ " AND messageShared = TRUE";
+			String sql = "SELECT groupId FROM messages"
+					+ " WHERE messageId = ? AND shared = TRUE";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, m.getBytes());
-			ps.setInt(2, c.getInt());
 			rs = ps.executeQuery();
-			boolean found = rs.next();
+			GroupId g = rs.next() ? new GroupId(rs.getBytes(1)) : null;
 			if (rs.next()) throw new DbStateException();
 			rs.close();
 			ps.close();
-			return found;
+			if (g == null) return false;
+			return getVisibility(txn).getGroupVisibility(c, g) != INVISIBLE;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public int countMessagesToDelete(Connection txn) throws DbException {
+		long now = clock.currentTimeMillis();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT COUNT (messageId) FROM messages"
+					+ " WHERE cleanupDeadline <= ?";
+			ps = txn.prepareStatement(sql);
+			ps.setLong(1, now);
+			rs = ps.executeQuery();
+			if (!rs.next()) throw new DbException();
+			int count = rs.getInt(1);
+			if (rs.next()) throw new DbException();
+			rs.close();
+			ps.close();
+			return count;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -1406,6 +1714,34 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<GroupId, Integer> countUnseenMessages(Connection txn,
+			ContactId c) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT groupId, COUNT (messageId) FROM statuses"
+					+ " WHERE contactId = ? AND state = ?"
+					+ " AND groupShared = TRUE AND messageShared = TRUE"
+					+ " AND deleted = FALSE AND seen = FALSE"
+					+ " GROUP BY groupId";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, c.getInt());
+			ps.setInt(2, DELIVERED.getValue());
+			rs = ps.executeQuery();
+			Map<GroupId, Integer> counts = new HashMap<>();
+			while (rs.next())
+				counts.put(new GroupId(rs.getBytes(1)), rs.getInt(2));
+			rs.close();
+			ps.close();
+			return counts;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void deleteMessage(Connection txn, MessageId m) throws DbException {
 		PreparedStatement ps = null;
@@ -1426,6 +1762,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
 			ps.close();
+			if (bodyStore != null) bodyStore.remove(txn, m);
+			updateSyncState(txn).setMessageDeleted(m);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -1683,51 +2021,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public Visibility getGroupVisibility(Connection txn, ContactId c, GroupId g)
 			throws DbException {
-		PreparedStatement ps = null;
-		ResultSet rs = null;
-		try {
-			String sql = "SELECT shared FROM groupVisibilities"
-					+ " WHERE contactId = ? AND groupId = ?";
-			ps = txn.prepareStatement(sql);
-			ps.setInt(1, c.getInt());
-			ps.setBytes(2, g.getBytes());
-			rs = ps.executeQuery();
-			Visibility v;
-			if (rs.next()) v = rs.getBoolean(1) ? SHARED : VISIBLE;
-			else v = INVISIBLE;
-			if (rs.next()) throw new DbStateException();
-			rs.close();
-			ps.close();
-			return v;
-		} catch (SQLException e) {
-			tryToClose(rs, LOG, WARNING);
-			tryToClose(ps, LOG, WARNING);
-			throw new DbException(e);
-		}
+		return getVisibility(txn).getGroupVisibility(c, g);
 	}
 
 	@Override
 	public Map<ContactId, Boolean> getGroupVisibility(Connection txn, GroupId g)
 			throws DbException {
-		PreparedStatement ps = null;
-		ResultSet rs = null;
-		try {
-			String sql = "SELECT contactId, shared FROM groupVisibilities"
-					+ " WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
-			ps.setBytes(1, g.getBytes());
-			rs = ps.executeQuery();
-			Map<ContactId, Boolean> visible = new HashMap<>();
-			while (rs.next())
-				visible.put(new ContactId(rs.getInt(1)), rs.getBoolean(2));
-			rs.close();
-			ps.close();
-			return visible;
-		} catch (SQLException e) {
-			tryToClose(rs, LOG, WARNING);
-			tryToClose(ps, LOG, WARNING);
-			throw new DbException(e);
-		}
+		return getVisibility(txn).getGroupVisibility(g);
 	}
 
 	@Override
@@ -1827,10 +2127,71 @@ abstract class JdbcDatabase implements Database<Connection> {
 			rs.close();
 			ps.close();
 			if (raw == null) throw new MessageDeletedException();
-			if (raw.length <= MESSAGE_HEADER_LENGTH) throw new AssertionError();
-			byte[] body = new byte[raw.length - MESSAGE_HEADER_LENGTH];
-			System.arraycopy(raw, MESSAGE_HEADER_LENGTH, body, 0, body.length);
-			return new Message(m, g, timestamp, body);
+			return new Message(m, g, timestamp, getBody(m, raw));
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Returns the body of the given message, given the contents of the
+	 * message's raw column.
+	 */
+	private byte[] getBody(MessageId m, byte[] raw) throws DbException {
+		if (raw.length == 0) {
+			// The body is in the body store
+			if (bodyStore == null) throw new DbException();
+			byte[] body = bodyStore.get(m);
+			if (body == null) throw new DbException();
+			return body;
+		}
+		if (raw.length <= MESSAGE_HEADER_LENGTH) throw new AssertionError();
+		byte[] body = new byte[raw.length - MESSAGE_HEADER_LENGTH];
+		System.arraycopy(raw, MESSAGE_HEADER_LENGTH, body, 0, body.length);
+		return body;
+	}
+
+	@Override
+	public Map<MessageId, Message> getMessages(Connection txn,
+			Collection<MessageId> m) throws DbException {
+		List<MessageId> ids = new ArrayList<>(m);
+		Map<MessageId, Message> messages = new HashMap<>();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Look up the messages in batches, each with a single query
+			for (int start = 0; start < ids.size();
+					start += MAX_IN_LIST_LENGTH) {
+				int end = Math.min(start + MAX_IN_LIST_LENGTH, ids.size());
+				StringBuilder sql = new StringBuilder("SELECT messageId,"
+						+ " groupId, timestamp, raw FROM messages"
+						+ " WHERE messageId IN (?");
+				for (int i = start + 1; i < end; i++) sql.append(", ?");
+				sql.append(")");
+				ps = txn.prepareStatement(sql.toString());
+				for (int i = start; i < end; i++)
+					ps.setBytes(i - start + 1, ids.get(i).getBytes());
+				rs = ps.executeQuery();
+				boolean deleted = false;
+				while (rs.next()) {
+					MessageId id = new MessageId(rs.getBytes(1));
+					GroupId g = new GroupId(rs.getBytes(2));
+					long timestamp = rs.getLong(3);
+					byte[] raw = rs.getBytes(4);
+					if (raw == null) {
+						deleted = true;
+						break;
+					}
+					messages.put(id, new Message(id, g, timestamp,
+							getBody(id, raw)));
+				}
+				rs.close();
+				ps.close();
+				if (deleted) throw new MessageDeletedException();
+			}
+			return messages;
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -1967,6 +2328,52 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<GroupId, Metadata> getGroupMetadata(Connection txn,
+			Collection<GroupId> g) throws DbException {
+		List<GroupId> ids = new ArrayList<>(g);
+		Map<GroupId, Metadata> metadata = new HashMap<>();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// Look up the groups in batches, each with a single query. The
+			// outer join returns a row with null metadata for any group that
+			// has no metadata
+			for (int start = 0; start < ids.size();
+					start += MAX_IN_LIST_LENGTH) {
+				int end = Math.min(start + MAX_IN_LIST_LENGTH, ids.size());
+				StringBuilder sql = new StringBuilder("SELECT g.groupId,"
+						+ " metaKey, value FROM groups AS g"
+						+ " LEFT OUTER JOIN groupMetadata AS md"
+						+ " ON g.groupId = md.groupId"
+						+ " WHERE g.groupId IN (?");
+				for (int i = start + 1; i < end; i++) sql.append(", ?");
+				sql.append(")");
+				ps = txn.prepareStatement(sql.toString());
+				for (int i = start; i < end; i++)
+					ps.setBytes(i - start + 1, ids.get(i).getBytes());
+				rs = ps.executeQuery();
+				while (rs.next()) {
+					GroupId id = new GroupId(rs.getBytes(1));
+					Metadata m = metadata.get(id);
+					if (m == null) {
+						m = new Metadata();
+						metadata.put(id, m);
+					}
+					String key = rs.getString(2);
+					if (key != null) m.put(key, rs.getBytes(3));
+				}
+				rs.close();
+				ps.close();
+			}
+			return metadata;
+		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
+			tryToClose(ps, LOG, WARNING);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Metadata getMessageMetadata(Connection txn, MessageId m)
 			throws DbException {
@@ -2165,15 +2572,44 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public Collection<MessageId> getMessagesToAck(Connection txn, ContactId c,
 			int maxMessages) throws DbException {
+		return getSyncState(txn, c).getMessagesToAck(c, maxMessages);
+	}
+
+	@Override
+	public Collection<MessageId> getMessagesToOffer(Connection txn,
+			ContactId c, int maxMessages, long maxLatency) throws DbException {
+		return getMessagesToOffer(txn, c, maxMessages, maxLatency,
+				Collections.emptyList(), false);
+	}
+
+	@Override
+	public Collection<MessageId> getMessagesToOffer(Connection txn,
+			ContactId c, int maxMessages, long maxLatency,
+			Collection<ClientId> clients, boolean include)
+			throws DbException {
+		if (include && clients.isEmpty()) return Collections.emptyList();
+		long now = clock.currentTimeMillis();
+		long eta = now + maxLatency;
+		if (!getSyncState(txn, c).containsMessagesToSend(c, now, eta, false))
+			return Collections.emptyList();
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT messageId FROM statuses"
-					+ " WHERE contactId = ? AND ack = TRUE"
-					+ " LIMIT ?";
+					+ " WHERE contactId = ? AND state = ?"
+					+ " AND groupShared = TRUE AND messageShared = TRUE"
+					+ " AND deleted = FALSE"
+					+ " AND seen = FALSE AND requested = FALSE"
+					+ " AND (expiry <= ? OR eta > ?)"
+					+ getClientCondition(clients, include)
+					+ " ORDER BY timestamp LIMIT ?";
 			ps = txn.prepareStatement(sql);
 			ps.setInt(1, c.getInt());
-			ps.setInt(2, maxMessages);
+			ps.setInt(2, DELIVERED.getValue());
+			ps.setLong(3, now);
+			ps.setLong(4, eta);
+			int index = setClientIds(ps, 5, clients);
+			ps.setInt(index, maxMessages);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
@@ -2187,30 +2623,54 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	/**
+	 * Returns an SQL condition that restricts the statuses table to messages
+	 * belonging to the given clients if include is true, or to other clients
+	 * if include is false. The condition contains a placeholder for each
+	 * client.
+	 */
+	private String getClientCondition(Collection<ClientId> clients,
+			boolean include) {
+		if (clients.isEmpty()) {
+			if (include) throw new IllegalArgumentException();
+			return "";
+		}
+		StringBuilder sb = new StringBuilder(" AND groupId");
+		if (!include) sb.append(" NOT");
+		sb.append(" IN (SELECT groupId FROM groups WHERE clientId IN (?");
+		for (int i = 1; i < clients.size(); i++) sb.append(", ?");
+		sb.append("))");
+		return sb.toString();
+	}
+
+	/**
+	 * Sets the placeholders for the given clients, starting at the given
+	 * index, and returns the index of the next placeholder.
+	 */
+	private int setClientIds(PreparedStatement ps, int index,
+			Collection<ClientId> clients) throws SQLException {
+		for (ClientId c : clients) ps.setString(index++, c.getString());
+		return index;
+	}
+
 	@Override
-	public Collection<MessageId> getMessagesToOffer(Connection txn,
-			ContactId c, int maxMessages, long maxLatency) throws DbException {
-		long now = clock.currentTimeMillis();
-		long eta = now + maxLatency;
+	public Map<MessageId, Boolean> getMessagesToReconcile(Connection txn,
+			ContactId c, GroupId g) throws DbException {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT messageId FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
+			String sql = "SELECT messageId, seen FROM statuses"
+					+ " WHERE contactId = ? AND groupId = ? AND state = ?"
 					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE"
-					+ " AND seen = FALSE AND requested = FALSE"
-					+ " AND (expiry <= ? OR eta > ?)"
-					+ " ORDER BY timestamp LIMIT ?";
+					+ " AND deleted = FALSE";
 			ps = txn.prepareStatement(sql);
 			ps.setInt(1, c.getInt());
-			ps.setInt(2, DELIVERED.getValue());
-			ps.setLong(3, now);
-			ps.setLong(4, eta);
-			ps.setInt(5, maxMessages);
+			ps.setBytes(2, g.getBytes());
+			ps.setInt(3, DELIVERED.getValue());
 			rs = ps.executeQuery();
-			List<MessageId> ids = new ArrayList<>();
-			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
+			Map<MessageId, Boolean> ids = new HashMap<>();
+			while (rs.next())
+				ids.put(new MessageId(rs.getBytes(1)), rs.getBoolean(2));
 			rs.close();
 			ps.close();
 			return ids;
@@ -2249,8 +2709,19 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public Collection<MessageId> getMessagesToSend(Connection txn, ContactId c,
 			int maxLength, long maxLatency) throws DbException {
+		return getMessagesToSend(txn, c, maxLength, maxLatency,
+				Collections.emptyList(), false);
+	}
+
+	@Override
+	public Collection<MessageId> getMessagesToSend(Connection txn, ContactId c,
+			int maxLength, long maxLatency, Collection<ClientId> clients,
+			boolean include) throws DbException {
+		if (include && clients.isEmpty()) return Collections.emptyList();
 		long now = clock.currentTimeMillis();
 		long eta = now + maxLatency;
+		if (!getSyncState(txn, c).containsMessagesToSend(c, now, eta, false))
+			return Collections.emptyList();
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
@@ -2260,12 +2731,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " AND deleted = FALSE"
 					+ " AND seen = FALSE"
 					+ " AND (expiry <= ? OR eta > ?)"
+					+ getClientCondition(clients, include)
 					+ " ORDER BY timestamp";
 			ps = txn.prepareStatement(sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
 			ps.setLong(3, now);
 			ps.setLong(4, eta);
+			setClientIds(ps, 5, clients);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			int total = 0;
@@ -2407,14 +2880,22 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public Map<GroupId, Collection<MessageId>> getMessagesToDelete(
 			Connection txn) throws DbException {
+		return getMessagesToDelete(txn, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public Map<GroupId, Collection<MessageId>> getMessagesToDelete(
+			Connection txn, int maxMessages) throws DbException {
 		long now = clock.currentTimeMillis();
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
 			String sql = "SELECT messageId, groupId FROM messages"
-					+ " WHERE cleanupDeadline <= ?";
+					+ " WHERE cleanupDeadline <= ?"
+					+ " ORDER BY cleanupDeadline LIMIT ?";
 			ps = txn.prepareStatement(sql);
 			ps.setLong(1, now);
+			ps.setInt(2, maxMessages);
 			rs = ps.executeQuery();
 			Map<GroupId, Collection<MessageId>> ids = new HashMap<>();
 			while (rs.next()) {
@@ -2440,31 +2921,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public long getNextSendTime(Connection txn, ContactId c)
 			throws DbException {
-		PreparedStatement ps = null;
-		ResultSet rs = null;
-		try {
-			String sql = "SELECT expiry FROM statuses"
-					+ " WHERE contactId = ? AND state = ?"
-					+ " AND groupShared = TRUE AND messageShared = TRUE"
-					+ " AND deleted = FALSE AND seen = FALSE"
-					+ " ORDER BY expiry LIMIT 1";
-			ps = txn.prepareStatement(sql);
-			ps.setInt(1, c.getInt());
-			ps.setInt(2, DELIVERED.getValue());
-			rs = ps.executeQuery();
-			long nextSendTime = Long.MAX_VALUE;
-			if (rs.next()) {
-				nextSendTime = rs.getLong(1);
-				if (rs.next()) throw new AssertionError();
-			}
-			rs.close();
-			ps.close();
-			return nextSendTime;
-		} catch (SQLException e) {
-			tryToClose(rs, LOG, WARNING);
-			tryToClose(ps, LOG, WARNING);
-			throw new DbException(e);
-		}
+		return getSyncState(txn, c).getNextSendTime(c);
 	}
 
 	@Override
@@ -2548,8 +3005,20 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public Collection<MessageId> getRequestedMessagesToSend(Connection txn,
 			ContactId c, int maxLength, long maxLatency) throws DbException {
+		return getRequestedMessagesToSend(txn, c, maxLength, maxLatency,
+				Collections.emptyList(), false);
+	}
+
+	@Override
+	public Collection<MessageId> getRequestedMessagesToSend(Connection txn,
+			ContactId c, int maxLength, long maxLatency,
+			Collection<ClientId> clients, boolean include)
+			throws DbException {
+		if (include && clients.isEmpty()) return Collections.emptyList();
 		long now = clock.currentTimeMillis();
 		long eta = now + maxLatency;
+		if (!getSyncState(txn, c).containsMessagesToSend(c, now, eta, false))
+			return Collections.emptyList();
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
@@ -2559,12 +3028,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " AND deleted = FALSE"
 					+ " AND seen = FALSE AND requested = TRUE"
 					+ " AND (expiry <= ? OR eta > ?)"
+					+ getClientCondition(clients, include)
 					+ " ORDER BY timestamp";
 			ps = txn.prepareStatement(sql);
 			ps.setInt(1, c.getInt());
 			ps.setInt(2, DELIVERED.getValue());
 			ps.setLong(3, now);
 			ps.setLong(4, eta);
+			setClientIds(ps, 5, clients);
 			rs = ps.executeQuery();
 			List<MessageId> ids = new ArrayList<>();
 			int total = 0;
@@ -2607,6 +3078,15 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public StorageStats getStorageStats(Connection txn) throws DbException {
+		StorageStats stats = getTableStorageStats(txn);
+		if (bodyStore == null) return stats;
+		StorageStats bodies = bodyStore.getStorageStats();
+		return new StorageStats(stats.getFileBytes() + bodies.getFileBytes(),
+				stats.getFreeBytes() + bodies.getFreeBytes());
+	}
+
 	@Override
 	public List<Byte> getSyncVersions(Connection txn, ContactId c)
 			throws DbException {
@@ -2783,6 +3263,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 				if (rows > 1) throw new DbStateException();
 			}
 			ps.close();
+			updateSyncState(txn).lowerAckFlag(c, acked);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3018,6 +3499,14 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
 			ps.close();
+			if (syncState.isLoaded(c)) {
+				sql = SELECT_STATUSES + " WHERE messageId = ? AND contactId = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setBytes(1, m.getBytes());
+				ps.setInt(2, c.getInt());
+				updateStatuses(txn, ps);
+				ps.close();
+			}
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3056,6 +3545,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
 			ps.close();
+			updateSyncState(txn).raiseSeenFlag(c, m);
 			return affected == 1;
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
@@ -3074,6 +3564,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
+			updateSyncState(txn).removeContact(c);
+			updateVisibility(txn).removeContact(c);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3083,14 +3575,31 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public void removeGroup(Connection txn, GroupId g) throws DbException {
 		PreparedStatement ps = null;
+		ResultSet rs = null;
 		try {
+			// The group's messages will be removed by cascade, so remove
+			// their bodies, whatever state the messages are in
+			if (bodyStore != null) {
+				String sql = "SELECT messageId FROM messages"
+						+ " WHERE groupId = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setBytes(1, g.getBytes());
+				rs = ps.executeQuery();
+				while (rs.next())
+					bodyStore.remove(txn, new MessageId(rs.getBytes(1)));
+				rs.close();
+				ps.close();
+			}
 			String sql = "DELETE FROM groups WHERE groupId = ?";
 			ps = txn.prepareStatement(sql);
 			ps.setBytes(1, g.getBytes());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
+			updateSyncState(txn).removeGroup(g);
+			updateVisibility(txn).removeGroup(g);
 		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
 		}
@@ -3118,6 +3627,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
 			ps.close();
+			updateSyncState(txn).removeGroupVisibility(c, g);
+			updateVisibility(txn).removeGroupVisibility(c, g);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3134,6 +3645,9 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
+			// The identity's contacts have been removed by cascade
+			updateSyncState(txn).clear();
+			updateVisibility(txn).clear();
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3150,6 +3664,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
+			if (bodyStore != null) bodyStore.remove(txn, m);
+			updateSyncState(txn).removeMessage(m);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3221,13 +3737,25 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public void removeTemporaryMessages(Connection txn) throws DbException {
 		Statement s = null;
+		ResultSet rs = null;
 		try {
-			String sql = "DELETE FROM messages WHERE temporary = TRUE";
 			s = txn.createStatement();
+			if (bodyStore != null) {
+				String sql = "SELECT messageId FROM messages"
+						+ " WHERE temporary = TRUE";
+				rs = s.executeQuery(sql);
+				while (rs.next())
+					bodyStore.remove(txn, new MessageId(rs.getBytes(1)));
+				rs.close();
+			}
+			String sql = "DELETE FROM messages WHERE temporary = TRUE";
 			int affected = s.executeUpdate(sql);
 			if (affected < 0) throw new DbStateException();
 			s.close();
+			// Statuses of the temporary messages have been removed by cascade
+			if (affected > 0) updateSyncState(txn).clear();
 		} catch (SQLException e) {
+			tryToClose(rs, LOG, WARNING);
 			tryToClose(s, LOG, WARNING);
 			throw new DbException(e);
 		}
@@ -3284,6 +3812,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
 			ps.close();
+			updateSyncState(txn).resetExpiryTime(c, m);
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3360,6 +3889,8 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected < 0 || affected > 1) throw new DbStateException();
 			ps.close();
+			if (affected == 1)
+				updateVisibility(txn).setGroupVisibility(c, g, shared);
 			// Update denormalised column in statuses
 			sql = "UPDATE statuses SET groupShared = ?"
 					+ " WHERE contactId = ? AND groupId = ?";
@@ -3370,6 +3901,16 @@ abstract class JdbcDatabase implements Database<Connection> {
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
 			ps.close();
+			if (!shared) {
+				updateSyncState(txn).lowerGroupSharedFlag(c, g);
+			} else if (syncState.isLoaded(c)) {
+				sql = SELECT_STATUSES + " WHERE contactId = ? AND groupId = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setInt(1, c.getInt());
+				ps.setBytes(2, g.getBytes());
+				updateStatuses(txn, ps);
+				ps.close();
+			}
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3437,6 +3978,15 @@ abstract class JdbcDatabase implements Database<Connection> {
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
 			ps.close();
+			if (shared) {
+				sql = SELECT_STATUSES + " WHERE messageId = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setBytes(1, m.getBytes());
+				updateStatuses(txn, ps);
+				ps.close();
+			} else {
+				updateSyncState(txn).lowerMessageSharedFlag(m);
+			}
 		} catch (SQLException e) {
 			tryToClose(ps, LOG, WARNING);
 			throw new DbException(e);
@@ -3471,6 +4021,15 @@ abstract class JdbcDatabase implements Database<Connection> {
 			affected = ps.executeUpdate();
 			if (affected < 0) throw new DbStateException();
 			ps.close();
+			if (state == DELIVERED) {
+				sql = SELECT_STATUSES + " WHERE messageId = ?";
+				ps = txn.prepareStatement(sql);
+				ps.setBytes(1, m.getBytes());
+				updateStatuses(txn, ps);
+				ps.close();
+			} else {
+				updateSyncState(txn).lowerDeliveredFlag(m);
+			}
 			// Update denormalised column in messageDependencies
 			sql = "UPDATE messageDependencies SET messageState = ?"
 					+ " WHERE messageId = ?";
@@ -3639,13 +4198,15 @@ abstract class JdbcDatabase implements Database<Connection> {
 			ps = txn.prepareStatement(sql);
 			long now = clock.currentTimeMillis();
 			long eta = now + maxLatency;
-			ps.setLong(1, calculateExpiry(now, maxLatency, txCount));
+			long expiry = calculateExpiry(now, maxLatency, txCount);
+			ps.setLong(1, expiry);
 			ps.setLong(2, eta);
 			ps.setBytes(3, m.getBytes());
 			ps.setInt(4, c.getInt());
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
+			updateSyncState(txn).setExpiryTimeAndEta(c, m, expiry, eta);
 		} catch (SQLException e) {
 			tryToClose(rs, LOG, WARNING);
 			tryToClose(ps, LOG, WARNING);
@@ -0,0 +1,599 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.Bytes;
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.DecryptionException;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.StorageStats;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.MessageId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.api.sync.MessageId.LENGTH;
+import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.readUint32;
+import static org.briarproject.bramble.util.ByteUtils.writeUint32;
+import static org.briarproject.bramble.util.IoUtils.tryToClose;
+
+/**
+ * An append-only store that keeps the bodies of messages outside the
+ * database tables.
+ * <p/>
+ * The store consists of numbered segment files, each holding a sequence of
+ * records. A record either holds the encrypted body of a message or marks an
+ * earlier record for the same message as deleted. Records are only appended
+ * to the newest segment; older segments are read through memory-mapped
+ * buffers. When less than half of a segment's records are live, the live
+ * records are copied to the newest segment and the segment is deleted.
+ * <p/>
+ * Records are identified by a keyed hash of the message ID, so the store
+ * doesn't reveal which messages it holds. An index of the live records is
+ * kept in memory and rebuilt from the segments when the store is opened.
+ * <p/>
+ * Bodies stored by a transaction are removed again if the transaction is
+ * aborted or rolled back to an earlier savepoint, and bodies removed by a
+ * transaction aren't removed until the transaction commits. The deletion
+ * records are written to disk in either case, so removed bodies don't come
+ * back when the index is rebuilt.
+ */
+@ThreadSafe
+@NotNullByDefault
+class MessageBodyStore {
+
+	private static final Logger LOG =
+			getLogger(MessageBodyStore.class.getName());
+
+	static final String ENCRYPTION_KEY_LABEL =
+			"org.briarproject.bramble.db/BODY_ENCRYPTION_KEY";
+	static final String TAG_KEY_LABEL =
+			"org.briarproject.bramble.db/BODY_TAG_KEY";
+	static final String TAG_LABEL = "org.briarproject.bramble.db/BODY_TAG";
+
+	/**
+	 * A new segment is started when the newest segment reaches this size.
+	 */
+	static final long SEGMENT_LENGTH = 4 * 1024 * 1024;
+
+	/**
+	 * A segment is garbage collected when less than this fraction of its
+	 * bytes belong to live records.
+	 */
+	static final double MIN_LIVE_FRACTION = 0.5;
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final int TAG_LENGTH = 32;
+	// Tag, record type and data length
+	private static final int HEADER_LENGTH = TAG_LENGTH + 1 + INT_32_BYTES;
+	private static final byte RECORD_BODY = 0, RECORD_DELETED = 1;
+
+	private final File dir;
+	private final CryptoComponent crypto;
+	private final Object lock = new Object();
+
+	@GuardedBy("lock")
+	private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+	@GuardedBy("lock")
+	private final Map<Bytes, Location> index = new HashMap<>();
+	@GuardedBy("lock")
+	private final Map<Connection, Changes> changes = new HashMap<>();
+
+	@GuardedBy("lock")
+	@Nullable
+	private SecretKey encryptionKey = null, tagKey = null;
+	@GuardedBy("lock")
+	@Nullable
+	private Segment newest = null;
+
+	MessageBodyStore(File dir, CryptoComponent crypto) {
+		this.dir = dir;
+		this.crypto = crypto;
+	}
+
+	/**
+	 * Opens the store, deriving its keys from the given database key and
+	 * rebuilding the index from the segment files.
+	 */
+	void open(SecretKey key) throws DbException {
+		synchronized (lock) {
+			encryptionKey = crypto.deriveKey(ENCRYPTION_KEY_LABEL, key);
+			tagKey = crypto.deriveKey(TAG_KEY_LABEL, key);
+			if (!dir.exists() && !dir.mkdirs()) throw new DbException();
+			File[] files = dir.listFiles();
+			if (files == null) throw new DbException();
+			try {
+				for (File f : files) {
+					String name = f.getName();
+					if (!name.endsWith(SEGMENT_SUFFIX)) continue;
+					int number = Integer.parseInt(name.substring(0,
+							name.length() - SEGMENT_SUFFIX.length()));
+					segments.put(number, new Segment(number, f));
+				}
+				for (Segment s : segments.values()) loadSegment(s);
+				if (segments.isEmpty()) startSegment(1);
+				else newest = segments.lastEntry().getValue();
+				// Seal all the segments except the newest
+				for (Segment s : segments.values()) {
+					if (s != newest) s.seal();
+				}
+			} catch (IOException | NumberFormatException e) {
+				throw new DbException(e);
+			}
+			if (LOG.isLoggable(INFO)) {
+				LOG.info("Opened body store with " + segments.size()
+						+ " segments and " + index.size() + " bodies");
+			}
+		}
+	}
+
+	void close() {
+		synchronized (lock) {
+			for (Segment s : segments.values()) s.close();
+			segments.clear();
+			index.clear();
+			changes.clear();
+			newest = null;
+			encryptionKey = null;
+			tagKey = null;
+		}
+	}
+
+	/**
+	 * Stores the body of the given message on behalf of the given
+	 * transaction.
+	 */
+	void put(Connection txn, MessageId m, byte[] body) throws DbException {
+		synchronized (lock) {
+			Bytes tag = getTag(m);
+			// Bind the body to the message ID
+			byte[] plaintext = new byte[LENGTH + body.length];
+			System.arraycopy(m.getBytes(), 0, plaintext, 0, LENGTH);
+			System.arraycopy(body, 0, plaintext, LENGTH, body.length);
+			byte[] ciphertext =
+					crypto.encryptWithKey(plaintext, getEncryptionKey());
+			try {
+				Location loc = append(tag, RECORD_BODY, ciphertext);
+				replace(tag, loc);
+			} catch (IOException e) {
+				throw new DbException(e);
+			}
+			getChanges(txn).added.add(tag);
+		}
+	}
+
+	/**
+	 * Returns the body of the given message, or null if the store doesn't
+	 * hold the message.
+	 */
+	@Nullable
+	byte[] get(MessageId m) throws DbException {
+		byte[] ciphertext;
+		synchronized (lock) {
+			Location loc = index.get(getTag(m));
+			if (loc == null) return null;
+			try {
+				ciphertext = loc.segment.read(loc.offset + HEADER_LENGTH,
+						loc.length - HEADER_LENGTH);
+			} catch (IOException e) {
+				throw new DbException(e);
+			}
+		}
+		try {
+			byte[] plaintext =
+					crypto.decryptWithKey(ciphertext, getEncryptionKey());
+			if (plaintext.length < LENGTH) throw new DbException();
+			byte[] id = Arrays.copyOf(plaintext, LENGTH);
+			if (!Arrays.equals(id, m.getBytes()))
+				throw new DbException();
+			return Arrays.copyOfRange(plaintext, LENGTH, plaintext.length);
+		} catch (DecryptionException e) {
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Removes the body of the given message, if the store holds it, when the
+	 * given transaction commits.
+	 */
+	void remove(Connection txn, MessageId m) {
+		synchronized (lock) {
+			getChanges(txn).removed.add(getTag(m));
+		}
+	}
+
+	void setSavepoint(Connection txn) {
+		synchronized (lock) {
+			Changes c = getChanges(txn);
+			c.addedAtSavepoint = c.added.size();
+			c.removedAtSavepoint = c.removed.size();
+		}
+	}
+
+	void rollbackToSavepoint(Connection txn) throws DbException {
+		synchronized (lock) {
+			Changes c = changes.get(txn);
+			if (c == null) return;
+			try {
+				boolean deleted = false;
+				while (c.added.size() > c.addedAtSavepoint) {
+					if (delete(c.added.remove(c.added.size() - 1)))
+						deleted = true;
+				}
+				if (deleted) getNewest().sync();
+			} catch (IOException e) {
+				throw new DbException(e);
+			}
+			while (c.removed.size() > c.removedAtSavepoint)
+				c.removed.remove(c.removed.size() - 1);
+		}
+	}
+
+	/**
+	 * Writes any bodies stored by the given transaction to disk. This must be
+	 * called before the transaction commits.
+	 */
+	void prepareCommit(Connection txn) throws DbException {
+		synchronized (lock) {
+			Changes c = changes.get(txn);
+			if (c == null || c.added.isEmpty()) return;
+			try {
+				getNewest().sync();
+			} catch (IOException e) {
+				throw new DbException(e);
+			}
+		}
+	}
+
+	/**
+	 * Applies any removals made by the given transaction and writes the
+	 * deletion records to disk. This must be called after the transaction
+	 * commits.
+	 */
+	void commit(Connection txn) throws DbException {
+		synchronized (lock) {
+			Changes c = changes.remove(txn);
+			if (c == null) return;
+			try {
+				boolean deleted = false;
+				for (Bytes tag : c.removed) {
+					if (delete(tag)) deleted = true;
+				}
+				// The removed bodies would be brought back when the index
+				// is rebuilt if the deletion records were lost
+				if (deleted) getNewest().sync();
+			} catch (IOException e) {
+				throw new DbException(e);
+			}
+		}
+	}
+
+	/**
+	 * Removes any bodies stored by the given transaction and writes the
+	 * deletion records to disk.
+	 */
+	void abort(Connection txn) {
+		synchronized (lock) {
+			Changes c = changes.remove(txn);
+			if (c == null) return;
+			try {
+				boolean deleted = false;
+				for (Bytes tag : c.added) {
+					if (delete(tag)) deleted = true;
+				}
+				// The bodies may already be on disk, and would be brought
+				// back when the index is rebuilt if the deletion records
+				// were lost
+				if (deleted) getNewest().sync();
+			} catch (IOException e) {
+				// The bodies will be unreachable until the index is rebuilt
+				if (LOG.isLoggable(WARNING)) LOG.warning(e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Garbage collects the sparsest segment, if any segment is sparse enough,
+	 * and returns true if there may be more segments to collect.
+	 */
+	boolean compact() throws DbException {
+		synchronized (lock) {
+			Segment sparsest = null;
+			int candidates = 0;
+			for (Segment s : segments.values()) {
+				if (s == newest || !s.isSparse()) continue;
+				candidates++;
+				if (sparsest == null || s.getLiveFraction() <
+						sparsest.getLiveFraction()) {
+					sparsest = s;
+				}
+			}
+			if (sparsest == null) return false;
+			try {
+				collect(sparsest);
+			} catch (IOException e) {
+				throw new DbException(e);
+			}
+			return candidates > 1;
+		}
+	}
+
+	StorageStats getStorageStats() {
+		synchronized (lock) {
+			long fileBytes = 0, freeBytes = 0;
+			for (Segment s : segments.values()) {
+				fileBytes += s.length;
+				freeBytes += s.length - s.liveBytes;
+			}
+			return new StorageStats(fileBytes, freeBytes);
+		}
+	}
+
+	@GuardedBy("lock")
+	private void collect(Segment s) throws IOException {
+		long start = segments.firstKey();
+		// Deletion records must be kept while older segments may hold the
+		// records they delete
+		boolean keepDeletions = s.number != start;
+		long offset = 0;
+		int copied = 0;
+		while (offset < s.length) {
+			byte[] header = s.read(offset, HEADER_LENGTH);
+			Bytes tag = new Bytes(Arrays.copyOf(header, TAG_LENGTH));
+			byte type = header[TAG_LENGTH];
+			int dataLength = (int) readUint32(header, TAG_LENGTH + 1);
+			Location loc = index.get(tag);
+			if (type == RECORD_BODY && loc != null && loc.segment == s
+					&& loc.offset == offset) {
+				byte[] data = s.read(offset + HEADER_LENGTH, dataLength);
+				replace(tag, append(tag, RECORD_BODY, data));
+				copied++;
+			} else if (type == RECORD_DELETED && keepDeletions
+					&& loc == null) {
+				// If the index holds a live record then the body was stored
+				// again after this deletion, and copying the deletion record
+				// past it would delete the body when the index is rebuilt
+				append(tag, RECORD_DELETED, new byte[0]);
+			}
+			offset += HEADER_LENGTH + dataLength;
+		}
+		// Make sure the copies are on disk before deleting the originals
+		getNewest().sync();
+		segments.remove(s.number);
+		s.close();
+		if (!s.file.delete() && LOG.isLoggable(WARNING))
+			LOG.warning("Could not delete segment " + s.number);
+		if (LOG.isLoggable(INFO)) {
+			LOG.info("Collected segment " + s.number + ", copied "
+					+ copied + " bodies");
+		}
+	}
+
+	/**
+	 * Removes the given record from the index and appends a deletion record
+	 * so it won't be added back when the index is rebuilt. Returns true if
+	 * a deletion record was appended. The caller is responsible for writing
+	 * the deletion record to disk.
+	 */
+	@GuardedBy("lock")
+	private boolean delete(Bytes tag) throws IOException {
+		Location loc = index.remove(tag);
+		if (loc == null) return false;
+		loc.segment.liveBytes -= loc.length;
+		append(tag, RECORD_DELETED, new byte[0]);
+		return true;
+	}
+
+	@GuardedBy("lock")
+	private void replace(Bytes tag, Location loc) {
+		Location old = index.put(tag, loc);
+		if (old != null) old.segment.liveBytes -= old.length;
+		loc.segment.liveBytes += loc.length;
+	}
+
+	@GuardedBy("lock")
+	private Location append(Bytes tag, byte type, byte[] data)
+			throws IOException {
+		Segment s = getNewest();
+		if (s.length >= SEGMENT_LENGTH) {
+			s.sync();
+			s.seal();
+			s = startSegment(s.number + 1);
+		}
+		byte[] record = new byte[HEADER_LENGTH + data.length];
+		System.arraycopy(tag.getBytes(), 0, record, 0, TAG_LENGTH);
+		record[TAG_LENGTH] = type;
+		writeUint32(data.length, record, TAG_LENGTH + 1);
+		System.arraycopy(data, 0, record, HEADER_LENGTH, data.length);
+		long offset = s.length;
+		s.write(record);
+		return new Location(s, offset, record.length);
+	}
+
+	@GuardedBy("lock")
+	private Segment startSegment(int number) throws IOException {
+		String name = String.format("%08d", number) + SEGMENT_SUFFIX;
+		Segment s = new Segment(number, new File(dir, name));
+		segments.put(number, s);
+		newest = s;
+		return s;
+	}
+
+	/**
+	 * Reads the records of the given segment into the index, truncating the
+	 * segment if it ends with an incomplete record.
+	 */
+	@GuardedBy("lock")
+	private void loadSegment(Segment s) throws IOException {
+		long offset = 0;
+		while (offset < s.length) {
+			if (s.length - offset < HEADER_LENGTH) break;
+			byte[] header = s.read(offset, HEADER_LENGTH);
+			Bytes tag = new Bytes(Arrays.copyOf(header, TAG_LENGTH));
+			byte type = header[TAG_LENGTH];
+			long dataLength = readUint32(header, TAG_LENGTH + 1);
+			if (type != RECORD_BODY && type != RECORD_DELETED) break;
+			if (s.length - offset - HEADER_LENGTH < dataLength) break;
+			int length = (int) (HEADER_LENGTH + dataLength);
+			if (type == RECORD_BODY) {
+				replace(tag, new Location(s, offset, length));
+			} else {
+				Location old = index.remove(tag);
+				if (old != null) old.segment.liveBytes -= old.length;
+			}
+			offset += length;
+		}
+		if (offset < s.length) {
+			if (LOG.isLoggable(WARNING)) {
+				LOG.warning("Truncating segment " + s.number + " from "
+						+ s.length + " to " + offset + " bytes");
+			}
+			s.truncate(offset);
+		}
+	}
+
+	@GuardedBy("lock")
+	private Bytes getTag(MessageId m) {
+		SecretKey key = tagKey;
+		if (key == null) throw new IllegalStateException();
+		return new Bytes(crypto.mac(TAG_LABEL, key, m.getBytes()));
+	}
+
+	private SecretKey getEncryptionKey() {
+		synchronized (lock) {
+			if (encryptionKey == null) throw new IllegalStateException();
+			return encryptionKey;
+		}
+	}
+
+	@GuardedBy("lock")
+	private Segment getNewest() {
+		if (newest == null) throw new IllegalStateException();
+		return newest;
+	}
+
+	@GuardedBy("lock")
+	private Changes getChanges(Connection txn) {
+		Changes c = changes.get(txn);
+		if (c == null) {
+			c = new Changes();
+			changes.put(txn, c);
+		}
+		return c;
+	}
+
+	private static class Segment {
+
+		private final int number;
+		private final File file;
+		private final RandomAccessFile raf;
+		private final FileChannel channel;
+
+		private long length, liveBytes = 0;
+		@Nullable
+		private MappedByteBuffer mapped = null;
+
+		private Segment(int number, File file) throws IOException {
+			this.number = number;
+			this.file = file;
+			raf = new RandomAccessFile(file, "rw");
+			channel = raf.getChannel();
+			length = channel.size();
+		}
+
+		private boolean isSparse() {
+			return getLiveFraction() < MIN_LIVE_FRACTION;
+		}
+
+		private double getLiveFraction() {
+			if (length == 0) return 1;
+			return (double) liveBytes / length;
+		}
+
+		/**
+		 * Maps the segment into memory. No more records can be written.
+		 */
+		private void seal() throws IOException {
+			mapped = channel.map(READ_ONLY, 0, length);
+		}
+
+		private byte[] read(long offset, int len) throws IOException {
+			byte[] b = new byte[len];
+			if (mapped != null) {
+				ByteBuffer buf = mapped.duplicate();
+				buf.position((int) offset);
+				buf.get(b);
+			} else {
+				ByteBuffer buf = ByteBuffer.wrap(b);
+				while (buf.hasRemaining()) {
+					int read = channel.read(buf, offset + buf.position());
+					if (read == -1) throw new IOException();
+				}
+			}
+			return b;
+		}
+
+		private void write(byte[] b) throws IOException {
+			if (mapped != null) throw new IllegalStateException();
+			ByteBuffer buf = ByteBuffer.wrap(b);
+			while (buf.hasRemaining())
+				channel.write(buf, length + buf.position());
+			length += b.length;
+		}
+
+		private void truncate(long newLength) throws IOException {
+			channel.truncate(newLength);
+			length = newLength;
+		}
+
+		private void sync() throws IOException {
+			channel.force(false);
+		}
+
+		private void close() {
+			mapped = null;
+			tryToClose(raf, LOG, WARNING);
+		}
+	}
+
+	private static class Location {
+
+		private final Segment segment;
+		private final long offset;
+		private final int length;
+
+		private Location(Segment segment, long offset, int length) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private static class Changes {
+
+		private final List<Bytes> added = new ArrayList<>();
+		private final List<Bytes> removed = new ArrayList<>();
+		private int addedAtSavepoint = 0, removedAtSavepoint = 0;
+	}
+}
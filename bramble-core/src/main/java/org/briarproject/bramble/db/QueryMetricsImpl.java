@@ -0,0 +1,169 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.QueryMetrics;
+import org.briarproject.bramble.api.db.QueryStats;
+import org.briarproject.bramble.api.db.SlowQuery;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.system.Clock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.api.db.QueryStats.HISTOGRAM_BUCKETS;
+import static org.briarproject.bramble.api.db.QueryStats.getBucket;
+
+@ThreadSafe
+@NotNullByDefault
+class QueryMetricsImpl implements QueryMetrics {
+
+	private static final Logger LOG =
+			getLogger(QueryMetricsImpl.class.getName());
+
+	/**
+	 * The maximum number of calls kept in the slow query log.
+	 */
+	static final int MAX_SLOW_QUERIES = 100;
+
+	static final long DEFAULT_SLOW_QUERY_THRESHOLD_MS = 100;
+
+	/**
+	 * Returned by {@link #start()} when recording is disabled.
+	 */
+	private static final long NOT_STARTED = Long.MIN_VALUE;
+
+	private final Clock clock;
+	private final ConcurrentMap<String, Recorder> recorders =
+			new ConcurrentHashMap<>();
+	private final Object lock = new Object();
+
+	@GuardedBy("lock")
+	private final LinkedList<SlowQuery> slowQueries = new LinkedList<>();
+
+	private volatile boolean enabled = false;
+	private volatile long slowQueryThresholdMs =
+			DEFAULT_SLOW_QUERY_THRESHOLD_MS;
+
+	QueryMetricsImpl(Clock clock) {
+		this.clock = clock;
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public long getSlowQueryThresholdMs() {
+		return slowQueryThresholdMs;
+	}
+
+	@Override
+	public void setSlowQueryThresholdMs(long thresholdMs) {
+		if (thresholdMs < 0) throw new IllegalArgumentException();
+		slowQueryThresholdMs = thresholdMs;
+	}
+
+	@Override
+	public Map<String, QueryStats> getQueryStats() {
+		Map<String, QueryStats> stats = new HashMap<>();
+		for (Entry<String, Recorder> e : recorders.entrySet())
+			stats.put(e.getKey(), e.getValue().getStats());
+		return stats;
+	}
+
+	@Override
+	public List<SlowQuery> getSlowQueries() {
+		synchronized (lock) {
+			return new ArrayList<>(slowQueries);
+		}
+	}
+
+	@Override
+	public void reset() {
+		recorders.clear();
+		synchronized (lock) {
+			slowQueries.clear();
+		}
+	}
+
+	/**
+	 * Called before a database method is called. Returns a value that must
+	 * be passed to {@link #record(String, long, int)} when the method
+	 * returns.
+	 */
+	long start() {
+		return enabled ? System.nanoTime() : NOT_STARTED;
+	}
+
+	/**
+	 * Records a call to the given database method, if recording was enabled
+	 * when the call started.
+	 */
+	void record(String method, long start, int rows) {
+		if (start == NOT_STARTED) return;
+		long micros = (System.nanoTime() - start) / 1000;
+		getRecorder(method).record(micros, rows);
+		long ms = micros / 1000;
+		if (ms < slowQueryThresholdMs) return;
+		if (LOG.isLoggable(WARNING)) {
+			LOG.warning("Slow query: " + method + " took " + ms
+					+ " ms and returned " + rows + " rows");
+		}
+		SlowQuery q = new SlowQuery(method, clock.currentTimeMillis(), ms,
+				rows);
+		synchronized (lock) {
+			slowQueries.add(q);
+			if (slowQueries.size() > MAX_SLOW_QUERIES)
+				slowQueries.removeFirst();
+		}
+	}
+
+	private Recorder getRecorder(String method) {
+		Recorder r = recorders.get(method);
+		if (r == null) {
+			r = new Recorder();
+			Recorder existing = recorders.putIfAbsent(method, r);
+			if (existing != null) r = existing;
+		}
+		return r;
+	}
+
+	@ThreadSafe
+	private static class Recorder {
+
+		@GuardedBy("this")
+		private final long[] histogram = new long[HISTOGRAM_BUCKETS];
+		@GuardedBy("this")
+		private long calls = 0, rows = 0, totalMicros = 0, maxMicros = 0;
+
+		private synchronized void record(long micros, int rows) {
+			calls++;
+			this.rows += rows;
+			totalMicros += micros;
+			if (micros > maxMicros) maxMicros = micros;
+			histogram[getBucket(micros)]++;
+		}
+
+		private synchronized QueryStats getStats() {
+			return new QueryStats(calls, rows, totalMicros, maxMicros,
+					histogram);
+		}
+	}
+}
@@ -0,0 +1,382 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An in-memory index of the rows in the statuses table that determine
+ * whether there's anything to send to a contact. This allows the database
+ * to answer questions such as "are there any acks or messages to send?" and
+ * "when should messages next be sent?" without scanning the statuses table.
+ * <p/>
+ * The index only holds the rows for messages that are waiting to be acked
+ * or could be sent. Each contact's rows are loaded from the database the
+ * first time they're needed, after which the database must call the index
+ * whenever it modifies a loaded contact's rows. Flags that can only remove
+ * rows from the index are lowered by the index itself, but when a flag is
+ * raised that may add a row, the database must pass the modified row to
+ * {@link #updateStatus(ContactId, Status)}. Changes made by a transaction
+ * that's later aborted can't be undone, so the index must be
+ * {@link #clear() cleared} when a transaction is aborted.
+ */
+@ThreadSafe
+@NotNullByDefault
+class SyncStateIndex {
+
+	private static final Comparator<Status> BY_EXPIRY = (a, b) -> {
+		if (a.expiry < b.expiry) return -1;
+		if (a.expiry > b.expiry) return 1;
+		return a.messageId.compareTo(b.messageId);
+	};
+
+	private static final Comparator<Status> BY_ETA = (a, b) -> {
+		if (a.eta < b.eta) return -1;
+		if (a.eta > b.eta) return 1;
+		return a.messageId.compareTo(b.messageId);
+	};
+
+	private final Object lock = new Object();
+
+	@GuardedBy("lock")
+	private final Map<ContactId, ContactState> contacts = new HashMap<>();
+
+	boolean isLoaded(ContactId c) {
+		synchronized (lock) {
+			return contacts.containsKey(c);
+		}
+	}
+
+	/**
+	 * Loads the given contact's rows, if the contact isn't already loaded.
+	 * Rows for messages that aren't waiting to be acked and can't be sent
+	 * are ignored.
+	 */
+	void load(ContactId c, Collection<Status> statuses) {
+		synchronized (lock) {
+			if (contacts.containsKey(c)) return;
+			ContactState state = new ContactState();
+			for (Status s : statuses) state.add(s);
+			contacts.put(c, state);
+		}
+	}
+
+	/**
+	 * Removes all contacts from the index, so their rows will be reloaded
+	 * from the database the next time they're needed.
+	 */
+	void clear() {
+		synchronized (lock) {
+			contacts.clear();
+		}
+	}
+
+	boolean containsAcksToSend(ContactId c) {
+		synchronized (lock) {
+			return !getLoadedState(c).acks.isEmpty();
+		}
+	}
+
+	Collection<MessageId> getMessagesToAck(ContactId c, int maxMessages) {
+		synchronized (lock) {
+			Set<MessageId> acks = getLoadedState(c).acks;
+			List<MessageId> ids =
+					new ArrayList<>(Math.min(maxMessages, acks.size()));
+			for (MessageId m : acks) {
+				if (ids.size() == maxMessages) break;
+				ids.add(m);
+			}
+			return ids;
+		}
+	}
+
+	/**
+	 * Returns true if there are any messages that could be sent to the
+	 * given contact.
+	 *
+	 * @param eager True if messages should be sent even if they've already
+	 * been sent and haven't expired
+	 */
+	boolean containsMessagesToSend(ContactId c, long now, long eta,
+			boolean eager) {
+		synchronized (lock) {
+			ContactState state = getLoadedState(c);
+			if (state.byExpiry.isEmpty()) return false;
+			if (eager) return true;
+			// A message can be sent if it has expired, or if sending it
+			// now would get it to the contact sooner than the last time
+			return state.byExpiry.first().expiry <= now ||
+					state.byEta.last().eta > eta;
+		}
+	}
+
+	long getNextSendTime(ContactId c) {
+		synchronized (lock) {
+			ContactState state = getLoadedState(c);
+			if (state.byExpiry.isEmpty()) return Long.MAX_VALUE;
+			return state.byExpiry.first().expiry;
+		}
+	}
+
+	void addStatus(MessageId m, ContactId c, GroupId g, boolean delivered,
+			boolean groupShared, boolean messageShared, boolean deleted,
+			boolean seen) {
+		synchronized (lock) {
+			ContactState state = contacts.get(c);
+			if (state == null) return;
+			state.add(new Status(m, g, delivered, groupShared, messageShared,
+					deleted, seen, seen, 0, 0));
+		}
+	}
+
+	/**
+	 * Replaces the given contact's row for a message with the given row, if
+	 * the contact is loaded. This must be called after raising a flag that
+	 * may cause the message to be acked or sent.
+	 */
+	void updateStatus(ContactId c, Status s) {
+		synchronized (lock) {
+			ContactState state = contacts.get(c);
+			if (state == null) return;
+			Status old = state.statuses.get(s.messageId);
+			if (old != null) state.remove(old);
+			state.add(s);
+		}
+	}
+
+	void removeContact(ContactId c) {
+		synchronized (lock) {
+			contacts.remove(c);
+		}
+	}
+
+	void removeGroup(GroupId g) {
+		synchronized (lock) {
+			for (ContactState state : contacts.values()) state.removeGroup(g);
+		}
+	}
+
+	void removeGroupVisibility(ContactId c, GroupId g) {
+		synchronized (lock) {
+			ContactState state = contacts.get(c);
+			if (state != null) state.removeGroup(g);
+		}
+	}
+
+	void removeMessage(MessageId m) {
+		synchronized (lock) {
+			for (ContactState state : contacts.values()) {
+				Status s = state.statuses.get(m);
+				if (s != null) state.remove(s);
+			}
+		}
+	}
+
+	void lowerAckFlag(ContactId c, Collection<MessageId> ids) {
+		synchronized (lock) {
+			ContactState state = contacts.get(c);
+			if (state == null) return;
+			for (MessageId m : ids) {
+				Status s = state.statuses.get(m);
+				if (s != null) state.update(s, () -> s.ack = false);
+			}
+		}
+	}
+
+	void raiseSeenFlag(ContactId c, MessageId m) {
+		synchronized (lock) {
+			ContactState state = contacts.get(c);
+			if (state == null) return;
+			Status s = state.statuses.get(m);
+			if (s != null) state.update(s, () -> s.seen = true);
+		}
+	}
+
+	void lowerGroupSharedFlag(ContactId c, GroupId g) {
+		synchronized (lock) {
+			ContactState state = contacts.get(c);
+			if (state == null) return;
+			for (Status s : state.getGroup(g))
+				state.update(s, () -> s.groupShared = false);
+		}
+	}
+
+	void lowerMessageSharedFlag(MessageId m) {
+		synchronized (lock) {
+			for (ContactState state : contacts.values()) {
+				Status s = state.statuses.get(m);
+				if (s != null) state.update(s, () -> s.messageShared = false);
+			}
+		}
+	}
+
+	void lowerDeliveredFlag(MessageId m) {
+		synchronized (lock) {
+			for (ContactState state : contacts.values()) {
+				Status s = state.statuses.get(m);
+				if (s != null) state.update(s, () -> s.delivered = false);
+			}
+		}
+	}
+
+	void setMessageDeleted(MessageId m) {
+		synchronized (lock) {
+			for (ContactState state : contacts.values()) {
+				Status s = state.statuses.get(m);
+				if (s != null) state.update(s, () -> s.deleted = true);
+			}
+		}
+	}
+
+	void setExpiryTimeAndEta(ContactId c, MessageId m, long expiry,
+			long eta) {
+		synchronized (lock) {
+			ContactState state = contacts.get(c);
+			if (state == null) return;
+			Status s = state.statuses.get(m);
+			if (s != null) {
+				state.update(s, () -> {
+					s.expiry = expiry;
+					s.eta = eta;
+				});
+			}
+		}
+	}
+
+	void resetExpiryTime(ContactId c, MessageId m) {
+		synchronized (lock) {
+			ContactState state = contacts.get(c);
+			if (state == null) return;
+			Status s = state.statuses.get(m);
+			if (s != null) state.update(s, () -> s.expiry = 0);
+		}
+	}
+
+	@GuardedBy("lock")
+	private ContactState getLoadedState(ContactId c) {
+		ContactState state = contacts.get(c);
+		if (state == null) throw new IllegalStateException();
+		return state;
+	}
+
+	/**
+	 * The columns of a row in the statuses table that are held in the
+	 * index.
+	 */
+	static class Status {
+
+		private final MessageId messageId;
+		private final GroupId groupId;
+		private boolean delivered, groupShared, messageShared, deleted;
+		private boolean seen, ack;
+		private long expiry, eta;
+
+		Status(MessageId messageId, GroupId groupId, boolean delivered,
+				boolean groupShared, boolean messageShared, boolean deleted,
+				boolean seen, boolean ack, long expiry, long eta) {
+			this.messageId = messageId;
+			this.groupId = groupId;
+			this.delivered = delivered;
+			this.groupShared = groupShared;
+			this.messageShared = messageShared;
+			this.deleted = deleted;
+			this.seen = seen;
+			this.ack = ack;
+			this.expiry = expiry;
+			this.eta = eta;
+		}
+
+		/**
+		 * Returns true if the message could be sent to the contact,
+		 * regardless of when it was last sent.
+		 */
+		private boolean isSendable() {
+			return delivered && groupShared && messageShared && !deleted &&
+					!seen;
+		}
+
+		/**
+		 * Returns true if the row should be held in the index.
+		 */
+		private boolean isIndexed() {
+			return ack || isSendable();
+		}
+	}
+
+	private static class ContactState {
+
+		// The rows that are waiting to be acked or could be sent
+		private final Map<MessageId, Status> statuses = new HashMap<>();
+		private final Set<MessageId> acks = new LinkedHashSet<>();
+		// The sendable messages, ordered by expiry time and ETA
+		private final TreeSet<Status> byExpiry = new TreeSet<>(BY_EXPIRY);
+		private final TreeSet<Status> byEta = new TreeSet<>(BY_ETA);
+
+		private void add(Status s) {
+			if (!s.isIndexed()) return;
+			Status old = statuses.put(s.messageId, s);
+			if (old != null) removeFromIndexes(old);
+			addToIndexes(s);
+		}
+
+		private void remove(Status s) {
+			statuses.remove(s.messageId);
+			removeFromIndexes(s);
+		}
+
+		private void update(Status s, Runnable change) {
+			// The sorted sets must not contain the status while it changes
+			removeFromIndexes(s);
+			change.run();
+			if (s.isIndexed()) addToIndexes(s);
+			else statuses.remove(s.messageId);
+		}
+
+		private void removeGroup(GroupId g) {
+			Iterator<Status> it = statuses.values().iterator();
+			while (it.hasNext()) {
+				Status s = it.next();
+				if (s.groupId.equals(g)) {
+					it.remove();
+					removeFromIndexes(s);
+				}
+			}
+		}
+
+		private List<Status> getGroup(GroupId g) {
+			List<Status> group = new ArrayList<>();
+			for (Status s : statuses.values())
+				if (s.groupId.equals(g)) group.add(s);
+			return group;
+		}
+
+		private void addToIndexes(Status s) {
+			if (s.ack) acks.add(s.messageId);
+			if (s.isSendable()) {
+				byExpiry.add(s);
+				byEta.add(s);
+			}
+		}
+
+		private void removeFromIndexes(Status s) {
+			acks.remove(s.messageId);
+			byExpiry.remove(s);
+			byEta.remove(s);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.Group.Visibility;
+import org.briarproject.bramble.api.sync.GroupId;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
+import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
+import static org.briarproject.bramble.api.sync.Group.Visibility.VISIBLE;
+
+/**
+ * An in-memory index of the contacts table and the groupVisibilities table.
+ * This allows the database to check whether a contact exists, and whether
+ * a group is visible to a contact, without querying either table.
+ * <p/>
+ * The index is loaded from the database the first time it's needed, after
+ * which the database must call the index whenever it modifies either table.
+ * Changes made by a transaction that's later aborted can't be undone, so
+ * the index must be {@link #clear() cleared} when a transaction is aborted.
+ */
+@ThreadSafe
+@NotNullByDefault
+class VisibilityIndex {
+
+	private final Object lock = new Object();
+
+	// Maps each contact to the groups that are visible to the contact,
+	// and whether each group is shared with the contact. Null if the index
+	// hasn't been loaded
+	@GuardedBy("lock")
+	@Nullable
+	private Map<ContactId, Map<GroupId, Boolean>> contacts = null;
+
+	boolean isLoaded() {
+		synchronized (lock) {
+			return contacts != null;
+		}
+	}
+
+	/**
+	 * Loads the given contacts and the rows of the groupVisibilities table,
+	 * if the index isn't already loaded.
+	 */
+	void load(Collection<ContactId> contactIds,
+			Map<ContactId, Map<GroupId, Boolean>> visibilities) {
+		synchronized (lock) {
+			if (contacts != null) return;
+			contacts = new HashMap<>();
+			for (ContactId c : contactIds) contacts.put(c, new HashMap<>());
+			for (Entry<ContactId, Map<GroupId, Boolean>> e :
+					visibilities.entrySet()) {
+				Map<GroupId, Boolean> groups = contacts.get(e.getKey());
+				if (groups == null) throw new IllegalArgumentException();
+				groups.putAll(e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Removes everything from the index, so it will be reloaded from the
+	 * database the next time it's needed.
+	 */
+	void clear() {
+		synchronized (lock) {
+			contacts = null;
+		}
+	}
+
+	boolean containsContact(ContactId c) {
+		synchronized (lock) {
+			return getLoadedContacts().containsKey(c);
+		}
+	}
+
+	Visibility getGroupVisibility(ContactId c, GroupId g) {
+		synchronized (lock) {
+			Map<GroupId, Boolean> groups = getLoadedContacts().get(c);
+			if (groups == null) return INVISIBLE;
+			Boolean shared = groups.get(g);
+			if (shared == null) return INVISIBLE;
+			return shared ? SHARED : VISIBLE;
+		}
+	}
+
+	Map<ContactId, Boolean> getGroupVisibility(GroupId g) {
+		synchronized (lock) {
+			Map<ContactId, Boolean> visible = new HashMap<>();
+			for (Entry<ContactId, Map<GroupId, Boolean>> e :
+					getLoadedContacts().entrySet()) {
+				Boolean shared = e.getValue().get(g);
+				if (shared != null) visible.put(e.getKey(), shared);
+			}
+			return visible;
+		}
+	}
+
+	void addContact(ContactId c) {
+		synchronized (lock) {
+			if (contacts != null) contacts.put(c, new HashMap<>());
+		}
+	}
+
+	void removeContact(ContactId c) {
+		synchronized (lock) {
+			if (contacts != null) contacts.remove(c);
+		}
+	}
+
+	void setGroupVisibility(ContactId c, GroupId g, boolean shared) {
+		synchronized (lock) {
+			if (contacts == null) return;
+			Map<GroupId, Boolean> groups = contacts.get(c);
+			if (groups != null) groups.put(g, shared);
+		}
+	}
+
+	void removeGroupVisibility(ContactId c, GroupId g) {
+		synchronized (lock) {
+			if (contacts == null) return;
+			Map<GroupId, Boolean> groups = contacts.get(c);
+			if (groups != null) groups.remove(g);
+		}
+	}
+
+	void removeGroup(GroupId g) {
+		synchronized (lock) {
+			if (contacts == null) return;
+			for (Map<GroupId, Boolean> groups : contacts.values())
+				groups.remove(g);
+		}
+	}
+
+	@GuardedBy("lock")
+	private Map<ContactId, Map<GroupId, Boolean>> getLoadedContacts() {
+		if (contacts == null) throw new IllegalStateException();
+		return contacts;
+	}
+}
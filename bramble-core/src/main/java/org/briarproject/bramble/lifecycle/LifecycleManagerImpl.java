@@ -10,19 +10,28 @@ import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.lifecycle.Service;
 import org.briarproject.bramble.api.lifecycle.ServiceException;
+import org.briarproject.bramble.api.lifecycle.StartupPhase;
 import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.system.Clock;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
-import javax.inject.Inject;
 
 import static java.util.logging.Level.FINE;
 import static java.util.logging.Level.INFO;
@@ -57,31 +66,58 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 	private final DatabaseComponent db;
 	private final EventBus eventBus;
 	private final Clock clock;
-	private final List<Service> services;
+	private final Executor startupExecutor;
+	private final List<Service> services, orderedServices;
+	private final Map<Service, Collection<Service>> dependencies;
 	private final List<OpenDatabaseHook> openDatabaseHooks;
 	private final List<ExecutorService> executors;
+	private final List<StartupPhase> startupTimeline;
 	private final Semaphore startStopSemaphore = new Semaphore(1);
 	private final CountDownLatch dbLatch = new CountDownLatch(1);
 	private final CountDownLatch startupLatch = new CountDownLatch(1);
 	private final CountDownLatch shutdownLatch = new CountDownLatch(1);
 
 	private volatile LifecycleState state = STARTING;
+	private volatile long startupStart = 0;
 
-	@Inject
+	/**
+	 * @param startupExecutor The executor on which services are started.
+	 * Services that don't depend on each other may be started concurrently.
+	 */
 	LifecycleManagerImpl(DatabaseComponent db, EventBus eventBus,
-			Clock clock) {
+			Clock clock, Executor startupExecutor) {
 		this.db = db;
 		this.eventBus = eventBus;
 		this.clock = clock;
+		this.startupExecutor = startupExecutor;
 		services = new CopyOnWriteArrayList<>();
+		orderedServices = new CopyOnWriteArrayList<>();
+		dependencies = new ConcurrentHashMap<>();
 		openDatabaseHooks = new CopyOnWriteArrayList<>();
 		executors = new CopyOnWriteArrayList<>();
+		startupTimeline = new CopyOnWriteArrayList<>();
 	}
 
 	@Override
 	public void registerService(Service s) {
+		// Start the service after all services registered before it
+		addService(s, new ArrayList<>(services));
+		orderedServices.add(s);
+	}
+
+	@Override
+	public void registerService(Service s, Collection<Service> dependencies) {
+		// Start the service after its dependencies and after any services
+		// registered before it that didn't declare their dependencies
+		List<Service> deps = new ArrayList<>(orderedServices);
+		for (Service d : dependencies) if (!deps.contains(d)) deps.add(d);
+		addService(s, deps);
+	}
+
+	private void addService(Service s, List<Service> dependencies) {
 		if (LOG.isLoggable(INFO))
 			LOG.info("Registering service " + s.getClass().getSimpleName());
+		this.dependencies.put(s, dependencies);
 		services.add(s);
 	}
 
@@ -114,23 +150,25 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 			return CLOCK_ERROR;
 		}
 		try {
+			startupTimeline.clear();
+			startupStart = now();
 			LOG.info("Opening database");
 			long start = now();
 			boolean reopened = db.open(dbKey, this);
-			if (reopened) logDuration(LOG, "Reopening database", start);
-			else logDuration(LOG, "Creating database", start);
+			if (reopened) finishPhase("Reopening database", start);
+			else finishPhase("Creating database", start);
 
 			db.transaction(false, txn -> {
 				long start1 = now();
 				db.removeTemporaryMessages(txn);
-				logDuration(LOG, "Removing temporary messages", start1);
+				finishPhase("Removing temporary messages", start1);
+				// The hooks share a transaction, so they can't be called
+				// concurrently
 				for (OpenDatabaseHook hook : openDatabaseHooks) {
 					start1 = now();
 					hook.onDatabaseOpened(txn);
-					if (LOG.isLoggable(FINE)) {
-						logDuration(LOG, "Calling open database hook "
-								+ hook.getClass().getSimpleName(), start1);
-					}
+					finishPhase("Calling open database hook "
+							+ hook.getClass().getSimpleName(), start1);
 				}
 			});
 
@@ -139,13 +177,12 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 			dbLatch.countDown();
 			eventBus.broadcast(new LifecycleEvent(STARTING_SERVICES));
 
-			for (Service s : services) {
-				start = now();
-				s.startService();
-				if (LOG.isLoggable(FINE)) {
-					logDuration(LOG, "Starting service "
-							+ s.getClass().getSimpleName(), start);
-				}
+			startServicesConcurrently();
+			if (LOG.isLoggable(INFO)) {
+				StringBuilder sb = new StringBuilder("Startup timeline:");
+				for (StartupPhase p : startupTimeline)
+					sb.append("\n").append(p);
+				LOG.info(sb.toString());
 			}
 
 			state = RUNNING;
@@ -169,6 +206,112 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 		}
 	}
 
+	/**
+	 * Starts each service on the startup executor as soon as the services
+	 * it depends on have started, and waits for all the services to start.
+	 * If a service fails to start, services that depend on it aren't
+	 * started.
+	 */
+	private void startServicesConcurrently() throws ServiceException {
+		// Count the dependencies of each service that haven't started
+		Map<Service, Integer> waiting = new HashMap<>();
+		Map<Service, List<Service>> dependents = new HashMap<>();
+		for (Service s : services) {
+			Collection<Service> deps = dependencies.get(s);
+			for (Service d : deps) {
+				if (!dependencies.containsKey(d)) {
+					throw new IllegalStateException("Dependency "
+							+ d.getClass().getSimpleName()
+							+ " is not registered");
+				}
+				List<Service> list = dependents.get(d);
+				if (list == null) {
+					list = new ArrayList<>();
+					dependents.put(d, list);
+				}
+				list.add(s);
+			}
+			waiting.put(s, deps.size());
+		}
+		BlockingQueue<ServiceResult> results = new LinkedBlockingQueue<>();
+		int starting = 0, started = 0;
+		for (Service s : services) {
+			if (waiting.get(s) == 0) {
+				startServiceAsync(s, results);
+				starting++;
+			}
+		}
+		Throwable failure = null;
+		while (starting > 0) {
+			ServiceResult result = takeUninterruptibly(results);
+			starting--;
+			if (result.failure != null) {
+				if (failure == null) failure = result.failure;
+				continue;
+			}
+			started++;
+			// Don't start any more services if one has failed
+			if (failure != null) continue;
+			List<Service> list = dependents.get(result.service);
+			if (list == null) continue;
+			for (Service s : list) {
+				int remaining = waiting.get(s) - 1;
+				waiting.put(s, remaining);
+				if (remaining == 0) {
+					startServiceAsync(s, results);
+					starting++;
+				}
+			}
+		}
+		if (failure instanceof ServiceException)
+			throw (ServiceException) failure;
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error) throw (Error) failure;
+		if (started < services.size())
+			throw new IllegalStateException("Circular dependency");
+	}
+
+	private void startServiceAsync(Service s,
+			BlockingQueue<ServiceResult> results) {
+		startupExecutor.execute(() -> {
+			long start = now();
+			Throwable failure = null;
+			try {
+				s.startService();
+			} catch (ServiceException | RuntimeException | Error e) {
+				failure = e;
+			}
+			finishPhase("Starting service " + s.getClass().getSimpleName(),
+					start);
+			results.add(new ServiceResult(s, failure));
+		});
+	}
+
+	private ServiceResult takeUninterruptibly(
+			BlockingQueue<ServiceResult> results) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return results.take();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	private void finishPhase(String name, long start) {
+		long now = now();
+		startupTimeline.add(new StartupPhase(name, start - startupStart,
+				now - start));
+		if (LOG.isLoggable(FINE))
+			LOG.fine(name + " took " + (now - start) + " ms");
+	}
+
 	@Override
 	public void onDatabaseMigration() {
 		state = MIGRATING_DATABASE;
@@ -238,4 +381,21 @@ class LifecycleManagerImpl implements LifecycleManager, MigrationListener {
 	public LifecycleState getLifecycleState() {
 		return state;
 	}
+
+	@Override
+	public List<StartupPhase> getStartupTimeline() {
+		return new ArrayList<>(startupTimeline);
+	}
+
+	private static class ServiceResult {
+
+		private final Service service;
+		@Nullable
+		private final Throwable failure;
+
+		private ServiceResult(Service service, @Nullable Throwable failure) {
+			this.service = service;
+			this.failure = failure;
+		}
+	}
 }
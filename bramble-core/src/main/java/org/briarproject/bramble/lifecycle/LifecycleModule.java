@@ -1,8 +1,11 @@
 package org.briarproject.bramble.lifecycle;
 
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.lifecycle.IoExecutor;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
 import org.briarproject.bramble.api.lifecycle.ShutdownManager;
+import org.briarproject.bramble.api.system.Clock;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
@@ -49,9 +52,11 @@ public class LifecycleModule {
 
 	@Provides
 	@Singleton
-	LifecycleManager provideLifecycleManager(
-			LifecycleManagerImpl lifecycleManager) {
-		return lifecycleManager;
+	LifecycleManager provideLifecycleManager(DatabaseComponent db,
+			EventBus eventBus, Clock clock) {
+		// Services are started on the IO executor, which is created here
+		// because providing it requires the lifecycle manager
+		return new LifecycleManagerImpl(db, eventBus, clock, ioExecutor);
 	}
 
 	@Provides
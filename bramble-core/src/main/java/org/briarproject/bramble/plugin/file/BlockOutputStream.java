@@ -0,0 +1,126 @@
+package org.briarproject.bramble.plugin.file;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static java.lang.Math.min;
+
+/**
+ * An {@link OutputStream} that collects data into large blocks before
+ * writing it to a channel. Removable drives are much faster at writing a
+ * few large blocks than many small ones.
+ * <p/>
+ * Blocks are aligned to multiples of the block size from the start of the
+ * channel: if the stream is flushed part of the way through a block, the
+ * next block is shortened so the following blocks are aligned again.
+ * <p/>
+ * When the stream is closed, any buffered data is written and, if the
+ * channel is a {@link FileChannel}, forced to the storage device, so the
+ * data is on the device when {@link #close()} returns.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class BlockOutputStream extends OutputStream {
+
+	/**
+	 * The default block size, which is a multiple of the cluster size of
+	 * common removable drive file systems.
+	 */
+	static final int BLOCK_SIZE = 1024 * 1024;
+
+	private final WritableByteChannel channel;
+	private final int blockSize;
+	private final ByteBuffer buffer;
+
+	private long bytesWritten = 0;
+	private boolean closed = false;
+
+	BlockOutputStream(WritableByteChannel channel) {
+		this(channel, BLOCK_SIZE);
+	}
+
+	BlockOutputStream(WritableByteChannel channel, int blockSize) {
+		if (blockSize <= 0) throw new IllegalArgumentException();
+		this.channel = channel;
+		this.blockSize = blockSize;
+		buffer = ByteBuffer.allocate(blockSize);
+	}
+
+	/**
+	 * Returns the number of bytes that have been written to the channel,
+	 * not including any bytes that are still buffered.
+	 */
+	long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (closed) throw new IOException("Stream closed");
+		buffer.put((byte) b);
+		if (!buffer.hasRemaining()) writeBuffer();
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) throw new IOException("Stream closed");
+		while (len > 0) {
+			if (buffer.position() == 0 && buffer.limit() == blockSize
+					&& len >= blockSize) {
+				// Write whole blocks without copying them into the buffer
+				int whole = len - len % blockSize;
+				writeFully(ByteBuffer.wrap(b, off, whole));
+				off += whole;
+				len -= whole;
+			} else {
+				int n = min(len, buffer.remaining());
+				buffer.put(b, off, n);
+				off += n;
+				len -= n;
+				if (!buffer.hasRemaining()) writeBuffer();
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (closed) throw new IOException("Stream closed");
+		writeBuffer();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		try {
+			writeBuffer();
+			if (channel instanceof FileChannel)
+				((FileChannel) channel).force(false);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void writeBuffer() throws IOException {
+		if (buffer.position() > 0) {
+			buffer.flip();
+			writeFully(buffer);
+		}
+		buffer.clear();
+		// Shorten the next block if necessary to restore the alignment
+		buffer.limit(blockSize - (int) (bytesWritten % blockSize));
+	}
+
+	private void writeFully(ByteBuffer src) throws IOException {
+		int length = src.remaining();
+		while (src.hasRemaining()) channel.write(src);
+		bytesWritten += length;
+	}
+}
@@ -11,6 +11,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.logging.Logger;
 
 import static java.util.logging.Level.WARNING;
@@ -51,7 +53,8 @@ abstract class FilePlugin implements SimplexPlugin {
 		if (isNullOrEmpty(path)) return null;
 		try {
 			File file = new File(path);
-			FileInputStream in = new FileInputStream(file);
+			InputStream in = new MappedFileInputStream(
+					new FileInputStream(file).getChannel());
 			return new FileTransportReader(file, in, this);
 		} catch (IOException e) {
 			logException(LOG, WARNING, e);
@@ -70,7 +73,8 @@ abstract class FilePlugin implements SimplexPlugin {
 				LOG.info("Failed to create file");
 				return null;
 			}
-			FileOutputStream out = new FileOutputStream(file);
+			OutputStream out = new BlockOutputStream(
+					new FileOutputStream(file).getChannel());
 			return new FileTransportWriter(file, out, this);
 		} catch (IOException e) {
 			logException(LOG, WARNING, e);
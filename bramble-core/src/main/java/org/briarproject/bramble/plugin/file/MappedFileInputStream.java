@@ -0,0 +1,128 @@
+package org.briarproject.bramble.plugin.file;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static java.lang.Math.min;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+
+/**
+ * An {@link InputStream} that reads a file by mapping it into memory, one
+ * window at a time, so reading doesn't need a system call for each frame.
+ * <p/>
+ * The length of the file is fixed when the stream is created.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class MappedFileInputStream extends InputStream {
+
+	/**
+	 * The default window size. Windows are unmapped when they're garbage
+	 * collected, so this is kept small enough not to exhaust the address
+	 * space of 32-bit platforms.
+	 */
+	static final int WINDOW_SIZE = 16 * 1024 * 1024;
+
+	private final FileChannel channel;
+	private final int windowSize;
+	private final long length;
+
+	@Nullable
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+
+	MappedFileInputStream(FileChannel channel) throws IOException {
+		this(channel, WINDOW_SIZE);
+	}
+
+	MappedFileInputStream(FileChannel channel, int windowSize)
+			throws IOException {
+		if (windowSize <= 0) throw new IllegalArgumentException();
+		this.channel = channel;
+		this.windowSize = windowSize;
+		length = channel.size();
+	}
+
+	@Override
+	public int read() throws IOException {
+		MappedByteBuffer w = getWindow();
+		if (w == null) return -1;
+		try {
+			return w.get() & 0xFF;
+		} catch (InternalError e) {
+			// The file was truncated or the drive was removed
+			throw new IOException(e);
+		}
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		MappedByteBuffer w = getWindow();
+		if (w == null) return -1;
+		int n = min(len, w.remaining());
+		try {
+			w.get(b, off, n);
+		} catch (InternalError e) {
+			// The file was truncated or the drive was removed
+			throw new IOException(e);
+		}
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (n <= 0) return 0;
+		long position = getPosition();
+		long skipped = min(n, length - position);
+		if (skipped > 0) {
+			// Map a new window at the new position when it's needed
+			window = null;
+			windowStart = position + skipped;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		checkOpen();
+		return (int) min(Integer.MAX_VALUE, length - getPosition());
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+	private long getPosition() {
+		return window == null ? windowStart : windowStart + window.position();
+	}
+
+	private void checkOpen() throws IOException {
+		if (!channel.isOpen()) throw new IOException("Stream closed");
+	}
+
+	/**
+	 * Returns a window with data remaining, mapping the next window if
+	 * necessary, or null if the end of the file has been reached.
+	 */
+	@Nullable
+	private MappedByteBuffer getWindow() throws IOException {
+		checkOpen();
+		if (window != null && window.hasRemaining()) return window;
+		long position = getPosition();
+		if (position >= length) return null;
+		windowStart = position;
+		window = channel.map(READ_ONLY, position,
+				min(windowSize, length - position));
+		return window;
+	}
+}
@@ -27,13 +27,15 @@ class RemovableDrivePlugin extends AbstractRemovableDrivePlugin {
 	InputStream openInputStream(TransportProperties p) throws IOException {
 		String path = p.get(PROP_PATH);
 		if (isNullOrEmpty(path)) throw new IllegalArgumentException();
-		return new FileInputStream(path);
+		FileInputStream in = new FileInputStream(path);
+		return new MappedFileInputStream(in.getChannel());
 	}
 
 	@Override
 	OutputStream openOutputStream(TransportProperties p) throws IOException {
 		String path = p.get(PROP_PATH);
 		if (isNullOrEmpty(path)) throw new IllegalArgumentException();
-		return new FileOutputStream(path);
+		FileOutputStream out = new FileOutputStream(path);
+		return new BlockOutputStream(out.getChannel());
 	}
 }
@@ -98,7 +98,11 @@ abstract class RemovableDriveTaskImpl implements RemovableDriveTask {
 
 	void setSuccess(boolean success) {
 		synchronized (lock) {
-			state = new State(state.getDone(), state.getTotal(), true, success);
+			// Messages are counted as done when they're sent, which may be
+			// before they reach the drive. The task succeeds only when all
+			// the data has reached the drive, so it's then all done
+			long done = success ? state.getTotal() : state.getDone();
+			state = new State(done, state.getTotal(), true, success);
 			notifyObservers();
 		}
 	}
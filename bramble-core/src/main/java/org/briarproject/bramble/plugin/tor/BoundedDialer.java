@@ -0,0 +1,302 @@
+package org.briarproject.bramble.plugin.tor;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.system.Clock;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.lang.Math.min;
+
+/**
+ * Makes outgoing connections with a bounded number of connection attempts
+ * in progress at any time.
+ * <p/>
+ * Each destination is identified by a key, such as an onion address.
+ * Queued attempts are started in order of the destination's last successful
+ * connection, most recent first, so destinations that are likely to be
+ * reachable are tried before destinations that have never been reached.
+ * After a failed attempt, queued attempts to the same destination are
+ * skipped until a per-destination backoff period has elapsed.
+ */
+@ThreadSafe
+@NotNullByDefault
+class BoundedDialer {
+
+	/**
+	 * The backoff period after the first failed attempt to reach a
+	 * destination. The period doubles with each consecutive failure.
+	 */
+	static final long MIN_BACKOFF_MS = 60_000; // 1 minute
+
+	/**
+	 * The maximum backoff period.
+	 */
+	static final long MAX_BACKOFF_MS = 60 * 60_000; // 1 hour
+
+	interface Connector<T> {
+
+		/**
+		 * Tries to connect, returning null if the attempt fails.
+		 */
+		@Nullable
+		T connect();
+	}
+
+	interface ConnectionCallback<T> {
+
+		void connected(T connection);
+	}
+
+	private final Executor executor;
+	private final Clock clock;
+	private final int maxConcurrentAttempts;
+	private final Lock lock = new ReentrantLock();
+	private final Condition slotAvailable = lock.newCondition();
+
+	@GuardedBy("lock")
+	private final Map<String, History> histories = new HashMap<>();
+	@GuardedBy("lock")
+	private final PriorityQueue<Attempt<?>> queue = new PriorityQueue<>();
+	@GuardedBy("lock")
+	private final Set<String> queuedOrActive = new HashSet<>();
+	@GuardedBy("lock")
+	private int active = 0, waiting = 0;
+	@GuardedBy("lock")
+	private long attempts = 0, successes = 0, totalConnectTime = 0;
+	@GuardedBy("lock")
+	private long sequence = 0;
+
+	BoundedDialer(Executor executor, Clock clock, int maxConcurrentAttempts) {
+		if (maxConcurrentAttempts < 1) throw new IllegalArgumentException();
+		this.executor = executor;
+		this.clock = clock;
+		this.maxConcurrentAttempts = maxConcurrentAttempts;
+	}
+
+	/**
+	 * Queues an attempt to connect to the given destination, unless an
+	 * attempt is already queued or in progress, or the destination's
+	 * backoff period hasn't elapsed. If the attempt succeeds, the callback
+	 * is called on the executor.
+	 *
+	 * @return True if the attempt was queued
+	 */
+	<T> boolean dial(String key, Connector<T> connector,
+			ConnectionCallback<T> callback) {
+		lock.lock();
+		try {
+			History h = getHistory(key);
+			if (queuedOrActive.contains(key)) return false;
+			if (clock.currentTimeMillis() < h.getNextAttemptTime())
+				return false;
+			queuedOrActive.add(key);
+			queue.add(new Attempt<>(key, h.lastSuccess, sequence++,
+					connector, callback));
+			startQueuedAttempts();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Connects to the given destination on the calling thread, waiting
+	 * for a free slot if necessary. Waiting callers take priority over
+	 * queued attempts. The destination's backoff period is ignored.
+	 */
+	@Nullable
+	<T> T connectNow(String key, Connector<T> connector) {
+		lock.lock();
+		try {
+			waiting++;
+			try {
+				while (active >= maxConcurrentAttempts)
+					slotAvailable.awaitUninterruptibly();
+			} finally {
+				waiting--;
+			}
+			active++;
+			// Start any queued attempts that were held back while waiting
+			startQueuedAttempts();
+		} finally {
+			lock.unlock();
+		}
+		return connectAndRelease(key, connector, false);
+	}
+
+	DialerStats getStats() {
+		lock.lock();
+		try {
+			return new DialerStats(attempts, successes, totalConnectTime,
+					active, queue.size());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@GuardedBy("lock")
+	private History getHistory(String key) {
+		History h = histories.get(key);
+		if (h == null) {
+			h = new History();
+			histories.put(key, h);
+		}
+		return h;
+	}
+
+	@GuardedBy("lock")
+	private void startQueuedAttempts() {
+		// Callers waiting for a slot take priority over queued attempts
+		if (waiting > 0) return;
+		while (active < maxConcurrentAttempts && !queue.isEmpty()) {
+			Attempt<?> a = queue.poll();
+			active++;
+			executor.execute(a::run);
+		}
+	}
+
+	@Nullable
+	private <T> T connectAndRelease(String key, Connector<T> connector,
+			boolean queued) {
+		long start = clock.currentTimeMillis();
+		T connection = null;
+		try {
+			connection = connector.connect();
+		} finally {
+			long now = clock.currentTimeMillis();
+			lock.lock();
+			try {
+				active--;
+				if (queued) queuedOrActive.remove(key);
+				attempts++;
+				History h = getHistory(key);
+				if (connection == null) {
+					h.failures++;
+					h.lastFailure = now;
+				} else {
+					successes++;
+					totalConnectTime += now - start;
+					h.failures = 0;
+					h.lastSuccess = now;
+				}
+				if (waiting > 0) slotAvailable.signal();
+				else startQueuedAttempts();
+			} finally {
+				lock.unlock();
+			}
+		}
+		return connection;
+	}
+
+	private static class History {
+
+		private int failures = 0;
+		private long lastSuccess = 0, lastFailure = 0;
+
+		private long getNextAttemptTime() {
+			if (failures == 0) return 0;
+			int shift = min(failures - 1, 30);
+			long backoff = min(MAX_BACKOFF_MS, MIN_BACKOFF_MS << shift);
+			return lastFailure + backoff;
+		}
+	}
+
+	private class Attempt<T> implements Comparable<Attempt<?>> {
+
+		private final String key;
+		private final long lastSuccess, sequence;
+		private final Connector<T> connector;
+		private final ConnectionCallback<T> callback;
+
+		private Attempt(String key, long lastSuccess, long sequence,
+				Connector<T> connector, ConnectionCallback<T> callback) {
+			this.key = key;
+			this.lastSuccess = lastSuccess;
+			this.sequence = sequence;
+			this.connector = connector;
+			this.callback = callback;
+		}
+
+		private void run() {
+			T connection = connectAndRelease(key, connector, true);
+			if (connection != null) callback.connected(connection);
+		}
+
+		@Override
+		public int compareTo(Attempt<?> a) {
+			// Most recently successful first, then first come first served
+			if (lastSuccess > a.lastSuccess) return -1;
+			if (lastSuccess < a.lastSuccess) return 1;
+			return Long.compare(sequence, a.sequence);
+		}
+	}
+
+	@Immutable
+	@NotNullByDefault
+	static class DialerStats {
+
+		private final long attempts, successes, totalConnectTime;
+		private final int active, queued;
+
+		private DialerStats(long attempts, long successes,
+				long totalConnectTime, int active, int queued) {
+			this.attempts = attempts;
+			this.successes = successes;
+			this.totalConnectTime = totalConnectTime;
+			this.active = active;
+			this.queued = queued;
+		}
+
+		long getAttempts() {
+			return attempts;
+		}
+
+		long getSuccesses() {
+			return successes;
+		}
+
+		/**
+		 * Returns the fraction of finished attempts that succeeded, or 0 if
+		 * no attempts have finished.
+		 */
+		double getSuccessRate() {
+			return attempts == 0 ? 0 : (double) successes / attempts;
+		}
+
+		/**
+		 * Returns the mean time taken by successful attempts in
+		 * milliseconds, or 0 if no attempts have succeeded.
+		 */
+		long getMeanConnectTime() {
+			return successes == 0 ? 0 : totalConnectTime / successes;
+		}
+
+		int getActive() {
+			return active;
+		}
+
+		int getQueued() {
+			return queued;
+		}
+
+		@Override
+		public String toString() {
+			return attempts + " attempts, " + successes + " succeeded, "
+					+ "mean connect time " + getMeanConnectTime() + " ms, "
+					+ active + " active, " + queued + " queued";
+		}
+	}
+}
@@ -113,6 +113,12 @@ abstract class TorPlugin implements DuplexPlugin, EventHandler, EventListener {
 	private static final int COOKIE_POLLING_INTERVAL_MS = 200;
 	private static final Pattern ONION_V3 = Pattern.compile("[a-z2-7]{56}");
 
+	/**
+	 * The maximum number of outgoing connection attempts that may be in
+	 * progress at the same time.
+	 */
+	private static final int MAX_CONCURRENT_CONNECTION_ATTEMPTS = 16;
+
 	private final Executor ioExecutor, wakefulIoExecutor;
 	private final Executor connectionStatusExecutor;
 	private final NetworkManager networkManager;
@@ -133,6 +139,7 @@ abstract class TorPlugin implements DuplexPlugin, EventHandler, EventListener {
 	private final int torSocksPort;
 	private final int torControlPort;
 	private final File doneFile, cookieFile;
+	private final BoundedDialer dialer;
 	private final AtomicBoolean used = new AtomicBoolean(false);
 
 	protected final PluginState state = new PluginState();
@@ -191,6 +198,8 @@ abstract class TorPlugin implements DuplexPlugin, EventHandler, EventListener {
 		// Don't execute more than one connection status check at a time
 		connectionStatusExecutor =
 				new PoliteExecutor("TorPlugin", ioExecutor, 1);
+		dialer = new BoundedDialer(wakefulIoExecutor, clock,
+				MAX_CONCURRENT_CONNECTION_ATTEMPTS);
 	}
 
 	protected File getTorExecutableFile() {
@@ -603,24 +612,28 @@ abstract class TorPlugin implements DuplexPlugin, EventHandler, EventListener {
 			properties) {
 		if (getState() != ACTIVE) return;
 		backoff.increment();
+		if (LOG.isLoggable(INFO)) LOG.info("Dialer: " + dialer.getStats());
 		for (Pair<TransportProperties, ConnectionHandler> p : properties) {
-			connect(p.getFirst(), p.getSecond());
-		}
-	}
-
-	private void connect(TransportProperties p, ConnectionHandler h) {
-		wakefulIoExecutor.execute(() -> {
-			DuplexTransportConnection d = createConnection(p);
-			if (d != null) {
+			String onion3 = getOnionAddress(p.getFirst());
+			if (onion3 == null) continue;
+			ConnectionHandler h = p.getSecond();
+			dialer.dial(onion3, () -> connect(onion3), d -> {
 				backoff.reset();
 				h.handleConnection(d);
-			}
-		});
+			});
+		}
 	}
 
 	@Override
 	public DuplexTransportConnection createConnection(TransportProperties p) {
 		if (getState() != ACTIVE) return null;
+		String onion3 = getOnionAddress(p);
+		if (onion3 == null) return null;
+		return dialer.connectNow(onion3, () -> connect(onion3));
+	}
+
+	@Nullable
+	private String getOnionAddress(TransportProperties p) {
 		String onion3 = p.get(PROP_ONION_V3);
 		if (onion3 != null && !ONION_V3.matcher(onion3).matches()) {
 			// Don't scrub the address so we can find the problem
@@ -629,7 +642,12 @@ abstract class TorPlugin implements DuplexPlugin, EventHandler, EventListener {
 			}
 			onion3 = null;
 		}
-		if (onion3 == null) return null;
+		return onion3;
+	}
+
+	@Nullable
+	private DuplexTransportConnection connect(String onion3) {
+		if (getState() != ACTIVE) return null;
 		Socket s = null;
 		try {
 			if (LOG.isLoggable(INFO)) {
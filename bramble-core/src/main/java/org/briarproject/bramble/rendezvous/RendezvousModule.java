@@ -2,7 +2,10 @@ package org.briarproject.bramble.rendezvous;
 
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.lifecycle.Service;
+import org.briarproject.bramble.api.plugin.PluginManager;
 import org.briarproject.bramble.api.rendezvous.RendezvousPoller;
+import org.briarproject.bramble.api.transport.KeyManager;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -10,6 +13,8 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static java.util.Arrays.asList;
+
 @Module
 public class RendezvousModule {
 
@@ -27,8 +32,11 @@ public class RendezvousModule {
 	@Provides
 	@Singleton
 	RendezvousPoller provideRendezvousPoller(LifecycleManager lifecycleManager,
-			EventBus eventBus, RendezvousPollerImpl rendezvousPoller) {
-		lifecycleManager.registerService(rendezvousPoller);
+			EventBus eventBus, PluginManager pluginManager,
+			KeyManager keyManager, RendezvousPollerImpl rendezvousPoller) {
+		// Rendezvous connections need the plugins and the key manager
+		lifecycleManager.registerService(rendezvousPoller,
+				asList((Service) pluginManager, (Service) keyManager));
 		eventBus.addListener(rendezvousPoller);
 		return rendezvousPoller;
 	}
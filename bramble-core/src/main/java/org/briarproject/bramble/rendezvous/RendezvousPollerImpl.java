@@ -9,6 +9,7 @@ import org.briarproject.bramble.api.contact.PendingContactState;
 import org.briarproject.bramble.api.contact.event.PendingContactAddedEvent;
 import org.briarproject.bramble.api.contact.event.PendingContactRemovedEvent;
 import org.briarproject.bramble.api.contact.event.PendingContactStateChangedEvent;
+import org.briarproject.bramble.api.crypto.CryptoExecutor;
 import org.briarproject.bramble.api.crypto.KeyPair;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.crypto.TransportCrypto;
@@ -52,7 +53,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
@@ -65,6 +68,7 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.ParallelTasks.runAll;
 import static org.briarproject.bramble.api.contact.PendingContactState.ADDING_CONTACT;
 import static org.briarproject.bramble.api.contact.PendingContactState.FAILED;
 import static org.briarproject.bramble.api.contact.PendingContactState.OFFLINE;
@@ -82,6 +86,7 @@ class RendezvousPollerImpl implements RendezvousPoller, Service, EventListener {
 	private static final Logger LOG =
 			getLogger(RendezvousPollerImpl.class.getName());
 
+	private final Executor cryptoExecutor;
 	private final TaskScheduler scheduler;
 	private final DatabaseComponent db;
 	private final IdentityManager identityManager;
@@ -95,6 +100,9 @@ class RendezvousPollerImpl implements RendezvousPoller, Service, EventListener {
 	private final AtomicBoolean used = new AtomicBoolean(false);
 	private final Map<PendingContactId, Long> lastPollTimes =
 			new ConcurrentHashMap<>();
+	// Pending contacts that have been added but not yet passed to the worker
+	private final Queue<PendingContact> addedPendingContacts =
+			new ConcurrentLinkedQueue<>();
 
 	// Executor that runs one task at a time
 	private final Executor worker;
@@ -109,6 +117,7 @@ class RendezvousPollerImpl implements RendezvousPoller, Service, EventListener {
 
 	@Inject
 	RendezvousPollerImpl(@IoExecutor Executor ioExecutor,
+			@CryptoExecutor Executor cryptoExecutor,
 			TaskScheduler scheduler,
 			DatabaseComponent db,
 			IdentityManager identityManager,
@@ -118,6 +127,7 @@ class RendezvousPollerImpl implements RendezvousPoller, Service, EventListener {
 			ConnectionManager connectionManager,
 			EventBus eventBus,
 			Clock clock) {
+		this.cryptoExecutor = cryptoExecutor;
 		this.scheduler = scheduler;
 		this.db = db;
 		this.identityManager = identityManager;
@@ -152,50 +162,88 @@ class RendezvousPollerImpl implements RendezvousPoller, Service, EventListener {
 
 	@EventExecutor
 	private void addPendingContactsAsync(Collection<PendingContact> pending) {
-		worker.execute(() -> {
-			for (PendingContact p : pending) addPendingContact(p);
-		});
+		worker.execute(() -> addPendingContacts(pending));
 	}
 
 	// Worker
-	private void addPendingContact(PendingContact p) {
+	private void addPendingContacts(Collection<PendingContact> pending) {
+		if (pending.isEmpty()) return;
 		long now = clock.currentTimeMillis();
-		long expiry = p.getTimestamp() + RENDEZVOUS_TIMEOUT_MS;
-		if (expiry <= now) {
-			broadcastState(p.getId(), FAILED);
-			return;
+		List<PendingContact> unexpired = new ArrayList<>(pending.size());
+		for (PendingContact p : pending) {
+			long expiry = p.getTimestamp() + RENDEZVOUS_TIMEOUT_MS;
+			if (expiry <= now) broadcastState(p.getId(), FAILED);
+			else unexpired.add(p);
 		}
+		if (unexpired.isEmpty()) return;
 		try {
 			if (handshakeKeyPair == null) {
 				handshakeKeyPair = db.transactionWithResult(true,
 						identityManager::getHandshakeKeys);
 			}
-			SecretKey staticMasterKey = transportCrypto
-					.deriveStaticMasterKey(p.getPublicKey(), handshakeKeyPair);
-			SecretKey rendezvousKey = rendezvousCrypto
-					.deriveRendezvousKey(staticMasterKey);
-			boolean alice = transportCrypto
-					.isAlice(p.getPublicKey(), handshakeKeyPair);
-			CryptoState cs = new CryptoState(rendezvousKey, alice, expiry);
-			requireNull(cryptoStates.put(p.getId(), cs));
-			for (PluginState ps : pluginStates.values()) {
-				RendezvousEndpoint endpoint =
-						createEndpoint(ps.plugin, p.getId(), cs);
-				if (endpoint != null) {
-					requireNull(ps.endpoints.put(p.getId(), endpoint));
-					cs.numEndpoints++;
-				}
+		} catch (DbException e) {
+			logException(LOG, WARNING, e);
+			return;
+		}
+		CryptoState[] states = deriveCryptoStates(unexpired, handshakeKeyPair);
+		for (int i = 0; i < states.length; i++) {
+			if (states[i] != null)
+				addCryptoState(unexpired.get(i).getId(), states[i]);
+		}
+	}
+
+	/**
+	 * Derives the rendezvous keys for the given pending contacts, spreading
+	 * the pending contacts across the crypto executor.
+	 *
+	 * @return The crypto state of each pending contact, in the same order as
+	 * the pending contacts, or null if the pending contact's key couldn't be
+	 * derived
+	 */
+	private CryptoState[] deriveCryptoStates(List<PendingContact> pending,
+			KeyPair handshakeKeyPair) {
+		CryptoState[] states = new CryptoState[pending.size()];
+		int processors = Runtime.getRuntime().availableProcessors();
+		runAll(cryptoExecutor, pending.size(), processors, i -> {
+			try {
+				states[i] = deriveCryptoState(pending.get(i),
+						handshakeKeyPair);
+			} catch (GeneralSecurityException e) {
+				logException(LOG, WARNING, e);
 			}
-			if (cs.numEndpoints == 0) broadcastState(p.getId(), OFFLINE);
-			else broadcastState(p.getId(), WAITING_FOR_CONNECTION);
-			if (cryptoStates.size() == 1) {
-				LOG.info("Starting poller");
-				requireNull(pollTask);
-				pollTask = scheduler.scheduleWithFixedDelay(this::poll, worker,
-						POLLING_INTERVAL_MS, POLLING_INTERVAL_MS, MILLISECONDS);
+		});
+		return states;
+	}
+
+	private CryptoState deriveCryptoState(PendingContact p,
+			KeyPair handshakeKeyPair) throws GeneralSecurityException {
+		SecretKey staticMasterKey = transportCrypto
+				.deriveStaticMasterKey(p.getPublicKey(), handshakeKeyPair);
+		SecretKey rendezvousKey = rendezvousCrypto
+				.deriveRendezvousKey(staticMasterKey);
+		boolean alice = transportCrypto
+				.isAlice(p.getPublicKey(), handshakeKeyPair);
+		long expiry = p.getTimestamp() + RENDEZVOUS_TIMEOUT_MS;
+		return new CryptoState(rendezvousKey, alice, expiry);
+	}
+
+	// Worker
+	private void addCryptoState(PendingContactId p, CryptoState cs) {
+		requireNull(cryptoStates.put(p, cs));
+		for (PluginState ps : pluginStates.values()) {
+			RendezvousEndpoint endpoint = createEndpoint(ps.plugin, p, cs);
+			if (endpoint != null) {
+				requireNull(ps.endpoints.put(p, endpoint));
+				cs.numEndpoints++;
 			}
-		} catch (DbException | GeneralSecurityException e) {
-			logException(LOG, WARNING, e);
+		}
+		if (cs.numEndpoints == 0) broadcastState(p, OFFLINE);
+		else broadcastState(p, WAITING_FOR_CONNECTION);
+		if (cryptoStates.size() == 1) {
+			LOG.info("Starting poller");
+			requireNull(pollTask);
+			pollTask = scheduler.scheduleWithFixedDelay(this::poll, worker,
+					POLLING_INTERVAL_MS, POLLING_INTERVAL_MS, MILLISECONDS);
 		}
 	}
 
@@ -302,10 +350,20 @@ class RendezvousPollerImpl implements RendezvousPoller, Service, EventListener {
 
 	@EventExecutor
 	private void addPendingContactAsync(PendingContact p) {
-		worker.execute(() -> {
-			addPendingContact(p);
-			poll(p.getId());
-		});
+		addedPendingContacts.add(p);
+		worker.execute(this::addQueuedPendingContacts);
+	}
+
+	// Worker
+	private void addQueuedPendingContacts() {
+		// Add all the pending contacts that have been queued so far as a
+		// batch, so their keys can be derived in parallel. Any removals of
+		// these pending contacts will be handled by later tasks
+		List<PendingContact> added = new ArrayList<>();
+		PendingContact p;
+		while ((p = addedPendingContacts.poll()) != null) added.add(p);
+		addPendingContacts(added);
+		for (PendingContact a : added) poll(a.getId());
 	}
 
 	// Worker
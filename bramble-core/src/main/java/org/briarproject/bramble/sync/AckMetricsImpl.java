@@ -0,0 +1,63 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.AckMetrics;
+import org.briarproject.bramble.api.sync.AckStats;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+@ThreadSafe
+@NotNullByDefault
+class AckMetricsImpl implements AckMetrics, EventListener {
+
+	private final Map<ContactId, Counters> counters =
+			new ConcurrentHashMap<>();
+
+	void addAck(ContactId c, int messageIds) {
+		Counters counts = getCounters(c);
+		synchronized (counts) {
+			counts.acksSent++;
+			counts.messageIdsSent += messageIds;
+		}
+	}
+
+	private Counters getCounters(ContactId c) {
+		Counters counts = counters.get(c);
+		if (counts == null) {
+			Counters created = new Counters();
+			counts = counters.putIfAbsent(c, created);
+			if (counts == null) counts = created;
+		}
+		return counts;
+	}
+
+	@Override
+	public AckStats getAckStats(ContactId c) {
+		Counters counts = counters.get(c);
+		if (counts == null) return new AckStats(0, 0);
+		synchronized (counts) {
+			return new AckStats(counts.acksSent, counts.messageIdsSent);
+		}
+	}
+
+	@Override
+	public void eventOccurred(Event e) {
+		if (e instanceof ContactRemovedEvent) {
+			counters.remove(((ContactRemovedEvent) e).getContactId());
+		}
+	}
+
+	private static class Counters {
+
+		@GuardedBy("this")
+		private long acksSent = 0, messageIdsSent = 0;
+	}
+}
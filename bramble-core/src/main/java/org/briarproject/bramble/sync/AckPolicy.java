@@ -0,0 +1,47 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Determines how long a {@link DuplexOutgoingSession} may delay acks so that
+ * the IDs of several received messages can be coalesced into a single ack.
+ * An ack is sent when the given number of messages are waiting to be acked,
+ * or when the oldest message has waited for the given delay, whichever
+ * comes first. Waiting acks are also sent before the session flushes its
+ * output stream.
+ */
+@Immutable
+@NotNullByDefault
+class AckPolicy {
+
+	static final int DEFAULT_MAX_MESSAGES = 64;
+	static final long DEFAULT_MAX_DELAY = 1000; // Milliseconds
+
+	private final int maxMessages;
+	private final long maxDelay;
+
+	AckPolicy(int maxMessages, long maxDelay) {
+		if (maxMessages < 1 || maxDelay < 0)
+			throw new IllegalArgumentException();
+		this.maxMessages = maxMessages;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Returns the number of messages that may wait to be acked before an
+	 * ack is sent.
+	 */
+	int getMaxMessages() {
+		return maxMessages;
+	}
+
+	/**
+	 * Returns the maximum time in milliseconds for which a message may wait
+	 * to be acked.
+	 */
+	long getMaxDelay() {
+		return maxDelay;
+	}
+}
@@ -0,0 +1,27 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.ClientCompressionRegistry;
+import org.briarproject.bramble.api.sync.ClientId;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+@ThreadSafe
+@NotNullByDefault
+class ClientCompressionRegistryImpl implements ClientCompressionRegistry {
+
+	private final Set<ClientId> clients = new CopyOnWriteArraySet<>();
+
+	@Override
+	public void registerCompressibleClient(ClientId c) {
+		clients.add(c);
+	}
+
+	@Override
+	public boolean isCompressibleClient(ClientId c) {
+		return clients.contains(c);
+	}
+}
@@ -0,0 +1,46 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.ClientPriority;
+import org.briarproject.bramble.api.sync.ClientPriorityRegistry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import static org.briarproject.bramble.api.sync.ClientPriority.HIGH;
+import static org.briarproject.bramble.api.sync.ClientPriority.LOW;
+
+@ThreadSafe
+@NotNullByDefault
+class ClientPriorityRegistryImpl implements ClientPriorityRegistry {
+
+	private final Map<ClientId, ClientPriority> priorities =
+			new ConcurrentHashMap<>();
+
+	@Override
+	public void setClientPriority(ClientId c, ClientPriority p) {
+		priorities.put(c, p);
+	}
+
+	@Override
+	public ClientPriority getClientPriority(ClientId c) {
+		ClientPriority p = priorities.get(c);
+		return p == null ? HIGH : p;
+	}
+
+	@Override
+	public Collection<ClientId> getLowPriorityClients() {
+		List<ClientId> clients = new ArrayList<>();
+		for (Entry<ClientId, ClientPriority> e : priorities.entrySet()) {
+			if (e.getValue() == LOW) clients.add(e.getKey());
+		}
+		return clients;
+	}
+}
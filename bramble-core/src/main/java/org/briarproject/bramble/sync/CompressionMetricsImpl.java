@@ -0,0 +1,84 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.CompressionMetrics;
+import org.briarproject.bramble.api.sync.CompressionStats;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+@ThreadSafe
+@NotNullByDefault
+class CompressionMetricsImpl implements CompressionMetrics, EventListener {
+
+	private final Map<ContactId, Counters> counters =
+			new ConcurrentHashMap<>();
+
+	void addCompressedBatch(ContactId c, int uncompressedLength,
+			int compressedLength, long timeNanos) {
+		Counters counts = getCounters(c);
+		synchronized (counts) {
+			counts.uncompressedSent += uncompressedLength;
+			counts.compressedSent += compressedLength;
+			counts.compressionTime += timeNanos;
+		}
+	}
+
+	void addDecompressedBatch(ContactId c, int uncompressedLength,
+			int compressedLength, long timeNanos) {
+		Counters counts = getCounters(c);
+		synchronized (counts) {
+			counts.uncompressedReceived += uncompressedLength;
+			counts.compressedReceived += compressedLength;
+			counts.decompressionTime += timeNanos;
+		}
+	}
+
+	private Counters getCounters(ContactId c) {
+		Counters counts = counters.get(c);
+		if (counts == null) {
+			Counters created = new Counters();
+			counts = counters.putIfAbsent(c, created);
+			if (counts == null) counts = created;
+		}
+		return counts;
+	}
+
+	@Override
+	public CompressionStats getCompressionStats(ContactId c) {
+		Counters counts = counters.get(c);
+		if (counts == null) return new CompressionStats(0, 0, 0, 0, 0, 0);
+		synchronized (counts) {
+			return new CompressionStats(counts.uncompressedSent,
+					counts.compressedSent, counts.compressionTime,
+					counts.uncompressedReceived, counts.compressedReceived,
+					counts.decompressionTime);
+		}
+	}
+
+	@Override
+	public void eventOccurred(Event e) {
+		if (e instanceof ContactRemovedEvent) {
+			counters.remove(((ContactRemovedEvent) e).getContactId());
+		}
+	}
+
+	private static class Counters {
+
+		@GuardedBy("this")
+		private long uncompressedSent = 0, compressedSent = 0;
+		@GuardedBy("this")
+		private long compressionTime = 0;
+		@GuardedBy("this")
+		private long uncompressedReceived = 0, compressedReceived = 0;
+		@GuardedBy("this")
+		private long decompressionTime = 0;
+	}
+}
@@ -0,0 +1,72 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DatabaseExecutor;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.ClientCompressionRegistry;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.concurrent.Immutable;
+import javax.inject.Inject;
+
+import static org.briarproject.bramble.api.sync.SyncConstants.COMPRESSED_BATCH_VERSION;
+
+/**
+ * Determines which messages an outgoing session may send to a contact in
+ * compressed batches. Messages are only compressed if the contact supports
+ * compressed batches and the messages belong to a client that has
+ * registered with the {@link ClientCompressionRegistry}. The
+ * {@link org.briarproject.bramble.api.sync.SyncRecordWriter SyncRecordWriter}
+ * compresses each group's messages separately.
+ */
+@Immutable
+@NotNullByDefault
+class CompressionPolicy {
+
+	private final DatabaseComponent db;
+	private final ClientCompressionRegistry registry;
+
+	@Inject
+	CompressionPolicy(DatabaseComponent db,
+			ClientCompressionRegistry registry) {
+		this.db = db;
+		this.registry = registry;
+	}
+
+	/**
+	 * Returns true if the given contact supports compressed batches.
+	 */
+	@DatabaseExecutor
+	boolean supportsCompression(Transaction txn, ContactId c)
+			throws DbException {
+		return db.getSyncVersions(txn, c).contains(COMPRESSED_BATCH_VERSION);
+	}
+
+	/**
+	 * Returns the IDs of the groups whose messages in the given batch may be
+	 * compressed.
+	 */
+	@DatabaseExecutor
+	Collection<GroupId> getCompressibleGroups(Transaction txn,
+			Collection<Message> batch) throws DbException {
+		Set<GroupId> checked = new HashSet<>();
+		Set<GroupId> compressible = new HashSet<>();
+		for (Message m : batch) {
+			GroupId g = m.getGroupId();
+			if (checked.add(g)) {
+				ClientId c = db.getGroup(txn, g).getClientId();
+				if (registry.isCompressibleClient(c)) compressible.add(g);
+			}
+		}
+		return compressible;
+	}
+}
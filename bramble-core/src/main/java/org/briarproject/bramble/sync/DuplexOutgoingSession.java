@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventListener;
@@ -14,10 +15,13 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.plugin.event.TransportInactiveEvent;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.ClientPriority;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Sketch;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 import org.briarproject.bramble.api.sync.SyncSession;
 import org.briarproject.bramble.api.sync.Versions;
@@ -27,28 +31,42 @@ import org.briarproject.bramble.api.sync.event.MessageRequestedEvent;
 import org.briarproject.bramble.api.sync.event.MessageSharedEvent;
 import org.briarproject.bramble.api.sync.event.MessageToAckEvent;
 import org.briarproject.bramble.api.sync.event.MessageToRequestEvent;
+import org.briarproject.bramble.api.sync.event.SketchReceivedEvent;
+import org.briarproject.bramble.api.sync.event.SyncVersionsUpdatedEvent;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.transport.StreamWriter;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.synchronizedSet;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STOPPING;
+import static org.briarproject.bramble.api.nullsafety.NullSafety.requireNonNull;
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_COMPRESSED_BATCH_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MIN_MESSAGES_FOR_SKETCH;
+import static org.briarproject.bramble.api.sync.SyncConstants.SET_RECONCILIATION_VERSION;
 import static org.briarproject.bramble.api.sync.SyncConstants.SUPPORTED_VERSIONS;
 import static org.briarproject.bramble.util.LogUtils.logException;
 
@@ -57,6 +75,20 @@ import static org.briarproject.bramble.util.LogUtils.logException;
  * offers messages before sending them, keeps its output stream open when there
  * are no records to send, and reacts to events that make records available to
  * send.
+ * <p/>
+ * If the contact supports set reconciliation, the session first sends a
+ * {@link Sketch} of each group with many messages waiting to be offered, and
+ * holds back offers until the contact has replied with its own sketches (or
+ * the transport's maximum latency has elapsed), so that messages held by both
+ * peers don't need to be offered.
+ * <p/>
+ * Messages belonging to high-priority clients are offered and sent before
+ * messages belonging to low-priority clients, subject to the
+ * {@link PriorityScheduler}. If the contact supports compressed batches,
+ * messages are compressed according to the {@link CompressionPolicy}.
+ * <p/>
+ * Acks are delayed according to the {@link AckPolicy}, so that the IDs of
+ * messages received in a burst can be sent in a single ack.
  */
 @ThreadSafe
 @NotNullByDefault
@@ -70,6 +102,10 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private static final ThrowingRunnable<IOException>
 			NEXT_SEND_TIME_DECREASED = () -> {
 	};
+	private static final ThrowingRunnable<IOException> ACK_SCHEDULED = () -> {
+	};
+	private static final ThrowingRunnable<IOException> NO_ACK = () -> {
+	};
 
 	private final DatabaseComponent db;
 	private final Executor dbExecutor;
@@ -78,8 +114,10 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private final ContactId contactId;
 	private final TransportId transportId;
 	private final long maxLatency, maxIdleTime;
+	private final AckPolicy ackPolicy;
 	private final StreamWriter streamWriter;
 	private final SyncRecordWriter recordWriter;
+	private final CompressionPolicy compressionPolicy;
 	@Nullable
 	private final Priority priority;
 	private final BlockingQueue<ThrowingRunnable<IOException>> writerTasks;
@@ -90,13 +128,31 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	private final AtomicBoolean generateRequestQueued =
 			new AtomicBoolean(false);
 	private final AtomicLong nextSendTime = new AtomicLong(Long.MAX_VALUE);
+	// The number of messages received since the last ack was queued
+	private final AtomicInteger messagesToAck = new AtomicInteger(0);
+	// Only one task of each type is queued or running at any time, so each
+	// scheduler is only used by one thread at a time
+	private final PriorityScheduler batchScheduler = new PriorityScheduler();
+	private final PriorityScheduler offerScheduler = new PriorityScheduler();
+
+	// Groups for which we've sent or queued sketches in this session
+	private final Set<GroupId> sketchesSent =
+			synchronizedSet(new HashSet<>());
+	// Groups for which we're waiting for the contact's sketches before
+	// resuming offers
+	private final Set<GroupId> sketchesAwaited =
+			synchronizedSet(new HashSet<>());
 
 	private volatile boolean interrupted = false;
+	private volatile boolean offersPaused = true;
+	private volatile long offerResumeTime = Long.MAX_VALUE;
+	private volatile long ackDueTime = Long.MAX_VALUE;
 
 	DuplexOutgoingSession(DatabaseComponent db, Executor dbExecutor,
 			EventBus eventBus, Clock clock, ContactId contactId,
 			TransportId transportId, long maxLatency, int maxIdleTime,
-			StreamWriter streamWriter, SyncRecordWriter recordWriter,
+			AckPolicy ackPolicy, StreamWriter streamWriter,
+			SyncRecordWriter recordWriter, CompressionPolicy compressionPolicy,
 			@Nullable Priority priority) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
@@ -106,8 +162,10 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		this.transportId = transportId;
 		this.maxLatency = maxLatency;
 		this.maxIdleTime = maxIdleTime;
+		this.ackPolicy = ackPolicy;
 		this.streamWriter = streamWriter;
 		this.recordWriter = recordWriter;
+		this.compressionPolicy = compressionPolicy;
 		this.priority = priority;
 		writerTasks = new LinkedBlockingQueue<>();
 	}
@@ -121,33 +179,61 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			recordWriter.writeVersions(new Versions(SUPPORTED_VERSIONS));
 			// Send our connection priority, if this is an outgoing connection
 			if (priority != null) recordWriter.writePriority(priority);
-			// Start a query for each type of record
+			// Start a query for each type of record. Offers will be
+			// generated when any initial sketches have been answered
 			generateAck();
 			generateBatch();
-			generateOffer();
+			generateSketches();
 			generateRequest();
 			long now = clock.currentTimeMillis();
 			long nextKeepalive = now + maxIdleTime;
 			boolean dataToFlush = true;
+			// True if we're waiting for an ack to be written before flushing
+			boolean awaitingAck = false;
 			// Write records until interrupted
 			try {
 				while (!interrupted) {
-					// Work out how long we should wait for a record
+					// Send any delayed acks that are due, even if other
+					// records are keeping the writer busy
 					now = clock.currentTimeMillis();
-					long keepaliveWait = Math.max(0, nextKeepalive - now);
+					if (now >= ackDueTime) {
+						LOG.info("Sending delayed ack");
+						generateAck();
+						awaitingAck = true;
+					}
+					// Work out how long we should wait for a record. If we're
+					// waiting for an ack, the keepalive is sent after the ack
+					long keepaliveWait = awaitingAck ? Long.MAX_VALUE :
+							Math.max(0, nextKeepalive - now);
 					long sendWait = Math.max(0, nextSendTime.get() - now);
-					long wait = Math.min(keepaliveWait, sendWait);
-					// Flush any unflushed data if we're going to wait
+					long ackWait = Math.max(0, ackDueTime - now);
+					long wait = Math.min(Math.min(keepaliveWait, sendWait),
+							ackWait);
+					if (offersPaused) {
+						long resumeWait = Math.max(0, offerResumeTime - now);
+						wait = Math.min(wait, resumeWait);
+					}
+					// Flush any unflushed data if we're going to wait, but
+					// send any delayed acks first
 					if (wait > 0 && dataToFlush && writerTasks.isEmpty()) {
-						recordWriter.flush();
-						dataToFlush = false;
-						nextKeepalive = now + maxIdleTime;
+						if (messagesToAck.get() > 0) {
+							generateAck();
+							awaitingAck = true;
+						} else if (!awaitingAck) {
+							recordWriter.flush();
+							dataToFlush = false;
+							nextKeepalive = now + maxIdleTime;
+						}
 					}
 					// Wait for a record
 					ThrowingRunnable<IOException> task = writerTasks.poll(wait,
 							MILLISECONDS);
 					if (task == null) {
 						now = clock.currentTimeMillis();
+						if (offersPaused && now >= offerResumeTime) {
+							LOG.info("Timed out waiting for sketches");
+							resumeOffers();
+						}
 						if (now >= nextSendTime.get()) {
 							// Check for retransmittable messages
 							LOG.info("Checking for retransmittable messages");
@@ -155,21 +241,33 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 							generateBatch();
 							generateOffer();
 						}
-						if (now >= nextKeepalive) {
-							// Flush the stream to keep it alive
-							LOG.info("Sending keepalive");
-							recordWriter.flush();
-							dataToFlush = false;
-							nextKeepalive = now + maxIdleTime;
+						if (now >= nextKeepalive && !awaitingAck) {
+							if (messagesToAck.get() > 0) {
+								// Send any delayed acks before the keepalive
+								generateAck();
+								awaitingAck = true;
+							} else {
+								// Flush the stream to keep it alive
+								LOG.info("Sending keepalive");
+								recordWriter.flush();
+								dataToFlush = false;
+								nextKeepalive = now + maxIdleTime;
+							}
 						}
 					} else if (task == CLOSE) {
 						LOG.info("Closed");
 						break;
 					} else if (task == NEXT_SEND_TIME_DECREASED) {
 						LOG.info("Next send time decreased");
+					} else if (task == ACK_SCHEDULED) {
+						LOG.info("Ack scheduled");
+					} else if (task == NO_ACK) {
+						LOG.info("No ack to send");
+						awaitingAck = false;
 					} else {
 						task.run();
 						dataToFlush = true;
+						if (task instanceof WriteAck) awaitingAck = false;
 					}
 				}
 				streamWriter.sendEndOfStream();
@@ -183,20 +281,48 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 	}
 
 	private void generateAck() {
+		// Any messages received before this point will be included in the
+		// ack, so reset the delay before resetting the count
+		ackDueTime = Long.MAX_VALUE;
+		messagesToAck.set(0);
 		if (generateAckQueued.compareAndSet(false, true))
 			dbExecutor.execute(new GenerateAck());
 	}
 
+	private void scheduleAck() {
+		int count = messagesToAck.incrementAndGet();
+		if (count >= ackPolicy.getMaxMessages()) {
+			generateAck();
+		} else if (count == 1) {
+			ackDueTime = clock.currentTimeMillis() + ackPolicy.getMaxDelay();
+			writerTasks.add(ACK_SCHEDULED);
+		}
+	}
+
 	private void generateBatch() {
 		if (generateBatchQueued.compareAndSet(false, true))
 			dbExecutor.execute(new GenerateBatch());
 	}
 
 	private void generateOffer() {
+		if (offersPaused) return;
 		if (generateOfferQueued.compareAndSet(false, true))
 			dbExecutor.execute(new GenerateOffer());
 	}
 
+	private void resumeOffers() {
+		offersPaused = false;
+		generateOffer();
+	}
+
+	private void generateSketches() {
+		dbExecutor.execute(new GenerateSketches());
+	}
+
+	private void generateSketch(GroupId g) {
+		if (sketchesSent.add(g)) dbExecutor.execute(new GenerateSketch(g));
+	}
+
 	private void generateRequest() {
 		if (generateRequestQueued.compareAndSet(false, true))
 			dbExecutor.execute(new GenerateRequest());
@@ -229,10 +355,27 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 				generateBatch();
 		} else if (e instanceof MessageToAckEvent) {
 			if (((MessageToAckEvent) e).getContactId().equals(contactId))
-				generateAck();
+				scheduleAck();
 		} else if (e instanceof MessageToRequestEvent) {
 			if (((MessageToRequestEvent) e).getContactId().equals(contactId))
 				generateRequest();
+		} else if (e instanceof SketchReceivedEvent) {
+			SketchReceivedEvent s = (SketchReceivedEvent) e;
+			if (s.getContactId().equals(contactId)) {
+				// Reply with our own sketch if we haven't already sent one
+				generateSketch(s.getGroupId());
+				if (sketchesAwaited.remove(s.getGroupId()) &&
+						sketchesAwaited.isEmpty()) {
+					LOG.info("Received all awaited sketches");
+					resumeOffers();
+				}
+			}
+		} else if (e instanceof SyncVersionsUpdatedEvent) {
+			SyncVersionsUpdatedEvent s = (SyncVersionsUpdatedEvent) e;
+			if (s.getContactId().equals(contactId) && s.getSupportedVersions()
+					.contains(SET_RECONCILIATION_VERSION)) {
+				generateSketches();
+			}
 		} else if (e instanceof LifecycleEvent) {
 			LifecycleEvent l = (LifecycleEvent) e;
 			if (l.getLifecycleState() == STOPPING) interrupt();
@@ -257,7 +400,9 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 						db.generateAck(txn, contactId, MAX_MESSAGE_IDS));
 				if (LOG.isLoggable(INFO))
 					LOG.info("Generated ack: " + (a != null));
-				if (a != null) writerTasks.add(new WriteAck(a));
+				// Wake the writer even if there's no ack, as it may be
+				// waiting for the ack before flushing
+				writerTasks.add(a == null ? NO_ACK : new WriteAck(a));
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -279,7 +424,8 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			if (interrupted) return;
 			recordWriter.writeAck(ack);
 			LOG.info("Sent ack");
-			generateAck();
+			// If the ack was full there may be more messages to ack
+			if (ack.getMessageIds().size() == MAX_MESSAGE_IDS) generateAck();
 		}
 	}
 
@@ -292,30 +438,60 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			if (!generateBatchQueued.getAndSet(false))
 				throw new AssertionError();
 			try {
-				Collection<Message> b =
-						db.transactionWithNullableResult(false, txn -> {
-							Collection<Message> batch =
-									db.generateRequestedBatch(txn, contactId,
-											MAX_RECORD_PAYLOAD_BYTES,
-											maxLatency);
-							setNextSendTime(db.getNextSendTime(txn, contactId));
-							return batch;
-						});
+				// Update the scheduler and the send time once the
+				// transaction has succeeded
+				List<ClientPriority> priorities =
+						batchScheduler.getPriorities();
+				Generated<OutgoingBatch> g = db.transactionWithResult(false,
+						txn -> generateBatch(txn, priorities));
+				setNextSendTime(g.nextSendTime);
+				OutgoingBatch b = g.record;
 				if (LOG.isLoggable(INFO))
 					LOG.info("Generated batch: " + (b != null));
-				if (b != null) writerTasks.add(new WriteBatch(b));
+				if (b != null) {
+					batchScheduler.recordGenerated(requireNonNull(g.priority));
+					writerTasks.add(new WriteBatch(b));
+				}
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
 			}
 		}
+
+		@DatabaseExecutor
+		private Generated<OutgoingBatch> generateBatch(Transaction txn,
+				List<ClientPriority> priorities) throws DbException {
+			boolean compress =
+					compressionPolicy.supportsCompression(txn, contactId);
+			int capacity = compress ? MAX_COMPRESSED_BATCH_LENGTH :
+					MAX_RECORD_PAYLOAD_BYTES;
+			Collection<Message> batch = null;
+			ClientPriority priority = null;
+			for (ClientPriority p : priorities) {
+				batch = db.generateRequestedBatch(txn, contactId, capacity,
+						maxLatency, p);
+				if (batch != null) {
+					priority = p;
+					break;
+				}
+			}
+			long next = db.getNextSendTime(txn, contactId);
+			if (batch == null) return new Generated<>(null, null, next);
+			if (!compress) {
+				return new Generated<>(new OutgoingBatch(batch, emptyList()),
+						priority, next);
+			}
+			return new Generated<>(new OutgoingBatch(batch,
+					compressionPolicy.getCompressibleGroups(txn, batch)),
+					priority, next);
+		}
 	}
 
 	private class WriteBatch implements ThrowingRunnable<IOException> {
 
-		private final Collection<Message> batch;
+		private final OutgoingBatch batch;
 
-		private WriteBatch(Collection<Message> batch) {
+		private WriteBatch(OutgoingBatch batch) {
 			this.batch = batch;
 		}
 
@@ -323,7 +499,13 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		@Override
 		public void run() throws IOException {
 			if (interrupted) return;
-			for (Message m : batch) recordWriter.writeMessage(m);
+			Collection<GroupId> groups = batch.getCompressibleGroups();
+			if (groups.isEmpty()) {
+				for (Message m : batch.getMessages())
+					recordWriter.writeMessage(m);
+			} else {
+				recordWriter.writeBatch(batch.getMessages(), groups);
+			}
 			LOG.info("Sent batch");
 			generateBatch();
 		}
@@ -338,15 +520,30 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			if (!generateOfferQueued.getAndSet(false))
 				throw new AssertionError();
 			try {
-				Offer o = db.transactionWithNullableResult(false, txn -> {
-					Offer offer = db.generateOffer(txn, contactId,
-							MAX_MESSAGE_IDS, maxLatency);
-					setNextSendTime(db.getNextSendTime(txn, contactId));
-					return offer;
+				// Update the scheduler and the send time once the
+				// transaction has succeeded
+				List<ClientPriority> priorities =
+						offerScheduler.getPriorities();
+				Generated<Offer> g = db.transactionWithResult(false, txn -> {
+					for (ClientPriority p : priorities) {
+						Offer offer = db.generateOffer(txn, contactId,
+								MAX_MESSAGE_IDS, maxLatency, p);
+						if (offer != null) {
+							return new Generated<>(offer, p,
+									db.getNextSendTime(txn, contactId));
+						}
+					}
+					return new Generated<>(null, null,
+							db.getNextSendTime(txn, contactId));
 				});
+				setNextSendTime(g.nextSendTime);
+				Offer o = g.record;
 				if (LOG.isLoggable(INFO))
 					LOG.info("Generated offer: " + (o != null));
-				if (o != null) writerTasks.add(new WriteOffer(o));
+				if (o != null) {
+					offerScheduler.recordGenerated(requireNonNull(g.priority));
+					writerTasks.add(new WriteOffer(o));
+				}
 			} catch (DbException e) {
 				logException(LOG, WARNING, e);
 				interrupt();
@@ -372,6 +569,89 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 		}
 	}
 
+	private class GenerateSketches implements Runnable {
+
+		@DatabaseExecutor
+		@Override
+		public void run() {
+			if (interrupted) return;
+			try {
+				Collection<Sketch> sketches =
+						db.transactionWithResult(true, txn -> {
+							if (!db.getSyncVersions(txn, contactId)
+									.contains(SET_RECONCILIATION_VERSION)) {
+								return new ArrayList<Sketch>();
+							}
+							return db.generateSketches(txn, contactId,
+									MIN_MESSAGES_FOR_SKETCH);
+						});
+				List<Sketch> toSend = new ArrayList<>(sketches.size());
+				for (Sketch s : sketches) {
+					if (sketchesSent.add(s.getGroupId())) toSend.add(s);
+				}
+				if (LOG.isLoggable(INFO))
+					LOG.info("Generated " + toSend.size() + " sketches");
+				if (offersPaused) {
+					if (toSend.isEmpty()) {
+						resumeOffers();
+					} else {
+						for (Sketch s : toSend)
+							sketchesAwaited.add(s.getGroupId());
+						offerResumeTime = clock.currentTimeMillis()
+								+ maxLatency;
+					}
+				}
+				if (!toSend.isEmpty()) writerTasks.add(new WriteSketches(toSend));
+			} catch (DbException e) {
+				logException(LOG, WARNING, e);
+				interrupt();
+			}
+		}
+	}
+
+	private class GenerateSketch implements Runnable {
+
+		private final GroupId groupId;
+
+		private GenerateSketch(GroupId groupId) {
+			this.groupId = groupId;
+		}
+
+		@DatabaseExecutor
+		@Override
+		public void run() {
+			if (interrupted) return;
+			try {
+				Sketch s = db.transactionWithNullableResult(true, txn ->
+						db.generateSketch(txn, contactId, groupId));
+				if (LOG.isLoggable(INFO))
+					LOG.info("Generated sketch: " + (s != null));
+				if (s != null)
+					writerTasks.add(new WriteSketches(singletonList(s)));
+			} catch (DbException e) {
+				logException(LOG, WARNING, e);
+				interrupt();
+			}
+		}
+	}
+
+	private class WriteSketches implements ThrowingRunnable<IOException> {
+
+		private final Collection<Sketch> sketches;
+
+		private WriteSketches(Collection<Sketch> sketches) {
+			this.sketches = sketches;
+		}
+
+		@IoExecutor
+		@Override
+		public void run() throws IOException {
+			if (interrupted) return;
+			for (Sketch s : sketches) recordWriter.writeSketch(s);
+			LOG.info("Sent sketches");
+		}
+	}
+
 	private class GenerateRequest implements Runnable {
 
 		@DatabaseExecutor
@@ -410,4 +690,25 @@ class DuplexOutgoingSession implements SyncSession, EventListener {
 			generateRequest();
 		}
 	}
+
+	/**
+	 * A record generated within a transaction, with the priority of the
+	 * messages it refers to and the contact's next send time, so the
+	 * session's state can be updated once the transaction has succeeded.
+	 */
+	private static class Generated<T> {
+
+		@Nullable
+		private final T record;
+		@Nullable
+		private final ClientPriority priority;
+		private final long nextSendTime;
+
+		private Generated(@Nullable T record,
+				@Nullable ClientPriority priority, long nextSendTime) {
+			this.record = record;
+			this.priority = priority;
+			this.nextSendTime = nextSendTime;
+		}
+	}
 }
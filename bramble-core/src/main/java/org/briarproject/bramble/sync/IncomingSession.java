@@ -4,8 +4,8 @@ import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
-import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.DbRunnable;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventListener;
@@ -18,13 +18,12 @@ import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
 import org.briarproject.bramble.api.sync.PriorityHandler;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Sketch;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.SyncSession;
 import org.briarproject.bramble.api.sync.Versions;
 
 import java.io.IOException;
-import java.util.List;
-import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
 import javax.annotation.concurrent.ThreadSafe;
@@ -45,7 +44,6 @@ class IncomingSession implements SyncSession, EventListener {
 			getLogger(IncomingSession.class.getName());
 
 	private final DatabaseComponent db;
-	private final Executor dbExecutor;
 	private final EventBus eventBus;
 	private final ContactId contactId;
 	private final SyncRecordReader recordReader;
@@ -53,11 +51,10 @@ class IncomingSession implements SyncSession, EventListener {
 
 	private volatile boolean interrupted = false;
 
-	IncomingSession(DatabaseComponent db, Executor dbExecutor,
-			EventBus eventBus, ContactId contactId,
-			SyncRecordReader recordReader, PriorityHandler priorityHandler) {
+	IncomingSession(DatabaseComponent db, EventBus eventBus,
+			ContactId contactId, SyncRecordReader recordReader,
+			PriorityHandler priorityHandler) {
 		this.db = db;
-		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
 		this.contactId = contactId;
 		this.recordReader = recordReader;
@@ -69,7 +66,9 @@ class IncomingSession implements SyncSession, EventListener {
 	public void run() throws IOException {
 		eventBus.addListener(this);
 		try {
-			// Read records until interrupted or EOF
+			// Read records until interrupted or EOF. The records are
+			// received in the order they're read, and records that are read
+			// while the database executor is busy are committed together
 			while (!interrupted) {
 				if (recordReader.eof()) {
 					LOG.info("End of stream");
@@ -77,22 +76,29 @@ class IncomingSession implements SyncSession, EventListener {
 				}
 				if (recordReader.hasAck()) {
 					Ack a = recordReader.readAck();
-					dbExecutor.execute(new ReceiveAck(a));
+					receive(txn -> db.receiveAck(txn, contactId, a));
 				} else if (recordReader.hasMessage()) {
 					Message m = recordReader.readMessage();
-					dbExecutor.execute(new ReceiveMessage(m));
+					receive(txn -> db.receiveMessage(txn, contactId, m));
+				} else if (recordReader.hasCompressedBatch()) {
+					for (Message m : recordReader.readCompressedBatch())
+						receive(txn -> db.receiveMessage(txn, contactId, m));
 				} else if (recordReader.hasOffer()) {
 					Offer o = recordReader.readOffer();
-					dbExecutor.execute(new ReceiveOffer(o));
+					receive(txn -> db.receiveOffer(txn, contactId, o));
 				} else if (recordReader.hasRequest()) {
 					Request r = recordReader.readRequest();
-					dbExecutor.execute(new ReceiveRequest(r));
+					receive(txn -> db.receiveRequest(txn, contactId, r));
 				} else if (recordReader.hasVersions()) {
 					Versions v = recordReader.readVersions();
-					dbExecutor.execute(new ReceiveVersions(v));
+					receive(txn -> db.setSyncVersions(txn, contactId,
+							v.getSupportedVersions()));
 				} else if (recordReader.hasPriority()) {
 					Priority p = recordReader.readPriority();
 					priorityHandler.handle(p);
+				} else if (recordReader.hasSketch()) {
+					Sketch sk = recordReader.readSketch();
+					receive(txn -> db.receiveSketch(txn, contactId, sk));
 				} else {
 					// unknown records are ignored in RecordReader#eof()
 					throw new FormatException();
@@ -120,109 +126,10 @@ class IncomingSession implements SyncSession, EventListener {
 		}
 	}
 
-	private class ReceiveAck implements Runnable {
-
-		private final Ack ack;
-
-		private ReceiveAck(Ack ack) {
-			this.ack = ack;
-		}
-
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				db.transaction(false, txn ->
-						db.receiveAck(txn, contactId, ack));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
-			}
-		}
-	}
-
-	private class ReceiveMessage implements Runnable {
-
-		private final Message message;
-
-		private ReceiveMessage(Message message) {
-			this.message = message;
-		}
-
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				db.transaction(false, txn ->
-						db.receiveMessage(txn, contactId, message));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
-			}
-		}
-	}
-
-	private class ReceiveOffer implements Runnable {
-
-		private final Offer offer;
-
-		private ReceiveOffer(Offer offer) {
-			this.offer = offer;
-		}
-
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				db.transaction(false, txn ->
-						db.receiveOffer(txn, contactId, offer));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
-			}
-		}
-	}
-
-	private class ReceiveRequest implements Runnable {
-
-		private final Request request;
-
-		private ReceiveRequest(Request request) {
-			this.request = request;
-		}
-
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				db.transaction(false, txn ->
-						db.receiveRequest(txn, contactId, request));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
-			}
-		}
-	}
-
-	private class ReceiveVersions implements Runnable {
-
-		private final Versions versions;
-
-		private ReceiveVersions(Versions versions) {
-			this.versions = versions;
-		}
-
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				List<Byte> supported = versions.getSupportedVersions();
-				db.transaction(false,
-						txn -> db.setSyncVersions(txn, contactId, supported));
-			} catch (DbException e) {
-				logException(LOG, WARNING, e);
-				interrupt();
-			}
-		}
+	private void receive(DbRunnable<DbException> task) {
+		db.queueGroupTransaction(task, e -> {
+			logException(LOG, WARNING, e);
+			interrupt();
+		});
 	}
 }
@@ -0,0 +1,35 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+
+import java.util.Collection;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A batch of messages to send to a contact, and the groups whose messages
+ * in the batch may be compressed.
+ */
+@Immutable
+@NotNullByDefault
+class OutgoingBatch {
+
+	private final Collection<Message> messages;
+	private final Collection<GroupId> compressibleGroups;
+
+	OutgoingBatch(Collection<Message> messages,
+			Collection<GroupId> compressibleGroups) {
+		this.messages = messages;
+		this.compressibleGroups = compressibleGroups;
+	}
+
+	Collection<Message> getMessages() {
+		return messages;
+	}
+
+	Collection<GroupId> getCompressibleGroups() {
+		return compressibleGroups;
+	}
+}
@@ -0,0 +1,53 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.ClientPriority;
+
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static java.util.Arrays.asList;
+import static org.briarproject.bramble.api.sync.ClientPriority.HIGH;
+import static org.briarproject.bramble.api.sync.ClientPriority.LOW;
+
+/**
+ * Decides which {@link ClientPriority priority} of messages should be sent
+ * next. High-priority messages are preferred, but after a run of
+ * high-priority records, low-priority messages are preferred for one record
+ * so they can't be starved.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class PriorityScheduler {
+
+	/**
+	 * The maximum number of consecutive high-priority records before a
+	 * low-priority record is preferred.
+	 */
+	static final int MAX_CONSECUTIVE_HIGH_PRIORITY = 4;
+
+	private static final List<ClientPriority> HIGH_FIRST = asList(HIGH, LOW);
+	private static final List<ClientPriority> LOW_FIRST = asList(LOW, HIGH);
+
+	private int consecutiveHighPriority = 0;
+
+	/**
+	 * Returns the priorities in the order they should be tried for the next
+	 * record.
+	 */
+	List<ClientPriority> getPriorities() {
+		if (consecutiveHighPriority < MAX_CONSECUTIVE_HIGH_PRIORITY)
+			return HIGH_FIRST;
+		return LOW_FIRST;
+	}
+
+	/**
+	 * Records that a record of messages with the given priority was
+	 * generated.
+	 */
+	void recordGenerated(ClientPriority p) {
+		if (p == HIGH) consecutiveHighPriority++;
+		else consecutiveHighPriority = 0;
+	}
+}
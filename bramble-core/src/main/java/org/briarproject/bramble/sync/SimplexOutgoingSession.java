@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventListener;
@@ -14,6 +15,8 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.plugin.event.TransportInactiveEvent;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.ClientPriority;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
@@ -26,6 +29,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.BlockingQueue;
@@ -36,11 +40,13 @@ import java.util.logging.Logger;
 
 import javax.annotation.concurrent.ThreadSafe;
 
+import static java.util.Collections.emptyList;
 import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.LifecycleState.STOPPING;
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_COMPRESSED_BATCH_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
 import static org.briarproject.bramble.api.sync.SyncConstants.SUPPORTED_VERSIONS;
 import static org.briarproject.bramble.util.LogUtils.logException;
@@ -49,6 +55,12 @@ import static org.briarproject.bramble.util.LogUtils.logException;
  * An outgoing {@link SyncSession} suitable for simplex transports. The session
  * sends messages without offering them first, and closes its output stream
  * when there are no more records to send.
+ * <p/>
+ * Except in eager mode, messages belonging to high-priority clients are sent
+ * before messages belonging to low-priority clients, subject to the
+ * {@link PriorityScheduler}. If the contact has previously advertised support
+ * for compressed batches, messages belonging to clients that allow it are sent
+ * in compressed batches, as determined by the {@link CompressionPolicy}.
  */
 @ThreadSafe
 @NotNullByDefault
@@ -69,15 +81,22 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	private final boolean eager;
 	private final StreamWriter streamWriter;
 	private final SyncRecordWriter recordWriter;
+	private final CompressionPolicy compressionPolicy;
 	private final AtomicInteger outstandingQueries;
 	private final BlockingQueue<ThrowingRunnable<IOException>> writerTasks;
+	// Batches are generated one at a time, so the scheduler is only used by
+	// one thread at a time
+	private final PriorityScheduler batchScheduler = new PriorityScheduler();
 
 	private volatile boolean interrupted = false;
+	// Set when loading the first batch, before any batches are written
+	private volatile boolean compress = false;
 
 	SimplexOutgoingSession(DatabaseComponent db, Executor dbExecutor,
 			EventBus eventBus, ContactId contactId, TransportId transportId,
 			long maxLatency, boolean eager, StreamWriter streamWriter,
-			SyncRecordWriter recordWriter) {
+			SyncRecordWriter recordWriter,
+			CompressionPolicy compressionPolicy) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
@@ -87,6 +106,7 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 		this.eager = eager;
 		this.streamWriter = streamWriter;
 		this.recordWriter = recordWriter;
+		this.compressionPolicy = compressionPolicy;
 		outstandingQueries = new AtomicInteger(2); // One per type of record
 		writerTasks = new LinkedBlockingQueue<>();
 	}
@@ -150,8 +170,10 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	private void loadUnackedMessageIds() {
 		if (interrupted) return;
 		try {
-			Map<MessageId, Integer> ids = db.transactionWithResult(true, txn ->
-					db.getUnackedMessagesToSend(txn, contactId));
+			Map<MessageId, Integer> ids = db.transactionWithResult(true, txn -> {
+				compress = compressionPolicy.supportsCompression(txn, contactId);
+				return db.getUnackedMessagesToSend(txn, contactId);
+			});
 			if (LOG.isLoggable(INFO)) {
 				LOG.info(ids.size() + " unacked messages to send");
 			}
@@ -168,13 +190,14 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 		if (interrupted) return;
 		// Take some message IDs from `ids` to form a batch
 		Collection<MessageId> batchIds = new ArrayList<>();
+		int capacity = getBatchCapacity();
 		long totalLength = 0;
 		Iterator<Entry<MessageId, Integer>> it = ids.entrySet().iterator();
 		while (it.hasNext()) {
 			// Check whether the next message will fit in the batch
 			Entry<MessageId, Integer> e = it.next();
 			int length = e.getValue();
-			if (totalLength + length > MAX_RECORD_PAYLOAD_BYTES) break;
+			if (totalLength + length > capacity) break;
 			// Add the message to the batch
 			it.remove();
 			batchIds.add(e.getKey());
@@ -182,10 +205,9 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 		}
 		if (batchIds.isEmpty()) throw new AssertionError();
 		try {
-			Collection<Message> batch =
-					db.transactionWithResult(false, txn ->
-							db.generateBatch(txn, contactId, batchIds,
-									maxLatency));
+			OutgoingBatch batch = db.transactionWithResult(false, txn ->
+					createBatch(txn, db.generateBatch(txn, contactId,
+							batchIds, maxLatency)));
 			writerTasks.add(() -> writeEagerBatch(batch, ids));
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
@@ -194,10 +216,10 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	}
 
 	@IoExecutor
-	private void writeEagerBatch(Collection<Message> batch,
+	private void writeEagerBatch(OutgoingBatch batch,
 			Map<MessageId, Integer> ids) throws IOException {
 		if (interrupted) return;
-		for (Message m : batch) recordWriter.writeMessage(m);
+		writeMessages(batch);
 		LOG.info("Sent eager batch");
 		if (ids.isEmpty()) decrementOutstandingQueries();
 		else dbExecutor.execute(() -> generateEagerBatch(ids));
@@ -231,14 +253,31 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	private void generateBatch() {
 		if (interrupted) return;
 		try {
-			Collection<Message> b =
-					db.transactionWithNullableResult(false, txn ->
-							db.generateBatch(txn, contactId,
-									MAX_RECORD_PAYLOAD_BYTES, maxLatency));
+			// Update the scheduler once the transaction has succeeded
+			List<ClientPriority> priorities = batchScheduler.getPriorities();
+			GeneratedBatch g =
+					db.transactionWithNullableResult(false, txn -> {
+						compress = compressionPolicy.supportsCompression(txn,
+								contactId);
+						for (ClientPriority p : priorities) {
+							Collection<Message> batch = db.generateBatch(txn,
+									contactId, getBatchCapacity(), maxLatency,
+									p);
+							if (batch != null) {
+								return new GeneratedBatch(
+										createBatch(txn, batch), p);
+							}
+						}
+						return null;
+					});
 			if (LOG.isLoggable(INFO))
-				LOG.info("Generated batch: " + (b != null));
-			if (b == null) decrementOutstandingQueries();
-			else writerTasks.add(() -> writeBatch(b));
+				LOG.info("Generated batch: " + (g != null));
+			if (g == null) {
+				decrementOutstandingQueries();
+			} else {
+				batchScheduler.recordGenerated(g.priority);
+				writerTasks.add(() -> writeBatch(g.batch));
+			}
 		} catch (DbException e) {
 			logException(LOG, WARNING, e);
 			interrupt();
@@ -246,10 +285,48 @@ class SimplexOutgoingSession implements SyncSession, EventListener {
 	}
 
 	@IoExecutor
-	private void writeBatch(Collection<Message> batch) throws IOException {
+	private void writeBatch(OutgoingBatch batch) throws IOException {
 		if (interrupted) return;
-		for (Message m : batch) recordWriter.writeMessage(m);
+		writeMessages(batch);
 		LOG.info("Sent batch");
 		dbExecutor.execute(this::generateBatch);
 	}
+
+	@DatabaseExecutor
+	private OutgoingBatch createBatch(Transaction txn,
+			Collection<Message> batch) throws DbException {
+		if (!compress) return new OutgoingBatch(batch, emptyList());
+		return new OutgoingBatch(batch,
+				compressionPolicy.getCompressibleGroups(txn, batch));
+	}
+
+	private int getBatchCapacity() {
+		return compress ? MAX_COMPRESSED_BATCH_LENGTH : MAX_RECORD_PAYLOAD_BYTES;
+	}
+
+	@IoExecutor
+	private void writeMessages(OutgoingBatch batch) throws IOException {
+		Collection<GroupId> groups = batch.getCompressibleGroups();
+		if (groups.isEmpty()) {
+			for (Message m : batch.getMessages()) recordWriter.writeMessage(m);
+		} else {
+			recordWriter.writeBatch(batch.getMessages(), groups);
+		}
+	}
+
+	/**
+	 * A batch generated within a transaction, with the priority of its
+	 * messages, so the scheduler can be updated once the transaction has
+	 * succeeded.
+	 */
+	private static class GeneratedBatch {
+
+		private final OutgoingBatch batch;
+		private final ClientPriority priority;
+
+		private GeneratedBatch(OutgoingBatch batch, ClientPriority priority) {
+			this.batch = batch;
+			this.priority = priority;
+		}
+	}
 }
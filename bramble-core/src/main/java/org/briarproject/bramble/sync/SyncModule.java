@@ -1,5 +1,10 @@
 package org.briarproject.bramble.sync;
 
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.sync.AckMetrics;
+import org.briarproject.bramble.api.sync.ClientCompressionRegistry;
+import org.briarproject.bramble.api.sync.ClientPriorityRegistry;
+import org.briarproject.bramble.api.sync.CompressionMetrics;
 import org.briarproject.bramble.api.sync.GroupFactory;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.SyncRecordReaderFactory;
@@ -11,9 +16,24 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static org.briarproject.bramble.sync.AckPolicy.DEFAULT_MAX_DELAY;
+import static org.briarproject.bramble.sync.AckPolicy.DEFAULT_MAX_MESSAGES;
+
 @Module
 public class SyncModule {
 
+	@Provides
+	@Singleton
+	ClientPriorityRegistry provideClientPriorityRegistry() {
+		return new ClientPriorityRegistryImpl();
+	}
+
+	@Provides
+	@Singleton
+	ClientCompressionRegistry provideClientCompressionRegistry() {
+		return new ClientCompressionRegistryImpl();
+	}
+
 	@Provides
 	GroupFactory provideGroupFactory(GroupFactoryImpl groupFactory) {
 		return groupFactory;
@@ -24,6 +44,39 @@ public class SyncModule {
 		return messageFactory;
 	}
 
+	@Provides
+	@Singleton
+	CompressionMetricsImpl provideCompressionMetricsImpl(EventBus eventBus) {
+		CompressionMetricsImpl compressionMetrics =
+				new CompressionMetricsImpl();
+		eventBus.addListener(compressionMetrics);
+		return compressionMetrics;
+	}
+
+	@Provides
+	CompressionMetrics provideCompressionMetrics(
+			CompressionMetricsImpl compressionMetrics) {
+		return compressionMetrics;
+	}
+
+	@Provides
+	@Singleton
+	AckMetricsImpl provideAckMetricsImpl(EventBus eventBus) {
+		AckMetricsImpl ackMetrics = new AckMetricsImpl();
+		eventBus.addListener(ackMetrics);
+		return ackMetrics;
+	}
+
+	@Provides
+	AckMetrics provideAckMetrics(AckMetricsImpl ackMetrics) {
+		return ackMetrics;
+	}
+
+	@Provides
+	AckPolicy provideAckPolicy() {
+		return new AckPolicy(DEFAULT_MAX_MESSAGES, DEFAULT_MAX_DELAY);
+	}
+
 	@Provides
 	SyncRecordReaderFactory provideRecordReaderFactory(
 			SyncRecordReaderFactoryImpl recordReaderFactory) {
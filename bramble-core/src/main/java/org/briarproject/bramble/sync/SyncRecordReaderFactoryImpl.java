@@ -1,5 +1,6 @@
 package org.briarproject.bramble.sync;
 
+import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.record.RecordReader;
 import org.briarproject.bramble.api.record.RecordReaderFactory;
@@ -9,6 +10,7 @@ import org.briarproject.bramble.api.sync.SyncRecordReaderFactory;
 
 import java.io.InputStream;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
@@ -18,17 +20,30 @@ class SyncRecordReaderFactoryImpl implements SyncRecordReaderFactory {
 
 	private final MessageFactory messageFactory;
 	private final RecordReaderFactory recordReaderFactory;
+	private final CompressionMetricsImpl compressionMetrics;
 
 	@Inject
 	SyncRecordReaderFactoryImpl(MessageFactory messageFactory,
-			RecordReaderFactory recordReaderFactory) {
+			RecordReaderFactory recordReaderFactory,
+			CompressionMetricsImpl compressionMetrics) {
 		this.messageFactory = messageFactory;
 		this.recordReaderFactory = recordReaderFactory;
+		this.compressionMetrics = compressionMetrics;
 	}
 
 	@Override
 	public SyncRecordReader createRecordReader(InputStream in) {
+		return createRecordReader(in, null);
+	}
+
+	/**
+	 * Creates a reader that records compression metrics for the given
+	 * contact, if the contact is not null.
+	 */
+	SyncRecordReader createRecordReader(InputStream in,
+			@Nullable ContactId c) {
 		RecordReader reader = recordReaderFactory.createRecordReader(in);
-		return new SyncRecordReaderImpl(messageFactory, reader);
+		return new SyncRecordReaderImpl(messageFactory, reader,
+				compressionMetrics, c);
 	}
 }
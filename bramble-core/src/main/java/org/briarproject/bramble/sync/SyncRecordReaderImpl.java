@@ -3,16 +3,19 @@ package org.briarproject.bramble.sync;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.Predicate;
 import org.briarproject.bramble.api.UniqueId;
+import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordReader;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Sketch;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.Versions;
 import org.briarproject.bramble.util.ByteUtils;
@@ -20,20 +23,29 @@ import org.briarproject.bramble.util.ByteUtils;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
+import static org.briarproject.bramble.api.sync.RecordTypes.COMPRESSED_BATCH;
 import static org.briarproject.bramble.api.sync.RecordTypes.MESSAGE;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.PRIORITY;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
+import static org.briarproject.bramble.api.sync.RecordTypes.SKETCH;
 import static org.briarproject.bramble.api.sync.RecordTypes.VERSIONS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_COMPRESSED_BATCH_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_SUPPORTED_VERSIONS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.PRIORITY_NONCE_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.api.sync.SyncConstants.SKETCH_TABLE_LENGTH;
+import static org.briarproject.bramble.util.ByteUtils.INT_16_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.readUint16;
 
 @NotThreadSafe
 @NotNullByDefault
@@ -51,19 +63,27 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 
 	private static boolean isKnownRecordType(byte type) {
 		return type == ACK || type == MESSAGE || type == OFFER ||
-				type == REQUEST || type == VERSIONS || type == PRIORITY;
+				type == REQUEST || type == VERSIONS || type == PRIORITY ||
+				type == SKETCH || type == COMPRESSED_BATCH;
 	}
 
 	private final MessageFactory messageFactory;
 	private final RecordReader reader;
+	private final CompressionMetricsImpl compressionMetrics;
+	@Nullable
+	private final ContactId contactId;
 
 	@Nullable
 	private Record nextRecord = null;
 	private boolean eof = false;
 
-	SyncRecordReaderImpl(MessageFactory messageFactory, RecordReader reader) {
+	SyncRecordReaderImpl(MessageFactory messageFactory, RecordReader reader,
+			CompressionMetricsImpl compressionMetrics,
+			@Nullable ContactId contactId) {
 		this.messageFactory = messageFactory;
 		this.reader = reader;
+		this.compressionMetrics = compressionMetrics;
+		this.contactId = contactId;
 	}
 
 	private byte getNextRecordType() {
@@ -124,13 +144,17 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 		if (!hasMessage()) throw new FormatException();
 		if (nextRecord == null) throw new AssertionError();
 		byte[] payload = nextRecord.getPayload();
-		if (payload.length <= MESSAGE_HEADER_LENGTH)
-			throw new FormatException();
+		nextRecord = null;
+		return createMessage(payload);
+	}
+
+	private Message createMessage(byte[] raw) throws FormatException {
+		if (raw.length <= MESSAGE_HEADER_LENGTH) throw new FormatException();
+		if (raw.length > MAX_MESSAGE_LENGTH) throw new FormatException();
 		// Validate timestamp
-		long timestamp = ByteUtils.readUint64(payload, UniqueId.LENGTH);
+		long timestamp = ByteUtils.readUint64(raw, UniqueId.LENGTH);
 		if (timestamp < 0) throw new FormatException();
-		nextRecord = null;
-		return messageFactory.createMessage(payload);
+		return messageFactory.createMessage(raw);
 	}
 
 	@Override
@@ -196,4 +220,90 @@ class SyncRecordReaderImpl implements SyncRecordReader {
 		nextRecord = null;
 		return payload;
 	}
+
+	@Override
+	public boolean hasSketch() throws IOException {
+		return !eof() && getNextRecordType() == SKETCH;
+	}
+
+	@Override
+	public Sketch readSketch() throws IOException {
+		if (!hasSketch()) throw new FormatException();
+		if (nextRecord == null) throw new AssertionError();
+		byte[] payload = nextRecord.getPayload();
+		if (payload.length != UniqueId.LENGTH + SKETCH_TABLE_LENGTH)
+			throw new FormatException();
+		byte[] groupId = new byte[UniqueId.LENGTH];
+		System.arraycopy(payload, 0, groupId, 0, UniqueId.LENGTH);
+		byte[] table = new byte[SKETCH_TABLE_LENGTH];
+		System.arraycopy(payload, UniqueId.LENGTH, table, 0,
+				SKETCH_TABLE_LENGTH);
+		nextRecord = null;
+		return new Sketch(new GroupId(groupId), table);
+	}
+
+	@Override
+	public boolean hasCompressedBatch() throws IOException {
+		return !eof() && getNextRecordType() == COMPRESSED_BATCH;
+	}
+
+	@Override
+	public List<Message> readCompressedBatch() throws IOException {
+		if (!hasCompressedBatch()) throw new FormatException();
+		if (nextRecord == null) throw new AssertionError();
+		byte[] payload = nextRecord.getPayload();
+		nextRecord = null;
+		long start = System.nanoTime();
+		byte[] uncompressed = decompress(payload);
+		long duration = System.nanoTime() - start;
+		if (contactId != null) {
+			compressionMetrics.addDecompressedBatch(contactId,
+					uncompressed.length, payload.length, duration);
+		}
+		List<Message> messages = new ArrayList<>();
+		int off = 0;
+		while (off < uncompressed.length) {
+			if (uncompressed.length - off < INT_16_BYTES)
+				throw new FormatException();
+			int length = readUint16(uncompressed, off);
+			off += INT_16_BYTES;
+			if (uncompressed.length - off < length)
+				throw new FormatException();
+			byte[] raw = new byte[length];
+			System.arraycopy(uncompressed, off, raw, 0, length);
+			off += length;
+			messages.add(createMessage(raw));
+		}
+		if (messages.isEmpty()) throw new FormatException();
+		return messages;
+	}
+
+	private byte[] decompress(byte[] compressed) throws FormatException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			// Allow one extra byte so we can detect oversized batches
+			byte[] buf = new byte[MAX_COMPRESSED_BATCH_LENGTH + 1];
+			int length = 0;
+			while (!inflater.finished()) {
+				if (length == buf.length) throw new FormatException();
+				int read = inflater.inflate(buf, length, buf.length - length);
+				if (read == 0 && (inflater.needsInput() ||
+						inflater.needsDictionary())) {
+					throw new FormatException();
+				}
+				length += read;
+			}
+			if (length > MAX_COMPRESSED_BATCH_LENGTH)
+				throw new FormatException();
+			if (inflater.getRemaining() != 0) throw new FormatException();
+			byte[] uncompressed = new byte[length];
+			System.arraycopy(buf, 0, uncompressed, 0, length);
+			return uncompressed;
+		} catch (DataFormatException e) {
+			throw new FormatException();
+		} finally {
+			inflater.end();
+		}
+	}
 }
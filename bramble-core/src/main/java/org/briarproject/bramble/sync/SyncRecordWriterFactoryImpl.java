@@ -1,5 +1,6 @@
 package org.briarproject.bramble.sync;
 
+import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.record.RecordWriter;
 import org.briarproject.bramble.api.record.RecordWriterFactory;
@@ -9,6 +10,7 @@ import org.briarproject.bramble.api.sync.SyncRecordWriterFactory;
 
 import java.io.OutputStream;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 @NotNullByDefault
@@ -16,17 +18,33 @@ class SyncRecordWriterFactoryImpl implements SyncRecordWriterFactory {
 
 	private final MessageFactory messageFactory;
 	private final RecordWriterFactory recordWriterFactory;
+	private final CompressionMetricsImpl compressionMetrics;
+	private final AckMetricsImpl ackMetrics;
 
 	@Inject
 	SyncRecordWriterFactoryImpl(MessageFactory messageFactory,
-			RecordWriterFactory recordWriterFactory) {
+			RecordWriterFactory recordWriterFactory,
+			CompressionMetricsImpl compressionMetrics,
+			AckMetricsImpl ackMetrics) {
 		this.messageFactory = messageFactory;
 		this.recordWriterFactory = recordWriterFactory;
+		this.compressionMetrics = compressionMetrics;
+		this.ackMetrics = ackMetrics;
 	}
 
 	@Override
 	public SyncRecordWriter createRecordWriter(OutputStream out) {
+		return createRecordWriter(out, null);
+	}
+
+	/**
+	 * Creates a writer that records compression and ack metrics for the
+	 * given contact, if the contact is not null.
+	 */
+	SyncRecordWriter createRecordWriter(OutputStream out,
+			@Nullable ContactId c) {
 		RecordWriter writer = recordWriterFactory.createRecordWriter(out);
-		return new SyncRecordWriterImpl(messageFactory, writer);
+		return new SyncRecordWriterImpl(messageFactory, writer,
+				compressionMetrics, ackMetrics, c);
 	}
 }
@@ -1,30 +1,46 @@
 package org.briarproject.bramble.sync;
 
+import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.record.Record;
 import org.briarproject.bramble.api.record.RecordWriter;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Sketch;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
 import org.briarproject.bramble.api.sync.Versions;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
+import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
+import static org.briarproject.bramble.api.sync.RecordTypes.COMPRESSED_BATCH;
 import static org.briarproject.bramble.api.sync.RecordTypes.MESSAGE;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.PRIORITY;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
+import static org.briarproject.bramble.api.sync.RecordTypes.SKETCH;
 import static org.briarproject.bramble.api.sync.RecordTypes.VERSIONS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_COMPRESSED_BATCH_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.util.ByteUtils.INT_16_BYTES;
+import static org.briarproject.bramble.util.ByteUtils.writeUint16;
 
 @NotThreadSafe
 @NotNullByDefault
@@ -32,11 +48,20 @@ class SyncRecordWriterImpl implements SyncRecordWriter {
 
 	private final MessageFactory messageFactory;
 	private final RecordWriter writer;
+	private final CompressionMetricsImpl compressionMetrics;
+	private final AckMetricsImpl ackMetrics;
+	@Nullable
+	private final ContactId contactId;
 	private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
 
-	SyncRecordWriterImpl(MessageFactory messageFactory, RecordWriter writer) {
+	SyncRecordWriterImpl(MessageFactory messageFactory, RecordWriter writer,
+			CompressionMetricsImpl compressionMetrics,
+			AckMetricsImpl ackMetrics, @Nullable ContactId contactId) {
 		this.messageFactory = messageFactory;
 		this.writer = writer;
+		this.compressionMetrics = compressionMetrics;
+		this.ackMetrics = ackMetrics;
+		this.contactId = contactId;
 	}
 
 	private void writeRecord(byte recordType) throws IOException {
@@ -49,6 +74,8 @@ class SyncRecordWriterImpl implements SyncRecordWriter {
 	public void writeAck(Ack a) throws IOException {
 		for (MessageId m : a.getMessageIds()) payload.write(m.getBytes());
 		writeRecord(ACK);
+		if (contactId != null)
+			ackMetrics.addAck(contactId, a.getMessageIds().size());
 	}
 
 	@Override
@@ -81,6 +108,104 @@ class SyncRecordWriterImpl implements SyncRecordWriter {
 				new Record(PROTOCOL_VERSION, PRIORITY, p.getNonce()));
 	}
 
+	@Override
+	public void writeSketch(Sketch s) throws IOException {
+		payload.write(s.getGroupId().getBytes());
+		payload.write(s.getTable());
+		writeRecord(SKETCH);
+	}
+
+	@Override
+	public void writeBatch(Collection<Message> batch,
+			Collection<GroupId> compressibleGroups) throws IOException {
+		// Compress each group's messages separately, so the length of a
+		// compressed record doesn't depend on messages from other groups
+		Map<GroupId, List<byte[]>> groups = new LinkedHashMap<>();
+		for (Message m : batch) {
+			GroupId g = m.getGroupId();
+			if (compressibleGroups.contains(g)) {
+				List<byte[]> raw = groups.get(g);
+				if (raw == null) {
+					raw = new ArrayList<>();
+					groups.put(g, raw);
+				}
+				raw.add(messageFactory.getRawMessage(m));
+			} else {
+				writeMessage(m);
+			}
+		}
+		for (List<byte[]> raw : groups.values())
+			writeCompressedBatch(raw, 0, raw.size());
+	}
+
+	/**
+	 * Writes the raw messages between the given indices, splitting them
+	 * between records if they don't fit in a single compressed batch.
+	 */
+	private void writeCompressedBatch(List<byte[]> raw, int from, int to)
+			throws IOException {
+		if (from == to) return;
+		int length = 0;
+		for (int i = from; i < to; i++)
+			length += INT_16_BYTES + raw.get(i).length;
+		if (length <= MAX_COMPRESSED_BATCH_LENGTH) {
+			byte[] uncompressed = new byte[length];
+			int off = 0;
+			for (int i = from; i < to; i++) {
+				byte[] m = raw.get(i);
+				writeUint16(m.length, uncompressed, off);
+				off += INT_16_BYTES;
+				System.arraycopy(m, 0, uncompressed, off, m.length);
+				off += m.length;
+			}
+			long start = System.nanoTime();
+			byte[] compressed = compress(uncompressed);
+			long duration = System.nanoTime() - start;
+			if (compressed != null) {
+				if (contactId != null) {
+					compressionMetrics.addCompressedBatch(contactId, length,
+							compressed.length, duration);
+				}
+				writer.writeRecord(new Record(PROTOCOL_VERSION,
+						COMPRESSED_BATCH, compressed));
+				return;
+			}
+		}
+		if (to - from == 1) {
+			// A single message that doesn't compress into one record
+			writer.writeRecord(new Record(PROTOCOL_VERSION, MESSAGE,
+					raw.get(from)));
+		} else {
+			int mid = from + (to - from) / 2;
+			writeCompressedBatch(raw, from, mid);
+			writeCompressedBatch(raw, mid, to);
+		}
+	}
+
+	/**
+	 * Compresses the given data, returning null if the compressed data
+	 * doesn't fit in a single record.
+	 */
+	@Nullable
+	private byte[] compress(byte[] uncompressed) {
+		Deflater deflater = new Deflater();
+		try {
+			deflater.setInput(uncompressed);
+			deflater.finish();
+			byte[] buf = new byte[MAX_RECORD_PAYLOAD_BYTES];
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == buf.length) return null;
+				length += deflater.deflate(buf, length, buf.length - length);
+			}
+			byte[] compressed = new byte[length];
+			System.arraycopy(buf, 0, compressed, 0, length);
+			return compressed;
+		} finally {
+			deflater.end();
+		}
+	}
+
 	@Override
 	public void flush() throws IOException {
 		writer.flush();
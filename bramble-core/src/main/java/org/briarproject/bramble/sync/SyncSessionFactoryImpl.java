@@ -9,9 +9,7 @@ import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.sync.Priority;
 import org.briarproject.bramble.api.sync.PriorityHandler;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
-import org.briarproject.bramble.api.sync.SyncRecordReaderFactory;
 import org.briarproject.bramble.api.sync.SyncRecordWriter;
-import org.briarproject.bramble.api.sync.SyncRecordWriterFactory;
 import org.briarproject.bramble.api.sync.SyncSession;
 import org.briarproject.bramble.api.sync.SyncSessionFactory;
 import org.briarproject.bramble.api.system.Clock;
@@ -33,29 +31,33 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 	private final Executor dbExecutor;
 	private final EventBus eventBus;
 	private final Clock clock;
-	private final SyncRecordReaderFactory recordReaderFactory;
-	private final SyncRecordWriterFactory recordWriterFactory;
+	private final SyncRecordReaderFactoryImpl recordReaderFactory;
+	private final SyncRecordWriterFactoryImpl recordWriterFactory;
+	private final AckPolicy ackPolicy;
+	private final CompressionPolicy compressionPolicy;
 
 	@Inject
 	SyncSessionFactoryImpl(DatabaseComponent db,
 			@DatabaseExecutor Executor dbExecutor, EventBus eventBus,
-			Clock clock, SyncRecordReaderFactory recordReaderFactory,
-			SyncRecordWriterFactory recordWriterFactory) {
+			Clock clock, SyncRecordReaderFactoryImpl recordReaderFactory,
+			SyncRecordWriterFactoryImpl recordWriterFactory,
+			AckPolicy ackPolicy, CompressionPolicy compressionPolicy) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.eventBus = eventBus;
 		this.clock = clock;
 		this.recordReaderFactory = recordReaderFactory;
 		this.recordWriterFactory = recordWriterFactory;
+		this.ackPolicy = ackPolicy;
+		this.compressionPolicy = compressionPolicy;
 	}
 
 	@Override
 	public SyncSession createIncomingSession(ContactId c, InputStream in,
 			PriorityHandler handler) {
 		SyncRecordReader recordReader =
-				recordReaderFactory.createRecordReader(in);
-		return new IncomingSession(db, dbExecutor, eventBus, c, recordReader,
-				handler);
+				recordReaderFactory.createRecordReader(in, c);
+		return new IncomingSession(db, eventBus, c, recordReader, handler);
 	}
 
 	@Override
@@ -63,9 +65,10 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 			long maxLatency, boolean eager, StreamWriter streamWriter) {
 		OutputStream out = streamWriter.getOutputStream();
 		SyncRecordWriter recordWriter =
-				recordWriterFactory.createRecordWriter(out);
+				recordWriterFactory.createRecordWriter(out, c);
 		return new SimplexOutgoingSession(db, dbExecutor, eventBus, c, t,
-				maxLatency, eager, streamWriter, recordWriter);
+				maxLatency, eager, streamWriter, recordWriter,
+				compressionPolicy);
 	}
 
 	@Override
@@ -74,8 +77,9 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 			@Nullable Priority priority) {
 		OutputStream out = streamWriter.getOutputStream();
 		SyncRecordWriter recordWriter =
-				recordWriterFactory.createRecordWriter(out);
+				recordWriterFactory.createRecordWriter(out, c);
 		return new DuplexOutgoingSession(db, dbExecutor, eventBus, clock, c, t,
-				maxLatency, maxIdleTime, streamWriter, recordWriter, priority);
+				maxLatency, maxIdleTime, ackPolicy, streamWriter, recordWriter,
+				compressionPolicy, priority);
 	}
 }
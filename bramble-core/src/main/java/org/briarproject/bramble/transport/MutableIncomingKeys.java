@@ -4,6 +4,8 @@ import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.transport.IncomingKeys;
 
+import java.util.Arrays;
+
 import javax.annotation.concurrent.NotThreadSafe;
 
 @NotThreadSafe
@@ -21,6 +23,19 @@ class MutableIncomingKeys {
 		window = new ReorderingWindow(in.getWindowBase(), in.getWindowBitmap());
 	}
 
+	/**
+	 * Returns true if these keys and their reordering window are the same
+	 * as the given keys.
+	 */
+	boolean matches(IncomingKeys in) {
+		return timePeriod == in.getTimePeriod()
+				&& Arrays.equals(tagKey.getBytes(), in.getTagKey().getBytes())
+				&& Arrays.equals(headerKey.getBytes(),
+				in.getHeaderKey().getBytes())
+				&& window.getBase() == in.getWindowBase()
+				&& Arrays.equals(window.getBitmap(), in.getWindowBitmap());
+	}
+
 	IncomingKeys snapshot() {
 		return new IncomingKeys(tagKey, headerKey, timePeriod,
 				window.getBase(), window.getBitmap());
@@ -3,6 +3,7 @@ package org.briarproject.bramble.transport;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.transport.IncomingKeys;
 import org.briarproject.bramble.api.transport.TransportKeys;
 
 import javax.annotation.Nullable;
@@ -20,10 +21,21 @@ class MutableTransportKeys {
 	private final boolean alice;
 
 	MutableTransportKeys(TransportKeys k) {
+		this(k, null);
+	}
+
+	/**
+	 * Creates mutable state for the given keys, reusing the mutable state
+	 * of any incoming keys that are unchanged from the given previous
+	 * state. This allows any tags derived from the unchanged incoming keys
+	 * to be reused.
+	 */
+	MutableTransportKeys(TransportKeys k,
+			@Nullable MutableTransportKeys previous) {
 		transportId = k.getTransportId();
-		inPrev = new MutableIncomingKeys(k.getPreviousIncomingKeys());
-		inCurr = new MutableIncomingKeys(k.getCurrentIncomingKeys());
-		inNext = new MutableIncomingKeys(k.getNextIncomingKeys());
+		inPrev = reuseOrCreate(k.getPreviousIncomingKeys(), previous);
+		inCurr = reuseOrCreate(k.getCurrentIncomingKeys(), previous);
+		inNext = reuseOrCreate(k.getNextIncomingKeys(), previous);
 		outCurr = new MutableOutgoingKeys(k.getCurrentOutgoingKeys());
 		if (k.isHandshakeMode()) {
 			rootKey = k.getRootKey();
@@ -34,6 +46,16 @@ class MutableTransportKeys {
 		}
 	}
 
+	private static MutableIncomingKeys reuseOrCreate(IncomingKeys in,
+			@Nullable MutableTransportKeys previous) {
+		if (previous != null) {
+			if (previous.inPrev.matches(in)) return previous.inPrev;
+			if (previous.inCurr.matches(in)) return previous.inCurr;
+			if (previous.inNext.matches(in)) return previous.inNext;
+		}
+		return new MutableIncomingKeys(in);
+	}
+
 	TransportKeys snapshot() {
 		if (rootKey == null) {
 			return new TransportKeys(transportId, inPrev.snapshot(),
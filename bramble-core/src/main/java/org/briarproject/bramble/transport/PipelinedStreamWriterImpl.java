@@ -0,0 +1,272 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.crypto.StreamEncrypter;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.transport.StreamWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static java.lang.System.arraycopy;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_FRAME_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.STREAM_HEADER_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+
+/**
+ * A {@link StreamWriter} that encrypts batches of frames on an executor while
+ * the previous batch is written to the underlying stream and the next batch
+ * is filled by the calling thread.
+ * <p/>
+ * Frames are encrypted one at a time and in order, so the frame numbers and
+ * nonces are the same as those used by {@link StreamWriterImpl}, and the
+ * output is identical. The payload and ciphertext are double-buffered: one
+ * buffer is filled or written by the calling thread while the other is
+ * encrypted. Frames are handed to the executor in batches because a single
+ * frame is too small to be worth the cost of handing it over.
+ * <p/>
+ * If the executor hasn't started encrypting a batch by the time the calling
+ * thread needs the result, the calling thread encrypts the batch itself, so
+ * the writer doesn't depend on the executor having free threads.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class PipelinedStreamWriterImpl extends OutputStream implements StreamWriter {
+
+	static final int FRAMES_PER_BATCH = 32;
+
+	private static final int BATCH_LENGTH =
+			FRAMES_PER_BATCH * MAX_PAYLOAD_LENGTH;
+
+	private final OutputStream out;
+	private final FrameBuffer frameBuffer;
+	private final StreamEncrypter encrypter;
+	private final Executor executor;
+	private final byte[][] payloads;
+	private final byte[] frame; // Only used by the encryption task
+
+	private int current = 0, length = 0;
+	@Nullable
+	private EncryptionTask pending = null;
+
+	/**
+	 * @param out The stream to which encrypted frames are written
+	 * @param frameBuffer The buffer to which the encrypter writes
+	 * @param encrypter An encrypter that writes to the frame buffer
+	 * @param executor The executor on which frames are encrypted
+	 */
+	PipelinedStreamWriterImpl(OutputStream out, FrameBuffer frameBuffer,
+			StreamEncrypter encrypter, Executor executor) {
+		this.out = out;
+		this.frameBuffer = frameBuffer;
+		this.encrypter = encrypter;
+		this.executor = executor;
+		payloads = new byte[2][BATCH_LENGTH];
+		frame = new byte[MAX_PAYLOAD_LENGTH];
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return this;
+	}
+
+	@Override
+	public void sendEndOfStream() throws IOException {
+		writeBatch(true, true);
+		flushEncrypter();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writeBatch(true, true);
+		flushEncrypter();
+		super.close();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writeBatch(true, false);
+		flushEncrypter();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		payloads[current][length] = (byte) b;
+		length++;
+		if (length == BATCH_LENGTH) writeBatch(false, false);
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		int available = BATCH_LENGTH - length;
+		while (available <= len) {
+			arraycopy(b, off, payloads[current], length, available);
+			length += available;
+			writeBatch(false, false);
+			off += available;
+			len -= available;
+			available = BATCH_LENGTH - length;
+		}
+		arraycopy(b, off, payloads[current], length, len);
+		length += len;
+	}
+
+	/**
+	 * Hands the current batch to the executor for encryption.
+	 *
+	 * @param partialFrame True if the data after the last full frame should
+	 * be written as a frame, even if there is no such data
+	 * @param finalFrame True if that frame is the final frame of the stream
+	 */
+	private void writeBatch(boolean partialFrame, boolean finalFrame)
+			throws IOException {
+		EncryptionTask previous = pending;
+		// The encrypter must only be used by one thread at a time
+		if (previous != null) previous.awaitCompletion();
+		pending = new EncryptionTask(current, length, partialFrame,
+				finalFrame);
+		executor.execute(pending);
+		// Write the previous batch while this one is being encrypted
+		if (previous != null) frameBuffer.writeTo(previous.buffer, out);
+		// Fill the other payload buffer while this one is being encrypted
+		current = 1 - current;
+		length = 0;
+	}
+
+	private void flushEncrypter() throws IOException {
+		if (pending != null) {
+			pending.awaitCompletion();
+			frameBuffer.writeTo(pending.buffer, out);
+			pending = null;
+		}
+		// Write the tag and stream header if they haven't been written
+		frameBuffer.select(current);
+		encrypter.flush();
+		frameBuffer.writeTo(current, out);
+		out.flush();
+	}
+
+	private class EncryptionTask implements Runnable {
+
+		private final int buffer, length;
+		private final boolean partialFrame, finalFrame;
+		private final AtomicBoolean started = new AtomicBoolean(false);
+		private final CountDownLatch finished = new CountDownLatch(1);
+
+		@Nullable
+		private IOException ioException = null;
+		@Nullable
+		private RuntimeException runtimeException = null;
+
+		private EncryptionTask(int buffer, int length, boolean partialFrame,
+				boolean finalFrame) {
+			this.buffer = buffer;
+			this.length = length;
+			this.partialFrame = partialFrame;
+			this.finalFrame = finalFrame;
+		}
+
+		@Override
+		public void run() {
+			// The task is run by the executor or the calling thread,
+			// whichever gets to it first
+			if (!started.compareAndSet(false, true)) return;
+			try {
+				frameBuffer.select(buffer);
+				encryptFrames();
+			} catch (IOException e) {
+				ioException = e;
+			} catch (RuntimeException e) {
+				runtimeException = e;
+			} finally {
+				finished.countDown();
+			}
+		}
+
+		private void encryptFrames() throws IOException {
+			// The encrypter reads each frame from the start of an array
+			byte[] payload = payloads[buffer];
+			int fullFrames = length / MAX_PAYLOAD_LENGTH;
+			for (int i = 0; i < fullFrames; i++) {
+				arraycopy(payload, i * MAX_PAYLOAD_LENGTH, frame, 0,
+						MAX_PAYLOAD_LENGTH);
+				encrypter.writeFrame(frame, MAX_PAYLOAD_LENGTH, 0, false);
+			}
+			if (partialFrame) {
+				int remaining = length - fullFrames * MAX_PAYLOAD_LENGTH;
+				arraycopy(payload, fullFrames * MAX_PAYLOAD_LENGTH, frame, 0,
+						remaining);
+				encrypter.writeFrame(frame, remaining, 0, finalFrame);
+			}
+		}
+
+		private void awaitCompletion() throws IOException {
+			run();
+			boolean interrupted = false;
+			while (finished.getCount() > 0) {
+				try {
+					finished.await();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+			if (ioException != null) throw ioException;
+			if (runtimeException != null) throw runtimeException;
+		}
+	}
+
+	/**
+	 * An {@link OutputStream} that collects the output of the encrypter in
+	 * one of two buffers, each of which can hold a batch of frames along
+	 * with the tag and stream header that precede the first frame.
+	 */
+	@NotThreadSafe
+	@NotNullByDefault
+	static class FrameBuffer extends OutputStream {
+
+		private static final int BUFFER_LENGTH = TAG_LENGTH
+				+ STREAM_HEADER_LENGTH + FRAMES_PER_BATCH * MAX_FRAME_LENGTH;
+
+		private final byte[][] buffers = new byte[2][BUFFER_LENGTH];
+		private final int[] lengths = new int[2];
+
+		private int selected = 0;
+
+		/**
+		 * Empties the given buffer and directs subsequent output to it.
+		 */
+		void select(int buffer) {
+			selected = buffer;
+			lengths[buffer] = 0;
+		}
+
+		void writeTo(int buffer, OutputStream out) throws IOException {
+			if (lengths[buffer] > 0) out.write(buffers[buffer], 0,
+					lengths[buffer]);
+			lengths[buffer] = 0;
+		}
+
+		@Override
+		public void write(int b) {
+			buffers[selected][lengths[selected]++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			arraycopy(b, off, buffers[selected], lengths[selected], len);
+			lengths[selected] += len;
+		}
+	}
+}
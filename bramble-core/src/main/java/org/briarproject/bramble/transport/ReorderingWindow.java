@@ -2,30 +2,38 @@ package org.briarproject.bramble.transport;
 
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-
 import javax.annotation.concurrent.NotThreadSafe;
 
 import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
 
+/**
+ * A sliding window of stream numbers, recording which stream numbers in
+ * the window have been seen.
+ * <p/>
+ * The window is stored as a bitset, with bit i of the bitset recording
+ * whether stream number base + i has been seen. The bitmap used for
+ * persistence stores the same bits, most significant bit first.
+ */
 @NotThreadSafe
 @NotNullByDefault
 class ReorderingWindow {
 
+	private static final long[] EMPTY = new long[0];
+
+	private final int size;
+	private final long[] words;
 	private long base;
-	private boolean[] seen;
 
 	ReorderingWindow(long base, byte[] bitmap) {
 		if (base < 0) throw new IllegalArgumentException();
 		if (base > MAX_32_BIT_UNSIGNED + 1)
 			throw new IllegalArgumentException();
 		this.base = base;
-		seen = new boolean[bitmap.length * 8];
+		size = bitmap.length * 8;
+		words = new long[(size + 63) / 64];
 		for (int i = 0; i < bitmap.length; i++) {
 			for (int j = 0; j < 8; j++) {
-				if ((bitmap[i] & (128 >> j)) != 0) seen[i * 8 + j] = true;
+				if ((bitmap[i] & (128 >> j)) != 0) setBit(i * 8 + j);
 			}
 		}
 	}
@@ -35,68 +43,128 @@ class ReorderingWindow {
 	}
 
 	byte[] getBitmap() {
-		byte[] bitmap = new byte[seen.length / 8];
+		byte[] bitmap = new byte[size / 8];
 		for (int i = 0; i < bitmap.length; i++) {
 			for (int j = 0; j < 8; j++) {
-				if (seen[i * 8 + j]) bitmap[i] |= 128 >> j;
+				if (isBitSet(i * 8 + j)) bitmap[i] |= 128 >> j;
 			}
 		}
 		return bitmap;
 	}
 
-	List<Long> getUnseen() {
-		List<Long> unseen = new ArrayList<>(seen.length);
-		for (int i = 0; i < seen.length; i++)
-			if (!seen[i]) unseen.add(base + i);
+	long[] getUnseen() {
+		long[] unseen = new long[size - countSeen(size)];
+		int n = 0;
+		for (int i = 0; i < size; i++)
+			if (!isBitSet(i)) unseen[n++] = base + i;
 		return unseen;
 	}
 
 	Change setSeen(long index) {
 		if (index < base) throw new IllegalArgumentException();
-		if (index >= base + seen.length) throw new IllegalArgumentException();
+		if (index >= base + size) throw new IllegalArgumentException();
 		if (index > MAX_32_BIT_UNSIGNED) throw new IllegalArgumentException();
 		int offset = (int) (index - base);
-		if (seen[offset]) throw new IllegalArgumentException();
-		seen[offset] = true;
+		if (isBitSet(offset)) throw new IllegalArgumentException();
+		setBit(offset);
 		// Rule 1: Slide until all elements above the midpoint are unseen
-		int slide = Math.max(0, offset + 1 - seen.length / 2);
+		int slide = Math.max(0, offset + 1 - size / 2);
 		// Rule 2: Slide until the lowest element is unseen
-		while (seen[slide]) slide++;
+		slide = getNextUnseen(slide);
 		// If the window doesn't need to slide, return
-		if (slide == 0) {
-			List<Long> added = Collections.emptyList();
-			List<Long> removed = Collections.singletonList(index);
-			return new Change(added, removed);
-		}
+		if (slide == 0) return new Change(EMPTY, new long[] {index});
 		// Record the elements that will be added and removed
-		List<Long> added = new ArrayList<>(slide);
-		List<Long> removed = new ArrayList<>(slide);
-		for (int i = 0; i < slide; i++) {
-			if (!seen[i]) removed.add(base + i);
-			added.add(base + seen.length + i);
-		}
-		removed.add(index);
+		long[] added = new long[slide];
+		for (int i = 0; i < slide; i++) added[i] = base + size + i;
+		long[] removed = new long[slide - countSeen(slide) + 1];
+		int n = 0;
+		for (int i = 0; i < slide; i++)
+			if (!isBitSet(i)) removed[n++] = base + i;
+		removed[n] = index;
 		// Update the window
 		base += slide;
-		for (int i = 0; i + slide < seen.length; i++) seen[i] = seen[i + slide];
-		for (int i = seen.length - slide; i < seen.length; i++) seen[i] = false;
+		shiftRight(slide);
 		return new Change(added, removed);
 	}
 
+	private boolean isBitSet(int i) {
+		return (words[i >>> 6] & (1L << i)) != 0;
+	}
+
+	private void setBit(int i) {
+		words[i >>> 6] |= 1L << i;
+	}
+
+	/**
+	 * Returns the number of seen elements below the given offset.
+	 */
+	private int countSeen(int end) {
+		int count = 0;
+		int fullWords = end >>> 6;
+		for (int w = 0; w < fullWords; w++) count += Long.bitCount(words[w]);
+		int bits = end & 63;
+		if (bits > 0) {
+			long mask = (1L << bits) - 1;
+			count += Long.bitCount(words[fullWords] & mask);
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the offset of the first unseen element at or above the given
+	 * offset, or the size of the window if there is no such element.
+	 */
+	private int getNextUnseen(int from) {
+		for (int w = from >>> 6; w < words.length; w++) {
+			long unseen = ~words[w];
+			if (w == from >>> 6) unseen &= -1L << from;
+			if (unseen != 0) {
+				int i = (w << 6) + Long.numberOfTrailingZeros(unseen);
+				return Math.min(i, size);
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Shifts the bitset towards offset zero by the given number of
+	 * elements, filling the top of the window with unseen elements.
+	 */
+	private void shiftRight(int shift) {
+		int wordShift = shift >>> 6, bitShift = shift & 63;
+		for (int w = 0; w < words.length; w++) {
+			int src = w + wordShift;
+			long word = 0;
+			if (src < words.length) {
+				word = words[src] >>> bitShift;
+				if (bitShift != 0 && src + 1 < words.length)
+					word |= words[src + 1] << (64 - bitShift);
+			}
+			words[w] = word;
+		}
+		// Clear any bits above the top of the window
+		int bits = size & 63;
+		if (bits != 0) words[words.length - 1] &= (1L << bits) - 1;
+	}
+
+	/**
+	 * The stream numbers added to and removed from the window by
+	 * {@link #setSeen(long)}.
+	 */
 	static class Change {
 
-		private final List<Long> added, removed;
+		private final long[] added, removed;
 
-		Change(List<Long> added, List<Long> removed) {
+		Change(long[] added, long[] removed) {
 			this.added = added;
 			this.removed = removed;
 		}
 
-		List<Long> getAdded() {
+		long[] getAdded() {
 			return added;
 		}
 
-		List<Long> getRemoved() {
+		long[] getRemoved() {
 			return removed;
 		}
 	}
@@ -1,13 +1,17 @@
 package org.briarproject.bramble.transport;
 
+import org.briarproject.bramble.api.crypto.CryptoExecutor;
 import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.crypto.StreamEncrypter;
 import org.briarproject.bramble.api.crypto.StreamEncrypterFactory;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.transport.StreamContext;
 import org.briarproject.bramble.api.transport.StreamWriter;
 import org.briarproject.bramble.api.transport.StreamWriterFactory;
+import org.briarproject.bramble.transport.PipelinedStreamWriterImpl.FrameBuffer;
 
 import java.io.OutputStream;
+import java.util.concurrent.Executor;
 
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
@@ -17,10 +21,13 @@ import javax.inject.Inject;
 class StreamWriterFactoryImpl implements StreamWriterFactory {
 
 	private final StreamEncrypterFactory streamEncrypterFactory;
+	private final Executor cryptoExecutor;
 
 	@Inject
-	StreamWriterFactoryImpl(StreamEncrypterFactory streamEncrypterFactory) {
+	StreamWriterFactoryImpl(StreamEncrypterFactory streamEncrypterFactory,
+			@CryptoExecutor Executor cryptoExecutor) {
 		this.streamEncrypterFactory = streamEncrypterFactory;
+		this.cryptoExecutor = cryptoExecutor;
 	}
 
 	@Override
@@ -30,6 +37,16 @@ class StreamWriterFactoryImpl implements StreamWriterFactory {
 				.createStreamEncrypter(out, ctx));
 	}
 
+	@Override
+	public StreamWriter createPipelinedStreamWriter(OutputStream out,
+			StreamContext ctx) {
+		FrameBuffer frameBuffer = new FrameBuffer();
+		StreamEncrypter encrypter =
+				streamEncrypterFactory.createStreamEncrypter(frameBuffer, ctx);
+		return new PipelinedStreamWriterImpl(out, frameBuffer, encrypter,
+				cryptoExecutor);
+	}
+
 	@Override
 	public StreamWriter createContactExchangeStreamWriter(OutputStream out,
 			SecretKey headerKey) {
@@ -0,0 +1,193 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static java.lang.System.arraycopy;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+
+/**
+ * A hash table that maps tags to values, using open addressing with linear
+ * probing. The tags are stored end to end in a single byte array, so the
+ * table doesn't need to allocate an object for each tag.
+ * <p/>
+ * Tags are the output of a pseudo-random function, so the first bytes of
+ * each tag are used as its hash code.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class TagTable<V> {
+
+	interface ValueFilter<V> {
+
+		boolean shouldRemove(V value);
+	}
+
+	private static final int MIN_CAPACITY = 16; // Must be a power of 2
+
+	private byte[] tags;
+	private Object[] values; // Null values represent empty slots
+	private int size = 0;
+
+	TagTable() {
+		tags = new byte[MIN_CAPACITY * TAG_LENGTH];
+		values = new Object[MIN_CAPACITY];
+	}
+
+	int size() {
+		return size;
+	}
+
+	@Nullable
+	V get(byte[] tag) {
+		int slot = findSlot(tag);
+		return slot == -1 ? null : getValue(slot);
+	}
+
+	/**
+	 * Maps the given tag to the given value, returning the value that was
+	 * previously mapped to the tag, if any.
+	 */
+	@Nullable
+	V put(byte[] tag, V value) {
+		if (tag.length != TAG_LENGTH) throw new IllegalArgumentException();
+		int slot = findSlot(tag);
+		if (slot != -1) {
+			V old = getValue(slot);
+			values[slot] = value;
+			return old;
+		}
+		// Keep the load factor at or below 0.5
+		if ((size + 1) * 2 > values.length) resize(values.length * 2);
+		insert(tag, 0, value);
+		size++;
+		return null;
+	}
+
+	/**
+	 * Removes the given tag from the table, returning the value that was
+	 * mapped to the tag, if any.
+	 */
+	@Nullable
+	V remove(byte[] tag) {
+		int slot = findSlot(tag);
+		if (slot == -1) return null;
+		V old = getValue(slot);
+		removeSlot(slot);
+		size--;
+		return old;
+	}
+
+	/**
+	 * Removes all tags whose values are selected by the given filter.
+	 */
+	void removeValues(ValueFilter<V> filter) {
+		byte[] oldTags = tags;
+		Object[] oldValues = values;
+		int remaining = 0;
+		for (Object value : oldValues) {
+			if (value != null && !filter.shouldRemove(cast(value)))
+				remaining++;
+		}
+		if (remaining == size) return;
+		int capacity = MIN_CAPACITY;
+		while (remaining * 2 > capacity) capacity *= 2;
+		tags = new byte[capacity * TAG_LENGTH];
+		values = new Object[capacity];
+		for (int i = 0; i < oldValues.length; i++) {
+			Object value = oldValues[i];
+			if (value != null && !filter.shouldRemove(cast(value)))
+				insert(oldTags, i * TAG_LENGTH, cast(value));
+		}
+		size = remaining;
+	}
+
+	void clear() {
+		tags = new byte[MIN_CAPACITY * TAG_LENGTH];
+		values = new Object[MIN_CAPACITY];
+		size = 0;
+	}
+
+	private int getHomeSlot(byte[] src, int off) {
+		int hash = ((src[off] & 0xFF) << 24) | ((src[off + 1] & 0xFF) << 16)
+				| ((src[off + 2] & 0xFF) << 8) | (src[off + 3] & 0xFF);
+		return hash & (values.length - 1);
+	}
+
+	private int findSlot(byte[] tag) {
+		if (tag.length != TAG_LENGTH) return -1;
+		int mask = values.length - 1;
+		for (int slot = getHomeSlot(tag, 0); values[slot] != null;
+				slot = (slot + 1) & mask) {
+			if (tagEquals(slot, tag)) return slot;
+		}
+		return -1;
+	}
+
+	private boolean tagEquals(int slot, byte[] tag) {
+		int off = slot * TAG_LENGTH;
+		for (int i = 0; i < TAG_LENGTH; i++)
+			if (tags[off + i] != tag[i]) return false;
+		return true;
+	}
+
+	/**
+	 * Inserts a tag that isn't already in the table into the first free
+	 * slot after its home slot.
+	 */
+	private void insert(byte[] src, int off, V value) {
+		int mask = values.length - 1;
+		int slot = getHomeSlot(src, off);
+		while (values[slot] != null) slot = (slot + 1) & mask;
+		arraycopy(src, off, tags, slot * TAG_LENGTH, TAG_LENGTH);
+		values[slot] = value;
+	}
+
+	/**
+	 * Empties the given slot, moving any tags that were displaced past the
+	 * slot back towards their home slots so that lookups still find them.
+	 */
+	private void removeSlot(int slot) {
+		int mask = values.length - 1;
+		int empty = slot;
+		values[empty] = null;
+		for (int i = (empty + 1) & mask; values[i] != null;
+				i = (i + 1) & mask) {
+			int home = getHomeSlot(tags, i * TAG_LENGTH);
+			// The tag can move to the empty slot if its home slot is not
+			// cyclically between the empty slot and its current slot
+			boolean canMove = empty <= i
+					? home <= empty || home > i
+					: home <= empty && home > i;
+			if (canMove) {
+				arraycopy(tags, i * TAG_LENGTH, tags, empty * TAG_LENGTH,
+						TAG_LENGTH);
+				values[empty] = values[i];
+				values[i] = null;
+				empty = i;
+			}
+		}
+	}
+
+	private void resize(int capacity) {
+		byte[] oldTags = tags;
+		Object[] oldValues = values;
+		tags = new byte[capacity * TAG_LENGTH];
+		values = new Object[capacity];
+		for (int i = 0; i < oldValues.length; i++) {
+			Object value = oldValues[i];
+			if (value != null) insert(oldTags, i * TAG_LENGTH, cast(value));
+		}
+	}
+
+	private V getValue(int slot) {
+		return cast(values[slot]);
+	}
+
+	@SuppressWarnings("unchecked")
+	private V cast(Object value) {
+		return (V) value;
+	}
+}
@@ -1,6 +1,5 @@
 package org.briarproject.bramble.transport;
 
-import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.PendingContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
@@ -23,8 +22,11 @@ import org.briarproject.bramble.transport.ReorderingWindow.Change;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
@@ -34,9 +36,14 @@ import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.newSetFromMap;
+import static java.util.Collections.singletonList;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.logging.Level.WARNING;
 import static java.util.logging.Logger.getLogger;
+import static org.briarproject.bramble.ParallelTasks.runAll;
 import static org.briarproject.bramble.api.nullsafety.NullSafety.requireExactlyOneNull;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_CLOCK_DIFFERENCE;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
@@ -53,7 +60,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 
 	private final DatabaseComponent db;
 	private final TransportCrypto transportCrypto;
-	private final Executor dbExecutor;
+	private final Executor dbExecutor, cryptoExecutor;
 	private final TaskScheduler scheduler;
 	private final Clock clock;
 	private final TransportId transportId;
@@ -64,7 +71,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	@GuardedBy("lock")
 	private final Map<KeySetId, MutableTransportKeySet> keys = new HashMap<>();
 	@GuardedBy("lock")
-	private final Map<Bytes, TagContext> inContexts = new HashMap<>();
+	private final TagTable<TagContext> inContexts = new TagTable<>();
 	@GuardedBy("lock")
 	private final Map<ContactId, MutableTransportKeySet>
 			contactOutContexts = new HashMap<>();
@@ -75,6 +82,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	TransportKeyManagerImpl(DatabaseComponent db,
 			TransportCrypto transportCrypto,
 			Executor dbExecutor,
+			Executor cryptoExecutor,
 			TaskScheduler scheduler,
 			Clock clock,
 			TransportId transportId,
@@ -82,6 +90,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		this.db = db;
 		this.transportCrypto = transportCrypto;
 		this.dbExecutor = dbExecutor;
+		this.cryptoExecutor = cryptoExecutor;
 		this.scheduler = scheduler;
 		this.clock = clock;
 		this.transportId = transportId;
@@ -133,11 +142,13 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 
 	@GuardedBy("lock")
 	private void addKeys(Collection<TransportKeySet> keys) {
+		List<MutableTransportKeySet> added = new ArrayList<>(keys.size());
 		for (TransportKeySet ks : keys) {
-			addKeys(ks.getKeySetId(), ks.getContactId(),
-					ks.getPendingContactId(),
-					new MutableTransportKeys(ks.getKeys()));
+			added.add(new MutableTransportKeySet(ks.getKeySetId(),
+					ks.getContactId(), ks.getPendingContactId(),
+					new MutableTransportKeys(ks.getKeys())));
 		}
+		addKeys(added, emptySet());
 	}
 
 	@GuardedBy("lock")
@@ -147,29 +158,54 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		requireExactlyOneNull(contactId, pendingContactId);
 		MutableTransportKeySet ks = new MutableTransportKeySet(keySetId,
 				contactId, pendingContactId, keys);
-		this.keys.put(keySetId, ks);
-		boolean handshakeMode = keys.isHandshakeMode();
-		encodeTags(keySetId, contactId, pendingContactId,
-				keys.getPreviousIncomingKeys(), handshakeMode);
-		encodeTags(keySetId, contactId, pendingContactId,
-				keys.getCurrentIncomingKeys(), handshakeMode);
-		encodeTags(keySetId, contactId, pendingContactId,
-				keys.getNextIncomingKeys(), handshakeMode);
-		considerReplacingOutgoingKeys(ks);
+		addKeys(singletonList(ks), emptySet());
 	}
 
+	/**
+	 * Adds the given key sets and encodes the tags for their incoming keys,
+	 * apart from any incoming keys whose tags are already in the tag table.
+	 */
 	@GuardedBy("lock")
-	private void encodeTags(KeySetId keySetId, @Nullable ContactId contactId,
-			@Nullable PendingContactId pendingContactId,
-			MutableIncomingKeys inKeys, boolean handshakeMode) {
-		for (long streamNumber : inKeys.getWindow().getUnseen()) {
-			TagContext tagCtx = new TagContext(keySetId, contactId,
-					pendingContactId, inKeys, streamNumber, handshakeMode);
-			byte[] tag = new byte[TAG_LENGTH];
-			transportCrypto.encodeTag(tag, inKeys.getTagKey(), PROTOCOL_VERSION,
-					streamNumber);
-			inContexts.put(new Bytes(tag), tagCtx);
+	private void addKeys(Collection<MutableTransportKeySet> keySets,
+			Set<MutableIncomingKeys> alreadyEncoded) {
+		List<TagBatch> batches = new ArrayList<>();
+		for (MutableTransportKeySet ks : keySets) {
+			keys.put(ks.getKeySetId(), ks);
+			for (MutableIncomingKeys inKeys : getIncomingKeys(ks.getKeys())) {
+				if (!alreadyEncoded.contains(inKeys))
+					batches.add(new TagBatch(ks, inKeys));
+			}
+		}
+		encodeTags(batches);
+		for (TagBatch batch : batches) {
+			MutableTransportKeySet ks = batch.keySet;
+			boolean handshakeMode = ks.getKeys().isHandshakeMode();
+			for (int i = 0; i < batch.tags.length; i++) {
+				long streamNumber = batch.streamNumbers[i];
+				TagContext tagCtx = new TagContext(ks.getKeySetId(),
+						ks.getContactId(), ks.getPendingContactId(),
+						batch.inKeys, streamNumber, handshakeMode);
+				inContexts.put(batch.tags[i], tagCtx);
+			}
 		}
+		for (MutableTransportKeySet ks : keySets)
+			considerReplacingOutgoingKeys(ks);
+	}
+
+	private List<MutableIncomingKeys> getIncomingKeys(
+			MutableTransportKeys keys) {
+		return asList(keys.getPreviousIncomingKeys(),
+				keys.getCurrentIncomingKeys(), keys.getNextIncomingKeys());
+	}
+
+	/**
+	 * Encodes the tags for the given batches, spreading the batches across
+	 * the crypto executor.
+	 */
+	private void encodeTags(List<TagBatch> batches) {
+		int processors = Runtime.getRuntime().availableProcessors();
+		runAll(cryptoExecutor, batches.size(), processors,
+				i -> batches.get(i).encode());
 	}
 
 	@GuardedBy("lock")
@@ -297,9 +333,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Remove mutable state for the contact
-			Iterator<TagContext> it = inContexts.values().iterator();
-			while (it.hasNext())
-				if (c.equals(it.next().contactId)) it.remove();
+			inContexts.removeValues(tagCtx -> c.equals(tagCtx.contactId));
 			contactOutContexts.remove(c);
 			Iterator<MutableTransportKeySet> it1 = keys.values().iterator();
 			while (it1.hasNext())
@@ -314,9 +348,8 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Remove mutable state for the pending contact
-			Iterator<TagContext> it = inContexts.values().iterator();
-			while (it.hasNext())
-				if (p.equals(it.next().pendingContactId)) it.remove();
+			inContexts.removeValues(tagCtx ->
+					p.equals(tagCtx.pendingContactId));
 			pendingContactOutContexts.remove(p);
 			Iterator<MutableTransportKeySet> it1 = keys.values().iterator();
 			while (it1.hasNext())
@@ -394,7 +427,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Look up the incoming keys for the tag
-			TagContext tagCtx = inContexts.remove(new Bytes(tag));
+			TagContext tagCtx = inContexts.remove(tag);
 			if (tagCtx == null) return null;
 			MutableIncomingKeys inKeys = tagCtx.inKeys;
 			// Create a stream context
@@ -413,7 +446,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 				TagContext tagCtx1 = new TagContext(tagCtx.keySetId,
 						tagCtx.contactId, tagCtx.pendingContactId, inKeys,
 						streamNumber, tagCtx.handshakeMode);
-				inContexts.put(new Bytes(addTag), tagCtx1);
+				inContexts.put(addTag, tagCtx1);
 			}
 			// Remove tags for any stream numbers removed from the window
 			for (long streamNumber : change.getRemoved()) {
@@ -421,7 +454,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 				byte[] removeTag = new byte[TAG_LENGTH];
 				transportCrypto.encodeTag(removeTag, inKeys.getTagKey(),
 						PROTOCOL_VERSION, streamNumber);
-				inContexts.remove(new Bytes(removeTag));
+				inContexts.remove(removeTag);
 			}
 			// Write the window back to the DB
 			db.setReorderingWindow(txn, tagCtx.keySetId, transportId,
@@ -457,12 +490,35 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 						ks.getKeys().snapshot()));
 			}
 			UpdateResult updateResult = updateKeys(snapshot, now);
-			// Rebuild the mutable state for all contacts
-			inContexts.clear();
+			// Rebuild the mutable state for all contacts. Incoming keys
+			// that carry over from one time period to the next keep their
+			// mutable state and their tags, so only the tags for new
+			// incoming keys need to be encoded
+			Set<MutableIncomingKeys> previousInKeys =
+					newSetFromMap(new IdentityHashMap<>());
+			for (MutableTransportKeySet ks : keys.values())
+				previousInKeys.addAll(getIncomingKeys(ks.getKeys()));
+			Set<MutableIncomingKeys> reusedInKeys =
+					newSetFromMap(new IdentityHashMap<>());
+			List<MutableTransportKeySet> current =
+					new ArrayList<>(updateResult.current.size());
+			for (TransportKeySet ks : updateResult.current) {
+				MutableTransportKeySet previous = keys.get(ks.getKeySetId());
+				MutableTransportKeys k = new MutableTransportKeys(ks.getKeys(),
+						previous == null ? null : previous.getKeys());
+				for (MutableIncomingKeys inKeys : getIncomingKeys(k)) {
+					if (previousInKeys.contains(inKeys))
+						reusedInKeys.add(inKeys);
+				}
+				current.add(new MutableTransportKeySet(ks.getKeySetId(),
+						ks.getContactId(), ks.getPendingContactId(), k));
+			}
+			inContexts.removeValues(tagCtx ->
+					!reusedInKeys.contains(tagCtx.inKeys));
 			contactOutContexts.clear();
 			pendingContactOutContexts.clear();
 			keys.clear();
-			addKeys(updateResult.current);
+			addKeys(current, reusedInKeys);
 			// Write any updated keys back to the DB
 			if (!updateResult.updated.isEmpty())
 				db.updateTransportKeys(txn, updateResult.updated);
@@ -498,6 +554,35 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		}
 	}
 
+	/**
+	 * The tags to be encoded for the unseen stream numbers in the reordering
+	 * window of some incoming keys.
+	 */
+	private class TagBatch {
+
+		private final MutableTransportKeySet keySet;
+		private final MutableIncomingKeys inKeys;
+		private final long[] streamNumbers;
+		private final byte[][] tags;
+
+		private TagBatch(MutableTransportKeySet keySet,
+				MutableIncomingKeys inKeys) {
+			this.keySet = keySet;
+			this.inKeys = inKeys;
+			streamNumbers = inKeys.getWindow().getUnseen();
+			tags = new byte[streamNumbers.length][];
+		}
+
+		private void encode() {
+			for (int i = 0; i < tags.length; i++) {
+				byte[] tag = new byte[TAG_LENGTH];
+				transportCrypto.encodeTag(tag, inKeys.getTagKey(),
+						PROTOCOL_VERSION, streamNumbers[i]);
+				tags[i] = tag;
+			}
+		}
+	}
+
 	private static class UpdateResult {
 
 		private final Collection<TransportKeySet> current = new ArrayList<>();
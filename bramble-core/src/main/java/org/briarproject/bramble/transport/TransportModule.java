@@ -1,5 +1,6 @@
 package org.briarproject.bramble.transport;
 
+import org.briarproject.bramble.api.crypto.CryptoExecutor;
 import org.briarproject.bramble.api.crypto.StreamDecrypterFactory;
 import org.briarproject.bramble.api.crypto.StreamEncrypterFactory;
 import org.briarproject.bramble.api.event.EventBus;
@@ -8,12 +9,16 @@ import org.briarproject.bramble.api.transport.KeyManager;
 import org.briarproject.bramble.api.transport.StreamReaderFactory;
 import org.briarproject.bramble.api.transport.StreamWriterFactory;
 
+import java.util.concurrent.Executor;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
 
+import static java.util.Collections.emptyList;
+
 @Module
 public class TransportModule {
 
@@ -30,8 +35,10 @@ public class TransportModule {
 
 	@Provides
 	StreamWriterFactory provideStreamWriterFactory(
-			StreamEncrypterFactory streamEncrypterFactory) {
-		return new StreamWriterFactoryImpl(streamEncrypterFactory);
+			StreamEncrypterFactory streamEncrypterFactory,
+			@CryptoExecutor Executor cryptoExecutor) {
+		return new StreamWriterFactoryImpl(streamEncrypterFactory,
+				cryptoExecutor);
 	}
 
 	@Provides
@@ -44,7 +51,9 @@ public class TransportModule {
 	@Singleton
 	KeyManager provideKeyManager(LifecycleManager lifecycleManager,
 			EventBus eventBus, KeyManagerImpl keyManager) {
-		lifecycleManager.registerService(keyManager);
+		// The key manager only needs the database, which is open before
+		// any services are started
+		lifecycleManager.registerService(keyManager, emptyList());
 		eventBus.addListener(keyManager);
 		return keyManager;
 	}
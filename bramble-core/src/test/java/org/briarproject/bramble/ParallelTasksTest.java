@@ -0,0 +1,94 @@
+package org.briarproject.bramble;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.briarproject.bramble.ParallelTasks.runAll;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ParallelTasksTest extends BrambleTestCase {
+
+	private static final int COUNT = 100;
+
+	private final ExecutorService executor = newFixedThreadPool(4);
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testTaskIsRunOnceForEachIndex() {
+		AtomicIntegerArray runs = new AtomicIntegerArray(COUNT);
+		runAll(executor, COUNT, 4, runs::incrementAndGet);
+		for (int i = 0; i < COUNT; i++) assertEquals(1, runs.get(i));
+	}
+
+	@Test
+	public void testIndicesAreHandledIfExecutorDiscardsTasks() {
+		AtomicIntegerArray runs = new AtomicIntegerArray(COUNT);
+		runAll(r -> {
+		}, COUNT, 4, runs::incrementAndGet);
+		for (int i = 0; i < COUNT; i++) assertEquals(1, runs.get(i));
+	}
+
+	@Test
+	public void testIndicesAreHandledIfExecutorRejectsTasks() {
+		AtomicIntegerArray runs = new AtomicIntegerArray(COUNT);
+		runAll(r -> {
+			throw new RejectedExecutionException();
+		}, COUNT, 4, runs::incrementAndGet);
+		for (int i = 0; i < COUNT; i++) assertEquals(1, runs.get(i));
+	}
+
+	@Test
+	public void testErrorOnExecutorIsThrownOnCallingThread() {
+		OutOfMemoryError error = new OutOfMemoryError();
+		AtomicInteger runs = new AtomicInteger(0);
+		// Run the executor's worker to completion before the calling
+		// thread's worker starts
+		Executor joining = r -> {
+			Thread t = new Thread(r);
+			t.start();
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				fail();
+			}
+		};
+		try {
+			runAll(joining, COUNT, 2, i -> {
+				runs.incrementAndGet();
+				throw error;
+			});
+			fail();
+		} catch (OutOfMemoryError expected) {
+			assertSame(error, expected);
+		}
+		// No more tasks were run after the first one failed
+		assertEquals(1, runs.get());
+	}
+
+	@Test
+	public void testExceptionOnCallingThreadIsThrown() {
+		IllegalStateException exception = new IllegalStateException();
+		try {
+			runAll(executor, COUNT, 1, i -> {
+				if (i == COUNT / 2) throw exception;
+			});
+			fail();
+		} catch (IllegalStateException expected) {
+			assertSame(exception, expected);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package org.briarproject.bramble.cleanup;
+
+import org.briarproject.bramble.api.cleanup.CleanupHook;
+import org.briarproject.bramble.api.cleanup.event.CleanupProgressEvent;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.EventAction;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.bramble.api.system.TaskScheduler.Cancellable;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
+import org.briarproject.bramble.test.DbExpectations;
+import org.jmock.Expectations;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.briarproject.bramble.api.cleanup.CleanupManager.BATCH_DELAY_MS;
+import static org.briarproject.bramble.api.db.DatabaseComponent.NO_CLEANUP_DEADLINE;
+import static org.briarproject.bramble.cleanup.CleanupManagerImpl.MAX_MESSAGES_PER_BATCH;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class CleanupManagerImplTest extends BrambleMockTestCase {
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final Executor dbExecutor = context.mock(Executor.class);
+	private final TaskScheduler taskScheduler =
+			context.mock(TaskScheduler.class);
+	private final Clock clock = context.mock(Clock.class);
+	private final CleanupHook hook = context.mock(CleanupHook.class);
+	private final Cancellable cancellable = context.mock(Cancellable.class);
+
+	private final ClientId clientId = getClientId();
+	private final int majorVersion = 123;
+	private final Group group = getGroup(clientId, majorVersion);
+	private final GroupId groupId = group.getId();
+	private final Transaction txn = new Transaction(null, false);
+	private final long now = System.currentTimeMillis();
+
+	private CleanupManagerImpl cleanupManager;
+
+	@Before
+	public void setUp() {
+		cleanupManager =
+				new CleanupManagerImpl(dbExecutor, db, taskScheduler, clock);
+		cleanupManager.registerCleanupHook(clientId, majorVersion, hook);
+	}
+
+	@Test
+	public void testPartialBatchSchedulesTaskForNextDeadline()
+			throws Exception {
+		Collection<MessageId> ids = singletonList(new MessageId(getRandomId()));
+		long nextDeadline = now + 1234;
+
+		AtomicReference<Runnable> task = expectScheduleTask(BATCH_DELAY_MS);
+		cleanupManager.startService();
+		assertNotNull(task.get());
+
+		expectDeleteBatch(singletonMap(groupId, ids));
+		context.checking(new DbExpectations() {{
+			// The batch wasn't full, so there's no backlog
+			oneOf(db).getNextCleanupDeadline(txn);
+			will(returnValue(nextDeadline));
+		}});
+		AtomicReference<Runnable> next =
+				expectScheduleTask(nextDeadline - now + BATCH_DELAY_MS);
+		task.get().run();
+		assertNotNull(next.get());
+
+		assertEquals(1, txn.getActions().size());
+		CleanupProgressEvent e = getProgressEvent();
+		assertEquals(1, e.getMessagesDeleted());
+		assertEquals(0, e.getBacklog());
+	}
+
+	@Test
+	public void testFullBatchSubmitsNextBatchImmediately() throws Exception {
+		List<MessageId> ids = new ArrayList<>(MAX_MESSAGES_PER_BATCH);
+		for (int i = 0; i < MAX_MESSAGES_PER_BATCH; i++) {
+			ids.add(new MessageId(getRandomId()));
+		}
+		int backlog = 123;
+
+		AtomicReference<Runnable> task = expectScheduleTask(BATCH_DELAY_MS);
+		cleanupManager.startService();
+
+		expectDeleteBatch(singletonMap(groupId, ids));
+		AtomicReference<Runnable> next = new AtomicReference<>();
+		context.checking(new DbExpectations() {{
+			// The batch was full, so there may be more messages to delete
+			oneOf(db).countMessagesToDelete(txn);
+			will(returnValue(backlog));
+			// The next batch should be submitted without a delay
+			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			will(new CaptureArgumentAction<>(next, Runnable.class, 0));
+		}});
+		task.get().run();
+		assertNotNull(next.get());
+
+		CleanupProgressEvent e = getProgressEvent();
+		assertEquals(MAX_MESSAGES_PER_BATCH, e.getMessagesDeleted());
+		assertEquals(backlog, e.getBacklog());
+
+		// The next batch finds nothing to delete
+		context.checking(new DbExpectations() {{
+			oneOf(db).transactionWithResult(with(false), withDbCallable(txn));
+			allowing(clock).currentTimeMillis();
+			will(returnValue(now));
+			oneOf(db).getMessagesToDelete(txn, MAX_MESSAGES_PER_BATCH);
+			will(returnValue(emptyMap()));
+			oneOf(db).getNextCleanupDeadline(txn);
+			will(returnValue(NO_CLEANUP_DEADLINE));
+		}});
+		next.get().run();
+	}
+
+	private CleanupProgressEvent getProgressEvent() {
+		EventAction action = (EventAction) txn.getActions().get(0);
+		return (CleanupProgressEvent) action.getEvent();
+	}
+
+	private AtomicReference<Runnable> expectScheduleTask(long delay) {
+		AtomicReference<Runnable> captured = new AtomicReference<>();
+		context.checking(new Expectations() {{
+			allowing(clock).currentTimeMillis();
+			will(returnValue(now));
+			oneOf(taskScheduler).schedule(with(any(Runnable.class)),
+					with(dbExecutor), with(delay), with(MILLISECONDS));
+			will(doAll(new CaptureArgumentAction<>(captured, Runnable.class,
+					0), returnValue(cancellable)));
+		}});
+		return captured;
+	}
+
+	private void expectDeleteBatch(Map<GroupId, Collection<MessageId>> ids)
+			throws Exception {
+		context.checking(new DbExpectations() {{
+			oneOf(db).transactionWithResult(with(false), withDbCallable(txn));
+			oneOf(db).getMessagesToDelete(txn, MAX_MESSAGES_PER_BATCH);
+			will(returnValue(ids));
+			for (Collection<MessageId> messageIds : ids.values()) {
+				for (MessageId m : messageIds) {
+					oneOf(db).stopCleanupTimer(txn, m);
+				}
+			}
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(hook).deleteMessages(txn, groupId, ids.get(groupId));
+		}});
+	}
+}
@@ -23,6 +23,7 @@ import org.junit.Test;
 import java.util.Collection;
 import java.util.Random;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.briarproject.bramble.api.contact.HandshakeLinkConstants.BASE32_LINK_BYTES;
@@ -221,6 +222,42 @@ public class ContactManagerImplTest extends BrambleMockTestCase {
 		assertEquals(link, contactManager.getHandshakeLink());
 	}
 
+	@Test
+	public void testAddPendingContacts() throws Exception {
+		Transaction txn = new Transaction(null, false);
+		PendingContact pendingContact1 = getPendingContact();
+		String link = "briar://" + getRandomBase32String(BASE32_LINK_BYTES);
+		String link1 = "briar://" + getRandomBase32String(BASE32_LINK_BYTES);
+		String alias = getRandomString(MAX_AUTHOR_NAME_LENGTH);
+		String alias1 = getRandomString(MAX_AUTHOR_NAME_LENGTH);
+
+		context.checking(new DbExpectations() {{
+			oneOf(pendingContactFactory).createPendingContact(link, alias);
+			will(returnValue(pendingContact));
+			oneOf(pendingContactFactory).createPendingContact(link1, alias1);
+			will(returnValue(pendingContact1));
+			// Both pending contacts are added in a single transaction
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn));
+			oneOf(identityManager).getLocalAuthor(txn);
+			will(returnValue(localAuthor));
+			oneOf(identityManager).getHandshakeKeys(txn);
+			will(returnValue(handshakeKeyPair));
+			oneOf(db).addPendingContact(txn, pendingContact, local);
+			oneOf(keyManager).addPendingContact(txn, pendingContact.getId(),
+					pendingContact.getPublicKey(), handshakeKeyPair);
+			oneOf(db).addPendingContact(txn, pendingContact1, local);
+			oneOf(keyManager).addPendingContact(txn, pendingContact1.getId(),
+					pendingContact1.getPublicKey(), handshakeKeyPair);
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+		}});
+
+		assertEquals(asList(pendingContact, pendingContact1),
+				contactManager.addPendingContacts(asList(
+						new Pair<>(link, alias), new Pair<>(link1, alias1))));
+	}
+
 	@Test
 	public void testDefaultPendingContactState() throws Exception {
 		Transaction txn = new Transaction(null, true);
@@ -0,0 +1,70 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.DecryptionException;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.briarproject.bramble.test.TestSecureRandomProvider;
+import org.junit.Test;
+
+import static org.briarproject.bramble.api.crypto.DecryptionResult.INVALID_CIPHERTEXT;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class KeyBasedEncryptionTest extends BrambleTestCase {
+
+	private final CryptoComponentImpl crypto =
+			new CryptoComponentImpl(new TestSecureRandomProvider(),
+					new ScryptKdf(new ImmediateExecutor(), new SystemClock()));
+
+	private final SecretKey key = getSecretKey();
+
+	@Test
+	public void testEncryptionAndDecryption() throws Exception {
+		byte[] input = getRandomBytes(1234);
+		byte[] ciphertext = crypto.encryptWithKey(input, key);
+		byte[] output = crypto.decryptWithKey(ciphertext, key);
+		assertArrayEquals(input, output);
+	}
+
+	@Test
+	public void testModifiedCiphertextThrowsException() {
+		byte[] input = getRandomBytes(1234);
+		byte[] ciphertext = crypto.encryptWithKey(input, key);
+
+		// Modify the last byte of the MAC
+		ciphertext[ciphertext.length - 1] ^= (byte) 0xFF;
+		try {
+			crypto.decryptWithKey(ciphertext, key);
+			fail();
+		} catch (DecryptionException expected) {
+			assertEquals(INVALID_CIPHERTEXT, expected.getDecryptionResult());
+		}
+	}
+
+	@Test
+	public void testWrongKeyThrowsException() {
+		byte[] input = getRandomBytes(1234);
+		byte[] ciphertext = crypto.encryptWithKey(input, key);
+		try {
+			crypto.decryptWithKey(ciphertext, getSecretKey());
+			fail();
+		} catch (DecryptionException expected) {
+			assertEquals(INVALID_CIPHERTEXT, expected.getDecryptionResult());
+		}
+	}
+
+	@Test
+	public void testTruncatedCiphertextThrowsException() {
+		try {
+			crypto.decryptWithKey(new byte[10], key);
+			fail();
+		} catch (DecryptionException expected) {
+			assertEquals(INVALID_CIPHERTEXT, expected.getDecryptionResult());
+		}
+	}
+}
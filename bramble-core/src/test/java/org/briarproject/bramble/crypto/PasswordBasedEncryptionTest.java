@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.crypto.KeyStrengthener;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.system.SystemClock;
 import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.ImmediateExecutor;
 import org.briarproject.bramble.test.TestSecureRandomProvider;
 import org.jmock.Expectations;
 import org.junit.Test;
@@ -16,6 +17,8 @@ import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class PasswordBasedEncryptionTest extends BrambleMockTestCase {
@@ -25,7 +28,7 @@ public class PasswordBasedEncryptionTest extends BrambleMockTestCase {
 
 	private final CryptoComponentImpl crypto =
 			new CryptoComponentImpl(new TestSecureRandomProvider(),
-					new ScryptKdf(new SystemClock()));
+					new ScryptKdf(new ImmediateExecutor(), new SystemClock()));
 
 	@Test
 	public void testEncryptionAndDecryption() throws Exception {
@@ -36,6 +39,70 @@ public class PasswordBasedEncryptionTest extends BrambleMockTestCase {
 		assertArrayEquals(input, output);
 	}
 
+	@Test
+	public void testSequentialFormatCanBeDecrypted() throws Exception {
+		byte[] input = getRandomBytes(1234);
+		String password = "password";
+		byte[] ciphertext = createCrypto(1)
+				.encryptWithPassword(input, password, null);
+		// The original format is used if there's only one lane
+		assertEquals(0, ciphertext[0]);
+		byte[] output = crypto.decryptWithPassword(ciphertext, password, null);
+		assertArrayEquals(input, output);
+	}
+
+	@Test
+	public void testParallelFormatCanBeDecrypted() throws Exception {
+		byte[] input = getRandomBytes(1234);
+		String password = "password";
+		byte[] ciphertext = createCrypto(4)
+				.encryptWithPassword(input, password, null);
+		assertEquals(2, ciphertext[0]);
+		assertFalse(crypto.isEncryptedWithStrengthenedKey(ciphertext));
+		byte[] output = crypto.decryptWithPassword(ciphertext, password, null);
+		assertArrayEquals(input, output);
+	}
+
+	@Test
+	public void testParallelFormatWithKeyStrengthener() throws Exception {
+		SecretKey strengthened = getSecretKey();
+		context.checking(new Expectations() {{
+			exactly(2).of(keyStrengthener)
+					.strengthenKey(with(any(SecretKey.class)));
+			will(returnValue(strengthened));
+			oneOf(keyStrengthener).isInitialised();
+			will(returnValue(true));
+		}});
+
+		byte[] input = getRandomBytes(1234);
+		String password = "password";
+		byte[] ciphertext = createCrypto(4)
+				.encryptWithPassword(input, password, keyStrengthener);
+		assertEquals(3, ciphertext[0]);
+		assertTrue(crypto.isEncryptedWithStrengthenedKey(ciphertext));
+		byte[] output = crypto.decryptWithPassword(ciphertext, password,
+				keyStrengthener);
+		assertArrayEquals(input, output);
+	}
+
+	@Test
+	public void testInvalidParallelizationThrowsException() {
+		byte[] input = getRandomBytes(1234);
+		String password = "password";
+		byte[] ciphertext = createCrypto(4)
+				.encryptWithPassword(input, password, null);
+
+		// Set the parallelization parameter, which follows the format
+		// version, salt and cost parameter, to 1
+		ciphertext[1 + 32 + 4] = 1;
+		try {
+			crypto.decryptWithPassword(ciphertext, password, null);
+			fail();
+		} catch (DecryptionException expected) {
+			assertEquals(INVALID_CIPHERTEXT, expected.getDecryptionResult());
+		}
+	}
+
 	@Test
 	public void testInvalidFormatVersionThrowsException() {
 		byte[] input = getRandomBytes(1234);
@@ -113,4 +180,15 @@ public class PasswordBasedEncryptionTest extends BrambleMockTestCase {
 			assertEquals(KEY_STRENGTHENER_ERROR, expected.getDecryptionResult());
 		}
 	}
+
+	private CryptoComponentImpl createCrypto(int parallelization) {
+		PasswordBasedKdf kdf =
+				new ScryptKdf(new ImmediateExecutor(), new SystemClock()) {
+					@Override
+					public int chooseParallelizationParameter() {
+						return parallelization;
+					}
+				};
+		return new CryptoComponentImpl(new TestSecureRandomProvider(), kdf);
+	}
 }
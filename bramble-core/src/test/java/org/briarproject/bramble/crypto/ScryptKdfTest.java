@@ -1,59 +1,141 @@
 package org.briarproject.bramble.crypto;
 
+import org.bouncycastle.crypto.generators.SCrypt;
 import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.system.SystemClock;
 import org.briarproject.bramble.test.ArrayClock;
 import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.After;
 import org.junit.Test;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
+import static java.util.concurrent.Executors.newCachedThreadPool;
 import static junit.framework.TestCase.assertTrue;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.util.StringUtils.getRandomString;
+import static org.briarproject.bramble.util.StringUtils.toUtf8;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class ScryptKdfTest extends BrambleTestCase {
 
+	private final ExecutorService executor = newCachedThreadPool();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
 	@Test
 	public void testPasswordAffectsKey() throws Exception {
-		PasswordBasedKdf kdf = new ScryptKdf(new SystemClock());
+		PasswordBasedKdf kdf = new ScryptKdf(executor, new SystemClock());
 		byte[] salt = getRandomBytes(32);
 		Set<Bytes> keys = new HashSet<>();
 		for (int i = 0; i < 100; i++) {
 			String password = getRandomString(16);
-			SecretKey key = kdf.deriveKey(password, salt, 256);
+			SecretKey key = kdf.deriveKey(password, salt, 256, 1);
 			assertTrue(keys.add(new Bytes(key.getBytes())));
 		}
 	}
 
 	@Test
 	public void testSaltAffectsKey() throws Exception {
-		PasswordBasedKdf kdf = new ScryptKdf(new SystemClock());
+		PasswordBasedKdf kdf = new ScryptKdf(executor, new SystemClock());
 		String password = getRandomString(16);
 		Set<Bytes> keys = new HashSet<>();
 		for (int i = 0; i < 100; i++) {
 			byte[] salt = getRandomBytes(32);
-			SecretKey key = kdf.deriveKey(password, salt, 256);
+			SecretKey key = kdf.deriveKey(password, salt, 256, 1);
 			assertTrue(keys.add(new Bytes(key.getBytes())));
 		}
 	}
 
 	@Test
 	public void testCostParameterAffectsKey() throws Exception {
-		PasswordBasedKdf kdf = new ScryptKdf(new SystemClock());
+		PasswordBasedKdf kdf = new ScryptKdf(executor, new SystemClock());
 		String password = getRandomString(16);
 		byte[] salt = getRandomBytes(32);
 		Set<Bytes> keys = new HashSet<>();
 		for (int cost = 2; cost <= 256; cost *= 2) {
-			SecretKey key = kdf.deriveKey(password, salt, cost);
+			SecretKey key = kdf.deriveKey(password, salt, cost, 1);
 			assertTrue(keys.add(new Bytes(key.getBytes())));
 		}
 	}
 
+	@Test
+	public void testParallelizationAffectsKey() throws Exception {
+		PasswordBasedKdf kdf = new ScryptKdf(executor, new SystemClock());
+		String password = getRandomString(16);
+		byte[] salt = getRandomBytes(32);
+		Set<Bytes> keys = new HashSet<>();
+		for (int parallelization = 1; parallelization <= 8;
+				parallelization++) {
+			SecretKey key = kdf.deriveKey(password, salt, 256,
+					parallelization);
+			assertTrue(keys.add(new Bytes(key.getBytes())));
+		}
+	}
+
+	@Test
+	public void testParallelLanesMatchSequentialScrypt() throws Exception {
+		PasswordBasedKdf kdf = new ScryptKdf(executor, new SystemClock());
+		String password = getRandomString(16);
+		byte[] salt = getRandomBytes(32);
+		for (int parallelization = 2; parallelization <= 4;
+				parallelization++) {
+			for (int cost = 2; cost <= 256; cost *= 2) {
+				byte[] expected = SCrypt.generate(toUtf8(password), salt,
+						cost, 8, parallelization, SecretKey.LENGTH);
+				SecretKey key = kdf.deriveKey(password, salt, cost,
+						parallelization);
+				assertArrayEquals(expected, key.getBytes());
+			}
+		}
+	}
+
+	@Test
+	public void testLanesAreComputedIfExecutorDiscardsTasks()
+			throws Exception {
+		PasswordBasedKdf kdf = new ScryptKdf(r -> {
+		}, new SystemClock());
+		String password = getRandomString(16);
+		byte[] salt = getRandomBytes(32);
+		byte[] expected = SCrypt.generate(toUtf8(password), salt, 256, 8, 4,
+				SecretKey.LENGTH);
+		SecretKey key = kdf.deriveKey(password, salt, 256, 4);
+		assertArrayEquals(expected, key.getBytes());
+	}
+
+	@Test
+	public void testLanesAreComputedIfExecutorRejectsTasks()
+			throws Exception {
+		PasswordBasedKdf kdf = new ScryptKdf(r -> {
+			throw new RejectedExecutionException();
+		}, new SystemClock());
+		String password = getRandomString(16);
+		byte[] salt = getRandomBytes(32);
+		byte[] expected = SCrypt.generate(toUtf8(password), salt, 256, 8, 4,
+				SecretKey.LENGTH);
+		SecretKey key = kdf.deriveKey(password, salt, 256, 4);
+		assertArrayEquals(expected, key.getBytes());
+	}
+
+	@Test
+	public void testParallelizationIsBounded() {
+		PasswordBasedKdf kdf = new ScryptKdf(executor, new SystemClock());
+		int parallelization = kdf.chooseParallelizationParameter();
+		assertTrue(parallelization >= 1);
+		assertTrue(parallelization <= 8);
+		assertTrue(parallelization <=
+				Runtime.getRuntime().availableProcessors());
+	}
+
 	@Test
 	public void testCalibration() throws Exception {
 		Clock clock = new ArrayClock(
@@ -63,8 +145,19 @@ public class ScryptKdfTest extends BrambleTestCase {
 				0, 400, // Duration for cost 2048
 				0, 800 // Duration for cost 4096
 		);
-		PasswordBasedKdf kdf = new ScryptKdf(clock);
-		assertEquals(4096, kdf.chooseCostParameter());
+		PasswordBasedKdf kdf = new ScryptKdf(executor, clock);
+		assertEquals(4096, kdf.chooseCostParameter(1));
+	}
+
+	@Test
+	public void testCalibrationWithParallelLanes() throws Exception {
+		Clock clock = new ArrayClock(
+				0, 50, // Duration for cost 256
+				0, 100, // Duration for cost 512
+				0, 600 // Duration for cost 1024
+		);
+		PasswordBasedKdf kdf = new ScryptKdf(executor, clock);
+		assertEquals(1024, kdf.chooseCostParameter(4));
 	}
 
 	@Test
@@ -72,7 +165,7 @@ public class ScryptKdfTest extends BrambleTestCase {
 		Clock clock = new ArrayClock(
 				0, 2000 // Duration for cost 256 is already too high
 		);
-		PasswordBasedKdf kdf = new ScryptKdf(clock);
-		assertEquals(256, kdf.chooseCostParameter());
+		PasswordBasedKdf kdf = new ScryptKdf(executor, clock);
+		assertEquals(256, kdf.chooseCostParameter(1));
 	}
 }
@@ -453,6 +453,30 @@ public class BdfReaderImplTest extends BrambleTestCase {
 		assertTrue(r.eof());
 	}
 
+	@Test
+	public void testReadListPrefix() throws Exception {
+		// A list containing 1, "foo", and a list containing null
+		setContents("60" + "21" + "01" +
+				"41" + "03" + "666F6F" +
+				"60" + "00" + "80" + "80");
+		BdfList list = r.readListPrefix(2);
+		assertEquals(2, list.size());
+		assertEquals(1L, list.get(0));
+		assertEquals("foo", list.get(1));
+		assertTrue(r.eof());
+	}
+
+	@Test
+	public void testReadListPrefixLongerThanList() throws Exception {
+		// A list containing 1 and "foo"
+		setContents("60" + "21" + "01" + "41" + "03" + "666F6F" + "80");
+		BdfList list = r.readListPrefix(3);
+		assertEquals(2, list.size());
+		assertEquals(1L, list.get(0));
+		assertEquals("foo", list.get(1));
+		assertTrue(r.eof());
+	}
+
 	@Test
 	public void testSkipList() throws Exception {
 		// A list containing 1, "foo", and 128
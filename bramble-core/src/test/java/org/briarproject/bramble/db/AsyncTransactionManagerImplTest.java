@@ -0,0 +1,111 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.db.TransactionManager;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
+import org.briarproject.bramble.test.DbExpectations;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncTransactionManagerImplTest extends BrambleMockTestCase {
+
+	private final TransactionManager db =
+			context.mock(TransactionManager.class);
+	private final Executor dbExecutor = context.mock(Executor.class);
+
+	private final Transaction txn = new Transaction(null, true);
+	private final Executor callbackExecutor = new ImmediateExecutor();
+	private final AsyncTransactionManagerImpl asyncDb =
+			new AsyncTransactionManagerImpl(db, dbExecutor);
+
+	@Test
+	public void testResultIsPassedToResultHandler() throws Exception {
+		AtomicReference<Runnable> task = new AtomicReference<>();
+		AtomicReference<String> result = new AtomicReference<>();
+
+		context.checking(new DbExpectations() {{
+			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			will(new CaptureArgumentAction<>(task, Runnable.class, 0));
+			oneOf(db).transactionWithResult(with(true), withDbCallable(txn));
+		}});
+
+		Future<String> future = asyncDb.transactionAsync(true, t -> {
+			assertSame(txn, t);
+			return "foo";
+		}, callbackExecutor, result::set, e -> fail());
+		assertFalse(future.isDone());
+		assertNull(result.get());
+
+		// Run the transaction
+		task.get().run();
+		assertTrue(future.isDone());
+		assertEquals("foo", future.get());
+		assertEquals("foo", result.get());
+	}
+
+	@Test
+	public void testExceptionIsPassedToExceptionHandler() throws Exception {
+		DbException exception = new DbException();
+		AtomicReference<Runnable> task = new AtomicReference<>();
+		AtomicReference<Exception> thrown = new AtomicReference<>();
+
+		context.checking(new DbExpectations() {{
+			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			will(new CaptureArgumentAction<>(task, Runnable.class, 0));
+			oneOf(db).transactionWithResult(with(false), withDbCallable(txn));
+		}});
+
+		Future<String> future = asyncDb.transactionAsync(false, t -> {
+			throw exception;
+		}, callbackExecutor, s -> fail(), thrown::set);
+
+		// Run the transaction
+		task.get().run();
+		assertSame(exception, thrown.get());
+		try {
+			future.get();
+			fail();
+		} catch (ExecutionException expected) {
+			assertSame(exception, expected.getCause());
+		}
+	}
+
+	@Test
+	public void testPendingTransactionsAreCancelledWhenServiceStops()
+			throws Exception {
+		AtomicReference<Runnable> task = new AtomicReference<>();
+
+		context.checking(new Expectations() {{
+			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			will(new CaptureArgumentAction<>(task, Runnable.class, 0));
+		}});
+
+		asyncDb.startService();
+		Future<String> future = asyncDb.transactionAsync(true, t -> "foo",
+				callbackExecutor, s -> fail(), e -> fail());
+		asyncDb.stopService();
+		assertTrue(future.isCancelled());
+
+		// The cancelled transaction should not be run
+		task.get().run();
+
+		// Transactions submitted after stopping should not be run
+		Future<String> future1 = asyncDb.transactionAsync(true, t -> "bar");
+		assertTrue(future1.isCancelled());
+	}
+}
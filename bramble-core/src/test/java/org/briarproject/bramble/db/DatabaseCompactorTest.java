@@ -0,0 +1,226 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.CommitMetrics;
+import org.briarproject.bramble.api.db.CommitStats;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.EventAction;
+import org.briarproject.bramble.api.db.StorageStats;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.db.event.DatabaseCompactionEvent;
+import org.briarproject.bramble.api.settings.Settings;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.TaskScheduler;
+import org.briarproject.bramble.api.system.TaskScheduler.Cancellable;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
+import org.briarproject.bramble.test.DbExpectations;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.briarproject.bramble.db.DatabaseCompactor.CHECK_INTERVAL_MS;
+import static org.briarproject.bramble.db.DatabaseCompactor.MAX_BYTES_PER_SLICE;
+import static org.briarproject.bramble.db.DatabaseCompactor.MAX_PASSES_PER_RUN;
+import static org.briarproject.bramble.db.DatabaseCompactor.MAX_TRANSACTIONS_PER_SLICE;
+import static org.briarproject.bramble.db.DatabaseCompactor.SLICE_INTERVAL_MS;
+import static org.briarproject.bramble.db.DatabaseCompactor.STARTUP_DELAY_MS;
+import static org.briarproject.bramble.db.DatabaseConstants.DB_SETTINGS_NAMESPACE;
+import static org.briarproject.bramble.db.DatabaseConstants.LAST_COMPACTED_KEY;
+import static org.briarproject.bramble.db.DatabaseConstants.MAX_COMPACTION_INTERVAL_MS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class DatabaseCompactorTest extends BrambleMockTestCase {
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final CommitMetrics commitMetrics =
+			context.mock(CommitMetrics.class);
+	private final Executor dbExecutor = context.mock(Executor.class);
+	private final TaskScheduler taskScheduler =
+			context.mock(TaskScheduler.class);
+	private final Clock clock = context.mock(Clock.class);
+	private final Cancellable cancellable = context.mock(Cancellable.class);
+
+	private final Transaction txn = new Transaction(null, true);
+	private final Transaction txn1 = new Transaction(null, false);
+	private final Transaction txn2 = new Transaction(null, false);
+	private final long now = System.currentTimeMillis();
+	private final StorageStats full = new StorageStats(1000, 100);
+	private final StorageStats sparse = new StorageStats(1000, 500);
+
+	private final DatabaseCompactor compactor = new DatabaseCompactor(db,
+			commitMetrics, dbExecutor, taskScheduler, clock);
+
+	@Test
+	public void testCompactionIsNotStartedIfNotDue() throws Exception {
+		AtomicReference<Runnable> check = expectSchedule(STARTUP_DELAY_MS);
+		compactor.startService();
+
+		expectCheck(now, full);
+		AtomicReference<Runnable> next = expectSchedule(CHECK_INTERVAL_MS);
+		check.get().run();
+		assertNotNull(next.get());
+	}
+
+	@Test
+	public void testCompactionRunsInSlicesUntilFinished() throws Exception {
+		AtomicReference<Runnable> check = expectSchedule(STARTUP_DELAY_MS);
+		compactor.startService();
+
+		// Compaction is due because a large fraction of the files is free
+		expectCheck(now, sparse);
+		expectTransactions(0);
+		AtomicReference<Runnable> slice = expectSchedule(0);
+		check.get().run();
+
+		// The first slice finds more to compact
+		expectTransactions(1);
+		expectSlice(true, full);
+		AtomicReference<Runnable> slice1 = expectSchedule(SLICE_INTERVAL_MS);
+		slice.get().run();
+		DatabaseCompactionEvent e = getCompactionEvent();
+		assertFalse(e.isFinished());
+		assertEquals(full, e.getStorageStats());
+
+		// The second slice finds nothing left to compact
+		txn2.getActions().clear();
+		expectTransactions(2);
+		expectSlice(false, full);
+		context.checking(new DbExpectations() {{
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).mergeSettings(with(txn1), with(any(Settings.class)),
+					with(DB_SETTINGS_NAMESPACE));
+		}});
+		AtomicReference<Runnable> check1 = expectSchedule(CHECK_INTERVAL_MS);
+		slice1.get().run();
+		assertTrue(getCompactionEvent().isFinished());
+		assertNotNull(check1.get());
+	}
+
+	@Test
+	public void testCompactionStopsAfterMaximumNumberOfSlices()
+			throws Exception {
+		AtomicReference<Runnable> check = expectSchedule(STARTUP_DELAY_MS);
+		compactor.startService();
+
+		// The files are smaller than one slice, so the maximum number of
+		// slices is the maximum number of passes
+		expectCheck(now, sparse);
+		expectTransactions(0);
+		AtomicReference<Runnable> slice = expectSchedule(0);
+		check.get().run();
+
+		for (int i = 1; i < MAX_PASSES_PER_RUN; i++) {
+			txn2.getActions().clear();
+			expectTransactions(0);
+			expectSlice(true, sparse);
+			AtomicReference<Runnable> next = expectSchedule(SLICE_INTERVAL_MS);
+			slice.get().run();
+			assertFalse(getCompactionEvent().isFinished());
+			slice = next;
+		}
+
+		// The last slice finds more to compact, but compaction stops
+		txn2.getActions().clear();
+		expectTransactions(0);
+		expectSlice(true, sparse);
+		context.checking(new DbExpectations() {{
+			oneOf(db).transaction(with(false), withDbRunnable(txn1));
+			oneOf(db).mergeSettings(with(txn1), with(any(Settings.class)),
+					with(DB_SETTINGS_NAMESPACE));
+		}});
+		AtomicReference<Runnable> check1 = expectSchedule(CHECK_INTERVAL_MS);
+		slice.get().run();
+		assertTrue(getCompactionEvent().isFinished());
+		assertNotNull(check1.get());
+	}
+
+	@Test
+	public void testSliceIsPostponedDuringHeavyWriteActivity()
+			throws Exception {
+		AtomicReference<Runnable> check = expectSchedule(STARTUP_DELAY_MS);
+		compactor.startService();
+
+		// Compaction is due because the maximum interval has passed
+		expectCheck(now - MAX_COMPACTION_INTERVAL_MS - 1, full);
+		expectTransactions(0);
+		AtomicReference<Runnable> slice = expectSchedule(0);
+		check.get().run();
+
+		// Many transactions are committed before the slice runs, so the
+		// slice should be postponed without touching the database
+		expectTransactions(MAX_TRANSACTIONS_PER_SLICE + 1);
+		AtomicReference<Runnable> slice1 = expectSchedule(SLICE_INTERVAL_MS);
+		slice.get().run();
+		assertNotNull(slice1.get());
+	}
+
+	@Test
+	public void testScheduledTaskIsCancelledWhenServiceStops() {
+		expectSchedule(STARTUP_DELAY_MS);
+		compactor.startService();
+
+		context.checking(new Expectations() {{
+			oneOf(cancellable).cancel();
+		}});
+		compactor.stopService();
+	}
+
+	private DatabaseCompactionEvent getCompactionEvent() {
+		assertEquals(1, txn2.getActions().size());
+		EventAction action = (EventAction) txn2.getActions().get(0);
+		return (DatabaseCompactionEvent) action.getEvent();
+	}
+
+	private AtomicReference<Runnable> expectSchedule(long delay) {
+		AtomicReference<Runnable> captured = new AtomicReference<>();
+		context.checking(new Expectations() {{
+			oneOf(taskScheduler).schedule(with(any(Runnable.class)),
+					with(dbExecutor), with(delay), with(MILLISECONDS));
+			will(doAll(new CaptureArgumentAction<>(captured, Runnable.class,
+					0), returnValue(cancellable)));
+		}});
+		return captured;
+	}
+
+	private void expectCheck(long lastCompacted, StorageStats stats)
+			throws Exception {
+		Settings s = new Settings();
+		s.putLong(LAST_COMPACTED_KEY, lastCompacted);
+		context.checking(new DbExpectations() {{
+			oneOf(db).transactionWithNullableResult(with(true),
+					withNullableDbCallable(txn));
+			oneOf(db).getSettings(txn, DB_SETTINGS_NAMESPACE);
+			will(returnValue(s));
+			allowing(clock).currentTimeMillis();
+			will(returnValue(now));
+			oneOf(db).getStorageStats(txn);
+			will(returnValue(stats));
+		}});
+	}
+
+	private void expectSlice(boolean more, StorageStats stats)
+			throws Exception {
+		context.checking(new DbExpectations() {{
+			oneOf(db).transactionWithResult(with(false),
+					withDbCallable(txn2));
+			oneOf(db).compactDatabase(txn2, MAX_BYTES_PER_SLICE);
+			will(returnValue(more));
+			oneOf(db).getStorageStats(txn2);
+			will(returnValue(stats));
+		}});
+	}
+
+	private void expectTransactions(long transactions) {
+		context.checking(new Expectations() {{
+			oneOf(commitMetrics).getCommitStats();
+			will(returnValue(new CommitStats(transactions, transactions,
+					0)));
+		}});
+	}
+}
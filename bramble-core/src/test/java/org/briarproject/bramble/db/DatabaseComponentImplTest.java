@@ -1,5 +1,6 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.cleanup.event.CleanupTimerStartedEvent;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
@@ -9,8 +10,11 @@ import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.crypto.PrivateKey;
 import org.briarproject.bramble.api.crypto.PublicKey;
 import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.db.CommitStats;
 import org.briarproject.bramble.api.db.ContactExistsException;
+import org.briarproject.bramble.api.db.CommitStats;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.NoSuchContactException;
 import org.briarproject.bramble.api.db.NoSuchGroupException;
@@ -18,6 +22,7 @@ import org.briarproject.bramble.api.db.NoSuchIdentityException;
 import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.NoSuchPendingContactException;
 import org.briarproject.bramble.api.db.NoSuchTransportException;
+import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.identity.Author;
@@ -31,6 +36,7 @@ import org.briarproject.bramble.api.settings.Settings;
 import org.briarproject.bramble.api.settings.event.SettingsUpdatedEvent;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.ClientPriorityRegistry;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
@@ -62,16 +68,22 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static java.lang.Thread.State.WAITING;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
 import static java.util.concurrent.TimeUnit.HOURS;
 import static org.briarproject.bramble.api.db.DatabaseComponent.TIMER_NOT_STARTED;
+import static org.briarproject.bramble.api.sync.ClientPriority.HIGH;
+import static org.briarproject.bramble.api.sync.ClientPriority.LOW;
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.api.sync.Group.Visibility.VISIBLE;
@@ -79,6 +91,7 @@ import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_LENGTH
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.api.sync.validation.MessageState.UNKNOWN;
 import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
+import static org.briarproject.bramble.db.DatabaseComponentImpl.MAX_GROUP_SIZE;
 import static org.briarproject.bramble.db.DatabaseConstants.MAX_OFFERED_MESSAGES;
 import static org.briarproject.bramble.test.TestUtils.getAgreementPrivateKey;
 import static org.briarproject.bramble.test.TestUtils.getAgreementPublicKey;
@@ -94,6 +107,8 @@ import static org.briarproject.bramble.test.TestUtils.getTransportId;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -104,7 +119,12 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 	private final ShutdownManager shutdownManager =
 			context.mock(ShutdownManager.class);
 	private final EventBus eventBus = context.mock(EventBus.class);
-	private final Executor eventExecutor = context.mock(Executor.class);
+	private final Executor eventExecutor =
+			context.mock(Executor.class, "eventExecutor");
+	private final Executor dbExecutor =
+			context.mock(Executor.class, "dbExecutor");
+	private final ClientPriorityRegistry clientPriorities =
+			context.mock(ClientPriorityRegistry.class);
 
 	private final SecretKey key = getSecretKey();
 	private final Object txn = new Object();
@@ -156,7 +176,8 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 			EventBus eventBus, Executor eventExecutor,
 			ShutdownManager shutdownManager) {
 		return new DatabaseComponentImpl<>(database, Object.class, eventBus,
-				eventExecutor, shutdownManager);
+				eventExecutor, () -> dbExecutor, shutdownManager,
+				clientPriorities);
 	}
 
 	@Test
@@ -940,6 +961,48 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 						MAX_MESSAGE_LENGTH * 2, maxLatency)));
 	}
 
+	@Test
+	public void testGenerateBatchWithPriority() throws Exception {
+		Collection<ClientId> lowPriority = singletonList(getClientId());
+		Collection<MessageId> ids = singletonList(messageId);
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			// No high-priority messages to send
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(clientPriorities).getLowPriorityClients();
+			will(returnValue(lowPriority));
+			oneOf(database).getMessagesToSend(txn, contactId,
+					MAX_MESSAGE_LENGTH * 2, maxLatency, lowPriority, false);
+			will(returnValue(emptyList()));
+			// One low-priority message to send
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(clientPriorities).getLowPriorityClients();
+			will(returnValue(lowPriority));
+			oneOf(database).getMessagesToSend(txn, contactId,
+					MAX_MESSAGE_LENGTH * 2, maxLatency, lowPriority, true);
+			will(returnValue(ids));
+			oneOf(database).getMessage(txn, messageId);
+			will(returnValue(message));
+			oneOf(database).updateExpiryTimeAndEta(txn, contactId, messageId,
+					maxLatency);
+			oneOf(database).lowerRequestedFlag(txn, contactId, ids);
+			oneOf(database).commitTransaction(txn);
+			oneOf(eventBus).broadcast(with(any(MessagesSentEvent.class)));
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				eventExecutor, shutdownManager);
+
+		db.transaction(false, transaction -> {
+			assertNull(db.generateBatch(transaction, contactId,
+					MAX_MESSAGE_LENGTH * 2, maxLatency, HIGH));
+			assertEquals(singletonList(message), db.generateBatch(transaction,
+					contactId, MAX_MESSAGE_LENGTH * 2, maxLatency, LOW));
+		});
+	}
+
 	@Test
 	public void testGenerateOffer() throws Exception {
 		MessageId messageId1 = new MessageId(getRandomId());
@@ -1745,6 +1808,284 @@ public class DatabaseComponentImplTest extends BrambleMockTestCase {
 		});
 	}
 
+	@Test
+	public void testGroupTransactionReleasesActionsAfterCommit()
+			throws Exception {
+		TestEvent event = new TestEvent();
+
+		Sequence sequence = context.sequence("sequence");
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			inSequence(sequence);
+			oneOf(database).setSavepoint(txn);
+			inSequence(sequence);
+			oneOf(database).commitTransaction(txn);
+			inSequence(sequence);
+			oneOf(eventBus).broadcast(event);
+			inSequence(sequence);
+		}});
+		DatabaseComponentImpl<Object> db = new DatabaseComponentImpl<>(
+				database, Object.class, eventBus, eventExecutor,
+				() -> dbExecutor, shutdownManager, clientPriorities);
+
+		db.groupTransaction(transaction -> {
+			assertFalse(transaction.isReadOnly());
+			transaction.attach(event);
+		});
+
+		CommitStats stats = db.getCommitStats();
+		assertEquals(1, stats.getCommits());
+		assertEquals(1, stats.getTransactions());
+	}
+
+	@Test
+	public void testFailedGroupTransactionIsRolledBackToSavepoint()
+			throws Exception {
+		FormatException exception = new FormatException();
+
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).setSavepoint(txn);
+			oneOf(database).rollbackToSavepoint(txn);
+			oneOf(database).commitTransaction(txn);
+			// The event attached by the failed task is not broadcast
+		}});
+		DatabaseComponentImpl<Object> db = new DatabaseComponentImpl<>(
+				database, Object.class, eventBus, eventExecutor,
+				() -> dbExecutor, shutdownManager, clientPriorities);
+
+		try {
+			db.<FormatException>groupTransaction(transaction -> {
+				transaction.attach(new TestEvent());
+				throw exception;
+			});
+			fail();
+		} catch (FormatException expected) {
+			assertSame(exception, expected);
+		}
+
+		CommitStats stats = db.getCommitStats();
+		assertEquals(1, stats.getCommits());
+		assertEquals(0, stats.getTransactions());
+	}
+
+	@Test
+	public void testWaitingGroupTransactionsAreCommittedTogether()
+			throws Exception {
+		Object txn1 = new Object();
+		TestEvent event1 = new TestEvent(), event2 = new TestEvent();
+
+		context.checking(new Expectations() {{
+			// The write transaction that keeps the others waiting
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			oneOf(database).commitTransaction(txn);
+			// The group of waiting transactions
+			oneOf(database).startTransaction();
+			will(returnValue(txn1));
+			exactly(2).of(database).setSavepoint(txn1);
+			oneOf(database).commitTransaction(txn1);
+			oneOf(eventBus).broadcast(event1);
+			oneOf(eventBus).broadcast(event2);
+		}});
+		DatabaseComponentImpl<Object> db = new DatabaseComponentImpl<>(
+				database, Object.class, eventBus, eventExecutor,
+				() -> dbExecutor, shutdownManager, clientPriorities);
+
+		Transaction writer = db.startTransaction(false);
+		AtomicInteger succeeded = new AtomicInteger(0);
+		Thread thread1 = new Thread(() -> {
+			try {
+				db.groupTransaction(t -> t.attach(event1));
+				succeeded.incrementAndGet();
+			} catch (DbException e) {
+				fail();
+			}
+		});
+		Thread thread2 = new Thread(() -> {
+			try {
+				db.groupTransaction(t -> t.attach(event2));
+				succeeded.incrementAndGet();
+			} catch (DbException e) {
+				fail();
+			}
+		});
+		thread1.start();
+		thread2.start();
+		// Wait for both threads to be waiting for the write lock
+		while (thread1.getState() != WAITING ||
+				thread2.getState() != WAITING) {
+			Thread.sleep(1);
+		}
+		db.commitTransaction(writer);
+		db.endTransaction(writer);
+		thread1.join();
+		thread2.join();
+		assertEquals(2, succeeded.get());
+
+		CommitStats stats = db.getCommitStats();
+		assertEquals(2, stats.getCommits());
+		assertEquals(3, stats.getTransactions());
+		assertEquals(1.5, stats.getTransactionsPerCommit(), 0);
+	}
+
+	@Test
+	public void testGroupTransactionWaitsBehindMoreThanOneGroup()
+			throws Exception {
+		TestEvent event = new TestEvent();
+
+		Sequence sequence = context.sequence("sequence");
+		context.checking(new Expectations() {{
+			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			// The queued tasks fill the first group
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			inSequence(sequence);
+			exactly(MAX_GROUP_SIZE).of(database).setSavepoint(txn);
+			inSequence(sequence);
+			oneOf(database).commitTransaction(txn);
+			inSequence(sequence);
+			// The caller's task is run in a second group
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			inSequence(sequence);
+			oneOf(database).setSavepoint(txn);
+			inSequence(sequence);
+			oneOf(database).commitTransaction(txn);
+			inSequence(sequence);
+			oneOf(eventBus).broadcast(event);
+			inSequence(sequence);
+		}});
+		DatabaseComponentImpl<Object> db = new DatabaseComponentImpl<>(
+				database, Object.class, eventBus, eventExecutor,
+				() -> dbExecutor, shutdownManager, clientPriorities);
+
+		List<Exception> failures = new ArrayList<>();
+		for (int i = 0; i < MAX_GROUP_SIZE; i++) {
+			db.queueGroupTransaction(t -> {
+			}, failures::add);
+		}
+		AtomicBoolean ran = new AtomicBoolean(false);
+		db.groupTransaction(t -> {
+			ran.set(true);
+			t.attach(event);
+		});
+
+		// The caller's task has been run and committed
+		assertTrue(ran.get());
+		assertTrue(failures.isEmpty());
+		CommitStats stats = db.getCommitStats();
+		assertEquals(2, stats.getCommits());
+		assertEquals(MAX_GROUP_SIZE + 1, stats.getTransactions());
+	}
+
+	@Test
+	public void testQueuedGroupTransactionsAreCommittedTogether()
+			throws Exception {
+		TestEvent event1 = new TestEvent(), event2 = new TestEvent();
+		FormatException exception = new FormatException();
+		AtomicReference<Runnable> run = new AtomicReference<>();
+
+		context.checking(new Expectations() {{
+			// Only one run of the queue is scheduled
+			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			will(new CaptureArgumentAction<>(run, Runnable.class, 0));
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			exactly(3).of(database).setSavepoint(txn);
+			oneOf(database).rollbackToSavepoint(txn);
+			oneOf(database).commitTransaction(txn);
+			oneOf(eventBus).broadcast(event1);
+			oneOf(eventBus).broadcast(event2);
+		}});
+		DatabaseComponentImpl<Object> db = new DatabaseComponentImpl<>(
+				database, Object.class, eventBus, eventExecutor,
+				() -> dbExecutor, shutdownManager, clientPriorities);
+
+		List<Exception> failures = new ArrayList<>();
+		db.queueGroupTransaction(t -> t.attach(event1), failures::add);
+		db.queueGroupTransaction(t -> {
+			t.attach(new TestEvent());
+			throw exception;
+		}, failures::add);
+		db.queueGroupTransaction(t -> t.attach(event2), failures::add);
+		assertTrue(failures.isEmpty());
+		run.get().run();
+
+		// Only the failed task's exception should be handled
+		assertEquals(singletonList(exception), failures);
+		CommitStats stats = db.getCommitStats();
+		assertEquals(1, stats.getCommits());
+		assertEquals(2, stats.getTransactions());
+	}
+
+	@Test
+	public void testQueuedGroupTransactionsFailIfCommitFails()
+			throws Exception {
+		DbException exception = new DbException();
+		AtomicReference<Runnable> run = new AtomicReference<>();
+
+		context.checking(new Expectations() {{
+			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			will(new CaptureArgumentAction<>(run, Runnable.class, 0));
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			exactly(2).of(database).setSavepoint(txn);
+			oneOf(database).commitTransaction(txn);
+			will(throwException(exception));
+			oneOf(database).abortTransaction(txn);
+			// The events attached by the tasks are not broadcast
+		}});
+		DatabaseComponentImpl<Object> db = new DatabaseComponentImpl<>(
+				database, Object.class, eventBus, eventExecutor,
+				() -> dbExecutor, shutdownManager, clientPriorities);
+
+		List<Exception> failures = new ArrayList<>();
+		db.queueGroupTransaction(t -> t.attach(new TestEvent()),
+				failures::add);
+		db.queueGroupTransaction(t -> t.attach(new TestEvent()),
+				failures::add);
+		run.get().run();
+
+		assertEquals(asList(exception, exception), failures);
+		assertEquals(0, db.getCommitStats().getCommits());
+	}
+
+	@Test
+	public void testCommittedGroupTransactionDoesNotFailIfActionThrows()
+			throws Exception {
+		TestEvent event1 = new TestEvent(), event2 = new TestEvent();
+		AtomicReference<Runnable> run = new AtomicReference<>();
+
+		context.checking(new Expectations() {{
+			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			will(new CaptureArgumentAction<>(run, Runnable.class, 0));
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			exactly(2).of(database).setSavepoint(txn);
+			oneOf(database).commitTransaction(txn);
+			// Broadcasting the first event throws an exception, but the
+			// second event is still broadcast
+			oneOf(eventBus).broadcast(event1);
+			will(throwException(new IllegalStateException()));
+			oneOf(eventBus).broadcast(event2);
+		}});
+		DatabaseComponentImpl<Object> db = new DatabaseComponentImpl<>(
+				database, Object.class, eventBus, eventExecutor,
+				() -> dbExecutor, shutdownManager, clientPriorities);
+
+		List<Exception> failures = new ArrayList<>();
+		db.queueGroupTransaction(t -> t.attach(event1), failures::add);
+		db.queueGroupTransaction(t -> t.attach(event2), failures::add);
+		run.get().run();
+
+		// Both tasks were committed, so neither has failed
+		assertTrue(failures.isEmpty());
+		assertEquals(2, db.getCommitStats().getTransactions());
+	}
+
 	private static class TestEvent extends Event {
 	}
 }
@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.sql.Connection;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -33,6 +34,7 @@ import java.util.Random;
 import java.util.logging.Logger;
 
 import static java.util.logging.Level.OFF;
+import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
 import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
 import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
@@ -476,6 +478,20 @@ public abstract class DatabasePerformanceTest extends BrambleTestCase {
 		});
 	}
 
+	@Test
+	public void testGetBatchToSend() throws Exception {
+		String name = "getMessagesToSend(T, ContactId, int) and"
+				+ " getMessages(T, Collection<MessageId>)";
+		benchmark(name, db -> {
+			Connection txn = db.startTransaction();
+			Collection<MessageId> ids = db.getMessagesToSend(txn,
+					pickRandom(contacts).getId(), MAX_RECORD_PAYLOAD_BYTES,
+					MAX_LATENCY);
+			db.getMessages(txn, ids);
+			db.commitTransaction(txn);
+		});
+	}
+
 	@Test
 	public void testGetMessagesToShare() throws Exception {
 		String name = "getMessagesToShare(T)";
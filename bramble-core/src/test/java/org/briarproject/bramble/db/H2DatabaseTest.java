@@ -1,8 +1,28 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.db.StorageStats;
+import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestMessageFactory;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Connection;
+
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
+import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertTrue;
 
 public class H2DatabaseTest extends JdbcDatabaseTest {
 
@@ -11,4 +31,47 @@ public class H2DatabaseTest extends JdbcDatabaseTest {
 			MessageFactory messageFactory, Clock clock) {
 		return new H2Database(config, messageFactory, clock);
 	}
+
+	@Test
+	public void testOnlineCompactionShrinksFile() throws Exception {
+		File dir = getTestDirectory();
+		SecretKey key = getSecretKey();
+		Database<Connection> db = createDatabase(new TestDatabaseConfig(dir),
+				new TestMessageFactory(), new SystemClock());
+		db.open(key, null);
+		Group kept = getGroup(getClientId(), 123);
+		Group removed = getGroup(getClientId(), 123);
+
+		// Fill the database, then remove most of the data
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, kept);
+		db.addGroup(txn, removed);
+		db.commitTransaction(txn);
+		for (int i = 0; i < 400; i++) {
+			Group g = i % 4 == 0 ? kept : removed;
+			txn = db.startTransaction();
+			db.addMessage(txn, getMessage(g.getId(), MAX_MESSAGE_BODY_LENGTH),
+					DELIVERED, true, false, null);
+			db.commitTransaction(txn);
+		}
+		txn = db.startTransaction();
+		db.removeGroup(txn, removed.getId());
+		db.commitTransaction(txn);
+
+		txn = db.startTransaction();
+		StorageStats before = db.getStorageStats(txn);
+		// The space occupied by the removed data should be counted as free
+		assertTrue(before.getFreeBytes() > before.getFileBytes() / 2);
+		int slices = 0;
+		while (db.compactDatabase(txn, 1024 * 1024)) {
+			assertTrue(++slices < 1000);
+		}
+		StorageStats after = db.getStorageStats(txn);
+		db.commitTransaction(txn);
+		db.close();
+
+		// The space freed by removing the data should have been released
+		assertTrue(after.getFileBytes() < before.getFileBytes() / 2);
+		assertTrue(after.getFreeBytes() < after.getFileBytes() / 4);
+	}
 }
@@ -0,0 +1,38 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.system.Clock;
+import org.junit.Ignore;
+
+import java.io.File;
+import java.sql.Connection;
+
+/**
+ * Compares the performance of storing message bodies in the messages table
+ * (condition A) with storing them in a {@link MessageBodyStore} (condition B).
+ */
+@Ignore
+public class H2MessageBodyStorePerformanceComparisonTest
+		extends DatabasePerformanceComparisonTest {
+
+	private final CryptoComponent crypto =
+			DaggerDatabaseTestComponent.builder().build().getCryptoComponent();
+
+	@Override
+	Database<Connection> createDatabase(boolean conditionA,
+			DatabaseConfig databaseConfig, MessageFactory messageFactory,
+			Clock clock) {
+		if (conditionA)
+			return new H2Database(databaseConfig, messageFactory, clock);
+		File dir = new File(databaseConfig.getDatabaseDirectory(), "bodies");
+		return new H2Database(databaseConfig, messageFactory, clock,
+				new MessageBodyStore(dir, crypto));
+	}
+
+	@Override
+	protected String getTestName() {
+		return getClass().getSimpleName();
+	}
+}
@@ -0,0 +1,35 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.system.Clock;
+
+import java.util.regex.Matcher;
+
+import javax.annotation.Nullable;
+
+import static java.util.regex.Pattern.compile;
+
+public class H2QueryPlanTest extends QueryPlanTest {
+
+	@Override
+	protected JdbcDatabase createDatabase(DatabaseConfig config,
+			MessageFactory messageFactory, Clock clock) {
+		return new H2Database(config, messageFactory, clock);
+	}
+
+	@Override
+	protected String getExplainPrefix() {
+		return "EXPLAIN ";
+	}
+
+	@Override
+	@Nullable
+	protected String getIndex(String plan, String table) {
+		// The index is shown in a comment after the table name
+		Matcher m = compile("PUBLIC\\." + table + "\\s+/\\*\\s*PUBLIC\\.(\\w+)")
+				.matcher(plan);
+		if (!m.find() || m.group(1).equals(table)) return null;
+		return m.group(1);
+	}
+}
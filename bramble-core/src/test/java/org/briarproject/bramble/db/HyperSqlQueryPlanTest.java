@@ -0,0 +1,37 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.system.Clock;
+
+import java.util.regex.Matcher;
+
+import javax.annotation.Nullable;
+
+import static java.util.regex.Pattern.DOTALL;
+import static java.util.regex.Pattern.compile;
+
+public class HyperSqlQueryPlanTest extends QueryPlanTest {
+
+	@Override
+	protected JdbcDatabase createDatabase(DatabaseConfig config,
+			MessageFactory messageFactory, Clock clock) {
+		return new HyperSqlDatabase(config, messageFactory, clock);
+	}
+
+	@Override
+	protected String getExplainPrefix() {
+		return "EXPLAIN PLAN FOR ";
+	}
+
+	@Override
+	@Nullable
+	protected String getIndex(String plan, String table) {
+		// The access method and index are shown after the table name
+		Matcher m = compile("TABLE=" + table
+				+ "\\s.*?ACCESS=([A-Z ]+?)\\s+JOIN CONDITION = \\[INDEX=(\\w+)",
+				DOTALL).matcher(plan);
+		if (!m.find() || m.group(1).equals("FULL SCAN")) return null;
+		return m.group(2);
+	}
+}
@@ -0,0 +1,93 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.briarproject.bramble.api.sync.SyncConstants.SKETCH_TABLE_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InvertibleBloomLookupTableTest extends BrambleTestCase {
+
+	@Test
+	public void testEncodeAndDecodeRoundTrip() {
+		InvertibleBloomLookupTable table = new InvertibleBloomLookupTable();
+		for (MessageId m : createMessageIds(100)) table.add(m);
+		byte[] encoded = table.encode();
+		assertEquals(SKETCH_TABLE_LENGTH, encoded.length);
+		InvertibleBloomLookupTable decoded =
+				new InvertibleBloomLookupTable(encoded);
+		assertArrayEquals(encoded, decoded.encode());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongLengthIsRejected() {
+		new InvertibleBloomLookupTable(new byte[SKETCH_TABLE_LENGTH - 1]);
+	}
+
+	@Test
+	public void testEmptyDifferenceDecodes() {
+		List<MessageId> shared = createMessageIds(1000);
+		InvertibleBloomLookupTable ours = new InvertibleBloomLookupTable();
+		InvertibleBloomLookupTable theirs = new InvertibleBloomLookupTable();
+		for (MessageId m : shared) {
+			ours.add(m);
+			theirs.add(m);
+		}
+		theirs.subtract(ours);
+		List<MessageId> added = new ArrayList<>();
+		List<MessageId> removed = new ArrayList<>();
+		assertTrue(theirs.decode(added, removed));
+		assertTrue(added.isEmpty());
+		assertTrue(removed.isEmpty());
+	}
+
+	@Test
+	public void testSymmetricDifferenceDecodes() {
+		List<MessageId> shared = createMessageIds(1000);
+		List<MessageId> theirsOnly = createMessageIds(40);
+		List<MessageId> oursOnly = createMessageIds(30);
+		InvertibleBloomLookupTable ours = new InvertibleBloomLookupTable();
+		InvertibleBloomLookupTable theirs = new InvertibleBloomLookupTable();
+		for (MessageId m : shared) {
+			ours.add(m);
+			theirs.add(m);
+		}
+		for (MessageId m : theirsOnly) theirs.add(m);
+		for (MessageId m : oursOnly) ours.add(m);
+		// Send their table over the wire
+		theirs = new InvertibleBloomLookupTable(theirs.encode());
+		theirs.subtract(ours);
+		Set<MessageId> added = new HashSet<>();
+		Set<MessageId> removed = new HashSet<>();
+		assertTrue(theirs.decode(added, removed));
+		assertEquals(new HashSet<>(theirsOnly), added);
+		assertEquals(new HashSet<>(oursOnly), removed);
+	}
+
+	@Test
+	public void testTooLargeDifferenceDoesNotDecode() {
+		InvertibleBloomLookupTable ours = new InvertibleBloomLookupTable();
+		InvertibleBloomLookupTable theirs = new InvertibleBloomLookupTable();
+		for (MessageId m : createMessageIds(2000)) theirs.add(m);
+		theirs.subtract(ours);
+		List<MessageId> added = new ArrayList<>();
+		List<MessageId> removed = new ArrayList<>();
+		assertFalse(theirs.decode(added, removed));
+	}
+
+	private List<MessageId> createMessageIds(int count) {
+		List<MessageId> ids = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) ids.add(new MessageId(getRandomId()));
+		return ids;
+	}
+}
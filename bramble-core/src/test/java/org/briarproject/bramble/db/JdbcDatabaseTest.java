@@ -10,6 +10,7 @@ import org.briarproject.bramble.api.db.DatabaseConfig;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.MessageDeletedException;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.StorageStats;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.Identity;
 import org.briarproject.bramble.api.identity.LocalAuthor;
@@ -57,6 +58,7 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
@@ -235,6 +237,116 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testSendableMessagesAreRestoredWhenTransactionIsAborted()
+			throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact, a shared group and a shared message
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.raiseAckFlag(txn, contactId, messageId);
+		db.commitTransaction(txn);
+
+		// The message should be sendable and there should be an ack to send
+		txn = db.startTransaction();
+		assertOneMessageToSendLazily(db, txn);
+		assertEquals(singletonList(messageId),
+				db.getMessagesToAck(txn, contactId, 100));
+
+		// Make the message unsendable, lower the ack flag and abort
+		db.raiseSeenFlag(txn, contactId, messageId);
+		db.lowerAckFlag(txn, contactId, singletonList(messageId));
+		assertNothingToSendLazily(db, txn);
+		assertEquals(emptyList(), db.getMessagesToAck(txn, contactId, 100));
+		db.abortTransaction(txn);
+
+		// The changes should have been rolled back
+		txn = db.startTransaction();
+		assertOneMessageToSendLazily(db, txn);
+		assertEquals(singletonList(messageId),
+				db.getMessagesToAck(txn, contactId, 100));
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testUnseenMessagesAndMessagesToReconcile() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact, a shared group and a shared message
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+
+		// The message should be counted as unseen and should be reconciled
+		assertEquals(singletonMap(groupId, 1),
+				db.countUnseenMessages(txn, contactId));
+		assertEquals(singletonMap(messageId, false),
+				db.getMessagesToReconcile(txn, contactId, groupId));
+
+		// Raising the seen flag should stop the message being counted
+		db.raiseSeenFlag(txn, contactId, messageId);
+		assertEquals(emptyMap(), db.countUnseenMessages(txn, contactId));
+		assertEquals(singletonMap(messageId, true),
+				db.getMessagesToReconcile(txn, contactId, groupId));
+
+		// Deleting the message should stop it being reconciled
+		db.deleteMessage(txn, messageId);
+		assertEquals(emptyMap(),
+				db.getMessagesToReconcile(txn, contactId, groupId));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testMessagesToReconcileMustBeDeliveredAndShared()
+			throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact, a shared group and a shared but unvalidated message
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+		db.addMessage(txn, message, UNKNOWN, true, false, null);
+
+		// The message should not be reconciled until it's delivered
+		assertEquals(emptyMap(), db.countUnseenMessages(txn, contactId));
+		assertEquals(emptyMap(),
+				db.getMessagesToReconcile(txn, contactId, groupId));
+		db.setMessageState(txn, messageId, PENDING);
+		assertEquals(emptyMap(),
+				db.getMessagesToReconcile(txn, contactId, groupId));
+		db.setMessageState(txn, messageId, DELIVERED);
+		assertEquals(singletonMap(messageId, false),
+				db.getMessagesToReconcile(txn, contactId, groupId));
+
+		// The message should not be reconciled if the group isn't shared
+		db.setGroupVisibility(txn, contactId, groupId, false);
+		assertEquals(emptyMap(), db.countUnseenMessages(txn, contactId));
+		assertEquals(emptyMap(),
+				db.getMessagesToReconcile(txn, contactId, groupId));
+		db.setGroupVisibility(txn, contactId, groupId, true);
+		assertEquals(singletonMap(messageId, false),
+				db.getMessagesToReconcile(txn, contactId, groupId));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testSendableMessagesMustBeDelivered() throws Exception {
 		Database<Connection> db = open(false);
@@ -367,6 +479,56 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testSendableMessagesCanBeFilteredByClient() throws Exception {
+		ClientId clientId1 = getClientId();
+		Group group1 = getGroup(clientId1, majorVersion);
+		Message message1 = getMessage(group1.getId());
+		Collection<ClientId> clients = singletonList(clientId1);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact, two shared groups with different clients and a
+		// shared message in each group
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.addGroup(txn, group1);
+		db.addGroupVisibility(txn, contactId, group1.getId(), true);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+
+		// Only the message from the included client should be returned
+		assertEquals(singletonList(message1.getId()),
+				db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+						MAX_LATENCY, clients, true));
+		assertEquals(singletonList(message1.getId()),
+				db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY,
+						clients, true));
+
+		// Only the message from the other client should be returned
+		assertEquals(singletonList(messageId),
+				db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+						MAX_LATENCY, clients, false));
+		assertEquals(singletonList(messageId),
+				db.getMessagesToOffer(txn, contactId, 100, MAX_LATENCY,
+						clients, false));
+
+		// Including no clients should return no messages
+		assertEquals(emptyList(), db.getMessagesToSend(txn, contactId,
+				ONE_MEGABYTE, MAX_LATENCY, emptyList(), true));
+
+		// Excluding no clients should return both messages
+		assertEquals(2, db.getMessagesToSend(txn, contactId, ONE_MEGABYTE,
+				MAX_LATENCY, emptyList(), false).size());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testMessagesToAck() throws Exception {
 		Database<Connection> db = open(false);
@@ -618,6 +780,35 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testContainsVisibleMessageRequiresSharedMessage()
+			throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact, a visible group and an unshared message
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, false);
+		db.addMessage(txn, message, DELIVERED, false, false, null);
+
+		// The message is not shared so it should not be visible
+		assertFalse(db.containsVisibleMessage(txn, contactId, messageId));
+
+		// Share the message - it should be visible
+		db.setMessageShared(txn, messageId, true);
+		assertTrue(db.containsVisibleMessage(txn, contactId, messageId));
+
+		// Make the group invisible - the message should not be visible
+		db.removeGroupVisibility(txn, contactId, groupId);
+		assertFalse(db.containsVisibleMessage(txn, contactId, messageId));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testGroupVisibility() throws Exception {
 		Database<Connection> db = open(false);
@@ -660,6 +851,37 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testGroupVisibilityIsRestoredAfterAbort() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact and a group that's visible to the contact
+		db.addIdentity(txn, identity);
+		assertEquals(contactId,
+				db.addContact(txn, author, localAuthor.getId(), null, true));
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, false);
+		db.commitTransaction(txn);
+
+		// Share the group and remove the contact, then abort
+		txn = db.startTransaction();
+		db.setGroupVisibility(txn, contactId, groupId, true);
+		assertEquals(SHARED, db.getGroupVisibility(txn, contactId, groupId));
+		db.removeContact(txn, contactId);
+		assertFalse(db.containsContact(txn, contactId));
+		db.abortTransaction(txn);
+
+		// The contact and the group's visibility should be unchanged
+		txn = db.startTransaction();
+		assertTrue(db.containsContact(txn, contactId));
+		assertEquals(VISIBLE, db.getGroupVisibility(txn, contactId, groupId));
+		assertEquals(singletonMap(contactId, false),
+				db.getGroupVisibility(txn, groupId));
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testTransportKeys() throws Exception {
 		long timePeriod = 123, timePeriod1 = 234;
@@ -1262,6 +1484,63 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testRollbackToSavepoint() throws Exception {
+		Group group1 = getGroup(clientId, majorVersion);
+		Group group2 = getGroup(clientId, majorVersion);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group, then roll back the addition of a second group
+		db.setSavepoint(txn);
+		db.addGroup(txn, group);
+		db.setSavepoint(txn);
+		db.addGroup(txn, group1);
+		db.rollbackToSavepoint(txn);
+		// Add a third group after rolling back
+		db.setSavepoint(txn);
+		db.addGroup(txn, group2);
+		db.commitTransaction(txn);
+
+		txn = db.startTransaction();
+		assertTrue(db.containsGroup(txn, groupId));
+		assertFalse(db.containsGroup(txn, group1.getId()));
+		assertTrue(db.containsGroup(txn, group2.getId()));
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testGroupMetadataForMultipleGroups() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add two groups, one of which has some metadata
+		Group group1 = getGroup(clientId, majorVersion);
+		db.addGroup(txn, group);
+		db.addGroup(txn, group1);
+		Metadata metadata = new Metadata();
+		metadata.put("foo", new byte[] {'b', 'a', 'r'});
+		db.mergeGroupMetadata(txn, groupId, metadata);
+
+		// Retrieve the metadata for both groups and a missing group
+		GroupId missing = new GroupId(getRandomId());
+		Map<GroupId, Metadata> retrieved = db.getGroupMetadata(txn,
+				asList(groupId, group1.getId(), missing));
+		assertEquals(2, retrieved.size());
+		Metadata retrieved0 = retrieved.get(groupId);
+		assertNotNull(retrieved0);
+		assertEquals(1, retrieved0.size());
+		assertArrayEquals(metadata.get("foo"), retrieved0.get("foo"));
+		Metadata retrieved1 = retrieved.get(group1.getId());
+		assertNotNull(retrieved1);
+		assertTrue(retrieved1.isEmpty());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testMessageMetadata() throws Exception {
 		Database<Connection> db = open(false);
@@ -1962,6 +2241,49 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testGetMessages() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group and enough messages to need more than one query
+		db.addGroup(txn, group);
+		List<MessageId> ids = new ArrayList<>();
+		for (int i = 0; i < 600; i++) {
+			Message m = getMessage(groupId);
+			db.addMessage(txn, m, DELIVERED, false, false, null);
+			ids.add(m.getId());
+		}
+
+		// All the messages should be returned
+		Map<MessageId, Message> messages = db.getMessages(txn, ids);
+		assertEquals(ids.size(), messages.size());
+		for (MessageId id : ids) {
+			Message m = messages.get(id);
+			assertNotNull(m);
+			assertEquals(id, m.getId());
+			assertEquals(groupId, m.getGroupId());
+			assertArrayEquals(db.getMessage(txn, id).getBody(), m.getBody());
+		}
+
+		// Missing messages should not be returned
+		MessageId missing = new MessageId(getRandomId());
+		messages = db.getMessages(txn, asList(ids.get(0), missing));
+		assertEquals(singleton(ids.get(0)), messages.keySet());
+
+		// Requesting a deleted message should throw an exception
+		db.deleteMessage(txn, ids.get(599));
+		try {
+			db.getMessages(txn, ids);
+			fail();
+		} catch (MessageDeletedException expected) {
+			// Expected
+		}
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testSetContactAlias() throws Exception {
 		Database<Connection> db = open(false);
@@ -2225,14 +2547,43 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		db.close();
 
 		// Time: now + MAX_COMPACTION_INTERVAL_MS + 1
-		// The DB should be compacted, so the last compaction time should be
-		// updated
+		// The DB should not be compacted while opening, as it's compacted
+		// online instead, so the last compaction time should not be updated
 		time.set(now + MAX_COMPACTION_INTERVAL_MS + 1);
 		db = open(true, messageFactory, clock);
 		txn = db.startTransaction();
 		s = db.getSettings(txn, DB_SETTINGS_NAMESPACE);
-		assertEquals(now + MAX_COMPACTION_INTERVAL_MS + 1,
-				s.getLong(LAST_COMPACTED_KEY, 0));
+		assertEquals(now, s.getLong(LAST_COMPACTED_KEY, 0));
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testOnlineCompaction() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group with some messages, then remove it to free some space
+		db.addGroup(txn, group);
+		for (int i = 0; i < 100; i++) {
+			Message m = getMessage(groupId);
+			db.addMessage(txn, m, DELIVERED, true, false, null);
+		}
+		db.commitTransaction(txn);
+		txn = db.startTransaction();
+		db.removeGroup(txn, groupId);
+		db.commitTransaction(txn);
+
+		// Compact the database in slices until there's nothing left to do
+		txn = db.startTransaction();
+		int slices = 0;
+		while (db.compactDatabase(txn, ONE_MEGABYTE)) {
+			assertTrue(++slices < 100);
+		}
+		StorageStats stats = db.getStorageStats(txn);
+		assertTrue(stats.getFileBytes() > 0);
+		assertTrue(stats.getFreeBytes() >= 0);
+		assertTrue(stats.getFreeBytes() <= stats.getFileBytes());
 		db.commitTransaction(txn);
 		db.close();
 	}
@@ -2492,6 +2843,46 @@ public abstract class JdbcDatabaseTest extends BrambleTestCase {
 		assertEquals(NO_CLEANUP_DEADLINE, db.getNextCleanupDeadline(txn));
 	}
 
+	@Test
+	public void testMessagesToDeleteCanBeLimited() throws Exception {
+		long duration = 60_000;
+		long now = System.currentTimeMillis();
+		AtomicLong time = new AtomicLong(now);
+		Database<Connection> db =
+				open(false, new TestMessageFactory(), new SettableClock(time));
+		Connection txn = db.startTransaction();
+
+		// Add a group and two messages with different cleanup deadlines
+		Message message1 = getMessage(groupId);
+		MessageId messageId1 = message1.getId();
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, false, false, null);
+		db.addMessage(txn, message1, DELIVERED, false, false, null);
+		db.setCleanupTimerDuration(txn, messageId, duration);
+		db.setCleanupTimerDuration(txn, messageId1, duration);
+		db.startCleanupTimer(txn, messageId1);
+		time.set(now + 1);
+		db.startCleanupTimer(txn, messageId);
+
+		// When both timers have expired, the message with the earlier
+		// deadline should be returned first
+		time.set(now + duration + 1);
+		assertEquals(2, db.countMessagesToDelete(txn));
+		assertEquals(singletonMap(groupId, singletonList(messageId1)),
+				db.getMessagesToDelete(txn, 1));
+		assertEquals(singletonMap(groupId, asList(messageId1, messageId)),
+				db.getMessagesToDelete(txn, 2));
+
+		// Stopping a timer should reduce the backlog
+		db.stopCleanupTimer(txn, messageId1);
+		assertEquals(1, db.countMessagesToDelete(txn));
+		assertEquals(singletonMap(groupId, singletonList(messageId)),
+				db.getMessagesToDelete(txn, 1));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	private Database<Connection> open(boolean resume) throws Exception {
 		return open(resume, new TestMessageFactory(), new SystemClock());
 	}
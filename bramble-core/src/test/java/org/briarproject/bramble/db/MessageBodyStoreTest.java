@@ -0,0 +1,396 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.db.StorageStats;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestMessageFactory;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
+import static org.briarproject.bramble.api.sync.validation.MessageState.PENDING;
+import static org.briarproject.bramble.db.DatabaseConstants.BODIES_IN_FILES_KEY;
+import static org.briarproject.bramble.db.DatabaseConstants.DB_SETTINGS_NAMESPACE;
+import static org.briarproject.bramble.db.MessageBodyStore.SEGMENT_LENGTH;
+import static org.briarproject.bramble.db.MessageBodyStore.TAG_LABEL;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessageBodyStoreTest extends BrambleMockTestCase {
+
+	private final Connection txn = context.mock(Connection.class, "txn");
+	private final Connection txn1 = context.mock(Connection.class, "txn1");
+
+	private final CryptoComponent crypto =
+			context.mock(CryptoComponent.class);
+
+	private final File testDir = getTestDirectory();
+	private final SecretKey key = getSecretKey();
+	private final MessageId messageId = new MessageId(getRandomId());
+	private final MessageId messageId1 = new MessageId(getRandomId());
+	private final byte[] body = getRandomBytes(1234);
+	private final byte[] body1 = getRandomBytes(1234);
+
+	private MessageBodyStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		// The store's use of encryption is tested by KeyBasedEncryptionTest,
+		// so the keyed hash and encryption are replaced with copies here
+		context.checking(new Expectations() {{
+			allowing(crypto).deriveKey(with(any(String.class)), with(key),
+					with(any(byte[][].class)));
+			will(returnValue(getSecretKey()));
+			allowing(crypto).mac(with(TAG_LABEL), with(any(SecretKey.class)),
+					with(any(byte[][].class)));
+			will(new CopyParameterAction(2));
+			allowing(crypto).encryptWithKey(with(any(byte[].class)),
+					with(any(SecretKey.class)));
+			will(new CopyParameterAction(0));
+			allowing(crypto).decryptWithKey(with(any(byte[].class)),
+					with(any(SecretKey.class)));
+			will(new CopyParameterAction(0));
+		}});
+		store = openStore();
+	}
+
+	@After
+	public void tearDown() {
+		store.close();
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testBodiesCanBeStoredAndRetrieved() throws Exception {
+		assertNull(store.get(messageId));
+
+		store.put(txn, messageId, body);
+		store.prepareCommit(txn);
+		store.commit(txn);
+
+		assertArrayEquals(body, store.get(messageId));
+		assertNull(store.get(messageId1));
+	}
+
+	@Test
+	public void testBodiesAreRemovedWhenTransactionIsAborted()
+			throws Exception {
+		store.put(txn, messageId, body);
+		store.put(txn1, messageId1, body1);
+		store.abort(txn);
+		store.prepareCommit(txn1);
+		store.commit(txn1);
+
+		assertNull(store.get(messageId));
+		assertArrayEquals(body1, store.get(messageId1));
+	}
+
+	@Test
+	public void testRollingBackToSavepointUndoesLaterChanges()
+			throws Exception {
+		store.put(txn, messageId, body);
+		store.setSavepoint(txn);
+		store.put(txn, messageId1, body1);
+		store.remove(txn, messageId);
+		store.rollbackToSavepoint(txn);
+		store.prepareCommit(txn);
+		store.commit(txn);
+
+		assertArrayEquals(body, store.get(messageId));
+		assertNull(store.get(messageId1));
+	}
+
+	@Test
+	public void testBodiesAreRemovedWhenTransactionCommits()
+			throws Exception {
+		store.put(txn, messageId, body);
+		store.prepareCommit(txn);
+		store.commit(txn);
+
+		// The body can still be read until the removal is committed
+		store.remove(txn1, messageId);
+		assertArrayEquals(body, store.get(messageId));
+		store.prepareCommit(txn1);
+		store.commit(txn1);
+		assertNull(store.get(messageId));
+	}
+
+	@Test
+	public void testIndexIsRebuiltWhenStoreIsReopened() throws Exception {
+		store.put(txn, messageId, body);
+		store.put(txn, messageId1, body1);
+		store.prepareCommit(txn);
+		store.commit(txn);
+		store.remove(txn1, messageId1);
+		store.prepareCommit(txn1);
+		store.commit(txn1);
+		store.close();
+
+		store = openStore();
+		assertArrayEquals(body, store.get(messageId));
+		assertNull(store.get(messageId1));
+	}
+
+	@Test
+	public void testIncompleteRecordIsTruncatedWhenStoreIsReopened()
+			throws Exception {
+		store.put(txn, messageId, body);
+		store.prepareCommit(txn);
+		store.commit(txn);
+		store.close();
+
+		// Simulate a crash while writing a record
+		File[] segments = getSegmentFiles();
+		assertEquals(1, segments.length);
+		long length = segments[0].length();
+		RandomAccessFile raf = new RandomAccessFile(segments[0], "rw");
+		raf.seek(length);
+		raf.write(getRandomBytes(50));
+		raf.close();
+
+		store = openStore();
+		assertEquals(length, segments[0].length());
+		assertArrayEquals(body, store.get(messageId));
+		// Records can be appended after the truncated record
+		store.put(txn, messageId1, body1);
+		store.prepareCommit(txn);
+		store.commit(txn);
+		assertArrayEquals(body1, store.get(messageId1));
+	}
+
+	@Test
+	public void testSparseSegmentsAreCollected() throws Exception {
+		// Fill the first segment and start a second one
+		List<MessageId> ids = new ArrayList<>();
+		List<byte[]> bodies = new ArrayList<>();
+		int bodyLength = 32 * 1024;
+		for (long stored = 0; stored <= SEGMENT_LENGTH; stored += bodyLength) {
+			ids.add(new MessageId(getRandomId()));
+			bodies.add(getRandomBytes(bodyLength));
+		}
+		ids.add(messageId);
+		bodies.add(body);
+		for (int i = 0; i < ids.size(); i++)
+			store.put(txn, ids.get(i), bodies.get(i));
+		store.prepareCommit(txn);
+		store.commit(txn);
+		assertEquals(2, getSegmentFiles().length);
+
+		// Nothing can be collected while the segments are full
+		assertFalse(store.compact());
+
+		// Remove most of the bodies in the first segment
+		for (int i = 0; i < ids.size() - 3; i++) store.remove(txn, ids.get(i));
+		store.prepareCommit(txn);
+		store.commit(txn);
+		StorageStats before = store.getStorageStats();
+		assertTrue(before.getFreeFraction() > 0.5);
+
+		// The first segment should be collected
+		assertFalse(store.compact());
+		StorageStats after = store.getStorageStats();
+		assertTrue(after.getFileBytes() < before.getFileBytes());
+		assertEquals(1, getSegmentFiles().length);
+
+		// The remaining bodies should be readable, before and after reopening
+		for (int i = 0; i < ids.size(); i++) {
+			if (i < ids.size() - 3) assertNull(store.get(ids.get(i)));
+			else assertArrayEquals(bodies.get(i), store.get(ids.get(i)));
+		}
+		store.close();
+		store = openStore();
+		for (int i = 0; i < ids.size(); i++) {
+			if (i < ids.size() - 3) assertNull(store.get(ids.get(i)));
+			else assertArrayEquals(bodies.get(i), store.get(ids.get(i)));
+		}
+	}
+
+	@Test
+	public void testBodyStoredAgainAfterRemovalSurvivesCollection()
+			throws Exception {
+		// Store the body and fill the first segment
+		store.put(txn, messageId, body);
+		List<MessageId> first = fillSegment();
+		assertEquals(2, getSegmentFiles().length);
+
+		// Remove the body, so the deletion record goes in the second
+		// segment, then fill the second segment
+		store.remove(txn, messageId);
+		store.prepareCommit(txn);
+		store.commit(txn);
+		List<MessageId> second = fillSegment();
+		assertEquals(3, getSegmentFiles().length);
+
+		// Store the body again in the third segment
+		store.put(txn, messageId, body);
+		store.prepareCommit(txn);
+		store.commit(txn);
+
+		// Remove the bodies in the second segment so it's collected
+		for (MessageId m : second) store.remove(txn, m);
+		store.prepareCommit(txn);
+		store.commit(txn);
+		store.compact();
+		assertEquals(2, getSegmentFiles().length);
+
+		// The body should be readable, before and after reopening
+		assertArrayEquals(body, store.get(messageId));
+		store.close();
+		store = openStore();
+		assertArrayEquals(body, store.get(messageId));
+		for (MessageId m : first) assertNotNull(store.get(m));
+		for (MessageId m : second) assertNull(store.get(m));
+	}
+
+	@Test
+	public void testInlineBodiesAreMovedIntoStoreWhenDatabaseIsOpened()
+			throws Exception {
+		store.close();
+		File dbDir = new File(testDir, "db");
+		File bodyDir = new File(testDir, "bodies");
+		TestDatabaseConfig config = new TestDatabaseConfig(dbDir);
+		Group group = getGroup(getClientId(), 123);
+		Message message = getMessage(group.getId());
+		Message message1 = getMessage(group.getId());
+
+		// Store some messages without a body store
+		JdbcDatabase db = new H2Database(config, new TestMessageFactory(),
+				new SystemClock());
+		assertFalse(db.open(key, null));
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		assertFalse(db.getSettings(txn, DB_SETTINGS_NAMESPACE)
+				.getBoolean(BODIES_IN_FILES_KEY, false));
+		db.commitTransaction(txn);
+		db.close();
+
+		// Reopen the database with a body store
+		store = new MessageBodyStore(bodyDir, crypto);
+		db = new H2Database(config, new TestMessageFactory(),
+				new SystemClock(), store);
+		assertTrue(db.open(key, null));
+		txn = db.startTransaction();
+		assertTrue(db.getSettings(txn, DB_SETTINGS_NAMESPACE)
+				.getBoolean(BODIES_IN_FILES_KEY, false));
+		// The messages should still be readable
+		assertArrayEquals(message.getBody(),
+				db.getMessage(txn, message.getId()).getBody());
+		assertArrayEquals(message1.getBody(),
+				db.getMessage(txn, message1.getId()).getBody());
+		// The bodies should have been moved into the body store
+		assertArrayEquals(message.getBody(), store.get(message.getId()));
+		assertArrayEquals(message1.getBody(), store.get(message1.getId()));
+		// Deleting a message should remove its body from the body store
+		db.deleteMessage(txn, message.getId());
+		db.commitTransaction(txn);
+		assertNull(store.get(message.getId()));
+		db.close();
+	}
+
+	@Test
+	public void testBodiesAreRemovedWhenGroupIsRemoved() throws Exception {
+		store.close();
+		TestDatabaseConfig config =
+				new TestDatabaseConfig(new File(testDir, "db"));
+		Group group = getGroup(getClientId(), 123);
+		Message delivered = getMessage(group.getId());
+		Message pending = getMessage(group.getId());
+
+		store = new MessageBodyStore(new File(testDir, "bodies"), crypto);
+		JdbcDatabase db = new H2Database(config, new TestMessageFactory(),
+				new SystemClock(), store);
+		assertFalse(db.open(key, null));
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		db.addMessage(txn, delivered, DELIVERED, true, false, null);
+		db.addMessage(txn, pending, PENDING, true, false, null);
+		db.commitTransaction(txn);
+		assertNotNull(store.get(delivered.getId()));
+		assertNotNull(store.get(pending.getId()));
+
+		// Removing the group should remove the bodies of all its messages
+		txn = db.startTransaction();
+		db.removeGroup(txn, group.getId());
+		db.commitTransaction(txn);
+		assertNull(store.get(delivered.getId()));
+		assertNull(store.get(pending.getId()));
+		db.close();
+	}
+
+	private MessageBodyStore openStore() throws Exception {
+		MessageBodyStore s = new MessageBodyStore(testDir, crypto);
+		s.open(key);
+		return s;
+	}
+
+	/**
+	 * Stores bodies until a new segment is started and returns their IDs.
+	 */
+	private List<MessageId> fillSegment() throws Exception {
+		List<MessageId> ids = new ArrayList<>();
+		int segments = getSegmentFiles().length;
+		while (getSegmentFiles().length == segments) {
+			MessageId m = new MessageId(getRandomId());
+			store.put(txn, m, getRandomBytes(32 * 1024));
+			ids.add(m);
+		}
+		store.prepareCommit(txn);
+		store.commit(txn);
+		return ids;
+	}
+
+	private File[] getSegmentFiles() {
+		File[] files = testDir.listFiles();
+		assertNotNull(files);
+		return files;
+	}
+
+	private static class CopyParameterAction extends CustomAction {
+
+		private final int index;
+
+		private CopyParameterAction(int index) {
+			super("returns a copy of a parameter");
+			this.index = index;
+		}
+
+		@Override
+		public Object invoke(Invocation invocation) {
+			Object parameter = invocation.getParameter(index);
+			// The keyed hash takes a varargs parameter
+			if (parameter instanceof byte[][])
+				parameter = ((byte[][]) parameter)[0];
+			return ((byte[]) parameter).clone();
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.QueryStats;
+import org.briarproject.bramble.api.db.SlowQuery;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.briarproject.bramble.api.db.QueryStats.HISTOGRAM_BUCKETS;
+import static org.briarproject.bramble.api.db.QueryStats.getBucket;
+import static org.briarproject.bramble.db.QueryMetricsImpl.DEFAULT_SLOW_QUERY_THRESHOLD_MS;
+import static org.briarproject.bramble.db.QueryMetricsImpl.MAX_SLOW_QUERIES;
+import static org.briarproject.bramble.test.TestUtils.getContact;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryMetricsImplTest extends BrambleMockTestCase {
+
+	@SuppressWarnings("unchecked")
+	private final Database<Connection> database =
+			context.mock(Database.class);
+	private final Clock clock = context.mock(Clock.class);
+	private final Connection txn = context.mock(Connection.class);
+
+	private final QueryMetricsImpl metrics = new QueryMetricsImpl(clock);
+	private final Database<Connection> db =
+			new InstrumentedDatabase<>(database, metrics);
+	private final List<Contact> contacts =
+			asList(getContact(), getContact());
+	private final long now = System.currentTimeMillis();
+
+	@Test
+	public void testNothingIsRecordedWhenDisabled() throws Exception {
+		assertFalse(metrics.isEnabled());
+		expectGetContacts();
+
+		assertEquals(contacts, db.getContacts(txn));
+		assertTrue(metrics.getQueryStats().isEmpty());
+		assertTrue(metrics.getSlowQueries().isEmpty());
+	}
+
+	@Test
+	public void testCallsAndRowsAreRecordedWhenEnabled() throws Exception {
+		metrics.setEnabled(true);
+		expectGetContacts();
+		expectGetContacts();
+
+		assertEquals(contacts, db.getContacts(txn));
+		assertEquals(contacts, db.getContacts(txn));
+
+		Map<String, QueryStats> stats = metrics.getQueryStats();
+		assertEquals(1, stats.size());
+		QueryStats s = stats.get("getContacts(T)");
+		assertEquals(2, s.getCalls());
+		assertEquals(4, s.getRows());
+		long recorded = 0;
+		for (long count : s.getHistogram()) recorded += count;
+		assertEquals(2, recorded);
+		assertTrue(s.getPercentileMicros(50) <= s.getMaxMicros());
+		// A fast mock shouldn't be logged as a slow query
+		assertEquals(DEFAULT_SLOW_QUERY_THRESHOLD_MS,
+				metrics.getSlowQueryThresholdMs());
+		assertTrue(metrics.getSlowQueries().isEmpty());
+	}
+
+	@Test
+	public void testFailedCallsAreNotRecorded() throws Exception {
+		metrics.setEnabled(true);
+		context.checking(new Expectations() {{
+			oneOf(database).getContacts(txn);
+			will(throwException(new DbException()));
+		}});
+
+		try {
+			db.getContacts(txn);
+			fail();
+		} catch (DbException expected) {
+			// Expected
+		}
+		assertTrue(metrics.getQueryStats().isEmpty());
+	}
+
+	@Test
+	public void testSlowQueriesAreLogged() throws Exception {
+		metrics.setEnabled(true);
+		metrics.setSlowQueryThresholdMs(0);
+		expectGetContacts();
+		context.checking(new Expectations() {{
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+		}});
+
+		db.getContacts(txn);
+
+		List<SlowQuery> slow = metrics.getSlowQueries();
+		assertEquals(1, slow.size());
+		assertEquals("getContacts(T)", slow.get(0).getMethod());
+		assertEquals(now, slow.get(0).getTimestamp());
+		assertEquals(2, slow.get(0).getRows());
+	}
+
+	@Test
+	public void testSlowQueryLogIsBounded() {
+		metrics.setEnabled(true);
+		metrics.setSlowQueryThresholdMs(0);
+		context.checking(new Expectations() {{
+			allowing(clock).currentTimeMillis();
+			will(returnValue(now));
+		}});
+
+		for (int i = 0; i < MAX_SLOW_QUERIES + 10; i++)
+			metrics.record("query" + i, metrics.start(), i);
+
+		List<SlowQuery> slow = metrics.getSlowQueries();
+		assertEquals(MAX_SLOW_QUERIES, slow.size());
+		// The oldest calls should have been discarded
+		assertEquals("query10", slow.get(0).getMethod());
+		assertEquals("query" + (MAX_SLOW_QUERIES + 9),
+				slow.get(MAX_SLOW_QUERIES - 1).getMethod());
+	}
+
+	@Test
+	public void testResetDiscardsEverything() {
+		metrics.setEnabled(true);
+		metrics.setSlowQueryThresholdMs(0);
+		context.checking(new Expectations() {{
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+		}});
+
+		metrics.record("query", metrics.start(), 1);
+		assertEquals(1, metrics.getQueryStats().size());
+		assertEquals(1, metrics.getSlowQueries().size());
+
+		metrics.reset();
+		assertTrue(metrics.getQueryStats().isEmpty());
+		assertTrue(metrics.getSlowQueries().isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeThresholdIsRejected() {
+		metrics.setSlowQueryThresholdMs(-1);
+	}
+
+	@Test
+	public void testHistogramBuckets() {
+		assertEquals(0, getBucket(0));
+		assertEquals(1, getBucket(1));
+		assertEquals(2, getBucket(2));
+		assertEquals(2, getBucket(3));
+		assertEquals(3, getBucket(4));
+		assertEquals(HISTOGRAM_BUCKETS - 1, getBucket(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void testPercentiles() {
+		long[] histogram = new long[HISTOGRAM_BUCKETS];
+		histogram[getBucket(100)] = 90;
+		histogram[getBucket(5000)] = 10;
+		QueryStats s = new QueryStats(100, 0, 59000, 5000, histogram);
+
+		assertEquals(590, s.getMeanMicros(), 0);
+		assertEquals(128, s.getPercentileMicros(50));
+		assertEquals(128, s.getPercentileMicros(90));
+		// The upper bound of the bucket is capped at the maximum
+		assertEquals(5000, s.getPercentileMicros(99));
+	}
+
+	private void expectGetContacts() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(database).getContacts(txn);
+			will(returnValue(contacts));
+		}});
+	}
+}
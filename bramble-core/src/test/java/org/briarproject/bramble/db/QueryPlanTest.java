@@ -0,0 +1,267 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseConfig;
+import org.briarproject.bramble.api.identity.Identity;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestMessageFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.api.sync.validation.MessageState.DELIVERED;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getAuthor;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
+import static org.briarproject.bramble.test.TestUtils.getIdentity;
+import static org.briarproject.bramble.test.TestUtils.getMessage;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the queries used for syncing messages with contacts use the
+ * index designed for them, rather than scanning the statuses table or all
+ * of a contact's rows in it.
+ */
+public abstract class QueryPlanTest extends BrambleTestCase {
+
+	// All our transports use a maximum latency of 30 seconds
+	private static final int MAX_LATENCY = 30 * 1000;
+
+	private static final String SYNC_INDEX = "statusesByContactIdSendable";
+	private static final String GROUP_INDEX = "statusesByContactIdGroupId";
+
+	private final File testDir = getTestDirectory();
+	private final ClientId clientId = getClientId();
+	private final Group group = getGroup(clientId, 123);
+	private final Message message = getMessage(group.getId());
+	private final Message message1 = getMessage(group.getId());
+	private final List<Query> queries = new ArrayList<>();
+
+	private Database<Connection> db;
+	private ContactId contactId;
+	private Connection txn;
+
+	protected abstract JdbcDatabase createDatabase(DatabaseConfig config,
+			MessageFactory messageFactory, Clock clock);
+
+	/**
+	 * Returns the statement that precedes a query to show its plan.
+	 */
+	protected abstract String getExplainPrefix();
+
+	/**
+	 * Returns the name of the index used to access the given table in the
+	 * given query plan, or null if the query scans the whole table. The plan
+	 * and the table name are in upper case.
+	 */
+	@Nullable
+	protected abstract String getIndex(String plan, String table);
+
+	@Before
+	public void setUp() throws Exception {
+		assertTrue(testDir.mkdirs());
+		db = createDatabase(new TestDatabaseConfig(testDir),
+				new TestMessageFactory(), new SystemClock());
+		db.open(getSecretKey(), null);
+		txn = db.startTransaction();
+		Identity identity = getIdentity();
+		db.addIdentity(txn, identity);
+		contactId = db.addContact(txn, getAuthor(),
+				identity.getLocalAuthor().getId(), null, true);
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, group.getId(), true);
+		db.addMessage(txn, message, DELIVERED, true, false, null);
+		db.addMessage(txn, message1, DELIVERED, true, false, null);
+		db.raiseRequestedFlag(txn, contactId, message1.getId());
+		// Load the contact's sync state so it isn't loaded by the tests
+		db.getNextSendTime(txn, contactId);
+		db.commitTransaction(txn);
+		txn = db.startTransaction();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		db.abortTransaction(txn);
+		db.close();
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testGetMessagesToOffer() throws Exception {
+		assertEquals(singletonList(message.getId()), db.getMessagesToOffer(
+				recordQueries(), contactId, 10, MAX_LATENCY));
+		assertQueriesUseIndex(SYNC_INDEX);
+	}
+
+	@Test
+	public void testGetMessagesToSend() throws Exception {
+		assertEquals(2, db.getMessagesToSend(recordQueries(), contactId,
+				Integer.MAX_VALUE, MAX_LATENCY).size());
+		assertQueriesUseIndex(SYNC_INDEX);
+	}
+
+	@Test
+	public void testGetMessagesToSendForClients() throws Exception {
+		assertEquals(2, db.getMessagesToSend(recordQueries(), contactId,
+				Integer.MAX_VALUE, MAX_LATENCY, singletonList(clientId),
+				true).size());
+		// Restricting the query to a few groups makes the index on
+		// contactId and groupId a good choice too
+		assertQueriesUseIndex(SYNC_INDEX, GROUP_INDEX);
+	}
+
+	@Test
+	public void testGetRequestedMessagesToSend() throws Exception {
+		assertEquals(singletonList(message1.getId()),
+				db.getRequestedMessagesToSend(recordQueries(), contactId,
+						Integer.MAX_VALUE, MAX_LATENCY));
+		assertQueriesUseIndex(SYNC_INDEX);
+	}
+
+	@Test
+	public void testGetUnackedMessagesToSend() throws Exception {
+		assertEquals(2, db.getUnackedMessagesToSend(recordQueries(),
+				contactId).size());
+		assertQueriesUseIndex(SYNC_INDEX);
+	}
+
+	@Test
+	public void testGetUnackedMessageBytesToSend() throws Exception {
+		assertTrue(db.getUnackedMessageBytesToSend(recordQueries(),
+				contactId) > 0);
+		assertQueriesUseIndex(SYNC_INDEX);
+	}
+
+	@Test
+	public void testCountUnseenMessages() throws Exception {
+		assertEquals(1, db.countUnseenMessages(recordQueries(),
+				contactId).size());
+		assertQueriesUseIndex(SYNC_INDEX);
+	}
+
+	@Test
+	public void testGetNextSendTimeDoesNotQueryDatabase() throws Exception {
+		assertEquals(0, db.getNextSendTime(recordQueries(), contactId));
+		assertTrue(queries.isEmpty());
+	}
+
+	/**
+	 * Returns a connection that delegates to the test's transaction and
+	 * records the prepared statements that are executed, along with their
+	 * parameters.
+	 */
+	private Connection recordQueries() {
+		return createProxy(Connection.class, txn, (method, args, result) -> {
+			if (method.getName().equals("prepareStatement")) {
+				Query q = new Query((String) args[0]);
+				PreparedStatement ps = (PreparedStatement) result;
+				return createProxy(PreparedStatement.class, ps,
+						(method1, args1, result1) -> {
+							recordStatement(q, method1, args1);
+							return result1;
+						});
+			}
+			return result;
+		});
+	}
+
+	private void recordStatement(Query q, Method method, Object[] args) {
+		String name = method.getName();
+		if (name.startsWith("set") && args != null && args.length == 2
+				&& args[0] instanceof Integer) {
+			q.parameters.put((Integer) args[0], args[1]);
+		} else if (name.equals("executeQuery")) {
+			queries.add(q);
+		}
+	}
+
+	private void assertQueriesUseIndex(String... indexes) throws Exception {
+		assertFalse(queries.isEmpty());
+		for (Query q : queries) {
+			String plan = explain(q).toUpperCase();
+			String index = getIndex(plan, "STATUSES");
+			assertNotNull("Query scans table: " + plan, index);
+			boolean expected = false;
+			for (String i : indexes) {
+				if (i.equalsIgnoreCase(index)) expected = true;
+			}
+			assertTrue("Query uses " + index + ": " + plan, expected);
+		}
+	}
+
+	private String explain(Query q) throws Exception {
+		PreparedStatement ps =
+				txn.prepareStatement(getExplainPrefix() + q.sql);
+		// HyperSQL explains a query without binding its parameters
+		if (ps.getParameterMetaData().getParameterCount() > 0) {
+			for (Map.Entry<Integer, Object> e : q.parameters.entrySet())
+				ps.setObject(e.getKey(), e.getValue());
+		}
+		ResultSet rs = ps.executeQuery();
+		StringBuilder plan = new StringBuilder();
+		while (rs.next()) plan.append(rs.getString(1)).append('\n');
+		rs.close();
+		ps.close();
+		return plan.toString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T createProxy(Class<T> c, T delegate,
+			ResultHandler handler) {
+		InvocationHandler h = (proxy, method, args) -> {
+			Object result;
+			try {
+				result = method.invoke(delegate, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+			return handler.handle(method, args, result);
+		};
+		return (T) Proxy.newProxyInstance(c.getClassLoader(),
+				new Class<?>[] {c}, h);
+	}
+
+	private interface ResultHandler {
+
+		Object handle(Method method, Object[] args, Object result);
+	}
+
+	private static class Query {
+
+		private final String sql;
+		private final Map<Integer, Object> parameters = new TreeMap<>();
+
+		private Query(String sql) {
+			this.sql = sql;
+		}
+	}
+}
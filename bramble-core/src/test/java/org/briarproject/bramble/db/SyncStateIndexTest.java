@@ -0,0 +1,172 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.db.SyncStateIndex.Status;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SyncStateIndexTest extends BrambleTestCase {
+
+	private static final long NOW = 1_000_000;
+	private static final long MAX_LATENCY = 1000;
+
+	private final SyncStateIndex index = new SyncStateIndex();
+	private final ContactId contactId = getContactId();
+	private final GroupId groupId = new GroupId(getRandomId());
+	private final MessageId messageId = new MessageId(getRandomId());
+	private final MessageId messageId1 = new MessageId(getRandomId());
+
+	@Test
+	public void testNothingToSendForEmptyContact() {
+		index.load(contactId, emptyList());
+		assertFalse(index.containsAcksToSend(contactId));
+		assertFalse(index.containsMessagesToSend(contactId, NOW,
+				NOW + MAX_LATENCY, true));
+		assertEquals(Long.MAX_VALUE, index.getNextSendTime(contactId));
+	}
+
+	@Test
+	public void testUnloadedContactsAreNotUpdated() {
+		index.addStatus(messageId, contactId, groupId, true, true, true,
+				false, false);
+		assertFalse(index.isLoaded(contactId));
+	}
+
+	@Test
+	public void testSendableMessagesAreIndexed() {
+		index.load(contactId, singletonList(new Status(messageId, groupId,
+				true, true, true, false, false, false, 0, 0)));
+		assertTrue(index.containsMessagesToSend(contactId, NOW,
+				NOW + MAX_LATENCY, false));
+		assertEquals(0, index.getNextSendTime(contactId));
+
+		// Each condition should make the message unsendable
+		index.lowerMessageSharedFlag(messageId);
+		assertNothingToSend();
+		index.updateStatus(contactId, getSendableStatus(messageId));
+		index.lowerGroupSharedFlag(contactId, groupId);
+		assertNothingToSend();
+		index.updateStatus(contactId, getSendableStatus(messageId));
+		index.lowerDeliveredFlag(messageId);
+		assertNothingToSend();
+		index.updateStatus(contactId, getSendableStatus(messageId));
+		assertTrue(index.containsMessagesToSend(contactId, NOW,
+				NOW + MAX_LATENCY, true));
+		index.raiseSeenFlag(contactId, messageId);
+		assertNothingToSend();
+	}
+
+	@Test
+	public void testRowsThatCanNotBeAckedOrSentAreAddedWhenUpdated() {
+		index.load(contactId, singletonList(new Status(messageId, groupId,
+				true, true, false, false, false, false, 0, 0)));
+		index.addStatus(messageId1, contactId, groupId, false, true, true,
+				false, false);
+		assertFalse(index.containsAcksToSend(contactId));
+		assertNothingToSend();
+
+		// Passing the rows to the index after raising a flag should make
+		// the messages sendable
+		index.updateStatus(contactId, getSendableStatus(messageId));
+		index.updateStatus(contactId, getSendableStatus(messageId1));
+		assertTrue(index.containsMessagesToSend(contactId, NOW,
+				NOW + MAX_LATENCY, false));
+
+		// Rows for unloaded contacts should be ignored
+		ContactId contactId1 = getContactId();
+		index.updateStatus(contactId1, getSendableStatus(messageId));
+		assertFalse(index.isLoaded(contactId1));
+	}
+
+	@Test
+	public void testMessagesAreNotSentLazilyUntilExpired() {
+		index.load(contactId, asList(
+				new Status(messageId, groupId, true, true, true, false,
+						false, false, 0, 0),
+				new Status(messageId1, groupId, true, true, true, false,
+						false, false, 0, 0)));
+
+		// Send both messages
+		long expiry = NOW + MAX_LATENCY * 2;
+		index.setExpiryTimeAndEta(contactId, messageId, expiry,
+				NOW + MAX_LATENCY);
+		index.setExpiryTimeAndEta(contactId, messageId1, expiry + 1,
+				NOW + MAX_LATENCY);
+		assertEquals(expiry, index.getNextSendTime(contactId));
+
+		// The messages can still be sent eagerly, or lazily over a
+		// transport with lower latency
+		assertFalse(index.containsMessagesToSend(contactId, NOW,
+				NOW + MAX_LATENCY, false));
+		assertTrue(index.containsMessagesToSend(contactId, NOW,
+				NOW + MAX_LATENCY, true));
+		assertTrue(index.containsMessagesToSend(contactId, NOW,
+				NOW + MAX_LATENCY - 1, false));
+
+		// The first message can be sent lazily when it expires
+		assertTrue(index.containsMessagesToSend(contactId, expiry,
+				expiry + MAX_LATENCY, false));
+
+		// Resetting the expiry time should make it sendable immediately
+		index.resetExpiryTime(contactId, messageId1);
+		assertEquals(0, index.getNextSendTime(contactId));
+		assertTrue(index.containsMessagesToSend(contactId, NOW,
+				NOW + MAX_LATENCY, false));
+
+		// Removing the message should leave the other message
+		index.removeMessage(messageId1);
+		assertEquals(expiry, index.getNextSendTime(contactId));
+	}
+
+	@Test
+	public void testAcks() {
+		index.load(contactId, emptyList());
+		index.addStatus(messageId, contactId, groupId, true, true, true,
+				false, true);
+		index.addStatus(messageId1, contactId, groupId, true, true, true,
+				false, false);
+		assertTrue(index.containsAcksToSend(contactId));
+		assertEquals(singletonList(messageId),
+				index.getMessagesToAck(contactId, 10));
+
+		index.updateStatus(contactId, new Status(messageId1, groupId, true,
+				true, true, false, false, true, 0, 0));
+		assertEquals(2, index.getMessagesToAck(contactId, 10).size());
+		assertEquals(1, index.getMessagesToAck(contactId, 1).size());
+
+		index.lowerAckFlag(contactId, asList(messageId, messageId1));
+		assertFalse(index.containsAcksToSend(contactId));
+	}
+
+	@Test
+	public void testRemovingGroupVisibilityRemovesStatuses() {
+		index.load(contactId, emptyList());
+		index.addStatus(messageId, contactId, groupId, true, true, true,
+				false, true);
+		index.removeGroupVisibility(contactId, groupId);
+		assertFalse(index.containsAcksToSend(contactId));
+		assertNothingToSend();
+	}
+
+	private Status getSendableStatus(MessageId m) {
+		return new Status(m, groupId, true, true, true, false, false, false,
+				0, 0);
+	}
+
+	private void assertNothingToSend() {
+		assertFalse(index.containsMessagesToSend(contactId, NOW,
+				NOW + MAX_LATENCY, true));
+		assertEquals(Long.MAX_VALUE, index.getNextSendTime(contactId));
+	}
+}
@@ -0,0 +1,72 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
+import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
+import static org.briarproject.bramble.api.sync.Group.Visibility.VISIBLE;
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VisibilityIndexTest extends BrambleTestCase {
+
+	private final VisibilityIndex index = new VisibilityIndex();
+	private final ContactId contactId = getContactId();
+	private final GroupId groupId = new GroupId(getRandomId());
+
+	@Test
+	public void testUnloadedIndexIsNotUpdated() {
+		index.addContact(contactId);
+		index.setGroupVisibility(contactId, groupId, true);
+		assertFalse(index.isLoaded());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testUnloadedIndexCannotBeQueried() {
+		index.containsContact(contactId);
+	}
+
+	@Test
+	public void testLoadedVisibilityIsIndexed() {
+		index.load(singletonList(contactId), singletonMap(contactId,
+				singletonMap(groupId, false)));
+		assertTrue(index.containsContact(contactId));
+		assertEquals(VISIBLE, index.getGroupVisibility(contactId, groupId));
+		assertEquals(singletonMap(contactId, false),
+				index.getGroupVisibility(groupId));
+	}
+
+	@Test
+	public void testVisibilityChangesAreIndexed() {
+		index.load(singletonList(contactId), emptyMap());
+		assertEquals(INVISIBLE, index.getGroupVisibility(contactId, groupId));
+
+		index.setGroupVisibility(contactId, groupId, true);
+		assertEquals(SHARED, index.getGroupVisibility(contactId, groupId));
+
+		index.removeGroupVisibility(contactId, groupId);
+		assertEquals(INVISIBLE, index.getGroupVisibility(contactId, groupId));
+
+		index.setGroupVisibility(contactId, groupId, false);
+		index.removeGroup(groupId);
+		assertTrue(index.getGroupVisibility(groupId).isEmpty());
+
+		index.removeContact(contactId);
+		assertFalse(index.containsContact(contactId));
+		// Visibility can't be set for a contact that isn't in the index
+		index.setGroupVisibility(contactId, groupId, true);
+		assertEquals(INVISIBLE, index.getGroupVisibility(contactId, groupId));
+
+		index.clear();
+		assertFalse(index.isLoaded());
+	}
+}
@@ -5,22 +5,38 @@ import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager.OpenDatabaseHook;
+import org.briarproject.bramble.api.lifecycle.Service;
+import org.briarproject.bramble.api.lifecycle.ServiceException;
+import org.briarproject.bramble.api.lifecycle.StartupPhase;
 import org.briarproject.bramble.api.lifecycle.event.LifecycleEvent;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.DbExpectations;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static junit.framework.TestCase.assertTrue;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.StartResult.CLOCK_ERROR;
+import static org.briarproject.bramble.api.lifecycle.LifecycleManager.StartResult.SERVICE_ERROR;
 import static org.briarproject.bramble.api.lifecycle.LifecycleManager.StartResult.SUCCESS;
 import static org.briarproject.bramble.api.system.Clock.MAX_REASONABLE_TIME_MS;
 import static org.briarproject.bramble.api.system.Clock.MIN_REASONABLE_TIME_MS;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 public class LifecycleManagerImplTest extends BrambleMockTestCase {
 
@@ -30,11 +46,19 @@ public class LifecycleManagerImplTest extends BrambleMockTestCase {
 
 	private final SecretKey dbKey = getSecretKey();
 
+	private final ExecutorService executor = newCachedThreadPool();
+
 	private LifecycleManagerImpl lifecycleManager;
 
 	@Before
 	public void setUp() {
-		lifecycleManager = new LifecycleManagerImpl(db, eventBus, clock);
+		lifecycleManager =
+				new LifecycleManagerImpl(db, eventBus, clock, executor);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
 	}
 
 	@Test
@@ -60,6 +84,113 @@ public class LifecycleManagerImplTest extends BrambleMockTestCase {
 		assertTrue(called.get());
 	}
 
+	@Test
+	public void testIndependentServicesStartConcurrently() throws Exception {
+		expectDatabaseOpened();
+
+		// Each service waits for the other to start
+		CountDownLatch latch = new CountDownLatch(2);
+		Service service = new TestService(() -> awaitOther(latch));
+		Service service1 = new TestService(() -> awaitOther(latch));
+		lifecycleManager.registerService(service, emptyList());
+		lifecycleManager.registerService(service1, emptyList());
+
+		assertEquals(SUCCESS, lifecycleManager.startServices(dbKey));
+	}
+
+	@Test
+	public void testServicesStartAfterTheirDependencies() throws Exception {
+		expectDatabaseOpened();
+
+		List<String> started = new CopyOnWriteArrayList<>();
+		Service service = new TestService(() -> started.add("first"));
+		Service service1 = new TestService(() -> started.add("second"));
+		Service service2 = new TestService(() -> started.add("third"));
+		// Register the services in the opposite order to their dependencies
+		lifecycleManager.registerService(service2, singletonList(service1));
+		lifecycleManager.registerService(service1, singletonList(service));
+		lifecycleManager.registerService(service, emptyList());
+
+		assertEquals(SUCCESS, lifecycleManager.startServices(dbKey));
+		assertEquals(asList("first", "second", "third"), started);
+	}
+
+	@Test
+	public void testServicesStartInOrderOfRegistrationByDefault()
+			throws Exception {
+		expectDatabaseOpened();
+
+		List<String> started = new CopyOnWriteArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			String name = String.valueOf(i);
+			lifecycleManager.registerService(
+					new TestService(() -> started.add(name)));
+		}
+
+		assertEquals(SUCCESS, lifecycleManager.startServices(dbKey));
+		assertEquals(asList("0", "1", "2", "3", "4"), started);
+	}
+
+	@Test
+	public void testServicesStartAfterEarlierServicesWithDefaultOrder()
+			throws Exception {
+		expectDatabaseOpened();
+
+		List<String> started = new CopyOnWriteArrayList<>();
+		Service service = new TestService(() -> started.add("first"));
+		Service service1 = new TestService(() -> started.add("second"));
+		Service service2 = new TestService(() -> started.add("third"));
+		// The first service doesn't declare its dependencies, so the
+		// services registered after it start after it
+		lifecycleManager.registerService(service);
+		lifecycleManager.registerService(service1, emptyList());
+		lifecycleManager.registerService(service2, singletonList(service1));
+
+		assertEquals(SUCCESS, lifecycleManager.startServices(dbKey));
+		assertEquals(asList("first", "second", "third"), started);
+	}
+
+	@Test
+	public void testDependentsAreNotStartedIfServiceFails()
+			throws Exception {
+		expectDatabaseOpened();
+
+		AtomicBoolean dependentStarted = new AtomicBoolean(false);
+		Service service = new TestService(() -> {
+			throw new ServiceException();
+		});
+		Service service1 =
+				new TestService(() -> dependentStarted.set(true));
+		lifecycleManager.registerService(service, emptyList());
+		lifecycleManager.registerService(service1, singletonList(service));
+
+		assertEquals(SERVICE_ERROR, lifecycleManager.startServices(dbKey));
+		assertFalse(dependentStarted.get());
+	}
+
+	@Test
+	public void testStartupTimelineIncludesEachPhase() throws Exception {
+		expectDatabaseOpened();
+
+		lifecycleManager.registerOpenDatabaseHook(txn -> {
+		});
+		lifecycleManager.registerService(new TestService(() -> {
+		}), emptyList());
+
+		assertEquals(SUCCESS, lifecycleManager.startServices(dbKey));
+		List<String> phases = new ArrayList<>();
+		for (StartupPhase p : lifecycleManager.getStartupTimeline()) {
+			assertTrue(p.getStartTime() >= 0);
+			assertTrue(p.getDuration() >= 0);
+			phases.add(p.getName());
+		}
+		assertEquals(4, phases.size());
+		assertEquals("Creating database", phases.get(0));
+		assertEquals("Removing temporary messages", phases.get(1));
+		assertTrue(phases.get(2).startsWith("Calling open database hook"));
+		assertEquals("Starting service TestService", phases.get(3));
+	}
+
 	@Test
 	public void testStartupFailsIfClockIsUnreasonablyBehind() {
 
@@ -81,4 +212,51 @@ public class LifecycleManagerImplTest extends BrambleMockTestCase {
 
 		assertEquals(CLOCK_ERROR, lifecycleManager.startServices(dbKey));
 	}
+
+	private void expectDatabaseOpened() throws Exception {
+		long now = System.currentTimeMillis();
+		Transaction txn = new Transaction(null, false);
+
+		context.checking(new DbExpectations() {{
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+			oneOf(db).open(dbKey, lifecycleManager);
+			will(returnValue(false));
+			oneOf(db).transaction(with(false), withDbRunnable(txn));
+			oneOf(db).removeTemporaryMessages(txn);
+			allowing(eventBus).broadcast(with(any(LifecycleEvent.class)));
+		}});
+	}
+
+	private void awaitOther(CountDownLatch latch) throws ServiceException {
+		latch.countDown();
+		try {
+			if (!latch.await(10, SECONDS)) throw new ServiceException();
+		} catch (InterruptedException e) {
+			throw new ServiceException(e);
+		}
+	}
+
+	private interface StartTask {
+
+		void run() throws ServiceException;
+	}
+
+	private static class TestService implements Service {
+
+		private final StartTask startTask;
+
+		private TestService(StartTask startTask) {
+			this.startTask = startTask;
+		}
+
+		@Override
+		public void startService() throws ServiceException {
+			startTask.run();
+		}
+
+		@Override
+		public void stopService() {
+		}
+	}
 }
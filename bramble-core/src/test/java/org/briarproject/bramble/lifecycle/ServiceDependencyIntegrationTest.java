@@ -0,0 +1,73 @@
+package org.briarproject.bramble.lifecycle;
+
+import org.briarproject.bramble.BrambleCoreIntegrationTestEagerSingletons;
+import org.briarproject.bramble.api.identity.IdentityManager;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.lifecycle.StartupPhase;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfigModule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.briarproject.bramble.api.lifecycle.LifecycleManager.StartResult.SUCCESS;
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ServiceDependencyIntegrationTest extends BrambleTestCase {
+
+	private final File testDir = getTestDirectory();
+
+	private LifecycleManager lifecycleManager;
+
+	@Before
+	public void setUp() throws Exception {
+		assertTrue(testDir.mkdirs());
+		ServiceDependencyTestComponent component =
+				DaggerServiceDependencyTestComponent.builder()
+						.testDatabaseConfigModule(
+								new TestDatabaseConfigModule(testDir))
+						.build();
+		BrambleCoreIntegrationTestEagerSingletons.Helper
+				.injectEagerSingletons(component);
+		IdentityManager identityManager = component.getIdentityManager();
+		identityManager.registerIdentity(
+				identityManager.createIdentity("Alice"));
+		lifecycleManager = component.getLifecycleManager();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		lifecycleManager.stopServices();
+		lifecycleManager.waitForShutdown();
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testServicesStartAfterTheirDependencies() throws Exception {
+		assertEquals(SUCCESS, lifecycleManager.startServices(getSecretKey()));
+
+		assertStartedAfter("PluginManagerImpl", "KeyManagerImpl");
+		assertStartedAfter("RendezvousPollerImpl", "PluginManagerImpl");
+		assertStartedAfter("RendezvousPollerImpl", "KeyManagerImpl");
+	}
+
+	private void assertStartedAfter(String service, String dependency) {
+		StartupPhase s = getPhase(service);
+		StartupPhase d = getPhase(dependency);
+		assertTrue(s.getStartTime() >= d.getStartTime() + d.getDuration());
+	}
+
+	private StartupPhase getPhase(String service) {
+		String name = "Starting service " + service;
+		for (StartupPhase p : lifecycleManager.getStartupTimeline()) {
+			if (p.getName().equals(name)) return p;
+		}
+		throw new AssertionError();
+	}
+}
@@ -0,0 +1,21 @@
+package org.briarproject.bramble.lifecycle;
+
+import org.briarproject.bramble.BrambleCoreModule;
+import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.test.BrambleCoreIntegrationTestModule;
+import org.briarproject.bramble.test.BrambleIntegrationTestComponent;
+
+import javax.inject.Singleton;
+
+import dagger.Component;
+
+@Singleton
+@Component(modules = {
+		BrambleCoreIntegrationTestModule.class,
+		BrambleCoreModule.class
+})
+interface ServiceDependencyTestComponent
+		extends BrambleIntegrationTestComponent {
+
+	LifecycleManager getLifecycleManager();
+}
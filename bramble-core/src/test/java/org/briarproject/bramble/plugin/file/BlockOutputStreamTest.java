@@ -0,0 +1,118 @@
+package org.briarproject.bramble.plugin.file;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class BlockOutputStreamTest extends BrambleTestCase {
+
+	private static final int BLOCK_SIZE = 16;
+
+	private final RecordingChannel channel = new RecordingChannel();
+
+	@Test
+	public void testDataIsWrittenInWholeBlocks() throws Exception {
+		BlockOutputStream out = new BlockOutputStream(channel, BLOCK_SIZE);
+		byte[] data = getRandomBytes(BLOCK_SIZE * 5 + 3);
+		// Write one byte, then the rest of the data in chunks of various
+		// sizes
+		out.write(data[0]);
+		int off = 1;
+		int[] lengths = {5, 20, 1, 40};
+		for (int len : lengths) {
+			out.write(data, off, len);
+			off += len;
+		}
+		out.write(data, off, data.length - off);
+		assertEquals(BLOCK_SIZE * 5, out.getBytesWritten());
+		for (int length : channel.writes) assertEquals(0, length % BLOCK_SIZE);
+		// Closing the stream writes the partial block
+		out.close();
+		assertEquals(3, (int) channel.writes.get(channel.writes.size() - 1));
+		assertArrayEquals(data, channel.data.toByteArray());
+		assertFalse(channel.isOpen());
+	}
+
+	@Test
+	public void testLargeWritesAreNotSplitIntoBlocks() throws Exception {
+		BlockOutputStream out = new BlockOutputStream(channel, BLOCK_SIZE);
+		byte[] data = getRandomBytes(BLOCK_SIZE * 4 + 1);
+		out.write(data);
+		// The whole blocks are written at once, the rest is buffered
+		assertEquals(1, channel.writes.size());
+		assertEquals(BLOCK_SIZE * 4, (int) channel.writes.get(0));
+		out.close();
+		assertArrayEquals(data, channel.data.toByteArray());
+	}
+
+	@Test
+	public void testBlocksAreRealignedAfterFlush() throws Exception {
+		BlockOutputStream out = new BlockOutputStream(channel, BLOCK_SIZE);
+		out.write(new byte[5]);
+		out.flush();
+		assertEquals(5, out.getBytesWritten());
+		// The next block ends at the next multiple of the block size
+		out.write(new byte[BLOCK_SIZE * 2]);
+		assertEquals(BLOCK_SIZE * 2, out.getBytesWritten());
+		assertEquals(5, (int) channel.writes.get(0));
+		assertEquals(BLOCK_SIZE - 5, (int) channel.writes.get(1));
+		assertEquals(BLOCK_SIZE, (int) channel.writes.get(2));
+		out.close();
+		assertEquals(BLOCK_SIZE * 2 + 5, channel.data.size());
+	}
+
+	@Test
+	public void testWritingAfterCloseThrowsException() throws Exception {
+		BlockOutputStream out = new BlockOutputStream(channel, BLOCK_SIZE);
+		out.close();
+		// Closing the stream again has no effect
+		out.close();
+		try {
+			out.write(0);
+			fail();
+		} catch (IOException expected) {
+			// Expected
+		}
+	}
+
+	private static class RecordingChannel implements WritableByteChannel {
+
+		private final ByteArrayOutputStream data =
+				new ByteArrayOutputStream();
+		private final List<Integer> writes = new ArrayList<>();
+
+		private boolean open = true;
+
+		@Override
+		public int write(ByteBuffer src) {
+			int length = src.remaining();
+			byte[] b = new byte[length];
+			src.get(b);
+			data.write(b, 0, length);
+			writes.add(length);
+			return length;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package org.briarproject.bramble.plugin.file;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.briarproject.bramble.test.TestUtils.deleteTestDirectory;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getTestDirectory;
+import static org.briarproject.bramble.util.IoUtils.read;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedFileInputStreamTest extends BrambleTestCase {
+
+	private static final int WINDOW_SIZE = 100;
+
+	private final File testDir = getTestDirectory();
+	private final File file = new File(testDir, "file");
+
+	@Before
+	public void setUp() {
+		assertTrue(testDir.mkdirs());
+	}
+
+	@After
+	public void tearDown() {
+		deleteTestDirectory(testDir);
+	}
+
+	@Test
+	public void testReadsAcrossWindows() throws Exception {
+		byte[] data = writeFile(WINDOW_SIZE * 3 + 7);
+		MappedFileInputStream in = open();
+		assertEquals(data.length, in.available());
+		// Read single bytes and chunks that span window boundaries
+		byte[] read = new byte[data.length];
+		read[0] = (byte) in.read();
+		int off = 1;
+		while (off < read.length) {
+			int n = in.read(read, off, Math.min(33, read.length - off));
+			assertTrue(n > 0);
+			off += n;
+		}
+		assertArrayEquals(data, read);
+		assertEquals(0, in.available());
+		assertEquals(-1, in.read());
+		assertEquals(-1, in.read(new byte[1], 0, 1));
+		in.close();
+	}
+
+	@Test
+	public void testSkip() throws Exception {
+		byte[] data = writeFile(WINDOW_SIZE * 2);
+		MappedFileInputStream in = open();
+		assertEquals(data[0], (byte) in.read());
+		assertEquals(WINDOW_SIZE + 9, in.skip(WINDOW_SIZE + 9));
+		assertEquals(data[WINDOW_SIZE + 10], (byte) in.read());
+		// Skipping past the end of the file stops at the end
+		assertEquals(WINDOW_SIZE - 11, in.skip(WINDOW_SIZE));
+		assertEquals(-1, in.read());
+		in.close();
+	}
+
+	@Test
+	public void testEmptyFile() throws Exception {
+		writeFile(0);
+		MappedFileInputStream in = open();
+		assertEquals(0, in.available());
+		assertEquals(-1, in.read());
+		in.close();
+	}
+
+	@Test
+	public void testReadingAfterCloseThrowsException() throws Exception {
+		writeFile(10);
+		MappedFileInputStream in = open();
+		in.close();
+		try {
+			in.read();
+			fail();
+		} catch (IOException expected) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testReadsFileWrittenInBlocks() throws Exception {
+		byte[] data = getRandomBytes(BlockOutputStream.BLOCK_SIZE + 123);
+		BlockOutputStream out = new BlockOutputStream(
+				new FileOutputStream(file).getChannel());
+		out.write(data);
+		out.close();
+		MappedFileInputStream in = new MappedFileInputStream(
+				new FileInputStream(file).getChannel());
+		byte[] read = new byte[data.length];
+		read(in, read);
+		assertEquals(-1, in.read());
+		in.close();
+		assertArrayEquals(data, read);
+	}
+
+	private byte[] writeFile(int length) throws IOException {
+		byte[] data = getRandomBytes(length);
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(data);
+		out.close();
+		return data;
+	}
+
+	private MappedFileInputStream open() throws IOException {
+		return new MappedFileInputStream(
+				new FileInputStream(file).getChannel(), WINDOW_SIZE);
+	}
+}
@@ -0,0 +1,168 @@
+package org.briarproject.bramble.plugin.tor;
+
+import org.briarproject.bramble.plugin.tor.BoundedDialer.DialerStats;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.SettableClock;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.plugin.tor.BoundedDialer.MIN_BACKOFF_MS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedDialerTest extends BrambleTestCase {
+
+	private final AtomicLong time = new AtomicLong(System.currentTimeMillis());
+	private final SettableClock clock = new SettableClock(time);
+	private final List<Runnable> tasks = new ArrayList<>();
+
+	@Test
+	public void testConcurrentAttemptsAreBounded() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		BoundedDialer dialer = new BoundedDialer(executor, clock, 2);
+		AtomicInteger inProgress = new AtomicInteger(0);
+		AtomicInteger maxInProgress = new AtomicInteger(0);
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch connected = new CountDownLatch(5);
+		try {
+			for (int i = 0; i < 5; i++) {
+				dialer.dial("key" + i, () -> {
+					int n = inProgress.incrementAndGet();
+					maxInProgress.set(Math.max(maxInProgress.get(), n));
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						throw new AssertionError(e);
+					}
+					inProgress.decrementAndGet();
+					return "connection";
+				}, c -> connected.countDown());
+			}
+			assertTrue(started.await(10, SECONDS));
+			DialerStats stats = dialer.getStats();
+			assertEquals(2, stats.getActive());
+			assertEquals(3, stats.getQueued());
+
+			release.countDown();
+			assertTrue(connected.await(10, SECONDS));
+			assertEquals(2, maxInProgress.get());
+			assertEquals(5, dialer.getStats().getSuccesses());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRecentlySuccessfulDestinationsAreTriedFirst() {
+		BoundedDialer dialer = new BoundedDialer(tasks::add, clock, 1);
+		List<String> order = new CopyOnWriteArrayList<>();
+
+		// Connect to b so it has a recent successful connection
+		assertNotNull(dialer.connectNow("b", () -> "connection"));
+
+		// Occupy the only slot, then queue a and b
+		assertTrue(dialer.dial("x", () -> record(order, "x"), c -> {
+		}));
+		assertTrue(dialer.dial("a", () -> record(order, "a"), c -> {
+		}));
+		assertTrue(dialer.dial("b", () -> record(order, "b"), c -> {
+		}));
+		// Duplicate attempts are not queued
+		assertFalse(dialer.dial("a", () -> record(order, "a"), c -> {
+		}));
+		runTasks();
+		assertEquals(asList("x", "b", "a"), order);
+	}
+
+	@Test
+	public void testFailedDestinationsBackOff() {
+		BoundedDialer dialer = new BoundedDialer(tasks::add, clock, 1);
+
+		assertNull(dialer.connectNow("a", () -> null));
+		// The destination can't be dialled until the backoff period elapses
+		assertFalse(dialer.dial("a", () -> "connection", c -> {
+		}));
+		time.addAndGet(MIN_BACKOFF_MS - 1);
+		assertFalse(dialer.dial("a", () -> null, c -> {
+		}));
+		time.incrementAndGet();
+		assertTrue(dialer.dial("a", () -> null, c -> {
+		}));
+		runTasks();
+
+		// After a second failure the backoff period is doubled
+		time.addAndGet(MIN_BACKOFF_MS);
+		assertFalse(dialer.dial("a", () -> "connection", c -> {
+		}));
+		time.addAndGet(MIN_BACKOFF_MS);
+		assertTrue(dialer.dial("a", () -> "connection", c -> {
+		}));
+		runTasks();
+
+		// A successful connection resets the backoff
+		assertTrue(dialer.dial("a", () -> "connection", c -> {
+		}));
+		runTasks();
+		assertEquals(4, dialer.getStats().getAttempts());
+		assertEquals(2, dialer.getStats().getSuccesses());
+	}
+
+	@Test
+	public void testConnectsToLocalServer() throws Exception {
+		BoundedDialer dialer = new BoundedDialer(tasks::add, clock, 1);
+		InetAddress localhost = InetAddress.getLoopbackAddress();
+		ServerSocket server = new ServerSocket(0, 50, localhost);
+		int port = server.getLocalPort();
+
+		// The stand-in server accepts the connection
+		Socket s = dialer.connectNow("a", () -> connect(localhost, port));
+		assertNotNull(s);
+		s.close();
+
+		// When the server has gone away the connection attempt fails
+		server.close();
+		assertNull(dialer.connectNow("a", () -> connect(localhost, port)));
+
+		DialerStats stats = dialer.getStats();
+		assertEquals(2, stats.getAttempts());
+		assertEquals(1, stats.getSuccesses());
+		assertEquals(0.5, stats.getSuccessRate(), 0);
+		assertEquals(0, stats.getActive());
+	}
+
+	private String record(List<String> order, String key) {
+		order.add(key);
+		return "connection";
+	}
+
+	private Socket connect(InetAddress address, int port) {
+		try {
+			return new Socket(address, port);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private void runTasks() {
+		while (!tasks.isEmpty()) tasks.remove(0).run();
+	}
+}
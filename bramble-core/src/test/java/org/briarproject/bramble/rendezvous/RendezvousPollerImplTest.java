@@ -2,6 +2,7 @@ package org.briarproject.bramble.rendezvous;
 
 import org.briarproject.bramble.api.connection.ConnectionManager;
 import org.briarproject.bramble.api.contact.PendingContact;
+import org.briarproject.bramble.api.contact.PendingContactId;
 import org.briarproject.bramble.api.contact.PendingContactState;
 import org.briarproject.bramble.api.contact.event.PendingContactAddedEvent;
 import org.briarproject.bramble.api.contact.event.PendingContactRemovedEvent;
@@ -37,10 +38,12 @@ import org.jmock.Expectations;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.security.GeneralSecurityException;
 import java.util.Random;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -55,9 +58,11 @@ import static org.briarproject.bramble.test.PairMatcher.pairOf;
 import static org.briarproject.bramble.test.TestUtils.getAgreementPrivateKey;
 import static org.briarproject.bramble.test.TestUtils.getAgreementPublicKey;
 import static org.briarproject.bramble.test.TestUtils.getPendingContact;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.briarproject.bramble.test.TestUtils.getTransportId;
 import static org.briarproject.bramble.test.TestUtils.getTransportProperties;
+import static org.briarproject.bramble.util.StringUtils.getRandomString;
 
 public class RendezvousPollerImplTest extends BrambleMockTestCase {
 
@@ -83,6 +88,7 @@ public class RendezvousPollerImplTest extends BrambleMockTestCase {
 	private final Cancellable cancellable = context.mock(Cancellable.class);
 
 	private final Executor ioExecutor = new ImmediateExecutor();
+	private final Executor cryptoExecutor = new ImmediateExecutor();
 	private final PendingContact pendingContact = getPendingContact();
 	private final KeyPair handshakeKeyPair =
 			new KeyPair(getAgreementPublicKey(), getAgreementPrivateKey());
@@ -97,9 +103,10 @@ public class RendezvousPollerImplTest extends BrambleMockTestCase {
 
 	@Before
 	public void setUp() {
-		rendezvousPoller = new RendezvousPollerImpl(ioExecutor, scheduler, db,
-				identityManager, transportCrypto, rendezvousCrypto,
-				pluginManager, connectionManager, eventBus, clock);
+		rendezvousPoller = new RendezvousPollerImpl(ioExecutor, cryptoExecutor,
+				scheduler, db, identityManager, transportCrypto,
+				rendezvousCrypto, pluginManager, connectionManager, eventBus,
+				clock);
 	}
 
 	@Test
@@ -160,6 +167,40 @@ public class RendezvousPollerImplTest extends BrambleMockTestCase {
 		rendezvousPoller.startService();
 	}
 
+	@Test
+	public void testAddsMultiplePendingContactsAtStartup() throws Exception {
+		Transaction txn = new Transaction(null, true);
+		long now = pendingContact.getTimestamp();
+		// This pending contact has a key that's rejected by the crypto
+		PendingContact invalid = getPendingContact();
+		// This pending contact has already expired
+		PendingContact expired = new PendingContact(
+				new PendingContactId(getRandomId()), getAgreementPublicKey(),
+				getRandomString(5), now - RENDEZVOUS_TIMEOUT_MS);
+
+		// Start the service
+		context.checking(new DbExpectations() {{
+			// Load the pending contacts
+			oneOf(db).transaction(with(true), withDbRunnable(txn));
+			oneOf(db).getPendingContacts(txn);
+			will(returnValue(asList(pendingContact, invalid, expired)));
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(now));
+			// The key for the invalid pending contact can't be derived
+			oneOf(transportCrypto).deriveStaticMasterKey(
+					invalid.getPublicKey(), handshakeKeyPair);
+			will(throwException(new GeneralSecurityException()));
+		}});
+
+		// The valid pending contact is added, the expired one fails
+		expectDeriveRendezvousKey();
+		expectStateChangedEvent(OFFLINE);
+		expectStateChangedEvent(FAILED);
+		expectSchedulePolling();
+
+		rendezvousPoller.startService();
+	}
+
 	@Test
 	public void testCreatesAndClosesEndpointsWhenPendingContactIsAddedAndRemoved()
 			throws Exception {
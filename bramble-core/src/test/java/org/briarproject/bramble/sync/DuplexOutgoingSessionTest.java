@@ -0,0 +1,255 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.ClientPriority;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.Sketch;
+import org.briarproject.bramble.api.sync.SyncRecordWriter;
+import org.briarproject.bramble.api.sync.Versions;
+import org.briarproject.bramble.api.sync.event.MessageToAckEvent;
+import org.briarproject.bramble.api.sync.event.SketchReceivedEvent;
+import org.briarproject.bramble.api.transport.StreamWriter;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.DbExpectations;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MIN_MESSAGES_FOR_SKETCH;
+import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.api.sync.SyncConstants.SET_RECONCILIATION_VERSION;
+import static org.briarproject.bramble.api.sync.SyncConstants.SKETCH_TABLE_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.test.TestUtils.getTransportId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DuplexOutgoingSessionTest extends BrambleMockTestCase {
+
+	private static final int MAX_LATENCY = 30_000;
+	private static final int MAX_IDLE_TIME = 60_000;
+	private static final int MAX_MESSAGES = 3;
+	private static final long MAX_DELAY = 60_000;
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final EventBus eventBus = context.mock(EventBus.class);
+	private final StreamWriter streamWriter = context.mock(StreamWriter.class);
+	private final SyncRecordWriter recordWriter =
+			context.mock(SyncRecordWriter.class);
+
+	private final Executor dbExecutor = new ImmediateExecutor();
+	private final ContactId contactId = getContactId();
+	private final TransportId transportId = getTransportId();
+	private final Ack ack =
+			new Ack(singletonList(new MessageId(getRandomId())));
+	private final GroupId groupId = new GroupId(getRandomId());
+	private final Sketch sketch =
+			new Sketch(groupId, getRandomBytes(SKETCH_TABLE_LENGTH));
+	private final Transaction txn = new Transaction(null, false);
+	private final CountDownLatch flushed = new CountDownLatch(1);
+	private final CountDownLatch flushedTwice = new CountDownLatch(2);
+	private final CountDownLatch ackWritten = new CountDownLatch(1);
+	// The records written and flushes, in the order they happened
+	private final List<String> written = new CopyOnWriteArrayList<>();
+
+	@Test
+	public void testAckIsSentWhenEnoughMessagesAreWaiting()
+			throws Exception {
+		DuplexOutgoingSession session =
+				createSession(new AckPolicy(MAX_MESSAGES, MAX_DELAY));
+		expectStartup(session);
+		expectOneAck();
+
+		Thread thread = startSession(session);
+		// The ack should not be sent until enough messages are waiting
+		for (int i = 0; i < MAX_MESSAGES; i++)
+			session.eventOccurred(new MessageToAckEvent(contactId));
+		assertTrue(ackWritten.await(10, SECONDS));
+		stopSession(session, thread);
+	}
+
+	@Test
+	public void testAckIsSentWhenMaxDelayHasElapsed() throws Exception {
+		DuplexOutgoingSession session =
+				createSession(new AckPolicy(MAX_MESSAGE_IDS, 10));
+		expectStartup(session);
+		expectOneAck();
+
+		Thread thread = startSession(session);
+		session.eventOccurred(new MessageToAckEvent(contactId));
+		assertTrue(ackWritten.await(10, SECONDS));
+		stopSession(session, thread);
+	}
+
+	@Test
+	public void testKeepaliveIsSentAfterDelayedAck() throws Exception {
+		DuplexOutgoingSession session = createSession(
+				new AckPolicy(MAX_MESSAGE_IDS, MAX_DELAY), 1000);
+		expectStartup(session);
+		expectOneAck();
+
+		Thread thread = startSession(session);
+		// The ack isn't due until after the keepalive, so it should be
+		// sent with the keepalive
+		session.eventOccurred(new MessageToAckEvent(contactId));
+		assertTrue(flushedTwice.await(10, SECONDS));
+		stopSession(session, thread);
+		// The keepalive flush should not happen until the ack is written
+		assertEquals(asList("flush", "ack", "flush"), written.subList(0, 3));
+	}
+
+	@Test
+	public void testOffersArePausedUntilSketchIsReceived() throws Exception {
+		DuplexOutgoingSession session =
+				createSession(new AckPolicy(MAX_MESSAGE_IDS, MAX_DELAY));
+		expectStartup(session,
+				asList(PROTOCOL_VERSION, SET_RECONCILIATION_VERSION));
+		context.checking(new DbExpectations() {{
+			// Send a sketch of a group with many messages
+			oneOf(db).generateSketches(txn, contactId,
+					MIN_MESSAGES_FOR_SKETCH);
+			will(returnValue(singletonList(sketch)));
+			oneOf(recordWriter).writeSketch(sketch);
+			will(record("sketch"));
+			// Generate offers when the contact's sketch has been received
+			allowing(db).generateOffer(with(txn), with(contactId),
+					with(any(int.class)), with(any(long.class)),
+					with(any(ClientPriority.class)));
+			will(record("offer"));
+		}});
+
+		Thread thread = startSession(session);
+		// No offers should be generated while we're waiting for the sketch
+		assertEquals("sketch", written.get(0));
+		assertFalse(written.contains("offer"));
+		// Receiving the contact's sketch should resume offers. We've
+		// already sent our sketch of the group, so we shouldn't send another
+		session.eventOccurred(new SketchReceivedEvent(contactId, groupId));
+		assertTrue(written.contains("offer"));
+		stopSession(session, thread);
+	}
+
+	private DuplexOutgoingSession createSession(AckPolicy ackPolicy) {
+		return createSession(ackPolicy, MAX_IDLE_TIME);
+	}
+
+	private DuplexOutgoingSession createSession(AckPolicy ackPolicy,
+			int maxIdleTime) {
+		return new DuplexOutgoingSession(db, dbExecutor, eventBus,
+				new SystemClock(), contactId, transportId, MAX_LATENCY,
+				maxIdleTime, ackPolicy, streamWriter, recordWriter,
+				new CompressionPolicy(db, new ClientCompressionRegistryImpl()),
+				null);
+	}
+
+	private void expectStartup(DuplexOutgoingSession session)
+			throws Exception {
+		// The contact doesn't support set reconciliation, so no sketches
+		// are sent and offers aren't paused
+		expectStartup(session, singletonList(PROTOCOL_VERSION));
+		context.checking(new DbExpectations() {{
+			// No offers to send
+			allowing(db).generateOffer(with(txn), with(contactId),
+					with(any(int.class)), with(any(long.class)),
+					with(any(ClientPriority.class)));
+			will(returnValue(null));
+		}});
+	}
+
+	private void expectStartup(DuplexOutgoingSession session,
+			List<Byte> syncVersions) throws Exception {
+		context.checking(new DbExpectations() {{
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// Send the protocol versions
+			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
+			// No acks to send at startup
+			oneOf(db).generateAck(txn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			// No batches or requests to send
+			allowing(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(txn));
+			allowing(db).transactionWithResult(with(any(boolean.class)),
+					withDbCallable(txn));
+			allowing(db).getSyncVersions(txn, contactId);
+			will(returnValue(syncVersions));
+			allowing(db).generateRequestedBatch(with(txn), with(contactId),
+					with(any(int.class)), with(any(long.class)),
+					with(any(ClientPriority.class)));
+			will(returnValue(null));
+			allowing(db).generateRequest(txn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			allowing(db).getNextSendTime(txn, contactId);
+			will(returnValue(Long.MAX_VALUE));
+			// Flush the stream when there's nothing to send
+			allowing(recordWriter).flush();
+			will(record("flush", flushed, flushedTwice));
+			// Send the end of stream marker
+			oneOf(streamWriter).sendEndOfStream();
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+		}});
+	}
+
+	private void expectOneAck() throws Exception {
+		context.checking(new DbExpectations() {{
+			oneOf(db).generateAck(txn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(ack));
+			oneOf(recordWriter).writeAck(ack);
+			will(record("ack", ackWritten));
+		}});
+	}
+
+	private Action record(String name, CountDownLatch... latches) {
+		return new CustomAction("record " + name) {
+			@Override
+			public Object invoke(Invocation invocation) {
+				written.add(name);
+				for (CountDownLatch latch : latches) latch.countDown();
+				return null;
+			}
+		};
+	}
+
+	private Thread startSession(DuplexOutgoingSession session)
+			throws Exception {
+		Thread thread = new Thread(() -> {
+			try {
+				session.run();
+			} catch (Exception e) {
+				throw new AssertionError(e);
+			}
+		});
+		thread.start();
+		// Wait for the session to become idle after starting up
+		assertTrue(flushed.await(10, SECONDS));
+		return thread;
+	}
+
+	private void stopSession(DuplexOutgoingSession session, Thread thread)
+			throws Exception {
+		session.interrupt();
+		thread.join();
+	}
+}
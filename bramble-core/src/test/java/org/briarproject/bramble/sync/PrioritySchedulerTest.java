@@ -0,0 +1,44 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.briarproject.bramble.api.sync.ClientPriority.HIGH;
+import static org.briarproject.bramble.api.sync.ClientPriority.LOW;
+import static org.briarproject.bramble.sync.PriorityScheduler.MAX_CONSECUTIVE_HIGH_PRIORITY;
+import static org.junit.Assert.assertEquals;
+
+public class PrioritySchedulerTest extends BrambleTestCase {
+
+	private final PriorityScheduler scheduler = new PriorityScheduler();
+
+	@Test
+	public void testHighPriorityIsPreferredByDefault() {
+		assertEquals(asList(HIGH, LOW), scheduler.getPriorities());
+		scheduler.recordGenerated(LOW);
+		assertEquals(asList(HIGH, LOW), scheduler.getPriorities());
+	}
+
+	@Test
+	public void testLowPriorityIsPreferredAfterConsecutiveHighPriority() {
+		for (int i = 0; i < MAX_CONSECUTIVE_HIGH_PRIORITY; i++) {
+			assertEquals(asList(HIGH, LOW), scheduler.getPriorities());
+			scheduler.recordGenerated(HIGH);
+		}
+		// Low priority should be preferred for one record
+		assertEquals(asList(LOW, HIGH), scheduler.getPriorities());
+		scheduler.recordGenerated(LOW);
+		assertEquals(asList(HIGH, LOW), scheduler.getPriorities());
+	}
+
+	@Test
+	public void testLowPriorityRemainsPreferredUntilGenerated() {
+		for (int i = 0; i < MAX_CONSECUTIVE_HIGH_PRIORITY; i++)
+			scheduler.recordGenerated(HIGH);
+		// If there were no low-priority messages to send, a high-priority
+		// record may be generated instead
+		scheduler.recordGenerated(HIGH);
+		assertEquals(asList(LOW, HIGH), scheduler.getPriorities());
+	}
+}
@@ -6,6 +6,8 @@ import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.ClientCompressionRegistry;
+import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
@@ -15,18 +17,28 @@ import org.briarproject.bramble.api.transport.StreamWriter;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.DbExpectations;
 import org.briarproject.bramble.test.ImmediateExecutor;
+import org.jmock.Sequence;
 import org.junit.Test;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.Executor;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyMap;
+import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
+import static org.briarproject.bramble.api.sync.ClientPriority.HIGH;
+import static org.briarproject.bramble.api.sync.ClientPriority.LOW;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.COMPRESSED_BATCH_VERSION;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_COMPRESSED_BATCH_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
+import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.test.TestUtils.getClientId;
 import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getGroup;
 import static org.briarproject.bramble.test.TestUtils.getMessage;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.briarproject.bramble.test.TestUtils.getTransportId;
@@ -40,6 +52,10 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 	private final StreamWriter streamWriter = context.mock(StreamWriter.class);
 	private final SyncRecordWriter recordWriter =
 			context.mock(SyncRecordWriter.class);
+	private final ClientCompressionRegistry compressionRegistry =
+			new ClientCompressionRegistryImpl();
+	private final CompressionPolicy compressionPolicy =
+			new CompressionPolicy(db, compressionRegistry);
 
 	private final Executor dbExecutor = new ImmediateExecutor();
 	private final ContactId contactId = getContactId();
@@ -55,7 +71,7 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 	public void testNothingToSend() throws Exception {
 		SimplexOutgoingSession session = new SimplexOutgoingSession(db,
 				dbExecutor, eventBus, contactId, transportId, MAX_LATENCY,
-				false, streamWriter, recordWriter);
+				false, streamWriter, recordWriter, compressionPolicy);
 
 		Transaction noAckTxn = new Transaction(null, false);
 		Transaction noMsgTxn = new Transaction(null, false);
@@ -73,8 +89,13 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 			// No messages to send
 			oneOf(db).transactionWithNullableResult(with(false),
 					withNullableDbCallable(noMsgTxn));
+			oneOf(db).getSyncVersions(noMsgTxn, contactId);
+			will(returnValue(singletonList(PROTOCOL_VERSION)));
 			oneOf(db).generateBatch(noMsgTxn, contactId,
-					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY);
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY, HIGH);
+			will(returnValue(null));
+			oneOf(db).generateBatch(noMsgTxn, contactId,
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY, LOW);
 			will(returnValue(null));
 			// Send the end of stream marker
 			oneOf(streamWriter).sendEndOfStream();
@@ -89,7 +110,7 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 	public void testNothingToSendEagerly() throws Exception {
 		SimplexOutgoingSession session = new SimplexOutgoingSession(db,
 				dbExecutor, eventBus, contactId, transportId, MAX_LATENCY,
-				true, streamWriter, recordWriter);
+				true, streamWriter, recordWriter, compressionPolicy);
 
 		Transaction noAckTxn = new Transaction(null, false);
 		Transaction noIdsTxn = new Transaction(null, true);
@@ -107,6 +128,8 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 			// No messages to send
 			oneOf(db).transactionWithResult(with(true),
 					withDbCallable(noIdsTxn));
+			oneOf(db).getSyncVersions(noIdsTxn, contactId);
+			will(returnValue(singletonList(PROTOCOL_VERSION)));
 			oneOf(db).getUnackedMessagesToSend(noIdsTxn, contactId);
 			will(returnValue(emptyMap()));
 			// Send the end of stream marker
@@ -122,7 +145,7 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 	public void testSomethingToSend() throws Exception {
 		SimplexOutgoingSession session = new SimplexOutgoingSession(db,
 				dbExecutor, eventBus, contactId, transportId, MAX_LATENCY,
-				false, streamWriter, recordWriter);
+				false, streamWriter, recordWriter, compressionPolicy);
 
 		Transaction ackTxn = new Transaction(null, false);
 		Transaction noAckTxn = new Transaction(null, false);
@@ -143,8 +166,10 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 			// One message to send
 			oneOf(db).transactionWithNullableResult(with(false),
 					withNullableDbCallable(msgTxn));
+			oneOf(db).getSyncVersions(msgTxn, contactId);
+			will(returnValue(singletonList(PROTOCOL_VERSION)));
 			oneOf(db).generateBatch(msgTxn, contactId,
-					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY);
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY, HIGH);
 			will(returnValue(singletonList(message)));
 			oneOf(recordWriter).writeMessage(message);
 			// No more acks
@@ -155,8 +180,96 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 			// No more messages
 			oneOf(db).transactionWithNullableResult(with(false),
 					withNullableDbCallable(noMsgTxn));
+			oneOf(db).getSyncVersions(noMsgTxn, contactId);
+			will(returnValue(singletonList(PROTOCOL_VERSION)));
+			oneOf(db).generateBatch(noMsgTxn, contactId,
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY, HIGH);
+			will(returnValue(null));
+			oneOf(db).generateBatch(noMsgTxn, contactId,
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY, LOW);
+			will(returnValue(null));
+			// Send the end of stream marker
+			oneOf(streamWriter).sendEndOfStream();
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+	}
+
+	@Test
+	public void testHighPriorityMessageIsSentBeforeBacklog()
+			throws Exception {
+		SimplexOutgoingSession session = new SimplexOutgoingSession(db,
+				dbExecutor, eventBus, contactId, transportId, MAX_LATENCY,
+				false, streamWriter, recordWriter, compressionPolicy);
+
+		// Two low-priority messages are waiting to be sent, and a
+		// high-priority message arrives after the first has been sent
+		Message privateMessage = getMessage(new GroupId(getRandomId()));
+		Transaction noAckTxn = new Transaction(null, false);
+		Transaction lowTxn = new Transaction(null, false);
+		Transaction highTxn = new Transaction(null, false);
+		Transaction lowTxn1 = new Transaction(null, false);
+		Transaction noMsgTxn = new Transaction(null, false);
+		Sequence writes = context.sequence("writes");
+
+		context.checking(new DbExpectations() {{
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// Send the protocol versions
+			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
+			// No acks to send
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noAckTxn));
+			oneOf(db).generateAck(noAckTxn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			// The first low-priority message is sent
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(lowTxn));
+			oneOf(db).getSyncVersions(lowTxn, contactId);
+			will(returnValue(singletonList(PROTOCOL_VERSION)));
+			oneOf(db).generateBatch(lowTxn, contactId,
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY, HIGH);
+			will(returnValue(null));
+			oneOf(db).generateBatch(lowTxn, contactId,
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY, LOW);
+			will(returnValue(singletonList(message)));
+			oneOf(recordWriter).writeMessage(message);
+			inSequence(writes);
+			// The high-priority message is sent next
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(highTxn));
+			oneOf(db).getSyncVersions(highTxn, contactId);
+			will(returnValue(singletonList(PROTOCOL_VERSION)));
+			oneOf(db).generateBatch(highTxn, contactId,
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY, HIGH);
+			will(returnValue(singletonList(privateMessage)));
+			oneOf(recordWriter).writeMessage(privateMessage);
+			inSequence(writes);
+			// Then the rest of the backlog
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(lowTxn1));
+			oneOf(db).getSyncVersions(lowTxn1, contactId);
+			will(returnValue(singletonList(PROTOCOL_VERSION)));
+			oneOf(db).generateBatch(lowTxn1, contactId,
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY, HIGH);
+			will(returnValue(null));
+			oneOf(db).generateBatch(lowTxn1, contactId,
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY, LOW);
+			will(returnValue(singletonList(message1)));
+			oneOf(recordWriter).writeMessage(message1);
+			inSequence(writes);
+			// No more messages
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noMsgTxn));
+			oneOf(db).getSyncVersions(noMsgTxn, contactId);
+			will(returnValue(singletonList(PROTOCOL_VERSION)));
+			oneOf(db).generateBatch(noMsgTxn, contactId,
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY, HIGH);
+			will(returnValue(null));
 			oneOf(db).generateBatch(noMsgTxn, contactId,
-					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY);
+					MAX_RECORD_PAYLOAD_BYTES, MAX_LATENCY, LOW);
 			will(returnValue(null));
 			// Send the end of stream marker
 			oneOf(streamWriter).sendEndOfStream();
@@ -171,7 +284,7 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 	public void testSomethingToSendEagerly() throws Exception {
 		SimplexOutgoingSession session = new SimplexOutgoingSession(db,
 				dbExecutor, eventBus, contactId, transportId, MAX_LATENCY,
-				true, streamWriter, recordWriter);
+				true, streamWriter, recordWriter, compressionPolicy);
 
 		Map<MessageId, Integer> unacked = new LinkedHashMap<>();
 		unacked.put(message.getId(), message.getRawLength());
@@ -201,6 +314,8 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 			will(returnValue(null));
 			// Two messages to send
 			oneOf(db).transactionWithResult(with(true), withDbCallable(idsTxn));
+			oneOf(db).getSyncVersions(idsTxn, contactId);
+			will(returnValue(singletonList(PROTOCOL_VERSION)));
 			oneOf(db).getUnackedMessagesToSend(idsTxn, contactId);
 			will(returnValue(unacked));
 			// Send the first message
@@ -225,4 +340,71 @@ public class SimplexOutgoingSessionTest extends BrambleMockTestCase {
 
 		session.run();
 	}
+
+	@Test
+	public void testOnlyMessagesFromCompressibleClientsAreCompressed()
+			throws Exception {
+		SimplexOutgoingSession session = new SimplexOutgoingSession(db,
+				dbExecutor, eventBus, contactId, transportId, MAX_LATENCY,
+				false, streamWriter, recordWriter, compressionPolicy);
+
+		Transaction noAckTxn = new Transaction(null, false);
+		Transaction msgTxn = new Transaction(null, false);
+		Transaction noMsgTxn = new Transaction(null, false);
+
+		// One message belongs to a client that allows compression
+		Group compressible = getGroup(getClientId(), 123);
+		Group incompressible = getGroup(getClientId(), 123);
+		compressionRegistry.registerCompressibleClient(
+				compressible.getClientId());
+		Message message2 = getMessage(compressible.getId(),
+				MAX_MESSAGE_BODY_LENGTH);
+		Message message3 = getMessage(incompressible.getId(),
+				MAX_MESSAGE_BODY_LENGTH);
+
+		context.checking(new DbExpectations() {{
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// Send the protocol versions
+			oneOf(recordWriter).writeVersions(with(any(Versions.class)));
+			// No acks to send
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noAckTxn));
+			oneOf(db).generateAck(noAckTxn, contactId, MAX_MESSAGE_IDS);
+			will(returnValue(null));
+			// Two messages to send, one of which can be compressed
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(msgTxn));
+			oneOf(db).getSyncVersions(msgTxn, contactId);
+			will(returnValue(asList(PROTOCOL_VERSION,
+					COMPRESSED_BATCH_VERSION)));
+			oneOf(db).generateBatch(msgTxn, contactId,
+					MAX_COMPRESSED_BATCH_LENGTH, MAX_LATENCY, HIGH);
+			will(returnValue(asList(message2, message3)));
+			oneOf(db).getGroup(msgTxn, compressible.getId());
+			will(returnValue(compressible));
+			oneOf(db).getGroup(msgTxn, incompressible.getId());
+			will(returnValue(incompressible));
+			oneOf(recordWriter).writeBatch(asList(message2, message3),
+					singleton(compressible.getId()));
+			// No more messages
+			oneOf(db).transactionWithNullableResult(with(false),
+					withNullableDbCallable(noMsgTxn));
+			oneOf(db).getSyncVersions(noMsgTxn, contactId);
+			will(returnValue(asList(PROTOCOL_VERSION,
+					COMPRESSED_BATCH_VERSION)));
+			oneOf(db).generateBatch(noMsgTxn, contactId,
+					MAX_COMPRESSED_BATCH_LENGTH, MAX_LATENCY, HIGH);
+			will(returnValue(null));
+			oneOf(db).generateBatch(noMsgTxn, contactId,
+					MAX_COMPRESSED_BATCH_LENGTH, MAX_LATENCY, LOW);
+			will(returnValue(null));
+			// Send the end of stream marker
+			oneOf(streamWriter).sendEndOfStream();
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+	}
 }
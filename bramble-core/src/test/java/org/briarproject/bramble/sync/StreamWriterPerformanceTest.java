@@ -0,0 +1,116 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.BrambleCoreIntegrationTestEagerSingletons;
+import org.briarproject.bramble.api.transport.StreamContext;
+import org.briarproject.bramble.api.transport.StreamWriter;
+import org.briarproject.bramble.api.transport.StreamWriterFactory;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.inject.Inject;
+
+import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getMean;
+import static org.briarproject.bramble.test.TestUtils.getMedian;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getSecretKey;
+import static org.briarproject.bramble.test.TestUtils.getStandardDeviation;
+import static org.briarproject.bramble.test.TestUtils.getTransportId;
+
+/**
+ * Compares the throughput of the unpipelined and pipelined stream writers.
+ * The output stream simulates a transport that blocks for a fixed time per
+ * byte.
+ */
+@Ignore
+public class StreamWriterPerformanceTest extends BrambleTestCase {
+
+	private static final int BYTES_PER_STREAM = 32 * 1024 * 1024;
+	private static final int CHUNK_LENGTH = 1024;
+	private static final int WARMUP_STREAMS = 3, STREAMS = 10;
+	// Roughly the cost of writing to a fast local network or a USB drive
+	private static final long NANOS_PER_KB = 10_000;
+	private static final long MIN_SLEEP_NANOS = 200_000;
+
+	@Inject
+	StreamWriterFactory streamWriterFactory;
+
+	public StreamWriterPerformanceTest() {
+		SyncIntegrationTestComponent component =
+				DaggerSyncIntegrationTestComponent.builder().build();
+		BrambleCoreIntegrationTestEagerSingletons.Helper
+				.injectEagerSingletons(component);
+		component.inject(this);
+	}
+
+	@Test
+	public void testUnpipelinedWriter() throws Exception {
+		testWriter("Unpipelined", false);
+	}
+
+	@Test
+	public void testPipelinedWriter() throws Exception {
+		testWriter("Pipelined", true);
+	}
+
+	private void testWriter(String name, boolean pipelined)
+			throws IOException {
+		byte[] chunk = getRandomBytes(CHUNK_LENGTH);
+		List<Double> throughputs = new ArrayList<>();
+		for (int i = 0; i < WARMUP_STREAMS + STREAMS; i++) {
+			StreamContext ctx = new StreamContext(getContactId(), null,
+					getTransportId(), getSecretKey(), getSecretKey(), i,
+					false);
+			OutputStream out = new SlowOutputStream();
+			StreamWriter w = pipelined
+					? streamWriterFactory.createPipelinedStreamWriter(out, ctx)
+					: streamWriterFactory.createStreamWriter(out, ctx);
+			OutputStream streamWriter = w.getOutputStream();
+			long start = System.nanoTime();
+			for (int j = 0; j < BYTES_PER_STREAM / CHUNK_LENGTH; j++)
+				streamWriter.write(chunk);
+			w.sendEndOfStream();
+			long duration = System.nanoTime() - start;
+			if (i >= WARMUP_STREAMS) {
+				// Megabytes per second
+				throughputs.add(BYTES_PER_STREAM * 1000.0 / duration);
+			}
+		}
+		System.out.println(String.format(
+				"%s\t%,.1f MB/s mean\t%,.1f MB/s median\t%,.1f MB/s std dev",
+				name, getMean(throughputs), getMedian(throughputs),
+				getStandardDeviation(throughputs)));
+	}
+
+	/**
+	 * Simulates a transport that blocks while writing. The time spent
+	 * blocking is accumulated and paid in chunks, as very short sleeps are
+	 * inaccurate.
+	 */
+	private static class SlowOutputStream extends OutputStream {
+
+		private long owedNanos = 0;
+
+		@Override
+		public void write(int b) {
+			write(new byte[1], 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			owedNanos += len * NANOS_PER_KB / 1024;
+			if (owedNanos >= MIN_SLEEP_NANOS) {
+				long start = System.nanoTime();
+				LockSupport.parkNanos(owedNanos);
+				owedNanos -= System.nanoTime() - start;
+			}
+		}
+	}
+}
@@ -9,6 +9,7 @@ import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupFactory;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
@@ -28,16 +29,21 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import javax.inject.Inject;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_GROUP_DESCRIPTOR_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_BODY_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
 import static org.briarproject.bramble.test.TestUtils.getClientId;
 import static org.briarproject.bramble.test.TestUtils.getContactId;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getSecretKey;
 import static org.briarproject.bramble.test.TestUtils.getTransportId;
 import static org.junit.Assert.assertArrayEquals;
@@ -66,6 +72,7 @@ public class SyncIntegrationTest extends BrambleTestCase {
 	private final TransportId transportId;
 	private final SecretKey tagKey, headerKey;
 	private final long streamNumber;
+	private final GroupId groupId;
 	private final Message message, message1;
 	private final Collection<MessageId> messageIds;
 
@@ -92,17 +99,32 @@ public class SyncIntegrationTest extends BrambleTestCase {
 		// Add two messages to the group
 		long timestamp = System.currentTimeMillis();
 		byte[] body = "Hello world".getBytes("UTF-8");
-		message = messageFactory.createMessage(group.getId(), timestamp, body);
-		message1 = messageFactory.createMessage(group.getId(), timestamp, body);
-		messageIds = Arrays.asList(message.getId(), message1.getId());
+		groupId = group.getId();
+		message = messageFactory.createMessage(groupId, timestamp, body);
+		message1 = messageFactory.createMessage(groupId, timestamp, body);
+		messageIds = asList(message.getId(), message1.getId());
 	}
 
 	@Test
 	public void testWriteAndRead() throws Exception {
-		read(write());
+		read(write(false));
 	}
 
-	private byte[] write() throws Exception {
+	@Test
+	public void testPipelinedWriteAndRead() throws Exception {
+		read(write(true));
+	}
+
+	@Test
+	public void testIncompressibleBatchIsSplitBetweenRecords()
+			throws Exception {
+		List<Message> batch = new ArrayList<>();
+		long timestamp = System.currentTimeMillis();
+		for (int i = 0; i < 6; i++) {
+			byte[] body = getRandomBytes(MAX_MESSAGE_BODY_LENGTH);
+			batch.add(messageFactory.createMessage(groupId, timestamp, body));
+		}
+
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		StreamContext ctx = new StreamContext(contactId, null, transportId,
 				tagKey, headerKey, streamNumber, false);
@@ -110,10 +132,98 @@ public class SyncIntegrationTest extends BrambleTestCase {
 				ctx);
 		SyncRecordWriter recordWriter = recordWriterFactory.createRecordWriter(
 				streamWriter.getOutputStream());
+		recordWriter.writeBatch(batch, singletonList(groupId));
+		streamWriter.sendEndOfStream();
+
+		InputStream in = new ByteArrayInputStream(out.toByteArray());
+		byte[] tag = new byte[TAG_LENGTH];
+		assertEquals(TAG_LENGTH, in.read(tag, 0, TAG_LENGTH));
+		InputStream streamReader = streamReaderFactory.createStreamReader(in,
+				ctx);
+		SyncRecordReader recordReader = recordReaderFactory.createRecordReader(
+				streamReader);
+		List<Message> received = new ArrayList<>();
+		int records = 0;
+		while (!recordReader.eof()) {
+			if (recordReader.hasCompressedBatch())
+				received.addAll(recordReader.readCompressedBatch());
+			else received.add(recordReader.readMessage());
+			records++;
+		}
+		assertTrue(records > 1);
+		assertEquals(batch.size(), received.size());
+		for (int i = 0; i < batch.size(); i++)
+			checkMessageEquality(batch.get(i), received.get(i));
+	}
+
+	@Test
+	public void testEachCompressedBatchContainsMessagesFromOneGroup()
+			throws Exception {
+		// Two groups whose messages can be compressed, and one whose can't
+		GroupId groupId1 = createGroupId(), groupId2 = createGroupId();
+		long timestamp = System.currentTimeMillis();
+		byte[] body = "Hello world".getBytes("UTF-8");
+		Message message2 = messageFactory.createMessage(groupId1, timestamp,
+				body);
+		Message message3 = messageFactory.createMessage(groupId2, timestamp,
+				body);
+		List<Message> batch = asList(message, message2, message1, message3);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamContext ctx = new StreamContext(contactId, null, transportId,
+				tagKey, headerKey, streamNumber, false);
+		StreamWriter streamWriter = streamWriterFactory.createStreamWriter(out,
+				ctx);
+		SyncRecordWriter recordWriter = recordWriterFactory.createRecordWriter(
+				streamWriter.getOutputStream());
+		recordWriter.writeBatch(batch, asList(groupId, groupId1));
+		streamWriter.sendEndOfStream();
+
+		InputStream in = new ByteArrayInputStream(out.toByteArray());
+		byte[] tag = new byte[TAG_LENGTH];
+		assertEquals(TAG_LENGTH, in.read(tag, 0, TAG_LENGTH));
+		InputStream streamReader = streamReaderFactory.createStreamReader(in,
+				ctx);
+		SyncRecordReader recordReader = recordReaderFactory.createRecordReader(
+				streamReader);
+
+		// The message from the third group is sent uncompressed
+		assertTrue(recordReader.hasMessage());
+		checkMessageEquality(message3, recordReader.readMessage());
+		// Each compressed batch contains the messages from one group
+		assertTrue(recordReader.hasCompressedBatch());
+		List<Message> received = recordReader.readCompressedBatch();
+		assertEquals(2, received.size());
+		checkMessageEquality(message, received.get(0));
+		checkMessageEquality(message1, received.get(1));
+		assertTrue(recordReader.hasCompressedBatch());
+		received = recordReader.readCompressedBatch();
+		assertEquals(1, received.size());
+		checkMessageEquality(message2, received.get(0));
+		assertTrue(recordReader.eof());
+	}
+
+	private GroupId createGroupId() {
+		byte[] descriptor = getRandomBytes(MAX_GROUP_DESCRIPTOR_LENGTH);
+		return groupFactory.createGroup(getClientId(), 123, descriptor)
+				.getId();
+	}
+
+	private byte[] write(boolean pipelined) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamContext ctx = new StreamContext(contactId, null, transportId,
+				tagKey, headerKey, streamNumber, false);
+		StreamWriter streamWriter = pipelined
+				? streamWriterFactory.createPipelinedStreamWriter(out, ctx)
+				: streamWriterFactory.createStreamWriter(out, ctx);
+		SyncRecordWriter recordWriter = recordWriterFactory.createRecordWriter(
+				streamWriter.getOutputStream());
 
 		recordWriter.writeAck(new Ack(messageIds));
 		recordWriter.writeMessage(message);
 		recordWriter.writeMessage(message1);
+		recordWriter.writeBatch(asList(message, message1),
+				singletonList(groupId));
 		recordWriter.writeOffer(new Offer(messageIds));
 		recordWriter.writeRequest(new Request(messageIds));
 
@@ -155,6 +265,13 @@ public class SyncIntegrationTest extends BrambleTestCase {
 		checkMessageEquality(message1, m);
 		assertFalse(recordReader.hasMessage());
 
+		// Read the compressed batch
+		assertTrue(recordReader.hasCompressedBatch());
+		List<Message> batch = recordReader.readCompressedBatch();
+		assertEquals(2, batch.size());
+		checkMessageEquality(message, batch.get(0));
+		checkMessageEquality(message1, batch.get(1));
+
 		// Read the offer
 		assertTrue(recordReader.hasOffer());
 		Offer o = recordReader.readOffer();
@@ -10,6 +10,7 @@ import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.Priority;
 import org.briarproject.bramble.api.sync.Request;
+import org.briarproject.bramble.api.sync.Sketch;
 import org.briarproject.bramble.api.sync.SyncRecordReader;
 import org.briarproject.bramble.api.sync.Versions;
 import org.briarproject.bramble.test.BrambleMockTestCase;
@@ -19,19 +20,24 @@ import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.util.List;
+import java.util.zip.Deflater;
 
 import javax.annotation.Nullable;
 
 import static org.briarproject.bramble.api.record.Record.MAX_RECORD_PAYLOAD_BYTES;
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
+import static org.briarproject.bramble.api.sync.RecordTypes.COMPRESSED_BATCH;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.PRIORITY;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
+import static org.briarproject.bramble.api.sync.RecordTypes.SKETCH;
 import static org.briarproject.bramble.api.sync.RecordTypes.VERSIONS;
+import static org.briarproject.bramble.api.sync.SyncConstants.MAX_COMPRESSED_BATCH_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_SUPPORTED_VERSIONS;
 import static org.briarproject.bramble.api.sync.SyncConstants.PRIORITY_NONCE_BYTES;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
+import static org.briarproject.bramble.api.sync.SyncConstants.SKETCH_TABLE_LENGTH;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.junit.Assert.assertEquals;
@@ -48,7 +54,8 @@ public class SyncRecordReaderImplTest extends BrambleMockTestCase {
 
 	@Before
 	public void setUp() {
-		reader = new SyncRecordReaderImpl(messageFactory, recordReader);
+		reader = new SyncRecordReaderImpl(messageFactory, recordReader,
+				new CompressionMetricsImpl(), null);
 	}
 
 	@Test
@@ -148,13 +155,75 @@ public class SyncRecordReaderImplTest extends BrambleMockTestCase {
 		assertEquals(PRIORITY_NONCE_BYTES, priority.getNonce().length);
 	}
 
+	@Test
+	public void testNoFormatExceptionIfSketchIsCorrectSize()
+			throws Exception {
+		expectReadRecord(createSketch(SKETCH_TABLE_LENGTH));
+
+		assertTrue(reader.hasSketch());
+		Sketch sketch = reader.readSketch();
+		assertEquals(SKETCH_TABLE_LENGTH, sketch.getTable().length);
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfSketchIsTooSmall() throws Exception {
+		expectReadRecord(createSketch(SKETCH_TABLE_LENGTH - 1));
+
+		reader.readSketch();
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfSketchIsTooLarge() throws Exception {
+		expectReadRecord(createSketch(SKETCH_TABLE_LENGTH + 1));
+
+		reader.readSketch();
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfCompressedBatchIsNotCompressed()
+			throws Exception {
+		byte[] payload = new byte[100];
+		for (int i = 0; i < payload.length; i++) payload[i] = (byte) 0xFF;
+		expectReadRecord(new Record(PROTOCOL_VERSION, COMPRESSED_BATCH,
+				payload));
+
+		reader.readCompressedBatch();
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfCompressedBatchIsEmpty()
+			throws Exception {
+		expectReadRecord(createCompressedBatch(0));
+
+		reader.readCompressedBatch();
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfCompressedBatchIsTooLarge()
+			throws Exception {
+		expectReadRecord(
+				createCompressedBatch(MAX_COMPRESSED_BATCH_LENGTH + 1));
+
+		reader.readCompressedBatch();
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfCompressedBatchIsTruncated()
+			throws Exception {
+		// A message length with no message following it
+		expectReadRecord(createCompressedBatch(2));
+
+		reader.readCompressedBatch();
+	}
+
 	@Test
 	public void testEofReturnsTrueWhenAtEndOfStream() throws Exception {
 		expectReadRecord(createAck());
 		expectReadRecord(null);
 
 		SyncRecordReader reader =
-				new SyncRecordReaderImpl(messageFactory, recordReader);
+				new SyncRecordReaderImpl(messageFactory, recordReader,
+						new CompressionMetricsImpl(), null);
 		assertFalse(reader.eof());
 		assertTrue(reader.hasAck());
 		Ack ack = reader.readAck();
@@ -207,6 +276,24 @@ public class SyncRecordReaderImplTest extends BrambleMockTestCase {
 		return new Record(PROTOCOL_VERSION, PRIORITY, payload);
 	}
 
+	private Record createSketch(int tableBytes) {
+		byte[] payload = getRandomBytes(UniqueId.LENGTH + tableBytes);
+		return new Record(PROTOCOL_VERSION, SKETCH, payload);
+	}
+
+	private Record createCompressedBatch(int uncompressedLength) {
+		Deflater deflater = new Deflater();
+		deflater.setInput(new byte[uncompressedLength]);
+		deflater.finish();
+		byte[] buf = new byte[MAX_RECORD_PAYLOAD_BYTES];
+		int length = deflater.deflate(buf);
+		assertTrue(deflater.finished());
+		deflater.end();
+		byte[] payload = new byte[length];
+		System.arraycopy(buf, 0, payload, 0, length);
+		return new Record(PROTOCOL_VERSION, COMPRESSED_BATCH, payload);
+	}
+
 	private byte[] createPayload() throws Exception {
 		ByteArrayOutputStream payload = new ByteArrayOutputStream();
 		while (payload.size() + UniqueId.LENGTH <= MAX_RECORD_PAYLOAD_BYTES) {
@@ -0,0 +1,120 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.crypto.StreamEncrypter;
+import org.briarproject.bramble.api.transport.StreamWriter;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.transport.PipelinedStreamWriterImpl.FrameBuffer;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.MAX_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PipelinedStreamWriterImplTest extends BrambleTestCase {
+
+	private final byte[] tag = getRandomBytes(TAG_LENGTH);
+
+	@Test
+	public void testOutputMatchesUnpipelinedWriter() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			testOutputMatchesUnpipelinedWriter(executor);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testCallingThreadEncryptsFramesIfExecutorDiscardsThem()
+			throws Exception {
+		testOutputMatchesUnpipelinedWriter(r -> {
+		});
+	}
+
+	@Test
+	public void testFlushWithoutWritingMatchesUnpipelinedWriter()
+			throws Exception {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		new StreamWriterImpl(new TestStreamEncrypter(expected, tag)).flush();
+
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		FrameBuffer frameBuffer = new FrameBuffer();
+		new PipelinedStreamWriterImpl(actual, frameBuffer,
+				new TestStreamEncrypter(frameBuffer, tag), Runnable::run)
+				.flush();
+
+		assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+	}
+
+	@Test
+	public void testEncryptionExceptionIsThrownToCallingThread() {
+		StreamEncrypter encrypter = new StreamEncrypter() {
+			@Override
+			public void writeFrame(byte[] payload, int payloadLength,
+					int paddingLength, boolean finalFrame) throws IOException {
+				throw new IOException();
+			}
+
+			@Override
+			public void flush() {
+			}
+		};
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PipelinedStreamWriterImpl w = new PipelinedStreamWriterImpl(out,
+				new FrameBuffer(), encrypter, r -> {
+		});
+		try {
+			w.flush();
+			fail();
+		} catch (IOException expected) {
+			// Expected
+		}
+		assertEquals(0, out.size());
+	}
+
+	private void testOutputMatchesUnpipelinedWriter(Executor executor)
+			throws Exception {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		StreamWriter unpipelined = new StreamWriterImpl(
+				new TestStreamEncrypter(expected, tag));
+
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		FrameBuffer frameBuffer = new FrameBuffer();
+		StreamWriter pipelined = new PipelinedStreamWriterImpl(actual,
+				frameBuffer, new TestStreamEncrypter(frameBuffer, tag),
+				executor);
+
+		// Write the same data to both writers, with occasional flushes
+		Random random = new Random();
+		for (int i = 0; i < 100; i++) {
+			byte[] b = getRandomBytes(random.nextInt(MAX_PAYLOAD_LENGTH * 3));
+			write(unpipelined.getOutputStream(), b);
+			write(pipelined.getOutputStream(), b);
+			if (random.nextInt(10) == 0) {
+				unpipelined.getOutputStream().flush();
+				pipelined.getOutputStream().flush();
+			}
+		}
+		unpipelined.sendEndOfStream();
+		pipelined.sendEndOfStream();
+
+		assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+	}
+
+	private void write(OutputStream out, byte[] b) throws IOException {
+		// Mix single-byte and multi-byte writes
+		if (b.length > 0) out.write(b[0]);
+		if (b.length > 1) out.write(b, 1, b.length - 1);
+	}
+}
@@ -0,0 +1,54 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.transport.ReorderingWindow.Change;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
+import static org.briarproject.bramble.test.TestUtils.getMean;
+import static org.briarproject.bramble.test.TestUtils.getMedian;
+import static org.briarproject.bramble.test.TestUtils.getStandardDeviation;
+
+/**
+ * Measures how quickly the reordering window accepts incoming streams that
+ * arrive slightly out of order.
+ */
+@Ignore
+public class ReorderingWindowPerformanceTest extends BrambleTestCase {
+
+	private static final int STREAMS_PER_BLOCK = 1_000_000;
+	private static final int WARMUP_BLOCKS = 5, BLOCKS = 20;
+
+	@Test
+	public void testStreamAcceptance() {
+		Random random = new Random();
+		List<Double> durations = new ArrayList<>();
+		for (int block = 0; block < WARMUP_BLOCKS + BLOCKS; block++) {
+			ReorderingWindow window = new ReorderingWindow(0L,
+					new byte[REORDERING_WINDOW_SIZE / 8]);
+			long checksum = 0;
+			long start = System.nanoTime();
+			for (int i = 0; i < STREAMS_PER_BLOCK; i++) {
+				// Accept one of the lowest unseen streams
+				long[] unseen = window.getUnseen();
+				long index = unseen[random.nextInt(4)];
+				Change change = window.setSeen(index);
+				checksum += change.getAdded().length
+						+ change.getRemoved().length;
+			}
+			long duration = System.nanoTime() - start;
+			if (checksum == 0) throw new AssertionError();
+			if (block >= WARMUP_BLOCKS)
+				durations.add((double) duration / STREAMS_PER_BLOCK);
+		}
+		System.out.println(String.format(
+				"Stream acceptance\t%,.1f ns mean\t%,.1f ns median"
+						+ "\t%,.1f ns std dev", getMean(durations),
+				getMedian(durations), getStandardDeviation(durations)));
+	}
+}
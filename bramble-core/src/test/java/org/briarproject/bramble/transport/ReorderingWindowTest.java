@@ -5,8 +5,9 @@ import org.briarproject.bramble.test.TestUtils;
 import org.briarproject.bramble.transport.ReorderingWindow.Change;
 import org.junit.Test;
 
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
 import static org.junit.Assert.assertArrayEquals;
@@ -33,9 +34,9 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(0L);
 		// The window should slide by one element
 		assertEquals(1L, window.getBase());
-		assertEquals(Collections.singletonList((long) REORDERING_WINDOW_SIZE),
+		assertArrayEquals(new long[] {REORDERING_WINDOW_SIZE},
 				change.getAdded());
-		assertEquals(Collections.singletonList(0L), change.getRemoved());
+		assertArrayEquals(new long[] {0L}, change.getRemoved());
 		// All elements in the window should be unseen
 		assertArrayEquals(bitmap, window.getBitmap());
 	}
@@ -48,8 +49,8 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(1L);
 		// The window should not slide
 		assertEquals(0L, window.getBase());
-		assertEquals(Collections.emptyList(), change.getAdded());
-		assertEquals(Collections.singletonList(1L), change.getRemoved());
+		assertArrayEquals(new long[0], change.getAdded());
+		assertArrayEquals(new long[] {1L}, change.getRemoved());
 		// The second element in the window should be seen
 		bitmap[0] = 0x40; // 0100 0000
 		assertArrayEquals(bitmap, window.getBitmap());
@@ -64,9 +65,10 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(aboveMidpoint);
 		// The window should slide by one element
 		assertEquals(1L, window.getBase());
-		assertEquals(Collections.singletonList((long) REORDERING_WINDOW_SIZE),
+		assertArrayEquals(new long[] {REORDERING_WINDOW_SIZE},
 				change.getAdded());
-		assertEquals(Arrays.asList(0L, aboveMidpoint), change.getRemoved());
+		assertArrayEquals(new long[] {0L, aboveMidpoint},
+				change.getRemoved());
 		// The highest element below the midpoint should be seen
 		bitmap[bitmap.length / 2 - 1] = (byte) 0x01; // 0000 0001
 		assertArrayEquals(bitmap, window.getBitmap());
@@ -81,9 +83,9 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(0L);
 		// The window should slide by two elements
 		assertEquals(2L, window.getBase());
-		assertEquals(Arrays.asList((long) REORDERING_WINDOW_SIZE,
-				(long) (REORDERING_WINDOW_SIZE + 1)), change.getAdded());
-		assertEquals(Collections.singletonList(0L), change.getRemoved());
+		assertArrayEquals(new long[] {REORDERING_WINDOW_SIZE,
+				REORDERING_WINDOW_SIZE + 1}, change.getAdded());
+		assertArrayEquals(new long[] {0L}, change.getRemoved());
 		// All elements in the window should be unseen
 		assertArrayEquals(bitmap, window.getBitmap());
 	}
@@ -98,11 +100,112 @@ public class ReorderingWindowTest extends BrambleTestCase {
 		Change change = window.setSeen(aboveMidpoint);
 		// The window should slide by two elements
 		assertEquals(2L, window.getBase());
-		assertEquals(Arrays.asList((long) REORDERING_WINDOW_SIZE,
-				(long) (REORDERING_WINDOW_SIZE + 1)), change.getAdded());
-		assertEquals(Arrays.asList(0L, aboveMidpoint), change.getRemoved());
+		assertArrayEquals(new long[] {REORDERING_WINDOW_SIZE,
+				REORDERING_WINDOW_SIZE + 1}, change.getAdded());
+		assertArrayEquals(new long[] {0L, aboveMidpoint},
+				change.getRemoved());
 		// The second-highest element below the midpoint should be seen
 		bitmap[bitmap.length / 2 - 1] = (byte) 0x02; // 0000 0010
 		assertArrayEquals(bitmap, window.getBitmap());
 	}
+
+	@Test
+	public void testUnseenElements() {
+		byte[] bitmap = new byte[BITMAP_BYTES];
+		bitmap[0] = (byte) 0xA0; // 1010 0000
+		ReorderingWindow window = new ReorderingWindow(10L, bitmap);
+		long[] unseen = window.getUnseen();
+		assertEquals(REORDERING_WINDOW_SIZE - 2, unseen.length);
+		assertEquals(11L, unseen[0]);
+		assertEquals(13L, unseen[1]);
+		assertEquals(10L + REORDERING_WINDOW_SIZE - 1,
+				unseen[unseen.length - 1]);
+	}
+
+	@Test
+	public void testWindowMatchesReferenceImplementation() {
+		Random random = new Random();
+		// Use window sizes that cover partial words and several words
+		for (int bytes : new int[] {BITMAP_BYTES, 1, 9, 64}) {
+			for (int i = 0; i < 100; i++) {
+				byte[] bitmap = new byte[bytes];
+				ReorderingWindow window = new ReorderingWindow(0L, bitmap);
+				ReferenceWindow reference = new ReferenceWindow(bitmap);
+				for (int j = 0; j < 200; j++) {
+					long[] unseen = window.getUnseen();
+					assertArrayEquals(reference.getUnseen(), unseen);
+					// Favour the lower half of the window, as streams
+					// usually arrive roughly in order
+					int pick = random.nextInt(unseen.length);
+					if (random.nextBoolean()) pick /= 2;
+					long index = unseen[pick];
+					Change change = window.setSeen(index);
+					long[][] expected = reference.setSeen(index);
+					assertArrayEquals(expected[0], change.getAdded());
+					assertArrayEquals(expected[1], change.getRemoved());
+					assertEquals(reference.base, window.getBase());
+					assertArrayEquals(reference.getBitmap(),
+							window.getBitmap());
+				}
+			}
+		}
+	}
+
+	/**
+	 * The original implementation of the window, using an array of
+	 * booleans.
+	 */
+	private static class ReferenceWindow {
+
+		private final boolean[] seen;
+		private long base = 0;
+
+		private ReferenceWindow(byte[] bitmap) {
+			seen = new boolean[bitmap.length * 8];
+		}
+
+		private long[] getUnseen() {
+			List<Long> unseen = new ArrayList<>();
+			for (int i = 0; i < seen.length; i++)
+				if (!seen[i]) unseen.add(base + i);
+			return toArray(unseen);
+		}
+
+		private byte[] getBitmap() {
+			byte[] bitmap = new byte[seen.length / 8];
+			for (int i = 0; i < bitmap.length; i++) {
+				for (int j = 0; j < 8; j++) {
+					if (seen[i * 8 + j]) bitmap[i] |= 128 >> j;
+				}
+			}
+			return bitmap;
+		}
+
+		private long[][] setSeen(long index) {
+			int offset = (int) (index - base);
+			seen[offset] = true;
+			int slide = Math.max(0, offset + 1 - seen.length / 2);
+			while (slide < seen.length && seen[slide]) slide++;
+			List<Long> added = new ArrayList<>(), removed = new ArrayList<>();
+			for (int i = 0; i < slide; i++) {
+				if (!seen[i]) removed.add(base + i);
+				added.add(base + seen.length + i);
+			}
+			removed.add(index);
+			base += slide;
+			for (int i = 0; i + slide < seen.length; i++)
+				seen[i] = seen[i + slide];
+			for (int i = Math.max(0, seen.length - slide); i < seen.length;
+					i++) {
+				seen[i] = false;
+			}
+			return new long[][] {toArray(added), toArray(removed)};
+		}
+
+		private long[] toArray(List<Long> list) {
+			long[] array = new long[list.size()];
+			for (int i = 0; i < array.length; i++) array[i] = list.get(i);
+			return array;
+		}
+	}
 }
@@ -0,0 +1,115 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TagTableTest extends BrambleTestCase {
+
+	private final TagTable<Integer> table = new TagTable<>();
+
+	@Test
+	public void testPutGetAndRemove() {
+		byte[] tag = getRandomBytes(TAG_LENGTH);
+		assertNull(table.get(tag));
+		assertNull(table.put(tag, 1));
+		assertEquals(Integer.valueOf(1), table.get(tag));
+		// A copy of the tag should find the same value
+		assertEquals(Integer.valueOf(1), table.get(tag.clone()));
+		assertEquals(Integer.valueOf(1), table.put(tag, 2));
+		assertEquals(1, table.size());
+		assertEquals(Integer.valueOf(2), table.remove(tag));
+		assertNull(table.get(tag));
+		assertNull(table.remove(tag));
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testTagsOfWrongLengthAreNotFound() {
+		byte[] tag = getRandomBytes(TAG_LENGTH);
+		table.put(tag, 1);
+		byte[] longer = new byte[TAG_LENGTH + 1];
+		System.arraycopy(tag, 0, longer, 0, TAG_LENGTH);
+		assertNull(table.get(longer));
+		assertNull(table.remove(longer));
+	}
+
+	@Test
+	public void testTableGrowsAndShrinks() {
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			byte[] tag = getRandomBytes(TAG_LENGTH);
+			tags.add(tag);
+			table.put(tag, i);
+		}
+		assertEquals(1000, table.size());
+		for (int i = 0; i < 1000; i++)
+			assertEquals(Integer.valueOf(i), table.get(tags.get(i)));
+
+		// Remove the tags with odd values
+		table.removeValues(value -> value % 2 == 1);
+		assertEquals(500, table.size());
+		for (int i = 0; i < 1000; i++) {
+			if (i % 2 == 1) assertNull(table.get(tags.get(i)));
+			else assertEquals(Integer.valueOf(i), table.get(tags.get(i)));
+		}
+
+		table.clear();
+		assertEquals(0, table.size());
+		assertNull(table.get(tags.get(0)));
+	}
+
+	@Test
+	public void testRemovingCollidingTagsLeavesOthersReachable() {
+		// Create tags that all have the same home slot
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			byte[] tag = getRandomBytes(TAG_LENGTH);
+			tag[0] = tag[1] = tag[2] = tag[3] = 0;
+			tags.add(tag);
+			table.put(tag, i);
+		}
+		// Remove the tags one at a time, starting in the middle of the run
+		int[] order = {2, 0, 5, 3, 1, 4};
+		for (int j = 0; j < order.length; j++) {
+			int removed = order[j];
+			assertEquals(Integer.valueOf(removed),
+					table.remove(tags.get(removed)));
+			for (int k = j + 1; k < order.length; k++) {
+				int remaining = order[k];
+				assertEquals(Integer.valueOf(remaining),
+						table.get(tags.get(remaining)));
+			}
+		}
+		assertEquals(0, table.size());
+	}
+
+	@Test
+	public void testRemovingTagsThatWrapAroundTheTable() {
+		// Create tags that have the last slot as their home slot, so the
+		// run of colliding tags wraps around to the start of the table
+		List<byte[]> tags = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			byte[] tag = getRandomBytes(TAG_LENGTH);
+			tag[0] = tag[1] = tag[2] = tag[3] = (byte) 0xFF;
+			tags.add(tag);
+			table.put(tag, i);
+		}
+		// Add a tag whose home slot is the first slot
+		byte[] first = getRandomBytes(TAG_LENGTH);
+		first[0] = first[1] = first[2] = first[3] = 0;
+		table.put(first, 4);
+
+		assertEquals(Integer.valueOf(0), table.remove(tags.get(0)));
+		assertEquals(Integer.valueOf(4), table.get(first));
+		for (int i = 1; i < 4; i++)
+			assertEquals(Integer.valueOf(i), table.get(tags.get(i)));
+	}
+}
@@ -337,6 +337,11 @@ public class AppModule {
 			public boolean shouldEnableDisappearingMessages() {
 				return true;
 			}
+
+			@Override
+			public boolean shouldStoreMessageBodiesInFiles() {
+				return false;
+			}
 		};
 	}
 }
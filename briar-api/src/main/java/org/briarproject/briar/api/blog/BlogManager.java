@@ -11,6 +11,7 @@ import org.briarproject.bramble.api.sync.MessageId;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -120,6 +121,18 @@ public interface BlogManager {
 	 */
 	String getPostText(Transaction txn, MessageId m) throws DbException;
 
+	/**
+	 * Returns the texts of the blog posts with the given IDs.
+	 */
+	Map<MessageId, String> getPostTexts(Collection<MessageId> m)
+			throws DbException;
+
+	/**
+	 * Returns the texts of the blog posts with the given IDs.
+	 */
+	Map<MessageId, String> getPostTexts(Transaction txn,
+			Collection<MessageId> m) throws DbException;
+
 	/**
 	 * Returns the headers of all posts in the given blog.
 	 */
@@ -131,6 +144,27 @@ public interface BlogManager {
 	List<BlogPostHeader> getPostHeaders(Transaction txn, GroupId g)
 			throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of posts and comments
+	 * from all blogs that come after the given position in the timeline,
+	 * newest first.
+	 * <p/>
+	 * To page through the timeline, pass {@link Long#MAX_VALUE} and null
+	 * for the first page, and the time received and ID of the oldest header
+	 * on the previous page for subsequent pages. Headers received at the
+	 * same time are ordered by ID, so no headers are skipped between pages.
+	 */
+	List<BlogPostHeader> getTimeline(long before, @Nullable MessageId beforeId,
+			int limit) throws DbException;
+
+	/**
+	 * Returns the headers of up to the given number of posts and comments
+	 * from all blogs that come after the given position in the timeline,
+	 * newest first.
+	 */
+	List<BlogPostHeader> getTimeline(Transaction txn, long before,
+			@Nullable MessageId beforeId, int limit) throws DbException;
+
 	/**
 	 * Marks a blog post as read or unread.
 	 */
@@ -8,6 +8,9 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.conversation.ConversationManager;
 
+import java.util.Collection;
+import java.util.Map;
+
 import javax.annotation.Nullable;
 
 @NotNullByDefault
@@ -31,6 +34,12 @@ public interface MessageTracker {
 	 **/
 	GroupCount getGroupCount(Transaction txn, GroupId g) throws DbException;
 
+	/**
+	 * Gets the group counts of the given groups
+	 **/
+	Map<GroupId, GroupCount> getGroupCounts(Transaction txn,
+			Collection<GroupId> g) throws DbException;
+
 	/**
 	 * Updates the group count for the given incoming message.
 	 * <p>
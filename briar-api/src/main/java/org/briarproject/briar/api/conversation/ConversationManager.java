@@ -13,6 +13,7 @@ import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.messaging.MessagingManager;
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 @NotNullByDefault
@@ -48,6 +49,14 @@ public interface ConversationManager {
 	 */
 	GroupCount getGroupCount(Transaction txn, ContactId c) throws DbException;
 
+	/**
+	 * Returns the unified group counts for the private conversations with
+	 * all the given contacts. This is more efficient than calling
+	 * {@link #getGroupCount(Transaction, ContactId)} for each contact.
+	 */
+	Map<ContactId, GroupCount> getGroupCounts(Transaction txn,
+			Collection<Contact> contacts) throws DbException;
+
 	/**
 	 * Updates the group count for the given incoming private conversation message
 	 * and broadcasts a corresponding event.
@@ -12,6 +12,7 @@ import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -96,6 +97,18 @@ public interface ForumManager {
 	 */
 	String getPostText(Transaction txn, MessageId m) throws DbException;
 
+	/**
+	 * Returns the texts of the forum posts with the given IDs.
+	 */
+	Map<MessageId, String> getPostTexts(Collection<MessageId> m)
+			throws DbException;
+
+	/**
+	 * Returns the texts of the forum posts with the given IDs.
+	 */
+	Map<MessageId, String> getPostTexts(Transaction txn,
+			Collection<MessageId> m) throws DbException;
+
 	/**
 	 * Returns the headers of all posts in the given forum.
 	 */
@@ -13,6 +13,8 @@ import org.briarproject.briar.api.conversation.ConversationManager.ConversationC
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -74,6 +76,20 @@ public interface MessagingManager extends ConversationClient {
 	@Nullable
 	String getMessageText(MessageId m) throws DbException;
 
+	/**
+	 * Returns the texts of the private messages with the given IDs. Private
+	 * messages that have no text are not included in the returned map.
+	 */
+	Map<MessageId, String> getMessageTexts(Collection<MessageId> m)
+			throws DbException;
+
+	/**
+	 * Returns the texts of the private messages with the given IDs. Private
+	 * messages that have no text are not included in the returned map.
+	 */
+	Map<MessageId, String> getMessageTexts(Transaction txn,
+			Collection<MessageId> m) throws DbException;
+
 	/**
 	 * Returns the private message format supported by the given contact.
 	 */
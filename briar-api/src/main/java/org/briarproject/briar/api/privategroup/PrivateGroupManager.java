@@ -13,6 +13,7 @@ import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 @NotNullByDefault
 public interface PrivateGroupManager {
@@ -119,6 +120,18 @@ public interface PrivateGroupManager {
 	 */
 	String getMessageText(Transaction txn, MessageId m) throws DbException;
 
+	/**
+	 * Returns the texts of the private group messages with the given IDs.
+	 */
+	Map<MessageId, String> getMessageTexts(Collection<MessageId> m)
+			throws DbException;
+
+	/**
+	 * Returns the texts of the private group messages with the given IDs.
+	 */
+	Map<MessageId, String> getMessageTexts(Transaction txn,
+			Collection<MessageId> m) throws DbException;
+
 	/**
 	 * Returns the headers of all messages in the given private group.
 	 */
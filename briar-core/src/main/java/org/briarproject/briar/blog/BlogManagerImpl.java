@@ -11,6 +11,7 @@ import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorId;
@@ -77,6 +78,7 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 	private final BlogFactory blogFactory;
 	private final BlogPostFactory blogPostFactory;
 	private final List<RemoveBlogHook> removeHooks;
+	private final BlogTimelineIndex timelineIndex = new BlogTimelineIndex();
 
 	@Inject
 	BlogManagerImpl(DatabaseComponent db, IdentityManager identityManager,
@@ -139,6 +141,7 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 			BlogPostAddedEvent event =
 					new BlogPostAddedEvent(groupId, h, false);
 			txn.attach(event);
+			addToTimeline(groupId, h);
 
 			// shares message and its dependencies
 			return ACCEPT_SHARE;
@@ -212,6 +215,7 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 		for (RemoveBlogHook hook : removeHooks)
 			hook.removingBlog(txn, b);
 		db.removeGroup(txn, b.getGroup());
+		timelineIndex.invalidate(b.getId());
 	}
 
 	@Override
@@ -248,6 +252,7 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 			BlogPostAddedEvent event =
 					new BlogPostAddedEvent(groupId, h, local);
 			txn.attach(event);
+			addToTimeline(groupId, h);
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
@@ -290,6 +295,7 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 					message.getId(), meta);
 			BlogPostAddedEvent event = new BlogPostAddedEvent(groupId, h, true);
 			txn.attach(event);
+			addToTimeline(groupId, h);
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -486,6 +492,29 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 		}
 	}
 
+	@Override
+	public Map<MessageId, String> getPostTexts(Collection<MessageId> m)
+			throws DbException {
+		return db.transactionWithResult(true, txn -> getPostTexts(txn, m));
+	}
+
+	@Override
+	public Map<MessageId, String> getPostTexts(Transaction txn,
+			Collection<MessageId> m) throws DbException {
+		try {
+			// The text is within the first four elements of each post
+			Map<MessageId, BdfList> bodies =
+					clientHelper.getMessagesAsLists(txn, m, 4);
+			Map<MessageId, String> texts = new HashMap<>(bodies.size());
+			for (Entry<MessageId, BdfList> e : bodies.entrySet()) {
+				texts.put(e.getKey(), getPostText(e.getValue()));
+			}
+			return texts;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
 	private String getPostText(BdfList message) throws FormatException {
 		MessageType type = MessageType.valueOf(message.getLong(0).intValue());
 		if (type == POST) {
@@ -553,6 +582,114 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 		return headers;
 	}
 
+	@Override
+	public List<BlogPostHeader> getTimeline(long before,
+			@Nullable MessageId beforeId, int limit) throws DbException {
+		return db.transactionWithResult(true, txn ->
+				getTimeline(txn, before, beforeId, limit));
+	}
+
+	@Override
+	public List<BlogPostHeader> getTimeline(Transaction txn, long before,
+			@Nullable MessageId beforeId, int limit) throws DbException {
+		if (limit < 1) throw new IllegalArgumentException();
+		try {
+			// A write transaction may see changes that are later rolled
+			// back, so entries it loads must not be shared
+			BlogTimelineIndex index = txn.isReadOnly() ? timelineIndex :
+					new BlogTimelineIndex();
+			// Load any blogs that haven't been loaded, or that have been
+			// invalidated since they were loaded
+			Collection<GroupId> blogIds = getBlogIds(txn);
+			for (GroupId g : blogIds) {
+				if (!index.isLoaded(g)) {
+					index.load(g, loadTimelineEntries(txn, g));
+				}
+			}
+			// Get the metadata for this page only. If an entry's message
+			// doesn't exist, the entry was added by a transaction that was
+			// aborted, so remove it and get the page again
+			List<BlogTimelineIndex.Entry> page;
+			List<BdfDictionary> metadata;
+			do {
+				page = index.getTimeline(blogIds, before, beforeId, limit);
+				metadata = getTimelineMetadata(txn, index, page);
+			} while (metadata == null);
+			// Get the author information for this page only
+			Map<AuthorId, AuthorInfo> authorInfos = new HashMap<>();
+			for (BdfDictionary meta : metadata) {
+				BdfList authorList = meta.getList(KEY_AUTHOR);
+				Author a = clientHelper.parseAndValidateAuthor(authorList);
+				if (!authorInfos.containsKey(a.getId())) {
+					authorInfos.put(a.getId(),
+							authorManager.getAuthorInfo(txn, a.getId()));
+				}
+			}
+			List<BlogPostHeader> headers = new ArrayList<>(page.size());
+			for (int i = 0; i < page.size(); i++) {
+				BlogTimelineIndex.Entry e = page.get(i);
+				headers.add(getPostHeaderFromMetadata(txn, e.getGroupId(),
+						e.getMessageId(), metadata.get(i), authorInfos));
+			}
+			return headers;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Returns the metadata of the given entries, or null if any of the
+	 * entries' messages doesn't exist, in which case the missing entry is
+	 * removed from the index.
+	 */
+	@Nullable
+	private List<BdfDictionary> getTimelineMetadata(Transaction txn,
+			BlogTimelineIndex index, List<BlogTimelineIndex.Entry> page)
+			throws DbException, FormatException {
+		List<BdfDictionary> metadata = new ArrayList<>(page.size());
+		for (BlogTimelineIndex.Entry e : page) {
+			try {
+				metadata.add(clientHelper.getMessageMetadataAsDictionary(txn,
+						e.getMessageId()));
+			} catch (NoSuchMessageException ex) {
+				index.remove(e);
+				return null;
+			}
+		}
+		return metadata;
+	}
+
+	private void addToTimeline(GroupId g, BlogPostHeader h) {
+		timelineIndex.add(new BlogTimelineIndex.Entry(g, h.getId(),
+				h.getTimeReceived()));
+	}
+
+	private List<BlogTimelineIndex.Entry> loadTimelineEntries(
+			Transaction txn, GroupId g) throws DbException, FormatException {
+		// Query for posts and comments only
+		BdfDictionary query1 = BdfDictionary.of(
+				new BdfEntry(KEY_TYPE, POST.getInt())
+		);
+		BdfDictionary query2 = BdfDictionary.of(
+				new BdfEntry(KEY_TYPE, COMMENT.getInt())
+		);
+		Map<MessageId, BdfDictionary> metadata =
+				new HashMap<>(clientHelper.getMessageMetadataAsDictionary(
+						txn, g, query1));
+		metadata.putAll(
+				clientHelper.getMessageMetadataAsDictionary(txn, g, query2));
+		List<BlogTimelineIndex.Entry> entries =
+				new ArrayList<>(metadata.size());
+		for (Entry<MessageId, BdfDictionary> e : metadata.entrySet()) {
+			BdfDictionary meta = e.getValue();
+			long timestamp = meta.getLong(KEY_TIMESTAMP);
+			long timeReceived = meta.getLong(KEY_TIME_RECEIVED, timestamp);
+			entries.add(new BlogTimelineIndex.Entry(g, e.getKey(),
+					timeReceived));
+		}
+		return entries;
+	}
+
 	@Override
 	public void setReadFlag(MessageId m, boolean read) throws DbException {
 		try {
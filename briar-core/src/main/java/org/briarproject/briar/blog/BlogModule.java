@@ -4,6 +4,8 @@ import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.contact.ContactManager;
 import org.briarproject.bramble.api.data.MetadataEncoder;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.sync.ClientCompressionRegistry;
+import org.briarproject.bramble.api.sync.ClientPriorityRegistry;
 import org.briarproject.bramble.api.sync.GroupFactory;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.validation.ValidationManager;
@@ -18,6 +20,7 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static org.briarproject.bramble.api.sync.ClientPriority.LOW;
 import static org.briarproject.briar.api.blog.BlogManager.CLIENT_ID;
 import static org.briarproject.briar.api.blog.BlogManager.MAJOR_VERSION;
 
@@ -35,11 +38,18 @@ public class BlogModule {
 	@Singleton
 	BlogManager provideBlogManager(BlogManagerImpl blogManager,
 			LifecycleManager lifecycleManager, ContactManager contactManager,
-			ValidationManager validationManager) {
+			ValidationManager validationManager,
+			ClientPriorityRegistry clientPriorityRegistry,
+			ClientCompressionRegistry clientCompressionRegistry) {
 		lifecycleManager.registerOpenDatabaseHook(blogManager);
 		contactManager.registerContactHook(blogManager);
 		validationManager.registerIncomingMessageHook(CLIENT_ID, MAJOR_VERSION,
 				blogManager);
+		// Blog posts, including imported RSS feeds, can be sent after more
+		// urgent messages
+		clientPriorityRegistry.setClientPriority(CLIENT_ID, LOW);
+		// Everyone who can see a blog can read all its posts
+		clientCompressionRegistry.registerCompressibleClient(CLIENT_ID);
 		return blogManager;
 	}
 
@@ -0,0 +1,192 @@
+package org.briarproject.briar.blog;
+
+import org.briarproject.bramble.api.UniqueId;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An in-memory index of the posts and comments in each blog, ordered by
+ * the time they were received. This allows a page of the timeline to be
+ * produced by merging the newest entries of each blog, without loading
+ * the headers of every post in every blog.
+ * <p/>
+ * Each blog's entries are loaded from the database the first time they're
+ * needed. Transactions that add posts {@link #add(Entry) add} them to the
+ * index, and transactions that remove blogs
+ * {@link #invalidate(GroupId) invalidate} them. Adding is safe even if the
+ * transaction is later aborted, as long as the caller
+ * {@link #remove(Entry) removes} any entry whose message turns out not to
+ * exist when the entry is read.
+ */
+@ThreadSafe
+@NotNullByDefault
+class BlogTimelineIndex {
+
+	/**
+	 * Orders entries by time received, newest first, breaking ties by
+	 * message ID.
+	 */
+	private static final Comparator<Entry> NEWEST_FIRST = (a, b) -> {
+		if (a.timeReceived > b.timeReceived) return -1;
+		if (a.timeReceived < b.timeReceived) return 1;
+		return a.messageId.compareTo(b.messageId);
+	};
+
+	/**
+	 * Sorts after any other ID, so an entry with this message ID and a
+	 * given time sorts after all other entries with the same time.
+	 */
+	private static final byte[] LAST_ID = new byte[UniqueId.LENGTH];
+
+	static {
+		Arrays.fill(LAST_ID, (byte) 0xFF);
+	}
+
+	private final Object lock = new Object();
+
+	@GuardedBy("lock")
+	private final Map<GroupId, NavigableSet<Entry>> blogs = new HashMap<>();
+
+	boolean isLoaded(GroupId g) {
+		synchronized (lock) {
+			return blogs.containsKey(g);
+		}
+	}
+
+	/**
+	 * Loads the given blog's entries, if the blog isn't already loaded.
+	 */
+	void load(GroupId g, Collection<Entry> entries) {
+		synchronized (lock) {
+			if (blogs.containsKey(g)) return;
+			NavigableSet<Entry> set = new TreeSet<>(NEWEST_FIRST);
+			set.addAll(entries);
+			blogs.put(g, set);
+		}
+	}
+
+	/**
+	 * Adds the given entry to the index, if its blog is loaded. Otherwise
+	 * the entry will be loaded with the rest of the blog.
+	 */
+	void add(Entry e) {
+		synchronized (lock) {
+			NavigableSet<Entry> set = blogs.get(e.groupId);
+			if (set != null) set.add(e);
+		}
+	}
+
+	/**
+	 * Removes the given entry from the index, if its blog is loaded.
+	 */
+	void remove(Entry e) {
+		synchronized (lock) {
+			NavigableSet<Entry> set = blogs.get(e.groupId);
+			if (set != null) set.remove(e);
+		}
+	}
+
+	/**
+	 * Removes the given blog from the index, so its entries will be
+	 * reloaded from the database the next time they're needed.
+	 */
+	void invalidate(GroupId g) {
+		synchronized (lock) {
+			blogs.remove(g);
+		}
+	}
+
+	/**
+	 * Returns up to the given number of entries from the given blogs that
+	 * come after the given position in the timeline, newest first. All the
+	 * blogs must have been loaded.
+	 * <p/>
+	 * The position is given by the time received and message ID of the
+	 * last entry on the previous page. Entries received at the same time
+	 * are ordered by message ID. If the message ID is null, all entries
+	 * received at the given time are skipped.
+	 */
+	List<Entry> getTimeline(Collection<GroupId> groupIds, long before,
+			@Nullable MessageId beforeId, int limit) {
+		synchronized (lock) {
+			// Merge the blogs, starting with the newest entry of each blog
+			PriorityQueue<Cursor> queue = new PriorityQueue<>(
+					Math.max(1, groupIds.size()),
+					(a, b) -> NEWEST_FIRST.compare(a.head, b.head));
+			Entry start = new Entry(new GroupId(LAST_ID),
+					beforeId == null ? new MessageId(LAST_ID) : beforeId,
+					before);
+			for (GroupId g : groupIds) {
+				NavigableSet<Entry> set = blogs.get(g);
+				if (set == null) throw new IllegalStateException();
+				Iterator<Entry> it = set.tailSet(start, false).iterator();
+				if (it.hasNext()) queue.add(new Cursor(it.next(), it));
+			}
+			List<Entry> page = new ArrayList<>(Math.min(limit, 64));
+			while (page.size() < limit && !queue.isEmpty()) {
+				Cursor c = queue.poll();
+				page.add(c.head);
+				if (c.iterator.hasNext()) {
+					queue.add(new Cursor(c.iterator.next(), c.iterator));
+				}
+			}
+			return page;
+		}
+	}
+
+	@Immutable
+	@NotNullByDefault
+	static class Entry {
+
+		private final GroupId groupId;
+		private final MessageId messageId;
+		private final long timeReceived;
+
+		Entry(GroupId groupId, MessageId messageId, long timeReceived) {
+			this.groupId = groupId;
+			this.messageId = messageId;
+			this.timeReceived = timeReceived;
+		}
+
+		GroupId getGroupId() {
+			return groupId;
+		}
+
+		MessageId getMessageId() {
+			return messageId;
+		}
+
+		long getTimeReceived() {
+			return timeReceived;
+		}
+	}
+
+	private static class Cursor {
+
+		private final Entry head;
+		private final Iterator<Entry> iterator;
+
+		private Cursor(Entry head, Iterator<Entry> iterator) {
+			this.head = head;
+			this.iterator = iterator;
+		}
+	}
+}
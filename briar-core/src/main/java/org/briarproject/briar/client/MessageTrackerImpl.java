@@ -14,6 +14,11 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.briar.api.client.MessageTracker;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
@@ -113,16 +118,36 @@ class MessageTrackerImpl implements MessageTracker {
 			throws DbException {
 		try {
 			BdfDictionary d = clientHelper.getGroupMetadataAsDictionary(txn, g);
-			return new GroupCount(
-					d.getLong(GROUP_KEY_MSG_COUNT, 0L).intValue(),
-					d.getLong(GROUP_KEY_UNREAD_COUNT, 0L).intValue(),
-					d.getLong(GROUP_KEY_LATEST_MSG, 0L)
-			);
+			return parseGroupCount(d);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<GroupId, GroupCount> getGroupCounts(Transaction txn,
+			Collection<GroupId> g) throws DbException {
+		try {
+			Map<GroupId, BdfDictionary> metadata =
+					clientHelper.getGroupMetadataAsDictionary(txn, g);
+			Map<GroupId, GroupCount> counts = new HashMap<>(metadata.size());
+			for (Entry<GroupId, BdfDictionary> e : metadata.entrySet())
+				counts.put(e.getKey(), parseGroupCount(e.getValue()));
+			return counts;
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
 	}
 
+	private GroupCount parseGroupCount(BdfDictionary d)
+			throws FormatException {
+		return new GroupCount(
+				d.getLong(GROUP_KEY_MSG_COUNT, 0L).intValue(),
+				d.getLong(GROUP_KEY_UNREAD_COUNT, 0L).intValue(),
+				d.getLong(GROUP_KEY_LATEST_MSG, 0L)
+		);
+	}
+
 	private void storeGroupCount(Transaction txn, GroupId g, GroupCount c)
 			throws DbException {
 		try {
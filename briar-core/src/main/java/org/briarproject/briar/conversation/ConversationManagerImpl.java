@@ -1,6 +1,7 @@
 package org.briarproject.briar.conversation;
 
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
@@ -20,7 +21,10 @@ import org.briarproject.briar.api.conversation.event.ConversationMessageTrackedE
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -92,6 +96,39 @@ class ConversationManagerImpl implements ConversationManager {
 		return new GroupCount(msgCount, unreadCount, latestTime);
 	}
 
+	@Override
+	public Map<ContactId, GroupCount> getGroupCounts(Transaction txn,
+			Collection<Contact> contacts) throws DbException {
+		// Each client tracks the messages in its contact groups, so the
+		// counts for all the contact groups can be read with one query
+		Map<ContactId, List<GroupId>> contactGroups = new HashMap<>();
+		List<GroupId> groupIds = new ArrayList<>();
+		for (Contact c : contacts) {
+			List<GroupId> ids = new ArrayList<>(clients.size());
+			for (ConversationClient client : clients)
+				ids.add(client.getContactGroup(c).getId());
+			contactGroups.put(c.getId(), ids);
+			groupIds.addAll(ids);
+		}
+		Map<GroupId, GroupCount> groupCounts =
+				messageTracker.getGroupCounts(txn, groupIds);
+		Map<ContactId, GroupCount> counts = new HashMap<>(contacts.size());
+		for (Entry<ContactId, List<GroupId>> e : contactGroups.entrySet()) {
+			int msgCount = 0, unreadCount = 0;
+			long latestTime = 0;
+			for (GroupId g : e.getValue()) {
+				GroupCount count = groupCounts.get(g);
+				msgCount += count.getMsgCount();
+				unreadCount += count.getUnreadCount();
+				if (count.getLatestMsgTime() > latestTime)
+					latestTime = count.getLatestMsgTime();
+			}
+			counts.put(e.getKey(),
+					new GroupCount(msgCount, unreadCount, latestTime));
+		}
+		return counts;
+	}
+
 	@Override
 	public void trackIncomingMessage(Transaction txn, Message m)
 			throws DbException {
@@ -125,7 +162,7 @@ class ConversationManagerImpl implements ConversationManager {
 	@Override
 	public void setReadFlag(GroupId g, MessageId m, boolean read)
 			throws DbException {
-		db.transaction(false, txn -> {
+		db.groupTransaction(txn -> {
 			boolean wasRead = messageTracker.setReadFlag(txn, g, m, read);
 			if (read && !wasRead) db.startCleanupTimer(txn, m);
 		});
@@ -203,6 +203,29 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 		}
 	}
 
+	@Override
+	public Map<MessageId, String> getPostTexts(Collection<MessageId> m)
+			throws DbException {
+		return db.transactionWithResult(true, txn -> getPostTexts(txn, m));
+	}
+
+	@Override
+	public Map<MessageId, String> getPostTexts(Transaction txn,
+			Collection<MessageId> m) throws DbException {
+		try {
+			// The text is the third element of each post
+			Map<MessageId, BdfList> bodies =
+					clientHelper.getMessagesAsLists(txn, m, 3);
+			Map<MessageId, String> texts = new HashMap<>(bodies.size());
+			for (Entry<MessageId, BdfList> e : bodies.entrySet()) {
+				texts.put(e.getKey(), getPostText(e.getValue()));
+			}
+			return texts;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
 	private String getPostText(BdfList body) throws FormatException {
 		// Parent ID, author, text, signature
 		return body.getString(2);
@@ -264,7 +287,7 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 	@Override
 	public void setReadFlag(GroupId g, MessageId m, boolean read)
 			throws DbException {
-		db.transaction(false, txn ->
+		db.groupTransaction(txn ->
 				messageTracker.setReadFlag(txn, g, m, read));
 	}
 
@@ -2,6 +2,8 @@ package org.briarproject.briar.forum;
 
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.data.MetadataEncoder;
+import org.briarproject.bramble.api.sync.ClientCompressionRegistry;
+import org.briarproject.bramble.api.sync.ClientPriorityRegistry;
 import org.briarproject.bramble.api.sync.validation.ValidationManager;
 import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.briar.api.forum.ForumFactory;
@@ -14,6 +16,7 @@ import javax.inject.Singleton;
 import dagger.Module;
 import dagger.Provides;
 
+import static org.briarproject.bramble.api.sync.ClientPriority.LOW;
 import static org.briarproject.briar.api.forum.ForumManager.CLIENT_ID;
 import static org.briarproject.briar.api.forum.ForumManager.MAJOR_VERSION;
 
@@ -30,9 +33,15 @@ public class ForumModule {
 	@Provides
 	@Singleton
 	ForumManager provideForumManager(ForumManagerImpl forumManager,
-			ValidationManager validationManager) {
+			ValidationManager validationManager,
+			ClientPriorityRegistry clientPriorityRegistry,
+			ClientCompressionRegistry clientCompressionRegistry) {
 		validationManager.registerIncomingMessageHook(CLIENT_ID, MAJOR_VERSION,
 				forumManager);
+		// Forum posts can be sent after more urgent messages
+		clientPriorityRegistry.setClientPriority(CLIENT_ID, LOW);
+		// Every member of a forum can read all its posts
+		clientCompressionRegistry.registerCompressibleClient(CLIENT_ID);
 		return forumManager;
 	}
 
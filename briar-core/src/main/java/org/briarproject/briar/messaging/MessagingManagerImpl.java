@@ -50,6 +50,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -475,6 +476,33 @@ class MessagingManagerImpl implements MessagingManager, IncomingMessageHook,
 		}
 	}
 
+	@Override
+	public Map<MessageId, String> getMessageTexts(Collection<MessageId> m)
+			throws DbException {
+		return db.transactionWithResult(true, txn -> getMessageTexts(txn, m));
+	}
+
+	@Override
+	public Map<MessageId, String> getMessageTexts(Transaction txn,
+			Collection<MessageId> m) throws DbException {
+		try {
+			// The text is within the first two elements of each message
+			Map<MessageId, BdfList> bodies =
+					clientHelper.getMessagesAsLists(txn, m, 2);
+			Map<MessageId, String> texts = new HashMap<>(bodies.size());
+			for (Entry<MessageId, BdfList> e : bodies.entrySet()) {
+				BdfList body = e.getValue();
+				String text;
+				if (body.size() == 1) text = body.getString(0); // Legacy format
+				else text = body.getOptionalString(1);
+				if (text != null) texts.put(e.getKey(), text);
+			}
+			return texts;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public PrivateMessageFormat getContactMessageFormat(Transaction txn,
 			ContactId c) throws DbException {
@@ -0,0 +1,113 @@
+package org.briarproject.briar.privategroup;
+
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.identity.Author;
+import org.briarproject.bramble.api.identity.AuthorId;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.briar.api.privategroup.Visibility;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * A cache of the parsed member lists of private groups, so the member list
+ * in the group metadata doesn't need to be parsed every time it's used.
+ * <p/>
+ * The member lists are immutable. A transaction that changes a group's
+ * members must {@link #put(Transaction, GroupId, Map) put} a new member
+ * list. The new list is only visible to other transactions if the
+ * transaction that put it commits. Write transactions are exclusive, so
+ * if another transaction sees a list that was put by a transaction that
+ * didn't commit, that transaction must have been aborted. The list is then
+ * discarded and reloaded from the database.
+ */
+@ThreadSafe
+@NotNullByDefault
+class GroupMemberCache {
+
+	private final Map<GroupId, MemberList> cache = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the cached members of the given group, in the order they
+	 * joined, or null if the group's members aren't cached.
+	 */
+	@Nullable
+	Map<AuthorId, Member> get(Transaction txn, GroupId g) {
+		MemberList list = cache.get(g);
+		if (list == null) return null;
+		Transaction writer = list.writer;
+		if (writer != null && writer != txn) {
+			if (!writer.isCommitted()) {
+				// The transaction that put the list was aborted
+				cache.remove(g, list);
+				return null;
+			}
+			// Don't hold a reference to the committed transaction
+			cache.replace(g, list, new MemberList(list.members, null));
+		}
+		return list.members;
+	}
+
+	/**
+	 * Caches the members of the given group, in the order they joined.
+	 */
+	void put(Transaction txn, GroupId g, Map<AuthorId, Member> members) {
+		Transaction writer = txn.isReadOnly() ? null : txn;
+		cache.put(g, new MemberList(unmodifiableMap(members), writer));
+	}
+
+	void remove(GroupId g) {
+		cache.remove(g);
+	}
+
+	@Immutable
+	@NotNullByDefault
+	static class Member {
+
+		private final Author author;
+		private final Visibility visibility;
+		private final int index;
+
+		Member(Author author, Visibility visibility, int index) {
+			this.author = author;
+			this.visibility = visibility;
+			this.index = index;
+		}
+
+		Author getAuthor() {
+			return author;
+		}
+
+		Visibility getVisibility() {
+			return visibility;
+		}
+
+		/**
+		 * Returns the position of the member in the member list stored in
+		 * the group metadata.
+		 */
+		int getIndex() {
+			return index;
+		}
+	}
+
+	private static class MemberList {
+
+		private final Map<AuthorId, Member> members;
+		@Nullable
+		private final Transaction writer;
+
+		private MemberList(Map<AuthorId, Member> members,
+				@Nullable Transaction writer) {
+			this.members = members;
+			this.writer = writer;
+		}
+	}
+}
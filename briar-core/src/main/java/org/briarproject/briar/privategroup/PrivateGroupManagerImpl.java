@@ -40,12 +40,14 @@ import org.briarproject.briar.api.privategroup.Visibility;
 import org.briarproject.briar.api.privategroup.event.ContactRelationshipRevealedEvent;
 import org.briarproject.briar.api.privategroup.event.GroupDissolvedEvent;
 import org.briarproject.briar.api.privategroup.event.GroupMessageAddedEvent;
+import org.briarproject.briar.privategroup.GroupMemberCache.Member;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -88,6 +90,7 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	private final AuthorManager authorManager;
 	private final MessageTracker messageTracker;
 	private final List<PrivateGroupHook> hooks;
+	private final GroupMemberCache memberCache = new GroupMemberCache();
 
 	@Inject
 	PrivateGroupManagerImpl(ClientHelper clientHelper,
@@ -129,6 +132,7 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 					new BdfEntry(GROUP_KEY_DISSOLVED, false)
 			);
 			clientHelper.mergeGroupMetadata(txn, group.getId(), meta);
+			memberCache.put(txn, group.getId(), Collections.emptyMap());
 			joinPrivateGroup(txn, joinMsg, creator);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -158,6 +162,7 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 			}
 			Group group = db.getGroup(txn, g);
 			db.removeGroup(txn, group);
+			memberCache.remove(g);
 			db.commitTransaction(txn);
 		} finally {
 			db.endTransaction(txn);
@@ -327,6 +332,29 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 		}
 	}
 
+	@Override
+	public Map<MessageId, String> getMessageTexts(Collection<MessageId> m)
+			throws DbException {
+		return db.transactionWithResult(true, txn -> getMessageTexts(txn, m));
+	}
+
+	@Override
+	public Map<MessageId, String> getMessageTexts(Transaction txn,
+			Collection<MessageId> m) throws DbException {
+		try {
+			// The text is the fifth element of each message
+			Map<MessageId, BdfList> bodies =
+					clientHelper.getMessagesAsLists(txn, m, 5);
+			Map<MessageId, String> texts = new HashMap<>(bodies.size());
+			for (Entry<MessageId, BdfList> e : bodies.entrySet()) {
+				texts.put(e.getKey(), getMessageText(e.getValue()));
+			}
+			return texts;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+	}
+
 	private String getMessageText(BdfList body) throws FormatException {
 		// Message type (0), member (1), parent ID (2), previous message ID (3),
 		// text (4), signature (5)
@@ -417,14 +445,13 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	public Collection<GroupMember> getMembers(Transaction txn, GroupId g)
 			throws DbException {
 		Collection<GroupMember> members = new ArrayList<>();
-		Map<Author, Visibility> authors = getMemberAuthors(txn, g);
 		LocalAuthor la = identityManager.getLocalAuthor(txn);
 		PrivateGroup privateGroup = getPrivateGroup(txn, g);
-		for (Entry<Author, Visibility> m : authors.entrySet()) {
-			Author a = m.getKey();
+		for (Member m : getMemberList(txn, g).values()) {
+			Author a = m.getAuthor();
 			AuthorInfo authorInfo = authorManager.getAuthorInfo(txn, a.getId());
 			Status status = authorInfo.getStatus();
-			Visibility v = m.getValue();
+			Visibility v = m.getVisibility();
 			ContactId c = null;
 			if (v != INVISIBLE &&
 					(status == VERIFIED || status == UNVERIFIED)) {
@@ -437,19 +464,26 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 		return members;
 	}
 
-	private Map<Author, Visibility> getMemberAuthors(Transaction txn, GroupId g)
+	/**
+	 * Returns the members of the given group in the order they joined,
+	 * parsing the member list from the group metadata if it isn't cached.
+	 */
+	private Map<AuthorId, Member> getMemberList(Transaction txn, GroupId g)
 			throws DbException {
+		Map<AuthorId, Member> cached = memberCache.get(txn, g);
+		if (cached != null) return cached;
 		try {
 			BdfDictionary meta =
 					clientHelper.getGroupMetadataAsDictionary(txn, g);
 			BdfList list = meta.getList(GROUP_KEY_MEMBERS);
-			Map<Author, Visibility> members = new HashMap<>(list.size());
+			Map<AuthorId, Member> members = new LinkedHashMap<>(list.size());
 			for (int i = 0; i < list.size(); i++) {
 				BdfDictionary d = list.getDictionary(i);
 				Author member = getAuthor(d);
 				Visibility v = getVisibility(d);
-				members.put(member, v);
+				members.put(member.getId(), new Member(member, v, i));
 			}
+			memberCache.put(txn, g, members);
 			return members;
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -459,10 +493,8 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	@Override
 	public boolean isMember(Transaction txn, GroupId g, Author a)
 			throws DbException {
-		for (Author member : getMemberAuthors(txn, g).keySet()) {
-			if (member.equals(a)) return true;
-		}
-		return false;
+		Member m = getMemberList(txn, g).get(a.getId());
+		return m != null && m.getAuthor().equals(a);
 	}
 
 	@Override
@@ -479,38 +511,32 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	@Override
 	public void setReadFlag(GroupId g, MessageId m, boolean read)
 			throws DbException {
-		db.transaction(false, txn ->
+		db.groupTransaction(txn ->
 				messageTracker.setReadFlag(txn, g, m, read));
 	}
 
 	@Override
 	public void relationshipRevealed(Transaction txn, GroupId g, AuthorId a,
 			boolean byContact) throws FormatException, DbException {
+		Map<AuthorId, Member> memberList = getMemberList(txn, g);
+		Member member = memberList.get(a);
+		if (member == null) throw new ProtocolStateException();
+		// Don't update the visibility if the contact is already visible
+		if (member.getVisibility() != INVISIBLE) return;
+		Visibility v = byContact ? REVEALED_BY_CONTACT : REVEALED_BY_US;
 		BdfDictionary meta = clientHelper.getGroupMetadataAsDictionary(txn, g);
 		BdfList members = meta.getList(GROUP_KEY_MEMBERS);
-		Visibility v = INVISIBLE;
-		boolean foundMember = false, changed = false;
-		for (int i = 0; i < members.size(); i++) {
-			BdfDictionary d = members.getDictionary(i);
-			if (a.equals(getAuthor(d).getId())) {
-				foundMember = true;
-				// Don't update the visibility if the contact is already visible
-				if (getVisibility(d) == INVISIBLE) {
-					changed = true;
-					v = byContact ? REVEALED_BY_CONTACT : REVEALED_BY_US;
-					d.put(GROUP_KEY_VISIBILITY, v.getInt());
-				}
-				break;
-			}
-		}
-		if (!foundMember) throw new ProtocolStateException();
-		if (changed) {
-			clientHelper.mergeGroupMetadata(txn, g, meta);
-			LocalAuthor la = identityManager.getLocalAuthor(txn);
-			ContactId c = contactManager.getContact(txn, a, la.getId()).getId();
-			Event e = new ContactRelationshipRevealedEvent(g, a, c, v);
-			txn.attach(e);
-		}
+		BdfDictionary d = members.getDictionary(member.getIndex());
+		if (!a.equals(getAuthor(d).getId())) throw new FormatException();
+		d.put(GROUP_KEY_VISIBILITY, v.getInt());
+		clientHelper.mergeGroupMetadata(txn, g, meta);
+		Map<AuthorId, Member> updated = new LinkedHashMap<>(memberList);
+		updated.put(a, new Member(member.getAuthor(), v, member.getIndex()));
+		memberCache.put(txn, g, updated);
+		LocalAuthor la = identityManager.getLocalAuthor(txn);
+		ContactId c = contactManager.getContact(txn, a, la.getId()).getId();
+		Event e = new ContactRelationshipRevealedEvent(g, a, c, v);
+		txn.attach(e);
 	}
 
 	@Override
@@ -616,13 +642,18 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	private void addMember(Transaction txn, GroupId g, Author a, Visibility v)
 			throws DbException, FormatException {
 
+		Map<AuthorId, Member> memberList = getMemberList(txn, g);
 		BdfDictionary meta = clientHelper.getGroupMetadataAsDictionary(txn, g);
 		BdfList members = meta.getList(GROUP_KEY_MEMBERS);
+		int index = members.size();
 		members.add(BdfDictionary.of(
 				new BdfEntry(KEY_MEMBER, clientHelper.toList(a)),
 				new BdfEntry(GROUP_KEY_VISIBILITY, v.getInt())
 		));
 		clientHelper.mergeGroupMetadata(txn, g, meta);
+		Map<AuthorId, Member> updated = new LinkedHashMap<>(memberList);
+		updated.put(a.getId(), new Member(a, v, index));
+		memberCache.put(txn, g, updated);
 		for (PrivateGroupHook hook : hooks) {
 			hook.addingMember(txn, g, a);
 		}
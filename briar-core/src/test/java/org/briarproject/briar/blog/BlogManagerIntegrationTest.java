@@ -1,5 +1,6 @@
 package org.briarproject.briar.blog;
 
+import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.LocalAuthor;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.TestDatabaseConfigModule;
@@ -17,8 +18,13 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static junit.framework.Assert.assertNotNull;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_NAME_LENGTH;
 import static org.briarproject.briar.api.identity.AuthorInfo.Status.NONE;
@@ -230,6 +236,8 @@ public class BlogManagerIntegrationTest
 		MessageId parentId = h.getParentId();
 		assertNotNull(parentId);
 		assertEquals(text, blogManager0.getPostText(parentId));
+		assertEquals(singletonMap(parentId, text),
+				blogManager0.getPostTexts(singletonList(parentId)));
 
 		// 1 has only their own comment in their blog
 		headers1 = blogManager1.getPostHeaders(blog1.getId());
@@ -457,6 +465,99 @@ public class BlogManagerIntegrationTest
 		}
 	}
 
+	@Test
+	public void testTimelineMergesBlogsNewestFirst() throws Exception {
+		long now = c0.getClock().currentTimeMillis();
+		// add posts to blog0 and rssBlog with interleaved timestamps
+		BlogPost p0 = blogPostFactory.createBlogPost(blog0.getId(),
+				now - 3, null, author0, getRandomString(42));
+		BlogPost p1 = blogPostFactory.createBlogPost(rssBlog.getId(),
+				now - 2, null, author0, getRandomString(42));
+		BlogPost p2 = blogPostFactory.createBlogPost(blog0.getId(),
+				now - 1, null, author0, getRandomString(42));
+		blogManager0.addLocalPost(p0);
+		blogManager0.addLocalPost(p1);
+
+		// the timeline should contain both posts, newest first
+		List<BlogPostHeader> timeline =
+				blogManager0.getTimeline(Long.MAX_VALUE, null, 10);
+		assertEquals(2, timeline.size());
+		assertEquals(p1.getMessage().getId(), timeline.get(0).getId());
+		assertEquals(p0.getMessage().getId(), timeline.get(1).getId());
+
+		// a post added after the index was loaded should be included
+		blogManager0.addLocalPost(p2);
+		timeline = blogManager0.getTimeline(Long.MAX_VALUE, null, 2);
+		assertEquals(2, timeline.size());
+		assertEquals(p2.getMessage().getId(), timeline.get(0).getId());
+		assertEquals(p1.getMessage().getId(), timeline.get(1).getId());
+
+		// the next page should start after the oldest post on this page
+		BlogPostHeader last = timeline.get(1);
+		timeline = blogManager0.getTimeline(last.getTimeReceived(),
+				last.getId(), 2);
+		assertEquals(1, timeline.size());
+		assertEquals(p0.getMessage().getId(), timeline.get(0).getId());
+		assertEquals(author0, timeline.get(0).getAuthor());
+	}
+
+	@Test
+	public void testTimelinePagesIncludePostsWithSameTime() throws Exception {
+		long now = c0.getClock().currentTimeMillis();
+		// add three posts to two blogs, all with the same timestamp
+		Set<MessageId> added = new HashSet<>();
+		for (int i = 0; i < 3; i++) {
+			Blog b = i == 1 ? rssBlog : blog0;
+			BlogPost p = blogPostFactory.createBlogPost(b.getId(), now, null,
+					author0, getRandomString(42));
+			blogManager0.addLocalPost(p);
+			added.add(p.getMessage().getId());
+		}
+
+		// page through the timeline, two posts at a time
+		List<BlogPostHeader> timeline =
+				blogManager0.getTimeline(Long.MAX_VALUE, null, 2);
+		assertEquals(2, timeline.size());
+		Set<MessageId> seen = new HashSet<>();
+		for (BlogPostHeader h : timeline) seen.add(h.getId());
+		BlogPostHeader last = timeline.get(1);
+		timeline = blogManager0.getTimeline(last.getTimeReceived(),
+				last.getId(), 2);
+		assertEquals(1, timeline.size());
+		seen.add(timeline.get(0).getId());
+
+		// every post should have been returned exactly once
+		assertEquals(added, seen);
+	}
+
+	@Test
+	public void testTimelineDropsPostsFromAbortedTransactions()
+			throws Exception {
+		long now = c0.getClock().currentTimeMillis();
+		BlogPost p0 = blogPostFactory.createBlogPost(blog0.getId(),
+				now - 1, null, author0, getRandomString(42));
+		BlogPost p1 = blogPostFactory.createBlogPost(blog0.getId(),
+				now, null, author0, getRandomString(42));
+		blogManager0.addLocalPost(p0);
+		// load the index
+		assertEquals(1, blogManager0.getTimeline(Long.MAX_VALUE, null, 10)
+				.size());
+
+		// add a post in a transaction that's aborted
+		Transaction txn = db0.startTransaction(false);
+		try {
+			blogManager0.addLocalPost(txn, p1);
+		} finally {
+			db0.endTransaction(txn);
+		}
+
+		// the post should not be included
+		List<BlogPostHeader> timeline =
+				blogManager0.getTimeline(Long.MAX_VALUE, null, 10);
+		assertEquals(1, timeline.size());
+		assertEquals(p0.getMessage().getId(), timeline.get(0).getId());
+	}
+
 	@Test
 	public void testRemoveContacts() throws Exception {
 		// 0 removes 1
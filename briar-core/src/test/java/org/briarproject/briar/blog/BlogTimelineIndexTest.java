@@ -0,0 +1,138 @@
+package org.briarproject.briar.blog;
+
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.briar.blog.BlogTimelineIndex.Entry;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BlogTimelineIndexTest extends BrambleTestCase {
+
+	private final BlogTimelineIndex index = new BlogTimelineIndex();
+	private final GroupId groupId = new GroupId(getRandomId());
+	private final GroupId groupId1 = new GroupId(getRandomId());
+
+	@Test
+	public void testBlogsAreMergedNewestFirst() {
+		Entry a = createEntry(groupId, 1);
+		Entry b = createEntry(groupId1, 2);
+		Entry c = createEntry(groupId, 3);
+		Entry d = createEntry(groupId1, 4);
+		index.load(groupId, asList(a, c));
+		index.load(groupId1, asList(d, b));
+		List<GroupId> blogs = asList(groupId, groupId1);
+
+		assertEquals(asList(d, c, b, a),
+				index.getTimeline(blogs, Long.MAX_VALUE, null, 10));
+		assertEquals(asList(d, c),
+				index.getTimeline(blogs, Long.MAX_VALUE, null, 2));
+		// The upper bound is exclusive
+		assertEquals(asList(b, a), index.getTimeline(blogs, 3, null, 2));
+		assertEquals(emptyList(), index.getTimeline(blogs, 1, null, 10));
+	}
+
+	@Test
+	public void testEntriesWithSameTimeAreAllReturned() {
+		Entry a = createEntry(groupId, 1);
+		Entry b = createEntry(groupId1, 1);
+		index.load(groupId, singletonList(a));
+		index.load(groupId1, singletonList(b));
+
+		List<Entry> timeline =
+				index.getTimeline(asList(groupId, groupId1), 2, null, 10);
+		assertEquals(2, timeline.size());
+		assertTrue(timeline.contains(a));
+		assertTrue(timeline.contains(b));
+	}
+
+	@Test
+	public void testInvalidatedBlogsAreReloaded() {
+		index.load(groupId, singletonList(createEntry(groupId, 1)));
+		assertTrue(index.isLoaded(groupId));
+		index.invalidate(groupId);
+		assertFalse(index.isLoaded(groupId));
+
+		Entry e = createEntry(groupId, 2);
+		index.load(groupId, singletonList(e));
+		assertEquals(singletonList(e), index.getTimeline(
+				singletonList(groupId), Long.MAX_VALUE, null, 10));
+	}
+
+	@Test
+	public void testEntriesWithSameTimeAreNotSkippedBetweenPages() {
+		Entry a = createEntry(groupId, 1);
+		Entry b = createEntry(groupId1, 1);
+		Entry c = createEntry(groupId, 1);
+		index.load(groupId, asList(a, c));
+		index.load(groupId1, singletonList(b));
+		List<GroupId> blogs = asList(groupId, groupId1);
+
+		// Page through the timeline, two entries at a time
+		List<Entry> page = index.getTimeline(blogs, Long.MAX_VALUE, null, 2);
+		assertEquals(2, page.size());
+		Entry last = page.get(1);
+		List<Entry> page1 = index.getTimeline(blogs,
+				last.getTimeReceived(), last.getMessageId(), 2);
+		assertEquals(1, page1.size());
+		Entry last1 = page1.get(0);
+		assertEquals(emptyList(), index.getTimeline(blogs,
+				last1.getTimeReceived(), last1.getMessageId(), 2));
+
+		// Each entry should have been returned exactly once
+		Set<Entry> all = new HashSet<>(page);
+		all.addAll(page1);
+		assertEquals(new HashSet<>(asList(a, b, c)), all);
+	}
+
+	@Test
+	public void testEntriesAreAddedAndRemovedIncrementally() {
+		Entry a = createEntry(groupId, 1);
+		Entry b = createEntry(groupId, 2);
+		index.load(groupId, singletonList(a));
+		List<GroupId> blogs = singletonList(groupId);
+
+		index.add(b);
+		assertEquals(asList(b, a),
+				index.getTimeline(blogs, Long.MAX_VALUE, null, 10));
+		// Adding the same entry again has no effect
+		index.add(b);
+		assertEquals(asList(b, a),
+				index.getTimeline(blogs, Long.MAX_VALUE, null, 10));
+
+		index.remove(b);
+		assertEquals(singletonList(a),
+				index.getTimeline(blogs, Long.MAX_VALUE, null, 10));
+	}
+
+	@Test
+	public void testEntriesAreNotAddedToUnloadedBlogs() {
+		index.add(createEntry(groupId, 1));
+		assertFalse(index.isLoaded(groupId));
+
+		Entry e = createEntry(groupId, 2);
+		index.load(groupId, singletonList(e));
+		assertEquals(singletonList(e), index.getTimeline(
+				singletonList(groupId), Long.MAX_VALUE, null, 10));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testUnloadedBlogsCannotBeMerged() {
+		index.getTimeline(singletonList(groupId), Long.MAX_VALUE, null, 10);
+	}
+
+	private Entry createEntry(GroupId g, long timeReceived) {
+		return new Entry(g, new MessageId(getRandomId()), timeReceived);
+	}
+}
@@ -1,6 +1,7 @@
 package org.briarproject.briar.forum;
 
 import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.TestDatabaseConfigModule;
 import org.briarproject.briar.api.forum.Forum;
 import org.briarproject.briar.api.forum.ForumManager;
@@ -14,9 +15,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.Collection;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
+import static java.util.Arrays.asList;
 import static org.briarproject.briar.test.BriarTestUtils.assertGroupCount;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -129,6 +132,12 @@ public class ForumManagerTest
 				assertFalse(h.isRead());
 			}
 		}
+		// The texts should also be returned in bulk
+		Map<MessageId, String> texts = forumManager0.getPostTexts(
+				asList(post1.getMessage().getId(), post2.getMessage().getId()));
+		assertEquals(2, texts.size());
+		assertEquals(text1, texts.get(post1.getMessage().getId()));
+		assertEquals(text2, texts.get(post2.getMessage().getId()));
 		forumManager0.removeForum(forum0);
 		assertEquals(0, forumManager0.getForums().size());
 	}
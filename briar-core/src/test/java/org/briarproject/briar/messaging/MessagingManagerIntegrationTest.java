@@ -7,6 +7,7 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.TestDatabaseConfigModule;
 import org.briarproject.briar.api.attachment.AttachmentHeader;
+import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.conversation.ConversationMessageHeader;
 import org.briarproject.briar.api.messaging.MessagingManager;
 import org.briarproject.briar.api.messaging.PrivateMessage;
@@ -23,13 +24,16 @@ import java.io.InputStream;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nullable;
 
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.emptySet;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.util.StringUtils.getRandomString;
 import static org.briarproject.briar.api.autodelete.AutoDeleteConstants.MIN_AUTO_DELETE_TIMER_MS;
@@ -37,6 +41,7 @@ import static org.briarproject.briar.api.autodelete.AutoDeleteConstants.NO_AUTO_
 import static org.briarproject.briar.test.BriarTestUtils.assertGroupCount;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -106,6 +111,10 @@ public class MessagingManagerIntegrationTest
 				(PrivateMessageHeader) messages1.iterator().next();
 		assertTrue(m0.hasText());
 		assertTrue(m1.hasText());
+		assertEquals(singletonMap(m0.getId(), text),
+				messagingManager0.getMessageTexts(singletonList(m0.getId())));
+		assertEquals(singletonMap(m1.getId(), text),
+				messagingManager1.getMessageTexts(singletonList(m1.getId())));
 		assertEquals(0, m0.getAttachmentHeaders().size());
 		assertEquals(0, m1.getAttachmentHeaders().size());
 		assertEquals(NO_AUTO_DELETE_TIMER, m0.getAutoDeleteTimer());
@@ -143,6 +152,9 @@ public class MessagingManagerIntegrationTest
 				(PrivateMessageHeader) messages1.iterator().next();
 		assertFalse(m0.hasText());
 		assertFalse(m1.hasText());
+		// Messages without text are omitted
+		assertEquals(emptyMap(),
+				messagingManager0.getMessageTexts(singletonList(m0.getId())));
 		assertEquals(1, m0.getAttachmentHeaders().size());
 		assertEquals(1, m1.getAttachmentHeaders().size());
 		assertEquals(NO_AUTO_DELETE_TIMER, m0.getAutoDeleteTimer());
@@ -368,6 +380,15 @@ public class MessagingManagerIntegrationTest
 			long msgCount, long unreadCount) throws Exception {
 		GroupId g = c.getMessagingManager().getConversationId(contactId);
 		assertGroupCount(c.getMessageTracker(), g, msgCount, unreadCount);
+		// The counts retrieved for all contacts at once should agree
+		Map<ContactId, GroupCount> counts = c.getDatabaseComponent()
+				.transactionWithResult(true, txn ->
+						c.getConversationManager().getGroupCounts(txn,
+								c.getContactManager().getContacts(txn)));
+		GroupCount count = counts.get(contactId);
+		assertNotNull(count);
+		assertEquals(msgCount, count.getMsgCount());
+		assertEquals(unreadCount, count.getUnreadCount());
 	}
 
 
@@ -0,0 +1,66 @@
+package org.briarproject.briar.privategroup;
+
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.identity.Author;
+import org.briarproject.bramble.api.identity.AuthorId;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.briar.privategroup.GroupMemberCache.Member;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static java.util.Collections.singletonMap;
+import static org.briarproject.bramble.test.TestUtils.getAuthor;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.briar.api.privategroup.Visibility.VISIBLE;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class GroupMemberCacheTest extends BrambleTestCase {
+
+	private final GroupMemberCache cache = new GroupMemberCache();
+	private final GroupId groupId = new GroupId(getRandomId());
+	private final Author author = getAuthor();
+	private final Map<AuthorId, Member> members =
+			singletonMap(author.getId(), new Member(author, VISIBLE, 0));
+
+	@Test
+	public void testMembersLoadedByReadOnlyTransactionAreShared() {
+		Transaction reader = new Transaction(null, true);
+		cache.put(reader, groupId, members);
+		assertSame(author, getMember(new Transaction(null, true)));
+	}
+
+	@Test
+	public void testMembersPutByCommittedTransactionAreShared() {
+		Transaction writer = new Transaction(null, false);
+		cache.put(writer, groupId, members);
+		// The members are visible to the transaction that put them
+		assertSame(author, getMember(writer));
+		writer.setCommitted();
+		assertSame(author, getMember(new Transaction(null, true)));
+	}
+
+	@Test
+	public void testMembersPutByAbortedTransactionAreDiscarded() {
+		Transaction writer = new Transaction(null, false);
+		cache.put(writer, groupId, members);
+		// The writer ended without committing
+		assertNull(cache.get(new Transaction(null, true), groupId));
+		assertNull(cache.get(writer, groupId));
+	}
+
+	@Test
+	public void testRemovedGroupsAreNotCached() {
+		cache.put(new Transaction(null, true), groupId, members);
+		cache.remove(groupId);
+		assertNull(cache.get(new Transaction(null, true), groupId));
+	}
+
+	private Author getMember(Transaction txn) {
+		Map<AuthorId, Member> cached = cache.get(txn, groupId);
+		if (cached == null) throw new AssertionError();
+		return cached.get(author.getId()).getAuthor();
+	}
+}
@@ -20,6 +20,8 @@ import org.junit.Test;
 
 import java.util.Collection;
 
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static org.briarproject.briar.api.identity.AuthorInfo.Status.VERIFIED;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
@@ -113,6 +115,8 @@ public class PrivateGroupManagerIntegrationTest
 		assertEquals(time, header.getTimestamp());
 		assertEquals(VERIFIED, header.getAuthorStatus());
 		assertEquals(text, groupManager1.getMessageText(header.getId()));
+		assertEquals(singletonMap(header.getId(), text),
+				groupManager1.getMessageTexts(singletonList(header.getId())));
 		GroupCount count = groupManager1.getGroupCount(groupId0);
 		assertEquals(2, count.getUnreadCount());
 		assertEquals(time, count.getLatestMsgTime());
@@ -30,6 +30,7 @@ import org.briarproject.bramble.util.OsUtils.isLinux
 import org.briarproject.bramble.util.OsUtils.isMac
 import org.briarproject.briar.headless.blogs.HeadlessBlogModule
 import org.briarproject.briar.headless.contact.HeadlessContactModule
+import org.briarproject.briar.headless.db.HeadlessDatabaseModule
 import org.briarproject.briar.headless.event.HeadlessEventModule
 import org.briarproject.briar.headless.forums.HeadlessForumModule
 import org.briarproject.briar.headless.messaging.HeadlessMessagingModule
@@ -49,6 +50,7 @@ import javax.inject.Singleton
         DesktopSecureRandomModule::class,
         HeadlessBlogModule::class,
         HeadlessContactModule::class,
+        HeadlessDatabaseModule::class,
         HeadlessEventModule::class,
         HeadlessForumModule::class,
         HeadlessMessagingModule::class,
@@ -107,5 +109,6 @@ internal class HeadlessModule(private val appDir: File) {
         override fun shouldEnableImageAttachments() = false
         override fun shouldEnableProfilePictures() = false
         override fun shouldEnableDisappearingMessages() = false
+        override fun shouldStoreMessageBodiesInFiles() = false
     }
 }
@@ -16,6 +16,7 @@ import io.javalin.http.NotFoundResponse
 import org.briarproject.bramble.api.contact.ContactId
 import org.briarproject.briar.headless.blogs.BlogController
 import org.briarproject.briar.headless.contact.ContactController
+import org.briarproject.briar.headless.db.DatabaseController
 import org.briarproject.briar.headless.event.WebSocketController
 import org.briarproject.briar.headless.forums.ForumController
 import org.briarproject.briar.headless.messaging.MessagingController
@@ -41,7 +42,8 @@ constructor(
     private val contactController: ContactController,
     private val messagingController: MessagingController,
     private val forumController: ForumController,
-    private val blogController: BlogController
+    private val blogController: BlogController,
+    private val databaseController: DatabaseController
 ) {
 
     private val logger = getLogger(Router::javaClass.name)
@@ -109,6 +111,10 @@ constructor(
                         post { ctx -> blogController.createPost(ctx) }
                     }
                 }
+                path("/database/queries") {
+                    get { ctx -> databaseController.getQueryMetrics(ctx) }
+                    put { ctx -> databaseController.setQueryMetrics(ctx) }
+                }
             }
         }
         app.ws(WS) { ws ->
@@ -3,20 +3,29 @@ package org.briarproject.briar.headless.blogs
 import com.fasterxml.jackson.databind.ObjectMapper
 import io.javalin.http.BadRequestResponse
 import io.javalin.http.Context
+import org.bouncycastle.util.encoders.Base64
+import org.bouncycastle.util.encoders.DecoderException
 import org.briarproject.bramble.api.db.DbException
 import org.briarproject.bramble.api.db.TransactionManager
 import org.briarproject.bramble.api.identity.IdentityManager
+import org.briarproject.bramble.api.sync.MessageId
 import org.briarproject.bramble.api.system.Clock
 import org.briarproject.bramble.util.StringUtils.utf8IsTooLong
 import org.briarproject.briar.api.blog.BlogConstants.MAX_BLOG_POST_TEXT_LENGTH
 import org.briarproject.briar.api.blog.BlogManager
 import org.briarproject.briar.api.blog.BlogPostFactory
 import org.briarproject.briar.api.blog.BlogPostHeader
+import org.briarproject.briar.headless.json.JsonDict
 import org.briarproject.briar.headless.getFromJson
 import javax.annotation.concurrent.Immutable
 import javax.inject.Inject
 import javax.inject.Singleton
 
+/**
+ * The maximum number of posts that can be requested in one page.
+ */
+internal const val MAX_PAGE_SIZE = 1000
+
 @Immutable
 @Singleton
 internal class BlogControllerImpl
@@ -31,12 +40,39 @@ constructor(
 ) : BlogController {
 
     override fun listPosts(ctx: Context): Context {
-        val posts = blogManager.blogs
+        val limitParam = ctx.queryParam("limit") ?: return listAllPosts(ctx)
+        val limit = limitParam.toIntOrNull()
+        if (limit == null || limit < 1 || limit > MAX_PAGE_SIZE)
+            throw BadRequestResponse("'limit' must be between 1 and $MAX_PAGE_SIZE")
+        val beforeParam = ctx.queryParam("before")
+        val before = if (beforeParam == null) Long.MAX_VALUE else
+            beforeParam.toLongOrNull() ?: throw BadRequestResponse("Invalid 'before'")
+        val beforeIdParam = ctx.queryParam("beforeId")
+        val beforeId = if (beforeIdParam == null) null else deserializeMessageId(beforeIdParam)
+        val posts = db.transactionWithResult<List<JsonDict>, DbException>(true) { txn ->
+            val headers = blogManager.getTimeline(txn, before, beforeId, limit)
+            val texts = blogManager.getPostTexts(txn, headers.map { it.id })
+            headers.map { header -> header.output(texts.getValue(header.id)) }
+        }
+        return ctx.json(posts)
+    }
+
+    private fun deserializeMessageId(idString: String): MessageId {
+        val idBytes = try {
+            Base64.decode(idString)
+        } catch (e: DecoderException) {
+            throw BadRequestResponse("Invalid 'beforeId'")
+        }
+        if (idBytes.size != MessageId.LENGTH) throw BadRequestResponse("Invalid 'beforeId'")
+        return MessageId(idBytes)
+    }
+
+    private fun listAllPosts(ctx: Context): Context {
+        val headers = blogManager.blogs
             .flatMap { blog -> blogManager.getPostHeaders(blog.id) }
-            .asSequence()
             .sortedBy { it.timeReceived }
-            .map { header -> header.output(blogManager.getPostText(header.id)) }
-            .toList()
+        val texts = blogManager.getPostTexts(headers.map { it.id })
+        val posts = headers.map { header -> header.output(texts.getValue(header.id)) }
         return ctx.json(posts)
     }
 
@@ -15,14 +15,17 @@ import org.briarproject.bramble.api.contact.event.PendingContactAddedEvent
 import org.briarproject.bramble.api.contact.event.PendingContactRemovedEvent
 import org.briarproject.bramble.api.contact.event.PendingContactStateChangedEvent
 import org.briarproject.bramble.api.db.ContactExistsException
+import org.briarproject.bramble.api.db.DbException
 import org.briarproject.bramble.api.db.NoSuchContactException
 import org.briarproject.bramble.api.db.NoSuchPendingContactException
 import org.briarproject.bramble.api.db.PendingContactExistsException
+import org.briarproject.bramble.api.db.TransactionManager
 import org.briarproject.bramble.api.event.Event
 import org.briarproject.bramble.api.event.EventListener
 import org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_NAME_LENGTH
 import org.briarproject.bramble.api.plugin.event.ContactConnectedEvent
 import org.briarproject.bramble.api.plugin.event.ContactDisconnectedEvent
+import org.briarproject.bramble.util.StringUtils.toHexString
 import org.briarproject.bramble.util.StringUtils.toUtf8
 import org.briarproject.briar.api.conversation.ConversationManager
 import org.briarproject.briar.headless.event.WebSocketController
@@ -31,7 +34,9 @@ import org.briarproject.briar.headless.getFromJson
 import org.briarproject.briar.headless.json.JsonDict
 import org.eclipse.jetty.http.HttpStatus.BAD_REQUEST_400
 import org.eclipse.jetty.http.HttpStatus.FORBIDDEN_403
+import org.eclipse.jetty.http.HttpStatus.NOT_MODIFIED_304
 import java.security.GeneralSecurityException
+import java.security.MessageDigest
 import javax.annotation.concurrent.Immutable
 import javax.inject.Inject
 import javax.inject.Singleton
@@ -43,6 +48,14 @@ internal const val EVENT_PENDING_CONTACT_REMOVED = "PendingContactRemovedEvent"
 internal const val EVENT_CONTACT_CONNECTED = "ContactConnectedEvent"
 internal const val EVENT_CONTACT_DISCONNECTED = "ContactDisconnectedEvent"
 
+internal const val HEADER_ETAG = "ETag"
+internal const val HEADER_IF_NONE_MATCH = "If-None-Match"
+
+/**
+ * The number of bytes of the contact list's digest used as a version token.
+ */
+private const val VERSION_BYTES = 16
+
 @Immutable
 @Singleton
 internal class ContactControllerImpl
@@ -50,6 +63,7 @@ internal class ContactControllerImpl
 constructor(
     private val contactManager: ContactManager,
     private val conversationManager: ConversationManager,
+    private val db: TransactionManager,
     private val objectMapper: ObjectMapper,
     private val webSocket: WebSocketController,
     private val connectionRegistry: ConnectionRegistry
@@ -79,15 +93,32 @@ constructor(
     }
 
     override fun list(ctx: Context): Context {
-        val contacts = contactManager.contacts.map { contact ->
-            val latestMsgTime = conversationManager.getGroupCount(contact.id).latestMsgTime
-            val connected = connectionRegistry.isConnected(contact.id)
-            val unreadCount = conversationManager.getGroupCount(contact.id).unreadCount
-            contact.output(latestMsgTime, connected, unreadCount)
+        val contacts = db.transactionWithResult<List<JsonDict>, DbException>(true) { txn ->
+            val all = contactManager.getContacts(txn)
+            val counts = conversationManager.getGroupCounts(txn, all)
+            all.map { contact ->
+                val count = counts.getValue(contact.id)
+                val connected = connectionRegistry.isConnected(contact.id)
+                contact.output(count.latestMsgTime, connected, count.unreadCount)
+            }
         }
+        // Clients can poll cheaply by sending the version they already have
+        val version = getVersion(contacts)
+        ctx.header(HEADER_ETAG, version)
+        if (ctx.header(HEADER_IF_NONE_MATCH) == version) return ctx.status(NOT_MODIFIED_304)
         return ctx.json(contacts)
     }
 
+    /**
+     * Returns a version token for the given contact list, which is a digest
+     * of the list's JSON representation.
+     */
+    private fun getVersion(contacts: List<JsonDict>): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        val hash = digest.digest(objectMapper.writeValueAsBytes(contacts))
+        return "\"" + toHexString(hash.copyOf(VERSION_BYTES)) + "\""
+    }
+
     override fun getLink(ctx: Context): Context {
         val linkDict = JsonDict("link" to contactManager.handshakeLink)
         return ctx.json(linkDict)
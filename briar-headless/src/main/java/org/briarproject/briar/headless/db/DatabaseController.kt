@@ -0,0 +1,11 @@
+package org.briarproject.briar.headless.db
+
+import io.javalin.http.Context
+
+interface DatabaseController {
+
+    fun getQueryMetrics(ctx: Context): Context
+
+    fun setQueryMetrics(ctx: Context): Context
+
+}
@@ -0,0 +1,49 @@
+package org.briarproject.briar.headless.db
+
+import com.fasterxml.jackson.core.JsonParseException
+import com.fasterxml.jackson.databind.ObjectMapper
+import io.javalin.http.BadRequestResponse
+import io.javalin.http.Context
+import org.briarproject.bramble.api.db.QueryMetrics
+import javax.annotation.concurrent.Immutable
+import javax.inject.Inject
+import javax.inject.Singleton
+
+@Immutable
+@Singleton
+internal class DatabaseControllerImpl
+@Inject
+constructor(private val queryMetrics: QueryMetrics, private val objectMapper: ObjectMapper) :
+    DatabaseController {
+
+    override fun getQueryMetrics(ctx: Context): Context {
+        return ctx.json(queryMetrics.output())
+    }
+
+    override fun setQueryMetrics(ctx: Context): Context {
+        val jsonNode = try {
+            objectMapper.readTree(ctx.body())
+        } catch (e: JsonParseException) {
+            throw BadRequestResponse("Invalid JSON")
+        }
+        if (jsonNode == null || !jsonNode.isObject) throw BadRequestResponse("Invalid JSON")
+
+        val enabled = jsonNode.get("enabled")
+        if (enabled != null && !enabled.isBoolean)
+            throw BadRequestResponse("'enabled' must be true or false")
+        val threshold = jsonNode.get("slowQueryThresholdMs")
+        if (threshold != null &&
+            (!threshold.isIntegralNumber || !threshold.canConvertToLong() || threshold.asLong() < 0)
+        )
+            throw BadRequestResponse("'slowQueryThresholdMs' must be a non-negative number")
+        val reset = jsonNode.get("reset")
+        if (reset != null && !reset.isBoolean)
+            throw BadRequestResponse("'reset' must be true or false")
+
+        if (threshold != null) queryMetrics.slowQueryThresholdMs = threshold.asLong()
+        if (reset != null && reset.asBoolean()) queryMetrics.reset()
+        if (enabled != null) queryMetrics.isEnabled = enabled.asBoolean()
+        return ctx.json(queryMetrics.output())
+    }
+
+}
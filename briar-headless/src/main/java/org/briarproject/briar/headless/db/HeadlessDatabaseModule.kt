@@ -0,0 +1,18 @@
+package org.briarproject.briar.headless.db
+
+import dagger.Module
+import dagger.Provides
+import javax.inject.Singleton
+
+@Module
+class HeadlessDatabaseModule {
+
+    @Provides
+    @Singleton
+    internal fun provideDatabaseController(
+        databaseController: DatabaseControllerImpl
+    ): DatabaseController {
+        return databaseController
+    }
+
+}
@@ -0,0 +1,34 @@
+package org.briarproject.briar.headless.db
+
+import org.briarproject.bramble.api.db.QueryMetrics
+import org.briarproject.bramble.api.db.QueryStats
+import org.briarproject.bramble.api.db.SlowQuery
+import org.briarproject.briar.headless.json.JsonDict
+
+internal fun QueryMetrics.output() = JsonDict(
+    "enabled" to isEnabled,
+    "slowQueryThresholdMs" to slowQueryThresholdMs,
+    "queries" to queryStats.entries
+        .sortedByDescending { it.value.totalMicros }
+        .map { it.value.output(it.key) },
+    "slowQueries" to slowQueries.map { it.output() }
+)
+
+internal fun QueryStats.output(method: String) = JsonDict(
+    "method" to method,
+    "calls" to calls,
+    "rows" to rows,
+    "meanMicros" to meanMicros,
+    "maxMicros" to maxMicros,
+    "p50Micros" to getPercentileMicros(50.0),
+    "p90Micros" to getPercentileMicros(90.0),
+    "p99Micros" to getPercentileMicros(99.0),
+    "histogram" to histogram.toList()
+)
+
+internal fun SlowQuery.output() = JsonDict(
+    "method" to method,
+    "timestamp" to timestamp,
+    "durationMs" to durationMs,
+    "rows" to rows
+)
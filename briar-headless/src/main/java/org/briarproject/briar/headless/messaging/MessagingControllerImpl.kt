@@ -6,10 +6,14 @@ import io.javalin.http.Context
 import io.javalin.http.NotFoundResponse
 import org.bouncycastle.util.encoders.Base64
 import org.bouncycastle.util.encoders.DecoderException
+import org.briarproject.bramble.api.Consumer
 import org.briarproject.bramble.api.contact.Contact
 import org.briarproject.bramble.api.contact.ContactId
 import org.briarproject.bramble.api.contact.ContactManager
+import org.briarproject.bramble.api.db.AsyncTransactionManager
 import org.briarproject.bramble.api.db.DatabaseExecutor
+import org.briarproject.bramble.api.db.DbCallable
+import org.briarproject.bramble.api.db.DbException
 import org.briarproject.bramble.api.db.NoSuchContactException
 import org.briarproject.bramble.api.event.Event
 import org.briarproject.bramble.api.event.EventListener
@@ -17,6 +21,7 @@ import org.briarproject.bramble.api.sync.MessageId
 import org.briarproject.bramble.api.sync.event.MessagesAckedEvent
 import org.briarproject.bramble.api.sync.event.MessagesSentEvent
 import org.briarproject.bramble.api.system.Clock
+import org.briarproject.bramble.util.LogUtils.logException
 import org.briarproject.bramble.util.StringUtils.utf8IsTooLong
 import org.briarproject.briar.api.blog.BlogInvitationRequest
 import org.briarproject.briar.api.blog.BlogInvitationResponse
@@ -39,6 +44,8 @@ import org.briarproject.briar.headless.getContactIdFromPathParam
 import org.briarproject.briar.headless.getFromJson
 import org.briarproject.briar.headless.json.JsonDict
 import java.util.concurrent.Executor
+import java.util.logging.Level.WARNING
+import java.util.logging.Logger.getLogger
 import javax.annotation.concurrent.Immutable
 import javax.inject.Inject
 import javax.inject.Singleton
@@ -57,17 +64,22 @@ constructor(
     private val privateMessageFactory: PrivateMessageFactory,
     private val contactManager: ContactManager,
     private val webSocketController: WebSocketController,
+    private val asyncDb: AsyncTransactionManager,
     @DatabaseExecutor private val dbExecutor: Executor,
     private val objectMapper: ObjectMapper,
     private val clock: Clock
 ) : MessagingController, EventListener {
 
+    private val logger = getLogger(MessagingControllerImpl::class.java.name)
+
     override fun list(ctx: Context): Context {
         val contact = getContact(ctx)
-        val jsonVisitor = JsonVisitor(contact.id, messagingManager)
-        val messages = conversationManager.getMessageHeaders(contact.id)
+        val headers = conversationManager.getMessageHeaders(contact.id)
             .sortedBy { it.timestamp }
-            .map { header -> header.accept(jsonVisitor) }
+        val texts = messagingManager.getMessageTexts(
+            headers.filterIsInstance<PrivateMessageHeader>().map { it.id })
+        val jsonVisitor = JsonVisitor(contact.id, texts)
+        val messages = headers.map { header -> header.accept(jsonVisitor) }
         return ctx.json(messages)
     }
 
@@ -120,9 +132,17 @@ constructor(
         when (e) {
             is ConversationMessageReceivedEvent<*> -> {
                 val h = e.messageHeader
-                if (h is PrivateMessageHeader) dbExecutor.execute {
-                    val text = messagingManager.getMessageText(h.id)
-                    webSocketController.sendEvent(EVENT_CONVERSATION_MESSAGE, e.output(text))
+                if (h is PrivateMessageHeader) {
+                    // Load the text without blocking the event thread. The
+                    // result is delivered on the database executor, which has
+                    // a single thread, so events are sent in the order they
+                    // were received
+                    val task = DbCallable<Map<MessageId, String>, DbException> { txn ->
+                        messagingManager.getMessageTexts(txn, listOf(h.id))
+                    }
+                    asyncDb.transactionAsync(true, task, dbExecutor, Consumer { texts ->
+                        webSocketController.sendEvent(EVENT_CONVERSATION_MESSAGE, e.output(texts[h.id]))
+                    }, Consumer { ex -> logException(logger, WARNING, ex) })
                 } else {
                     webSocketController.sendEvent(EVENT_CONVERSATION_MESSAGE, e.output())
                 }
@@ -148,11 +168,11 @@ constructor(
 
 private class JsonVisitor(
     private val contactId: ContactId,
-    private val messagingManager: MessagingManager
+    private val texts: Map<MessageId, String>
 ) : ConversationMessageVisitor<JsonDict> {
 
     override fun visitPrivateMessageHeader(h: PrivateMessageHeader) =
-        h.output(contactId, messagingManager.getMessageText(h.id))
+        h.output(contactId, texts[h.id])
 
     override fun visitBlogInvitationRequest(r: BlogInvitationRequest) = r.output(contactId)
 
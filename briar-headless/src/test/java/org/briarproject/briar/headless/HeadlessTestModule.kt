@@ -26,6 +26,7 @@ import org.briarproject.bramble.test.TestSecureRandomModule
 import org.briarproject.briar.api.test.TestAvatarCreator
 import org.briarproject.briar.headless.blogs.HeadlessBlogModule
 import org.briarproject.briar.headless.contact.HeadlessContactModule
+import org.briarproject.briar.headless.db.HeadlessDatabaseModule
 import org.briarproject.briar.headless.event.HeadlessEventModule
 import org.briarproject.briar.headless.forums.HeadlessForumModule
 import org.briarproject.briar.headless.messaging.HeadlessMessagingModule
@@ -48,6 +49,7 @@ import javax.inject.Singleton
         TestSecureRandomModule::class,
         HeadlessBlogModule::class,
         HeadlessContactModule::class,
+        HeadlessDatabaseModule::class,
         HeadlessEventModule::class,
         HeadlessForumModule::class,
         HeadlessMessagingModule::class
@@ -7,11 +7,13 @@ import io.mockk.every
 import io.mockk.just
 import io.mockk.mockk
 import io.mockk.slot
+import org.bouncycastle.util.encoders.Base64.toBase64String
 import org.briarproject.bramble.api.db.DbCallable
 import org.briarproject.bramble.api.db.DbException
 import org.briarproject.bramble.api.db.Transaction
 import org.briarproject.bramble.api.sync.MessageId
 import org.briarproject.bramble.identity.output
+import org.briarproject.bramble.test.TestUtils.getRandomId
 import org.briarproject.bramble.util.StringUtils.getRandomString
 import org.briarproject.briar.api.blog.Blog
 import org.briarproject.briar.api.blog.BlogConstants.MAX_BLOG_POST_TEXT_LENGTH
@@ -23,6 +25,7 @@ import org.briarproject.briar.api.blog.MessageType.POST
 import org.briarproject.briar.api.identity.AuthorInfo
 import org.briarproject.briar.api.identity.AuthorInfo.Status.OURSELVES
 import org.briarproject.briar.headless.ControllerTest
+import org.briarproject.briar.headless.json.JsonDict
 import org.junit.jupiter.api.Assertions.assertThrows
 import org.junit.jupiter.api.Test
 
@@ -105,9 +108,10 @@ internal class BlogControllerTest : ControllerTest() {
 
     @Test
     fun testList() {
+        every { ctx.queryParam("limit") } returns null
         every { blogManager.blogs } returns listOf(blog)
         every { blogManager.getPostHeaders(group.id) } returns listOf(header)
-        every { blogManager.getPostText(message.id) } returns text
+        every { blogManager.getPostTexts(listOf(message.id)) } returns mapOf(message.id to text)
         every { ctx.json(listOf(header.output(text))) } returns ctx
 
         controller.listPosts(ctx)
@@ -115,13 +119,80 @@ internal class BlogControllerTest : ControllerTest() {
 
     @Test
     fun testEmptyList() {
+        every { ctx.queryParam("limit") } returns null
         every { blogManager.blogs } returns listOf(blog)
         every { blogManager.getPostHeaders(group.id) } returns emptyList()
+        every { blogManager.getPostTexts(emptyList()) } returns emptyMap()
         every { ctx.json(emptyList<Any>()) } returns ctx
 
         controller.listPosts(ctx)
     }
 
+    @Test
+    fun testListPage() {
+        val dbSlot = slot<DbCallable<List<JsonDict>, DbException>>()
+        val txn = Transaction(Object(), true)
+
+        every { ctx.queryParam("limit") } returns "10"
+        every { ctx.queryParam("before") } returns "$timestamp"
+        every { ctx.queryParam("beforeId") } returns null
+        every { db.transactionWithResult(true, capture(dbSlot)) } answers {
+            dbSlot.captured.call(txn)
+        }
+        every { blogManager.getTimeline(txn, timestamp, null, 10) } returns listOf(header)
+        every {
+            blogManager.getPostTexts(txn, listOf(message.id))
+        } returns mapOf(message.id to text)
+        every { ctx.json(listOf(header.output(text))) } returns ctx
+
+        controller.listPosts(ctx)
+    }
+
+    @Test
+    fun testListPageAfterPost() {
+        val dbSlot = slot<DbCallable<List<JsonDict>, DbException>>()
+        val txn = Transaction(Object(), true)
+        val beforeId = MessageId(getRandomId())
+
+        every { ctx.queryParam("limit") } returns "10"
+        every { ctx.queryParam("before") } returns "$timestamp"
+        every { ctx.queryParam("beforeId") } returns toBase64String(beforeId.bytes)
+        every { db.transactionWithResult(true, capture(dbSlot)) } answers {
+            dbSlot.captured.call(txn)
+        }
+        every { blogManager.getTimeline(txn, timestamp, beforeId, 10) } returns listOf(header)
+        every {
+            blogManager.getPostTexts(txn, listOf(message.id))
+        } returns mapOf(message.id to text)
+        every { ctx.json(listOf(header.output(text))) } returns ctx
+
+        controller.listPosts(ctx)
+    }
+
+    @Test
+    fun testListPageInvalidBeforeId() {
+        every { ctx.queryParam("limit") } returns "10"
+        every { ctx.queryParam("before") } returns "$timestamp"
+        every { ctx.queryParam("beforeId") } returns "foo"
+
+        assertThrows(BadRequestResponse::class.java) { controller.listPosts(ctx) }
+    }
+
+    @Test
+    fun testListPageInvalidLimit() {
+        every { ctx.queryParam("limit") } returns "0"
+
+        assertThrows(BadRequestResponse::class.java) { controller.listPosts(ctx) }
+    }
+
+    @Test
+    fun testListPageInvalidBefore() {
+        every { ctx.queryParam("limit") } returns "10"
+        every { ctx.queryParam("before") } returns "yesterday"
+
+        assertThrows(BadRequestResponse::class.java) { controller.listPosts(ctx) }
+    }
+
     @Test
     fun testOutputBlogPost() {
         val json = """
@@ -8,6 +8,7 @@ import io.mockk.every
 import io.mockk.just
 import io.mockk.mockkStatic
 import io.mockk.runs
+import io.mockk.slot
 import io.mockk.verify
 import org.briarproject.bramble.api.Pair
 import org.briarproject.bramble.api.contact.Contact
@@ -20,9 +21,12 @@ import org.briarproject.bramble.api.contact.event.PendingContactAddedEvent
 import org.briarproject.bramble.api.contact.event.PendingContactRemovedEvent
 import org.briarproject.bramble.api.contact.event.PendingContactStateChangedEvent
 import org.briarproject.bramble.api.db.ContactExistsException
+import org.briarproject.bramble.api.db.DbCallable
+import org.briarproject.bramble.api.db.DbException
 import org.briarproject.bramble.api.db.NoSuchContactException
 import org.briarproject.bramble.api.db.NoSuchPendingContactException
 import org.briarproject.bramble.api.db.PendingContactExistsException
+import org.briarproject.bramble.api.db.Transaction
 import org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_NAME_LENGTH
 import org.briarproject.bramble.api.plugin.event.ContactConnectedEvent
 import org.briarproject.bramble.api.plugin.event.ContactDisconnectedEvent
@@ -30,9 +34,13 @@ import org.briarproject.bramble.identity.output
 import org.briarproject.bramble.test.TestUtils.getPendingContact
 import org.briarproject.bramble.test.TestUtils.getRandomBytes
 import org.briarproject.bramble.util.StringUtils.getRandomString
+import org.briarproject.briar.api.client.MessageTracker.GroupCount
 import org.briarproject.briar.headless.ControllerTest
 import org.briarproject.briar.headless.getFromJson
 import org.briarproject.briar.headless.json.JsonDict
+import org.eclipse.jetty.http.HttpStatus.NOT_MODIFIED_304
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotEquals
 import org.junit.jupiter.api.Assertions.assertNotNull
 import org.junit.jupiter.api.Assertions.assertThrows
 import org.junit.jupiter.api.Test
@@ -46,14 +54,21 @@ internal class ContactControllerTest : ControllerTest() {
     private val controller = ContactControllerImpl(
         contactManager,
         conversationManager,
+        db,
         objectMapper,
         webSocketController,
         connectionRegistry
     )
 
+    private val txn = Transaction(Object(), true)
+
     @Test
     fun testEmptyContactList() {
-        every { contactManager.contacts } returns emptyList<Contact>()
+        expectTransaction()
+        every { contactManager.getContacts(txn) } returns emptyList<Contact>()
+        every { conversationManager.getGroupCounts(txn, emptyList()) } returns emptyMap()
+        every { ctx.header(HEADER_ETAG, any()) } returns ctx
+        every { ctx.header(HEADER_IF_NONE_MATCH) } returns null
         every { ctx.json(emptyList<Any>()) } returns ctx
         controller.list(ctx)
     }
@@ -61,12 +76,55 @@ internal class ContactControllerTest : ControllerTest() {
     @Test
     fun testList() {
         val connected = Random.nextBoolean()
-        every { contactManager.contacts } returns listOf(contact)
-        every { conversationManager.getGroupCount(contact.id).latestMsgTime } returns timestamp
-        every { connectionRegistry.isConnected(contact.id) } returns connected
-        every { conversationManager.getGroupCount(contact.id).unreadCount } returns unreadCount
+        expectListContact(connected)
+        every { ctx.header(HEADER_ETAG, any()) } returns ctx
+        every { ctx.header(HEADER_IF_NONE_MATCH) } returns null
+        every { ctx.json(listOf(contact.output(timestamp, connected, unreadCount))) } returns ctx
+        controller.list(ctx)
+    }
+
+    @Test
+    fun testListIsNotSentIfVersionIsUnchanged() {
+        val connected = Random.nextBoolean()
+        val version = slot<String>()
+
+        // The first request returns the list and its version
+        expectListContact(connected)
+        every { ctx.header(HEADER_ETAG, capture(version)) } returns ctx
+        every { ctx.header(HEADER_IF_NONE_MATCH) } returns null
         every { ctx.json(listOf(contact.output(timestamp, connected, unreadCount))) } returns ctx
         controller.list(ctx)
+
+        // The second request has the same version, so the list isn't sent
+        val oldVersion = version.captured
+        every { ctx.header(HEADER_IF_NONE_MATCH) } returns oldVersion
+        every { ctx.status(NOT_MODIFIED_304) } returns ctx
+        controller.list(ctx)
+        verify(exactly = 1) { ctx.json(any()) }
+        assertEquals(oldVersion, version.captured)
+
+        // If the list changes, so does its version
+        every { connectionRegistry.isConnected(contact.id) } returns !connected
+        every { ctx.json(listOf(contact.output(timestamp, !connected, unreadCount))) } returns ctx
+        controller.list(ctx)
+        verify(exactly = 2) { ctx.json(any()) }
+        assertNotEquals(oldVersion, version.captured)
+    }
+
+    private fun expectTransaction() {
+        val dbSlot = slot<DbCallable<List<JsonDict>, DbException>>()
+        every { db.transactionWithResult(true, capture(dbSlot)) } answers {
+            dbSlot.captured.call(txn)
+        }
+    }
+
+    private fun expectListContact(connected: Boolean) {
+        expectTransaction()
+        every { contactManager.getContacts(txn) } returns listOf(contact)
+        every {
+            conversationManager.getGroupCounts(txn, listOf(contact))
+        } returns mapOf(contact.id to GroupCount(1, unreadCount, timestamp))
+        every { connectionRegistry.isConnected(contact.id) } returns connected
     }
 
     @Test
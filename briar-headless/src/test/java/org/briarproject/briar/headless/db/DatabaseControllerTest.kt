@@ -0,0 +1,117 @@
+package org.briarproject.briar.headless.db
+
+import io.javalin.http.BadRequestResponse
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.verify
+import org.briarproject.bramble.api.db.QueryMetrics
+import org.briarproject.bramble.api.db.QueryStats
+import org.briarproject.bramble.api.db.QueryStats.HISTOGRAM_BUCKETS
+import org.briarproject.bramble.api.db.SlowQuery
+import org.briarproject.briar.headless.ControllerTest
+import org.briarproject.briar.headless.json.JsonDict
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertThrows
+import org.junit.jupiter.api.Test
+
+internal class DatabaseControllerTest : ControllerTest() {
+
+    private val queryMetrics = mockk<QueryMetrics>(relaxed = true)
+
+    private val controller = DatabaseControllerImpl(queryMetrics, objectMapper)
+
+    private val histogram = LongArray(HISTOGRAM_BUCKETS).apply { this[3] = 2 }
+    private val fastStats = QueryStats(2, 2, 10, 6, histogram)
+    private val slowStats = QueryStats(2, 0, 1000, 999, histogram)
+    private val slowQuery = SlowQuery("getContacts(T)", 123, 456, 7)
+
+    @Test
+    fun getQueryMetrics() {
+        every { queryMetrics.isEnabled } returns true
+        every { queryMetrics.slowQueryThresholdMs } returns 100
+        every { queryMetrics.queryStats } returns
+            mapOf("getMessage(T, MessageId)" to fastStats, "getContacts(T)" to slowStats)
+        every { queryMetrics.slowQueries } returns listOf(slowQuery)
+        val output = queryMetrics.output()
+        every { ctx.json(output) } returns ctx
+
+        controller.getQueryMetrics(ctx)
+    }
+
+    @Test
+    fun queriesAreSortedByTotalTime() {
+        every { queryMetrics.queryStats } returns
+            mapOf("getMessage(T, MessageId)" to fastStats, "getContacts(T)" to slowStats)
+        every { queryMetrics.slowQueries } returns emptyList()
+
+        @Suppress("UNCHECKED_CAST")
+        val queries = queryMetrics.output()["queries"] as List<JsonDict>
+        assertEquals("getContacts(T)", queries[0]["method"])
+        assertEquals("getMessage(T, MessageId)", queries[1]["method"])
+    }
+
+    @Test
+    fun setQueryMetrics() {
+        every { ctx.body() } returns
+            """{"enabled": true, "slowQueryThresholdMs": 50, "reset": true}"""
+        every { ctx.json(any()) } returns ctx
+
+        controller.setQueryMetrics(ctx)
+
+        verify {
+            queryMetrics.slowQueryThresholdMs = 50
+            queryMetrics.reset()
+            queryMetrics.isEnabled = true
+        }
+    }
+
+    @Test
+    fun setQueryMetricsWithoutChanges() {
+        every { ctx.body() } returns "{}"
+        every { ctx.json(any()) } returns ctx
+
+        controller.setQueryMetrics(ctx)
+
+        verify(exactly = 0) {
+            queryMetrics.isEnabled = any()
+            queryMetrics.slowQueryThresholdMs = any()
+            queryMetrics.reset()
+        }
+    }
+
+    @Test
+    fun setQueryMetricsInvalidEnabled() {
+        every { ctx.body() } returns """{"enabled": "yes"}"""
+
+        assertThrows(BadRequestResponse::class.java) { controller.setQueryMetrics(ctx) }
+    }
+
+    @Test
+    fun setQueryMetricsNegativeThreshold() {
+        every { ctx.body() } returns """{"slowQueryThresholdMs": -1}"""
+
+        assertThrows(BadRequestResponse::class.java) { controller.setQueryMetrics(ctx) }
+    }
+
+    @Test
+    fun setQueryMetricsFractionalThreshold() {
+        every { ctx.body() } returns """{"slowQueryThresholdMs": 1.5}"""
+
+        assertThrows(BadRequestResponse::class.java) { controller.setQueryMetrics(ctx) }
+    }
+
+    @Test
+    fun setQueryMetricsNoJson() {
+        every { ctx.body() } returns "foo"
+
+        assertThrows(BadRequestResponse::class.java) { controller.setQueryMetrics(ctx) }
+    }
+
+    @Test
+    fun setQueryMetricsJsonArray() {
+        every { ctx.body() } returns "[]"
+
+        assertThrows(BadRequestResponse::class.java) { controller.setQueryMetrics(ctx) }
+    }
+
+}
@@ -11,9 +11,15 @@ import io.mockk.just
 import io.mockk.mockk
 import io.mockk.mockkStatic
 import io.mockk.runs
+import io.mockk.slot
 import org.bouncycastle.util.encoders.Base64
+import org.briarproject.bramble.api.Consumer
 import org.briarproject.bramble.api.contact.ContactId
+import org.briarproject.bramble.api.db.AsyncTransactionManager
+import org.briarproject.bramble.api.db.DbCallable
+import org.briarproject.bramble.api.db.DbException
 import org.briarproject.bramble.api.db.NoSuchContactException
+import org.briarproject.bramble.api.db.Transaction
 import org.briarproject.bramble.api.sync.MessageId
 import org.briarproject.bramble.api.sync.event.MessagesAckedEvent
 import org.briarproject.bramble.api.sync.event.MessagesSentEvent
@@ -40,12 +46,14 @@ import org.briarproject.briar.headless.json.JsonDict
 import org.junit.jupiter.api.Assertions.assertEquals
 import org.junit.jupiter.api.Assertions.assertThrows
 import org.junit.jupiter.api.Test
+import java.util.concurrent.Executor
 import kotlin.random.Random
 
 internal class MessagingControllerImplTest : ControllerTest() {
 
     private val messagingManager = mockk<MessagingManager>()
     private val privateMessageFactory = mockk<PrivateMessageFactory>()
+    private val asyncDb = mockk<AsyncTransactionManager>()
     private val dbExecutor = ImmediateExecutor()
 
     private val controller = MessagingControllerImpl(
@@ -54,6 +62,7 @@ internal class MessagingControllerImplTest : ControllerTest() {
         privateMessageFactory,
         contactManager,
         webSocketController,
+        asyncDb,
         dbExecutor,
         objectMapper,
         clock
@@ -79,7 +88,9 @@ internal class MessagingControllerImplTest : ControllerTest() {
     fun list() {
         expectGetContact()
         every { conversationManager.getMessageHeaders(contact.id) } returns listOf(header)
-        every { messagingManager.getMessageText(message.id) } returns text
+        every {
+            messagingManager.getMessageTexts(listOf(message.id))
+        } returns mapOf(message.id to text)
         every { ctx.json(listOf(header.output(contact.id, text))) } returns ctx
 
         controller.list(ctx)
@@ -94,6 +105,7 @@ internal class MessagingControllerImplTest : ControllerTest() {
 
         expectGetContact()
         every { conversationManager.getMessageHeaders(contact.id) } returns listOf(request)
+        every { messagingManager.getMessageTexts(emptyList()) } returns emptyMap()
         every { ctx.json(listOf(request.output(contact.id))) } returns ctx
 
         controller.list(ctx)
@@ -104,6 +116,7 @@ internal class MessagingControllerImplTest : ControllerTest() {
         every { ctx.pathParam("contactId") } returns contact.id.int.toString()
         every { contactManager.getContact(contact.id) } returns contact
         every { conversationManager.getMessageHeaders(contact.id) } returns emptyList()
+        every { messagingManager.getMessageTexts(emptyList()) } returns emptyMap()
         every { ctx.json(emptyList<Any>()) } returns ctx
 
         controller.list(ctx)
@@ -239,8 +252,19 @@ internal class MessagingControllerImplTest : ControllerTest() {
     @Test
     fun privateMessageEvent() {
         val event = PrivateMessageReceivedEvent(header, contact.id)
+        val txn = Transaction(Object(), true)
+        val taskSlot = slot<DbCallable<Map<MessageId, String>, DbException>>()
+        val resultSlot = slot<Consumer<Map<MessageId, String>>>()
 
-        every { messagingManager.getMessageText(message.id) } returns text
+        every {
+            asyncDb.transactionAsync(true, capture(taskSlot), dbExecutor, capture(resultSlot), any())
+        } answers {
+            resultSlot.captured.accept(taskSlot.captured.call(txn))
+            mockk()
+        }
+        every {
+            messagingManager.getMessageTexts(txn, listOf(message.id))
+        } returns mapOf(message.id to text)
         every {
             webSocketController.sendEvent(
                 EVENT_CONVERSATION_MESSAGE,
@@ -251,6 +275,71 @@ internal class MessagingControllerImplTest : ControllerTest() {
         controller.eventOccurred(event)
     }
 
+    @Test
+    fun privateMessageEventsAreSentInOrder() {
+        // Run tasks on a queue that is drained by the test, like the single
+        // thread of the database executor
+        val queue = ArrayDeque<Runnable>()
+        val dbExecutor = Executor { r -> queue.add(r) }
+        val controller = MessagingControllerImpl(
+            messagingManager,
+            conversationManager,
+            privateMessageFactory,
+            contactManager,
+            webSocketController,
+            asyncDb,
+            dbExecutor,
+            objectMapper,
+            clock
+        )
+        val header1 = PrivateMessageHeader(
+            MessageId(getRandomId()), group.id, timestamp + 1, true, true,
+            true, true, true, emptyList(), NO_AUTO_DELETE_TIMER
+        )
+        val text1 = getRandomString(5)
+        val event = PrivateMessageReceivedEvent(header, contact.id)
+        val event1 = PrivateMessageReceivedEvent(header1, contact.id)
+        val txn = Transaction(Object(), true)
+        val sent = ArrayList<JsonDict>()
+
+        every {
+            asyncDb.transactionAsync(
+                true,
+                any<DbCallable<Map<MessageId, String>, DbException>>(),
+                dbExecutor,
+                any(),
+                any()
+            )
+        } answers {
+            val task = arg<DbCallable<Map<MessageId, String>, DbException>>(1)
+            val resultHandler = arg<Consumer<Map<MessageId, String>>>(3)
+            // Run the task, then pass the result to the handler on the
+            // executor the controller chose
+            dbExecutor.execute {
+                val result = task.call(txn)
+                arg<Executor>(2).execute { resultHandler.accept(result) }
+            }
+            mockk()
+        }
+        every {
+            messagingManager.getMessageTexts(txn, listOf(message.id))
+        } returns mapOf(message.id to text)
+        every {
+            messagingManager.getMessageTexts(txn, listOf(header1.id))
+        } returns mapOf(header1.id to text1)
+        every {
+            webSocketController.sendEvent(EVENT_CONVERSATION_MESSAGE, any())
+        } answers { sent.add(secondArg()) }
+
+        // Two events arrive back to back, before either text is loaded
+        controller.eventOccurred(event)
+        controller.eventOccurred(event1)
+        assertEquals(0, sent.size)
+
+        while (queue.isNotEmpty()) queue.removeFirst().run()
+        assertEquals(listOf(event.output(text), event1.output(text1)), sent)
+    }
+
     @Test
     fun testOutputMessagesAckedEvent() {
         val messageId1 = MessageId(getRandomId())